@@ -0,0 +1,164 @@
+package org.varavin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Манифест кэша подготовленных данных. Хранит ключи стадий (хэши входного CSV, конфигурации признаков и кода),
+ * границы разбиения, количество строк и контрольные суммы CRC32C каждого файла кэша.
+ *
+ * Стадии: samples (признаки и метки до нормализации) зависит от CSV, конфигурации признаков и кода;
+ * split (разбиение, нормализация и её статистика feature_stats) дополнительно зависит от долей train/val.
+ * При несовпадении ключа пересобирается только устаревшая стадия и всё, что от неё зависит.
+ */
+public class CacheManifest {
+    private static final Logger log = LoggerFactory.getLogger(CacheManifest.class);
+
+    private static final String FILE_NAME = "cache_manifest.properties";
+
+    public static final String SAMPLES_KEY = "samples.key";
+    public static final String SPLIT_KEY = "split.key";
+
+    private final Properties properties;
+
+    public CacheManifest() {
+        this.properties = new Properties();
+    }
+
+    private CacheManifest(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static CacheManifest load(File cacheDir) {
+        File file = new File(cacheDir, FILE_NAME);
+        if (!file.exists()) return null;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            Properties properties = new Properties();
+            properties.load(reader);
+            return new CacheManifest(properties);
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать манифест кэша: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Записывает манифест атомарно (через временный файл). Манифест пишется последним, поэтому
+     * прерванная запись кэша никогда не выглядит как валидная.
+     */
+    public void save(File cacheDir) throws IOException {
+        File tmp = new File(cacheDir, FILE_NAME + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            properties.store(writer, "AITrader data cache manifest");
+        }
+        Files.move(tmp.toPath(), new File(cacheDir, FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public boolean matches(String keyName, String expectedKey) {
+        return expectedKey.equals(properties.getProperty(keyName));
+    }
+
+    public void put(String name, String value) {
+        properties.setProperty(name, value);
+    }
+
+    public void putInt(String name, long value) {
+        properties.setProperty(name, Long.toString(value));
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public void recordFile(String fileName, long size, long crc) {
+        properties.setProperty("file." + fileName + ".size", Long.toString(size));
+        properties.setProperty("file." + fileName + ".crc32c", Long.toHexString(crc));
+    }
+
+    public boolean verifyFile(String fileName, long size, long crc) {
+        return Long.toString(size).equals(properties.getProperty("file." + fileName + ".size"))
+                && Long.toHexString(crc).equals(properties.getProperty("file." + fileName + ".crc32c"));
+    }
+
+    public boolean hasFile(String fileName, long size) {
+        return Long.toString(size).equals(properties.getProperty("file." + fileName + ".size"));
+    }
+
+    public void removeStage(String prefix) {
+        properties.stringPropertyNames().stream()
+                .filter(name -> name.startsWith(prefix) || name.startsWith("file." + prefix))
+                .forEach(properties::remove);
+    }
+
+    // --- Хэши для ключей стадий ---
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String sha256(String... parts) {
+        MessageDigest digest = newDigest();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Хэш байткода класса вместе с его вложенными классами (у каждого свой .class-файл): изменение кода
+     * подготовки данных автоматически инвалидирует кэш.
+     */
+    public static String classHash(Class<?> type) {
+        MessageDigest digest = newDigest();
+        try {
+            if (!hashClassFile(type, digest)) return "unknown";
+        } catch (IOException e) {
+            return "unknown";
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static boolean hashClassFile(Class<?> type, MessageDigest digest) throws IOException {
+        String name = type.getName();
+        try (InputStream in = type.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in == null) return false;
+            digest.update(in.readAllBytes());
+        }
+        Class<?>[] nested = type.getDeclaredClasses();
+        Arrays.sort(nested, Comparator.comparing(Class::getName));
+        for (Class<?> member : nested) {
+            if (!hashClassFile(member, digest)) return false;
+        }
+        return true;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.varavin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.archive.CandleArchive;
+import org.varavin.entity.BarColumns;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Сборка сжатого архива свечей из CSV в формате исходного файла.
+ * Аргументы: [файл архива] ТИКЕР=файл.csv ... - без аргументов архивируется Config.CSV_FILE_NAME как GAZP.
+ */
+public class CandleArchiver {
+    private static final Logger log = LoggerFactory.getLogger(CandleArchiver.class);
+
+    public static void main(String[] args) throws Exception {
+        File archiveFile = new File(args.length > 0 ? args[0] : Config.ARCHIVE_FILE_NAME);
+        String[] sources = args.length > 1
+                ? Arrays.copyOfRange(args, 1, args.length)
+                : new String[]{"GAZP=" + Config.CSV_FILE_NAME};
+        try {
+            long csvBytes = 0;
+            try (Stage stage = Metrics.stage("archive.write");
+                 CandleArchive.Writer writer = CandleArchive.writer(archiveFile, Config.ARCHIVE_CHUNK_BARS)) {
+                long bars = 0;
+                for (String source : sources) {
+                    int separator = source.indexOf('=');
+                    if (separator <= 0) {
+                        throw new IllegalArgumentException("Ожидается ТИКЕР=файл.csv: " + source);
+                    }
+                    File csv = new File(source.substring(separator + 1));
+                    BarColumns columns = DataManager.loadCsvColumns(csv);
+                    writer.add(source.substring(0, separator), columns);
+                    bars += columns.size();
+                    csvBytes += csv.length();
+                    log.info("{}: {} баров", source.substring(0, separator), columns.size());
+                }
+                writer.commit();
+                stage.items(bars);
+            }
+            log.info(String.format("Архив %s: %d байт, CSV %d байт (в %.1f раза меньше)",
+                    archiveFile, archiveFile.length(), csvBytes, (double) csvBytes / Math.max(1, archiveFile.length())));
+        } finally {
+            Metrics.logSummary();
+        }
+    }
+}
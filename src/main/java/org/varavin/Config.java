@@ -1,5 +1,7 @@
 package org.varavin;
 
+import org.varavin.features.FeatureRegistry;
+
 public class Config {
 
     // --- Параметры данных и кэширования ---
@@ -7,30 +9,48 @@ public class Config {
     public static final String CACHE_DIR = "data_cache_trading";
     // --- ИЗМЕНЕНИЕ: Новая версия данных для простого набора признаков ---
     public static final String DATA_VERSION = "v9_simple_features";
+    // Сжатый архив свечей по тикерам (CandleArchiver, DataManager.loadArchivedBars)
+    public static final String ARCHIVE_FILE_NAME = "candles.archive";
+    public static final int ARCHIVE_CHUNK_BARS = 4096;                // баров тикера в одном сжатом чанке
 
     // --- Выбор типа модели ---
     public static final String MODEL_TYPE = "REGRESSION";
 
     // --- Параметры признаков и временных рядов ---
+    public static final int BAR_MINUTES = 5;                     // длительность бара исходной серии
+    // Признаки старших таймфреймов (TimeframeResampler); включение меняет число входов сети - модель нужно переобучить
+    public static final boolean MULTI_TIMEFRAME_FEATURES = false;
+    public static final String HIGHER_TIMEFRAMES = "15m,1h,1d";
     public static final int TIME_STEPS = 30;
-    // --- ИЗМЕНЕНИЕ: Уменьшаем количество признаков до 9 ---
-    public static final int NUM_FEATURES = 9;
-    public static final int NUM_OUTPUTS = 2;
+    // Количество признаков определяется реестром признаков (features.FeatureRegistry)
+    public static final int NUM_FEATURES = FeatureRegistry.defaultRegistry().size();
     public static final int MAX_FUTURE_TICKS = 12;
+    // Горизонты меток (в барах); первый - торговый горизонт, по нему TradingBot читает выходы 0 и 1
+    public static final int[] LABEL_HORIZONS = {MAX_FUTURE_TICKS};
+    public static final int NUM_OUTPUTS = 2 * LABEL_HORIZONS.length;
     public static final int MAX_INDICATOR_PERIOD = 52;
 
     // --- Параметры Нейронной сети ---
     public static final String MODEL_DIR = "models_trading";
     public static final boolean IS_TRAINING_MODE = false; // Установите true для переобучения
     public static final boolean LOAD_EXISTING_MODEL_FOR_TRAINING = false;
+    public static final boolean TRAINING_UI_ENABLED = false; // веб-интерфейс DL4J (UIServer + StatsListener) вместо лёгкой телеметрии
     public static final double INITIAL_LEARNING_RATE = 5e-4;
     public static final double L2_REGULARIZATION = 1e-4;
     public static final double DROPOUT_RATE = 0.2;
     public static final int LSTM_LAYER_SIZE = 64;
     public static final int DENSE_LAYER_SIZE = 48;
     public static final int BATCH_SIZE = 64;
+    public static final boolean SHUFFLE_TRAIN_SAMPLES = false; // перемешивание обучающих окон по индексам на каждой эпохе
     public static final int EARLY_STOPPING_PATIENCE = 20;
     public static final int MAX_EPOCHS = 300;
+    // Дообучение (NeuralNetwork finetune): несколько эпох на свежих окнах вместо полного обучения
+    public static final int FINE_TUNE_EPOCHS = 5;
+    public static final int FINE_TUNE_RECENT_SAMPLES = 2000;       // последних окон в обучении
+    public static final double FINE_TUNE_REPLAY_RATIO = 1.0;       // старых окон на одно свежее
+    public static final int FINE_TUNE_VALIDATION_SAMPLES = 750;    // последних окон на валидацию
+    public static final double FINE_TUNE_MIN_IMPROVEMENT = 0.0;    // относительное снижение потерь для замены модели
+    public static final long FINE_TUNE_SEED = 12345L;
     public static final int CNN_N_FILTERS = 80;
     public static final int CNN_KERNEL_SIZE = 5;
     public static final double LR_DECAY_RATE = 0.98;
@@ -41,6 +61,94 @@ public class Config {
     public static final int MINIMUM_LOT_SIZE = 10;
     public static final boolean ALLOW_SHORT_TRADING = true;
 
+    // --- Модель издержек исполнения в бэктесте ---
+    public static final String SLIPPAGE_MODEL = "ATR"; // NONE, TICKS, ATR, VOLUME
+    public static final double TICK_SIZE = 0.01;
+    public static final int SLIPPAGE_TICKS = 2;
+    public static final double SLIPPAGE_ATR_FRACTION = 0.05;
+    public static final double SLIPPAGE_VOLUME_IMPACT = 0.01;
+    public static final boolean FILL_ON_NEXT_BAR_OPEN = true;
+    public static final double MAX_VOLUME_PARTICIPATION = 0.1; // 0 - без ограничения
+
+    // --- Оптимизация параметров и отсечение безнадёжных прогонов ---
+    public static final int OPTIMIZER_MIN_TRADES = 10;      // меньше сделок - результат не учитывается
+    public static final int OPTIMIZER_TOP_N = 10;           // размер таблицы лидеров
+    public static final boolean OPTIMIZER_PRUNING = true;
+    public static final double PRUNE_MAX_DRAWDOWN = 0.3;    // просадка баланса от пика, после которой прогон прекращается; 0 - выкл.
+
+    // --- Графики отчёта (ChartRenderer) ---
+    public static final boolean REPORT_CHARTS = true;       // рисовать графики после перебора
+    public static final String REPORT_DIR = "reports";
+    public static final int REPORT_WIDTH = 1600;            // размер PNG, пикселей
+    public static final int REPORT_HEIGHT = 800;
+    public static final int REPORT_MAX_POINTS = 4000;       // точек ряда после прореживания, порядка ширины графика
+    public static final int REPORT_THREADS = 2;             // потоков отрисовки; 0 - по числу ядер
+
+    // --- Проверка устойчивости методом Монте-Карло (RobustnessTest) ---
+    public static final int MONTE_CARLO_RUNS = 10_000;              // прогонов на каждый сценарий
+    public static final long MONTE_CARLO_SEED = 42L;
+    public static final double MONTE_CARLO_CONFIDENCE = 0.90;       // покрытие доверительного интервала
+    public static final int MONTE_CARLO_BLOCK_LENGTH = 24;          // баров в блоке блочного бутстрапа
+    public static final int MONTE_CARLO_MAX_ENTRY_DELAY = 2;        // наибольшая задержка сигнала, баров
+    public static final double MONTE_CARLO_PREDICTION_NOISE = 0.25; // СКО шума предсказаний в долях их СКО на участке
+
+    // --- Память (MemoryPlanner), если лимиты не заданы флагами JVM ---
+    public static final double OFF_HEAP_RAM_FRACTION = 0.6;         // доля памяти машины сверх кучи под ND4J
+    public static final double MEMORY_SAFETY_FACTOR = 1.5;          // запас к оценке памяти обучения и инференса
+    public static final long MEMORY_SAMPLE_INTERVAL_MS = 10;        // период замера пиков памяти по стадиям
+
+    // --- Перестановочная важность признаков (FeatureImportance) ---
+    public static final int IMPORTANCE_REPEATS = 10;                // перестановок с разными зёрнами на каждый признак
+    public static final boolean IMPORTANCE_PER_TIME_STEP = false;   // переставлять каждый шаг окна отдельно
+    public static final int IMPORTANCE_BATCH_SIZE = 1024;           // окон в одном прогоне модели
+    public static final int IMPORTANCE_THREADS = 0;                 // 0 - по числу ядер
+    public static final long IMPORTANCE_SEED = 7L;
+
+    // --- Кросс-валидация по времени с очисткой и эмбарго (CrossValidator) ---
+    public static final int CV_FOLDS = 5;
+    public static final int CV_EPOCHS = 20;                          // фиксированное число эпох на блок, без ранней остановки
+    public static final int CV_EXTRA_EMBARGO_BARS = 0;               // баров эмбарго сверх горизонта метки и окна
+    public static final int CV_THREADS = 0;                          // 0 - по числу ядер, не больше, чем помещается в память
+    public static final long CV_SEED = 12345L;
+
+    // --- Распределённый перебор (ParameterOptimizer coordinator / worker) ---
+    public static final int DISTRIBUTED_PORT = 7077;
+    public static final int DISTRIBUTED_UNIT_SIZE = 256;            // наборов параметров в одной единице работы
+    public static final int DISTRIBUTED_UNIT_TIMEOUT_MS = 600_000;  // после этого воркер считается упавшим
+    public static final int DISTRIBUTED_MAX_ATTEMPTS = 3;           // попыток на единицу работы
+    public static final int DISTRIBUTED_CONNECT_RETRIES = 30;       // попыток воркера подключиться, раз в секунду
+
+    // --- Онлайн-скоринг универсума инструментов (LiveScoring) ---
+    public static final int LIVE_HISTORY_BARS = 512;         // баров истории на инструмент для пересчёта признаков
+    public static final long SCORING_DEADLINE_MS = 500;      // бюджет на сборку батча от закрытия бара; опоздавшие пропускаются
+    public static final int REPLAY_INSTRUMENTS = 100;        // инструментов в воспроизведении CSV по умолчанию
+    public static final long REPLAY_BAR_PAUSE_MS = 0;        // пауза между барами воспроизведения; 0 - без пауз
+
+    // --- Конвейер событий (TradingPipeline) ---
+    public static final int PIPELINE_RING_SIZE = 4096;              // слотов кольцевого буфера, степень двойки
+    public static final String PIPELINE_WAIT_STRATEGY = "yield";    // busy-spin, yield или park
+    public static final int PIPELINE_MAX_INFERENCE_BATCH = 64;      // событий на один прямой проход сети
+
+    // --- Журнал сессии конвейера (JournalWriter) и его воспроизведение (SessionReplay) ---
+    public static final boolean JOURNAL_ENABLED = true;
+    public static final String JOURNAL_DIR = "journal";
+    public static final int JOURNAL_SEGMENT_BYTES = 64 << 20;        // размер отображаемого в память сегмента файла
+    public static final int REPLAY_MAX_REPORTED_DIFFS = 20;          // расхождений воспроизведения с подробностями в отчёте
+
+    // --- Предторговые риск-лимиты (RiskManager); денежные - доли капитала ---
+    public static final long RISK_MAX_POSITION = 1_000_000;             // штук на инструмент
+    public static final double RISK_MAX_INSTRUMENT_NOTIONAL = 1.0;      // стоимость позиции по инструменту
+    public static final double RISK_MAX_GROSS_NOTIONAL = 2.0;           // сумма стоимостей позиций портфеля
+    public static final double RISK_MAX_CORRELATED_EXPOSURE = 1.0;      // чистая позиция группы коррелированных инструментов
+    public static final double RISK_MAX_DAILY_LOSS = 0.05;              // от капитала на начало дня
+    public static final int RISK_MAX_ORDERS_PER_SECOND = 20;
+
+    // --- Параметры исполнения (Tinkoff Invest API) ---
+    public static final String TINKOFF_TOKEN_ENV = "TINKOFF_TOKEN";
+    public static final String TINKOFF_ACCOUNT_ID = "";
+    public static final boolean TINKOFF_USE_SANDBOX = true;
+    public static final String INSTRUMENT_FIGI = "BBG004730RP0"; // GAZP
+
     // --- Пороги для ADX фильтра ---
     public static final double ADX_TREND_THRESHOLD = 20.0;
 
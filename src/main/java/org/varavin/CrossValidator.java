@@ -0,0 +1,302 @@
+package org.varavin;
+
+import org.deeplearning4j.earlystopping.scorecalc.DataSetLossCalculator;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.buffer.util.DataTypeUtil;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.ta4j.core.BarSeries;
+import org.ta4j.core.indicators.ATRIndicator;
+import org.ta4j.core.indicators.EMAIndicator;
+import org.ta4j.core.indicators.adx.ADXIndicator;
+import org.ta4j.core.indicators.helpers.ClosePriceIndicator;
+import org.varavin.backtest.BacktestSeries;
+import org.varavin.backtest.BatchSimulator;
+import org.varavin.backtest.ExecutionCostModel;
+import org.varavin.backtest.PredictionCache;
+import org.varavin.entity.BotParameters;
+import org.varavin.entity.WindowDataSetIterator;
+import org.varavin.entity.WindowedDataSet;
+import org.varavin.features.FeatureRegistry;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * K-блочная кросс-валидация по времени с очисткой (purging) и эмбарго (López de Prado). Примеры делятся на k подряд
+ * идущих тестовых блоков; модель блока учится на всех остальных примерах, кроме тех, что пересекаются с тестом:
+ * <ul>
+ *   <li>очистка перед тестом - метка примера смотрит на горизонт H баров вперёд, поэтому обучающие примеры, чья метка
+ *       доходит до первого окна теста (конец окна + H >= начало первого окна теста), удаляются;</li>
+ *   <li>эмбарго после теста - окно примера охватывает TIME_STEPS баров назад, поэтому обучающие примеры, чьё окно
+ *       начинается не позже последнего бара, на который смотрят метки теста, удаляются.</li>
+ * </ul>
+ * Оба зазора - H + TIME_STEPS - 1 баров (H - наибольший горизонт LABEL_HORIZONS), плюс CV_EXTRA_EMBARGO_BARS
+ * после теста на автокорреляцию признаков. Зазоры считаются по барам концов окон, а не по номерам примеров.
+ *
+ * Нормализация своя у каждого блока: среднее и std признаков считаются по его обучающим примерам (после очистки
+ * и эмбарго) из ненормализованных признаков DataManager. Общая статистика обучающего среза DataManager захватила бы
+ * большую часть тестовых блоков. Издержки бэктеста блока (проскальзывание, доля объёма) берутся по ATR и объёму
+ * тех баров, на которые приходятся его шаги.
+ *
+ * Модели блоков учатся одновременно в своих потоках, число потоков ограничено памятью вне кучи по {@link MemoryPlanner}.
+ * На нескольких устройствах (CUDA) поток блока привязывается к устройству по кругу. Каждый блок держит свою
+ * нормализованную копию матрицы баров; выборки обучения и теста - представления с индексами окон
+ * ({@link WindowedDataSet#select}).
+ * Аргументы: [блоков] [эпох].
+ */
+public class CrossValidator {
+    private static final Logger log = LoggerFactory.getLogger(CrossValidator.class);
+
+    /** Тестовый блок [testFrom, testTo) в номерах примеров и размеры его обучающей выборки. */
+    public record Fold(int index, int testFrom, int testTo, int trainSamples, int purged, int embargoed) {
+    }
+
+    /** Потери на тестовом блоке и бэктест на его предсказаниях. */
+    public record FoldResult(Fold fold, double validationLoss, double finalBalance, double profitFactor, int trades,
+                             double maxDrawdown, long elapsedMillis) {
+    }
+
+    /** Среднее и несмещённая дисперсия по блокам. */
+    public record Stat(double mean, double variance) {
+        static Stat of(double[] values) {
+            int n = values.length;
+            double mean = Arrays.stream(values).average().orElse(Double.NaN);
+            double sq = 0;
+            for (double v : values) sq += (v - mean) * (v - mean);
+            return new Stat(mean, n > 1 ? sq / (n - 1) : 0.0);
+        }
+    }
+
+    public record Report(List<FoldResult> folds, Stat validationLoss, Stat finalBalance, Stat profitFactor,
+                         Stat maxDrawdown, int threads, long elapsedMillis) {
+    }
+
+    public static void main(String[] args) {
+        int folds = args.length > 0 ? Integer.parseInt(args[0]) : Config.CV_FOLDS;
+        int epochs = args.length > 1 ? Integer.parseInt(args[1]) : Config.CV_EPOCHS;
+        try {
+            MemoryPlanner.configure();
+            DataTypeUtil.setDTypeForContext(DataType.FLOAT);
+            if (DataManager.prepareData(Config.BATCH_SIZE) == null) {
+                throw new IllegalStateException("Не удалось подготовить данные");
+            }
+            BotParameters parameters = new BotParameters(Config.ATR_STOP_MULTIPLIER, Config.FIXED_RISK_REWARD_RATIO,
+                    Config.SIGNAL_THRESHOLD, Config.RISK_PER_TRADE_PERCENT);
+            WindowedDataSet samples = DataManager.loadRawSamples();
+            if (samples == null) {
+                throw new IllegalStateException("Нет кэша ненормализованных признаков");
+            }
+            Report report = run(samples, folds, epochs, parameters);
+
+            for (FoldResult r : report.folds()) {
+                Fold f = r.fold();
+                log.info(String.format("Блок %d: тест [%d, %d), обучение %d (очищено %d, эмбарго %d) | потери %.5f | "
+                                + "баланс %.2f | ПФ %.2f | сделок %d | просадка %.1f%% | %d мс",
+                        f.index(), f.testFrom(), f.testTo(), f.trainSamples(), f.purged(), f.embargoed(),
+                        r.validationLoss(), r.finalBalance(), r.profitFactor(), r.trades(), r.maxDrawdown() * 100,
+                        r.elapsedMillis()));
+            }
+            log.info(String.format("Итог %d блоков, %d потоков, %d мс: потери %.5f (дисперсия %.3g) | баланс %.2f (%.3g) | "
+                            + "ПФ %.3f (%.3g) | просадка %.1f%% (%.3g)",
+                    report.folds().size(), report.threads(), report.elapsedMillis(),
+                    report.validationLoss().mean(), report.validationLoss().variance(),
+                    report.finalBalance().mean(), report.finalBalance().variance(),
+                    report.profitFactor().mean(), report.profitFactor().variance(),
+                    report.maxDrawdown().mean() * 100, report.maxDrawdown().variance()));
+        } finally {
+            Metrics.logSummary();
+        }
+    }
+
+    /** all - примеры с ненормализованными признаками: каждый блок нормализует их по своей обучающей выборке. */
+    public static Report run(WindowedDataSet all, int folds, int epochs, BotParameters parameters) {
+        long start = System.nanoTime();
+        int horizon = Arrays.stream(Config.LABEL_HORIZONS).max().orElse(Config.MAX_FUTURE_TICKS);
+        int purgeBars = horizon + all.timeSteps() - 1;
+        int embargoBars = purgeBars + Config.CV_EXTRA_EMBARGO_BARS;
+        BarSeriesColumns bars = BarSeriesColumns.of(DataManager.getOriginalSeries());
+
+        // Память: обучение каждой модели вне кучи, потоков не больше, чем помещается моделей
+        MultiLayerNetwork probe = new MultiLayerNetwork(NeuralNetwork.createRegressionModel());
+        probe.init();
+        MemoryPlanner.applyWorkspaceModes(probe.getLayerWiseConfigurations());
+        int batchSize = MemoryPlanner.fitBatchSize(probe, all, Config.BATCH_SIZE);
+        MemoryPlanner.Plan plan = MemoryPlanner.plan(probe, all, batchSize);
+        int byMemory = (int) Math.max(1, plan.offHeapLimit() / Math.max(1, plan.trainingBytes()));
+        int threads = Math.max(1, Math.min(Math.min(folds, byMemory), Config.CV_THREADS > 0
+                ? Config.CV_THREADS : Runtime.getRuntime().availableProcessors()));
+        int devices = Nd4j.getAffinityManager().getNumberOfDevices();
+        log.info("Кросс-валидация: {} блоков, {} эпох, очистка {} и эмбарго {} баров, {} потоков, устройств {}",
+                folds, epochs, purgeBars, embargoBars, threads, devices);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("cv-fold-", 0).factory());
+        List<FoldResult> results = new ArrayList<>();
+        try {
+            List<Future<FoldResult>> futures = new ArrayList<>();
+            for (int k = 0; k < folds; k++) {
+                int fold = k;
+                futures.add(pool.submit(() -> {
+                    if (devices > 1) {
+                        Nd4j.getAffinityManager().unsafeSetDevice(fold % devices);
+                    }
+                    return trainFold(all, bars, fold, folds, epochs, batchSize, purgeBars, embargoBars, parameters);
+                }));
+            }
+            for (Future<FoldResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Кросс-валидация прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка при обучении блока", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return new Report(results,
+                Stat.of(results.stream().mapToDouble(FoldResult::validationLoss).toArray()),
+                Stat.of(results.stream().mapToDouble(FoldResult::finalBalance).toArray()),
+                Stat.of(results.stream().mapToDouble(FoldResult::profitFactor).filter(Double::isFinite).toArray()),
+                Stat.of(results.stream().mapToDouble(FoldResult::maxDrawdown).toArray()),
+                threads, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Номера обучающих примеров для теста [testFrom, testTo): всё, кроме теста, очищенных примеров перед ним
+     * и эмбарго после него. counts получает {очищено, эмбарго}.
+     */
+    static int[] trainSamples(WindowedDataSet all, int testFrom, int testTo, int purgeBars, int embargoBars, int[] counts) {
+        int firstTestBar = all.sampleEndBar(testFrom);
+        int lastTestBar = all.sampleEndBar(testTo - 1);
+        int[] samples = new int[all.size()];
+        int count = 0;
+        int purged = 0;
+        int embargoed = 0;
+        for (int s = 0; s < all.size(); s++) {
+            if (s >= testFrom && s < testTo) continue;
+            int bar = all.sampleEndBar(s);
+            if (s < testFrom && bar + purgeBars >= firstTestBar) {
+                purged++;
+            } else if (s >= testTo && bar - embargoBars <= lastTestBar) {
+                embargoed++;
+            } else {
+                samples[count++] = s;
+            }
+        }
+        counts[0] = purged;
+        counts[1] = embargoed;
+        return Arrays.copyOf(samples, count);
+    }
+
+    private static FoldResult trainFold(WindowedDataSet all, BarSeriesColumns bars, int fold, int folds, int epochs,
+                                        int batchSize, int purgeBars, int embargoBars, BotParameters parameters) {
+        long start = System.nanoTime();
+        int testFrom = (int) ((long) all.size() * fold / folds);
+        int testTo = (int) ((long) all.size() * (fold + 1) / folds);
+        int[] counts = new int[2];
+        int[] trainSamples = trainSamples(all, testFrom, testTo, purgeBars, embargoBars, counts);
+        WindowedDataSet normalized = all.normalized(FeatureRegistry.zScoreStats(all.select(trainSamples)));
+        WindowedDataSet train = normalized.select(trainSamples);
+        WindowedDataSet test = normalized.subset(testFrom, testTo);
+        Fold info = new Fold(fold, testFrom, testTo, train.size(), counts[0], counts[1]);
+
+        MultiLayerConfiguration conf = NeuralNetwork.createRegressionModel();
+        MemoryPlanner.applyWorkspaceModes(conf);
+        MultiLayerNetwork model = new MultiLayerNetwork(conf);
+        model.init();
+        try (Stage stage = Metrics.stage("cv.fold")) {
+            model.fit(new WindowDataSetIterator(train, batchSize, Config.SHUFFLE_TRAIN_SAMPLES, Config.CV_SEED + fold), epochs);
+            stage.items((long) train.size() * epochs);
+        }
+
+        WindowDataSetIterator testIter = new WindowDataSetIterator(test, batchSize);
+        double loss = new DataSetLossCalculator(testIter, true).calculateScore(model);
+        INDArray predictions = PredictionCache.predict(model, testIter);
+        BatchSimulator simulator = new BatchSimulator(bars.slice(test, predictions), bars.costModel(test));
+        TradingBotResult result = TradingBotResult.of(simulator, parameters);
+        return new FoldResult(info, loss, result.balance, result.profitFactor, result.trades, result.maxDrawdown,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Баланс, профит-фактор и сделки пакетного прогона и просадка по кривой капитала того же набора
+    private record TradingBotResult(double balance, double profitFactor, int trades, double maxDrawdown) {
+        static TradingBotResult of(BatchSimulator simulator, BotParameters parameters) {
+            TradingBot.SimulationResult r = simulator.run(List.of(parameters))[0];
+            double peak = Double.NEGATIVE_INFINITY;
+            double drawdown = 0;
+            for (double equity : simulator.equityCurve(parameters)) {
+                peak = Math.max(peak, equity);
+                if (peak > 0) drawdown = Math.max(drawdown, 1 - equity / peak);
+            }
+            return new TradingBotResult(r.finalBalance(), r.profitFactor(), r.totalTrades(), drawdown);
+        }
+    }
+
+    /**
+     * Цены и фильтры бэктеста по всем барам серии, посчитанные один раз в основном потоке: индикаторы ta4j
+     * кэшируют значения без синхронизации, а блоки читают эти массивы одновременно.
+     */
+    private record BarSeriesColumns(double[] close, double[] open, double[] atr, double[] ema, double[] adx,
+                                    double[] volume) {
+        static BarSeriesColumns of(BarSeries series) {
+            int n = series.getBarCount();
+            EMAIndicator ema = new EMAIndicator(new ClosePriceIndicator(series), 200);
+            ADXIndicator adx = new ADXIndicator(series, 14);
+            ATRIndicator atr = new ATRIndicator(series, 14);
+            BarSeriesColumns columns = new BarSeriesColumns(new double[n], new double[n], new double[n], new double[n],
+                    new double[n], new double[n]);
+            for (int i = 0; i < n; i++) {
+                columns.close[i] = series.getBar(i).getClosePrice().doubleValue();
+                columns.open[i] = series.getBar(i).getOpenPrice().doubleValue();
+                columns.atr[i] = atr.getValue(i).doubleValue();
+                columns.ema[i] = ema.getValue(i).doubleValue();
+                columns.adx[i] = adx.getValue(i).doubleValue();
+                columns.volume[i] = series.getBar(i).getVolume().doubleValue();
+            }
+            return columns;
+        }
+
+        // Издержки по барам шагов блока; ATR вне области определения - -1, как у DataManager.getOriginalAtr
+        ExecutionCostModel costModel(WindowedDataSet samples) {
+            int steps = samples.size();
+            double[] stepAtr = new double[Math.max(steps, 1)];
+            double[] stepVolume = new double[Math.max(steps, 1)];
+            for (int s = 0; s < steps; s++) {
+                int bar = samples.sampleEndBar(s);
+                stepAtr[s] = Double.isFinite(atr[bar]) ? atr[bar] : -1.0;
+                stepVolume[s] = volume[bar];
+            }
+            return ExecutionCostModel.fromConfig(stepAtr, stepVolume);
+        }
+
+        // Шаг бэктеста - пример блока, бар - конец его окна, как у тестового участка DataManager
+        BacktestSeries slice(WindowedDataSet samples, INDArray predictions) {
+            int steps = samples.size();
+            double[][] out = new double[7][steps];
+            for (int s = 0; s < steps; s++) {
+                int bar = samples.sampleEndBar(s);
+                out[0][s] = close[bar];
+                out[1][s] = open[bar];
+                out[2][s] = atr[bar];
+                out[3][s] = ema[bar];
+                out[4][s] = adx[bar];
+                out[5][s] = predictions.getDouble(s, 0);
+                out[6][s] = predictions.getDouble(s, 1);
+            }
+            return new BacktestSeries(out[0], out[1], out[2], out[3], out[4], out[5], out[6]);
+        }
+    }
+}
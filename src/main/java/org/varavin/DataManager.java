@@ -7,7 +7,6 @@ import org.datavec.api.writable.Writable;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.ta4j.core.*;
@@ -15,15 +14,29 @@ import org.ta4j.core.indicators.*;
 import org.ta4j.core.indicators.helpers.*;
 import org.ta4j.core.num.DoubleNum;
 import org.ta4j.core.num.Num;
-import org.varavin.entity.BatchDataSetIterator;
+import org.varavin.archive.CandleArchive;
+import org.varavin.entity.BarColumns;
 import org.varavin.entity.ProcessedData;
+import org.varavin.entity.WindowDataSetIterator;
+import org.varavin.entity.WindowedDataSet;
+import org.varavin.features.FeatureRegistry;
+import org.varavin.features.Indicators;
+import org.varavin.features.LabelEngine;
+import org.varavin.features.TimeframeResampler;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.stream.IntStream;
 
 public class DataManager {
     private static final Logger log = LoggerFactory.getLogger(DataManager.class);
@@ -32,6 +45,15 @@ public class DataManager {
     private static int testDataStartIndex = -1;
     private static Indicator<Num> atrIndicator = null;
 
+    private static final double TRAIN_RATIO = 0.7;
+    private static final double VAL_RATIO = 0.15;
+
+    private static final FeatureRegistry featureRegistry = FeatureRegistry.defaultRegistry();
+    private static BarColumns barColumns = null;
+    private static double[][] featureColumns = null;
+    private static ProcessedData processedData = null;
+    private static String dataKey = null;
+
     public static BarSeries getOriginalSeries() {
         return originalSeries;
     }
@@ -42,59 +64,110 @@ public class DataManager {
 
 
     public static DataSetIterator[] prepareData(int batchSize) {
-        try {
-            ProcessedData cachedData = loadProcessedData();
-            if (cachedData != null) {
-                log.info("Используются кэшированные данные версии {}", Config.DATA_VERSION);
-                loadOriginalSeries();
-                Map<String, Indicator<Num>> indicators = calculateSimpleIndicators(originalSeries);
-                atrIndicator = indicators.get("ATR14");
-                long trainSize = cachedData.trainFeatures.size(0);
-                long valSize = cachedData.valFeatures.size(0);
-                testDataStartIndex = (int)(trainSize + valSize) + Config.MAX_INDICATOR_PERIOD + Config.TIME_STEPS;
-                log.info("Восстановлен testDataStartIndex из кэша: {}", testDataStartIndex);
-                return createIteratorsFromProcessedData(cachedData.trainFeatures, cachedData.trainLabels, cachedData.valFeatures, cachedData.valLabels, cachedData.testFeatures, cachedData.testLabels, batchSize);
-            }
-            log.info("Кэш не найден. Начинаем подготовку данных с нуля.");
+        ProcessedData data;
+        try (Stage stage = Metrics.stage("data.prepare")) {
+            data = prepareProcessedData();
+            if (data != null) stage.items(data.all.size());
+        }
+        return data != null ? createIteratorsFromProcessedData(data, batchSize) : null;
+    }
+
+    /** Итераторы train/val/test по уже подготовленным данным с другим размером батча. */
+    public static DataSetIterator[] createIterators(int batchSize) {
+        if (processedData == null) {
+            throw new IllegalStateException("Данные не подготовлены");
+        }
+        return createIteratorsFromProcessedData(processedData, batchSize);
+    }
+
+    public static ProcessedData getProcessedData() {
+        return processedData;
+    }
+
+    /**
+     * Признаки и метки до нормализации - те же примеры и та же матрица баров, что в getProcessedData().all.
+     * Читаются из кэша стадии samples, который подготовка данных всегда оставляет; null - данные не подготовлены.
+     */
+    public static WindowedDataSet loadRawSamples() {
+        if (processedData == null) return null;
+        File cacheDir = new File(Config.CACHE_DIR);
+        CacheManifest manifest = CacheManifest.load(cacheDir);
+        return manifest != null ? loadSamples(cacheDir, manifest) : null;
+    }
 
+    /** Ключ подготовленных данных (исходный CSV, признаки, разбиение) - одинаков на всех машинах с теми же данными. */
+    public static String getDataKey() {
+        return dataKey;
+    }
+
+    /**
+     * Бары тикера с концом в [from, to) из архива свечей Config.ARCHIVE_FILE_NAME. Раскодируются только чанки,
+     * пересекающие диапазон, поэтому отрезок в несколько дней из многолетней истории читается за миллисекунды.
+     */
+    public static BarColumns loadArchivedBars(String ticker, Instant from, Instant to) throws IOException {
+        try (Stage stage = Metrics.stage("data.archive_load");
+             CandleArchive archive = CandleArchive.open(new File(Config.ARCHIVE_FILE_NAME))) {
+            BarColumns bars = archive.read(ticker, from.getEpochSecond(), to.getEpochSecond());
+            stage.items(bars.size());
+            return bars;
+        }
+    }
+
+    /** Бары CSV в формате исходного файла (epoch, open, high, low, close, volume), упорядоченные по времени. */
+    public static BarColumns loadCsvColumns(File csv) throws IOException, InterruptedException {
+        RecordReader recordReader = new CSVRecordReader(0, ',');
+        recordReader.initialize(new FileSplit(csv));
+        return BarColumns.fromSeries(loadSeriesFromReader(recordReader));
+    }
+
+    /**
+     * Готовит нормализованный датасет окон и срезы train/val/test, используя кэш там, где он актуален.
+     */
+    public static ProcessedData prepareProcessedData() {
+        try {
             loadOriginalSeries();
             Map<String, Indicator<Num>> indicators = calculateSimpleIndicators(originalSeries);
             atrIndicator = indicators.get("ATR14");
 
-            List<INDArray> featuresList = new ArrayList<>();
-            List<INDArray> labelsList = new ArrayList<>();
-
-            for (int i = Config.MAX_INDICATOR_PERIOD + Config.TIME_STEPS; i < originalSeries.getBarCount() - Config.MAX_FUTURE_TICKS - 1; i++) {
-                INDArray label = createVolatilityNormalizedLabel(originalSeries, atrIndicator, i);
-                INDArray featureWindow = createFeatureWindowAsINDArray(originalSeries, indicators, i);
-
-                if (featureWindow != null && label != null) {
-                    featuresList.add(featureWindow);
-                    labelsList.add(label);
+            File cacheDir = new File(Config.CACHE_DIR);
+            String samplesKey = computeSamplesKey();
+            String splitKey = CacheManifest.sha256(samplesKey, Double.toString(TRAIN_RATIO), Double.toString(VAL_RATIO));
+            CacheManifest manifest = CacheManifest.load(cacheDir);
+
+            if (manifest != null && manifest.matches(CacheManifest.SPLIT_KEY, splitKey)) {
+                ProcessedData cachedData = loadProcessedData(cacheDir, manifest);
+                if (cachedData != null) {
+                    log.info("Используются кэшированные данные версии {}", Config.DATA_VERSION);
+                    testDataStartIndex = manifest.getInt("split.testDataStartIndex", -1);
+                    log.info("Восстановлен testDataStartIndex из манифеста кэша: {}", testDataStartIndex);
+                    processedData = cachedData;
+                    dataKey = splitKey;
+                    return cachedData;
                 }
             }
 
-            if (featuresList.isEmpty()) throw new IllegalStateException("Не удалось создать признаки!");
-            log.info("Создано примеров: {}", featuresList.size());
-
-            INDArray allFeatures = Nd4j.stack(0, featuresList.toArray(new INDArray[0]));
-            INDArray allLabels = Nd4j.vstack(labelsList.toArray(new INDArray[0]));
-
-            INDArray[] splitData = splitDataset(allFeatures, allLabels, 0.7, 0.15);
-            INDArray[] normalizedFeatures = normalizeFeaturesZScore(splitData[0], splitData[2], splitData[4]);
+            WindowedDataSet samples = null;
+            if (manifest != null && manifest.matches(CacheManifest.SAMPLES_KEY, samplesKey)) {
+                samples = loadSamples(cacheDir, manifest);
+                if (samples != null) {
+                    log.info("Признаки и метки взяты из кэша, пересобирается только разбиение и нормализация");
+                }
+            }
+            if (samples == null) {
+                log.info("Кэш не найден или устарел. Начинаем подготовку данных с нуля.");
+                manifest = new CacheManifest();
+                samples = buildSamples();
+                saveSamples(cacheDir, manifest, samplesKey, samples);
+            }
 
-            saveProcessedData(
-                    normalizedFeatures[0], splitData[1],
-                    normalizedFeatures[1], splitData[3],
-                    normalizedFeatures[2], splitData[5]
-            );
+            ProcessedData data = splitAndNormalize(samples, TRAIN_RATIO, VAL_RATIO, manifest);
+            saveProcessedData(cacheDir, manifest, data);
+            manifest.put(CacheManifest.SPLIT_KEY, splitKey);
+            manifest.save(cacheDir);
 
-            return createIteratorsFromProcessedData(
-                    normalizedFeatures[0], splitData[1],
-                    normalizedFeatures[1], splitData[3],
-                    normalizedFeatures[2], splitData[5],
-                    batchSize
-            );
+            processedData = data;
+            dataKey = splitKey;
+            return data;
 
         } catch (Exception e) {
             log.error("Ошибка подготовки данных: ", e);
@@ -102,72 +175,68 @@ public class DataManager {
         }
     }
 
-    private static INDArray createVolatilityNormalizedLabel(BarSeries series, Indicator<Num> atr, int currentIndex) {
-        int futureEndIndex = currentIndex + Config.MAX_FUTURE_TICKS;
-        if (futureEndIndex >= series.getBarCount()) return null;
-
-        double currentPrice = series.getBar(currentIndex).getClosePrice().doubleValue();
-        double currentAtr = atr.getValue(currentIndex).doubleValue();
-        if (currentAtr < 1e-6) return null;
-
-        double maxFuturePrice = currentPrice;
-        double minFuturePrice = currentPrice;
+    // Ключ стадии samples: содержимое CSV, конфигурация признаков/меток и байткод кода подготовки
+    private static String computeSamplesKey() throws IOException {
+        String csvHash = CacheManifest.sha256(new File(Config.CSV_FILE_NAME));
+        String featureConfig = featureRegistry.signature()
+                + "|label=volatilityNormalizedMaxMove"
+                + "|TIME_STEPS=" + Config.TIME_STEPS
+                + "|NUM_FEATURES=" + Config.NUM_FEATURES
+                + "|LABEL_HORIZONS=" + Arrays.toString(Config.LABEL_HORIZONS)
+                + "|MAX_INDICATOR_PERIOD=" + Config.MAX_INDICATOR_PERIOD;
+        return CacheManifest.sha256(csvHash, featureConfig, Config.DATA_VERSION, CacheManifest.classHash(DataManager.class),
+                CacheManifest.classHash(FeatureRegistry.class), CacheManifest.classHash(Indicators.class),
+                CacheManifest.classHash(LabelEngine.class), CacheManifest.classHash(TimeframeResampler.class));
+    }
 
-        for (int j = currentIndex + 1; j <= futureEndIndex; j++) {
-            Bar futureBar = series.getBar(j);
-            if (futureBar.getHighPrice().doubleValue() > maxFuturePrice) maxFuturePrice = futureBar.getHighPrice().doubleValue();
-            if (futureBar.getLowPrice().doubleValue() < minFuturePrice) minFuturePrice = futureBar.getLowPrice().doubleValue();
+    // Датасет окон до нормализации: матрица баров, индексы последних баров окон и метки
+    private static WindowedDataSet buildSamples() {
+        double[][] columns;
+        try (Stage stage = Metrics.stage("data.features")) {
+            columns = getFeatureColumns();
+            stage.items(originalSeries.getBarCount());
+        }
+        BarColumns bars = getBarColumns();
+        LabelEngine.LabelMatrix labels;
+        try (Stage stage = Metrics.stage("data.labels")) {
+            double[] atr = Indicators.atr(bars.high(), bars.low(), bars.close(), 14);
+            labels = LabelEngine.volatilityNormalizedLabels(bars, atr, Config.LABEL_HORIZONS);
+            stage.items(originalSeries.getBarCount());
         }
+        int maxHorizon = Arrays.stream(Config.LABEL_HORIZONS).max().orElse(Config.MAX_FUTURE_TICKS);
 
-        double potentialGainAtr = (maxFuturePrice - currentPrice) / currentAtr;
-        double potentialLossAtr = (currentPrice - minFuturePrice) / currentAtr;
+        int[] barIndices = IntStream.range(Config.MAX_INDICATOR_PERIOD + Config.TIME_STEPS, originalSeries.getBarCount() - maxHorizon - 1)
+                .filter(i -> i - Config.TIME_STEPS + 1 > 0 && labels.isValid(i))
+                .toArray();
 
-        return Nd4j.create(new double[]{potentialGainAtr, potentialLossAtr});
-    }
+        if (barIndices.length == 0) throw new IllegalStateException("Не удалось создать признаки!");
+        log.info("Создано примеров: {}", barIndices.length);
 
-    private static double calculatePctChange(double current, double previous) {
-        if (previous == 0 || Math.abs(previous) < 1e-9) return 0.0;
-        return (current - previous) / previous;
+        float[] labelRows = new float[barIndices.length * labels.width()];
+        for (int s = 0; s < barIndices.length; s++) {
+            for (int c = 0; c < labels.width(); c++) {
+                labelRows[s * labels.width() + c] = (float) labels.values()[barIndices[s] * labels.width() + c];
+            }
+        }
+        try (Stage stage = Metrics.stage("data.windowing")) {
+            stage.items(barIndices.length);
+            return FeatureRegistry.buildDataSet(columns, Config.TIME_STEPS, barIndices, labelRows, labels.width());
+        }
     }
 
-    // --- ИЗМЕНЕНИЕ: Новый метод для создания упрощенного набора признаков ---
-    private static INDArray createFeatureWindowAsINDArray(BarSeries series, Map<String, Indicator<Num>> indicators, int currentIndex) {
-        try {
-            INDArray window = Nd4j.zeros(Config.NUM_FEATURES, Config.TIME_STEPS);
-
-            for (int j = 0; j < Config.TIME_STEPS; j++) {
-                int idx = currentIndex - Config.TIME_STEPS + 1 + j;
-                if (idx <= 0) return null;
-
-                Bar bar = series.getBar(idx);
-                Bar prevBar = series.getBar(idx - 1);
-
-                int featureIdx = 0;
-                // 1. Price Action (4 признака)
-                window.putScalar(featureIdx++, j, calculatePctChange(bar.getOpenPrice().doubleValue(), prevBar.getClosePrice().doubleValue()));
-                window.putScalar(featureIdx++, j, calculatePctChange(bar.getHighPrice().doubleValue(), bar.getOpenPrice().doubleValue()));
-                window.putScalar(featureIdx++, j, calculatePctChange(bar.getLowPrice().doubleValue(), bar.getOpenPrice().doubleValue()));
-                window.putScalar(featureIdx++, j, calculatePctChange(bar.getClosePrice().doubleValue(), bar.getOpenPrice().doubleValue()));
-
-                // 2. Volume (1 признак)
-                window.putScalar(featureIdx++, j, calculatePctChange(bar.getVolume().doubleValue(), prevBar.getVolume().doubleValue()));
-
-                // 3. Momentum (1 признак)
-                window.putScalar(featureIdx++, j, getIndicatorValueSafe(indicators.get("RSI14"), idx));
-
-                // 4. Volatility (1 признак)
-                window.putScalar(featureIdx++, j, getIndicatorValueSafe(indicators.get("ATR14"), idx));
+    private static BarColumns getBarColumns() {
+        if (barColumns == null) {
+            barColumns = BarColumns.fromSeries(originalSeries);
+        }
+        return barColumns;
+    }
 
-                // 5. Time (2 признака)
-                ZonedDateTime endTime = bar.getEndTime();
-                window.putScalar(featureIdx++, j, (double) endTime.getDayOfWeek().getValue() / 7.0);
-                window.putScalar(featureIdx++, j, (double) endTime.getHour() / 23.0);
-            }
-            return window;
-        } catch (Exception e) {
-            log.warn("Ошибка создания окна признаков на индексе {}: {}", currentIndex, e.getMessage());
-            return null;
+    // Колонки признаков по всей серии считаются один раз и переиспользуются для окон и статистики нормализации
+    private static double[][] getFeatureColumns() {
+        if (featureColumns == null) {
+            featureColumns = featureRegistry.computeColumns(getBarColumns());
         }
+        return featureColumns;
     }
 
     // --- ИЗМЕНЕНИЕ: Считаем только необходимые индикаторы ---
@@ -194,78 +263,65 @@ public class DataManager {
         return -1;
     }
 
+    public static double getOriginalOpen(int testStep) {
+        if (originalSeries != null && testDataStartIndex != -1) {
+            int originalIndex = testDataStartIndex + testStep;
+            if (originalIndex < originalSeries.getBarCount()) {
+                return originalSeries.getBar(originalIndex).getOpenPrice().doubleValue();
+            }
+        }
+        return -1;
+    }
+
+    public static double getOriginalVolume(int testStep) {
+        if (originalSeries != null && testDataStartIndex != -1) {
+            int originalIndex = testDataStartIndex + testStep;
+            if (originalIndex < originalSeries.getBarCount()) {
+                return originalSeries.getBar(originalIndex).getVolume().doubleValue();
+            }
+        }
+        return -1;
+    }
+
+    public static int getTestBarCount() {
+        if (originalSeries != null && testDataStartIndex != -1) {
+            return Math.max(0, originalSeries.getBarCount() - testDataStartIndex);
+        }
+        return 0;
+    }
+
     private static void loadOriginalSeries() {
         if (originalSeries == null) {
-            try {
+            try (Stage stage = Metrics.stage("data.csv_load")) {
                 RecordReader recordReader = new CSVRecordReader(0, ',');
                 recordReader.initialize(new FileSplit(new File(Config.CSV_FILE_NAME)));
                 originalSeries = loadSeriesFromReader(recordReader);
+                stage.items(originalSeries.getBarCount());
             } catch (Exception e) {
                 log.error("Failed to load original series for backtesting", e);
             }
         }
     }
 
-    private static INDArray[] splitDataset(INDArray features, INDArray labels, double trainRatio, double valRatio) {
-        int total = (int) features.size(0);
+    private static ProcessedData splitAndNormalize(WindowedDataSet samples, double trainRatio, double valRatio, CacheManifest manifest) {
+        int total = samples.size();
         int trainEnd = (int) (total * trainRatio);
         int valEnd = trainEnd + (int) (total * valRatio);
-        testDataStartIndex = valEnd + Config.MAX_INDICATOR_PERIOD + Config.TIME_STEPS;
+        // Индекс бара берётся из самих примеров, а не восстанавливается арифметикой
+        testDataStartIndex = samples.sampleEndBar(valEnd);
         log.info("Индекс начала тестовых данных: {}", testDataStartIndex);
 
-        return new INDArray[]{
-                features.get(NDArrayIndex.interval(0, trainEnd), NDArrayIndex.all(), NDArrayIndex.all()),
-                labels.get(NDArrayIndex.interval(0, trainEnd), NDArrayIndex.all()),
-                features.get(NDArrayIndex.interval(trainEnd, valEnd), NDArrayIndex.all(), NDArrayIndex.all()),
-                labels.get(NDArrayIndex.interval(trainEnd, valEnd), NDArrayIndex.all()),
-                features.get(NDArrayIndex.interval(valEnd, total), NDArrayIndex.all(), NDArrayIndex.all()),
-                labels.get(NDArrayIndex.interval(valEnd, total), NDArrayIndex.all())
-        };
-    }
-
-    private static INDArray[] normalizeFeaturesZScore(INDArray trainFeatures, INDArray valFeatures, INDArray testFeatures) {
-        INDArray featureStats = Nd4j.zeros(Config.NUM_FEATURES, 2);
-        for (int f = 0; f < Config.NUM_FEATURES; f++) {
-            INDArray trainFeatureSlice = trainFeatures.get(NDArrayIndex.all(), NDArrayIndex.point(f), NDArrayIndex.all());
-            double mean = trainFeatureSlice.meanNumber().doubleValue();
-            double stdDev = trainFeatureSlice.stdNumber().doubleValue();
-            if (stdDev < 1e-8) stdDev = 1.0;
-            featureStats.putScalar(f, 0, mean);
-            featureStats.putScalar(f, 1, stdDev);
-        }
-        saveFeatureStats(featureStats);
-        return new INDArray[]{
-                normalizeFeatureSetZScore(trainFeatures, featureStats),
-                normalizeFeatureSetZScore(valFeatures, featureStats),
-                normalizeFeatureSetZScore(testFeatures, featureStats)
-        };
-    }
-
-    private static INDArray normalizeFeatureSetZScore(INDArray features, INDArray featureStats) {
-        INDArray normalized = features.dup();
-        for (int f = 0; f < Config.NUM_FEATURES; f++) {
-            double mean = featureStats.getDouble(f, 0);
-            double stdDev = featureStats.getDouble(f, 1);
-            if (stdDev > 1e-8) {
-                INDArray featureSlice = normalized.get(NDArrayIndex.all(), NDArrayIndex.point(f), NDArrayIndex.all());
-                featureSlice.subi(mean).divi(stdDev);
-            }
-        }
-        return normalized;
-    }
-
-    private static double getIndicatorValueSafe(Indicator<Num> indicator, int index) {
-        try {
-            if (index >= 0 && index < indicator.getBarSeries().getBarCount()) {
-                Num value = indicator.getValue(index);
-                if (value != null) {
-                    double doubleValue = value.doubleValue();
-                    return Double.isFinite(doubleValue) ? doubleValue : 0.0;
-                }
-            }
-            return 0.0;
-        } catch (Exception e) {
-            return 0.0;
+        manifest.putInt("split.total", total);
+        manifest.putInt("split.trainEnd", trainEnd);
+        manifest.putInt("split.valEnd", valEnd);
+        manifest.putInt("split.testDataStartIndex", testDataStartIndex);
+
+        // Статистика только по обучающим окнам; нормализуется сразу вся матрица баров
+        try (Stage stage = Metrics.stage("data.normalize")) {
+            double[][] stats = FeatureRegistry.zScoreStats(samples.subset(0, trainEnd));
+            saveFeatureStats(manifest, stats);
+            stage.items(total);
+            return new ProcessedData(samples.normalized(stats), trainEnd, valEnd);
         }
     }
 
@@ -276,7 +332,7 @@ public class DataManager {
             List<Writable> record = reader.next();
             try {
                 ZonedDateTime time = Instant.ofEpochSecond(Long.parseLong(record.get(0).toString())).atZone(ZoneId.systemDefault());
-                Bar bar = new BaseBar(Duration.ofMinutes(5), time,
+                Bar bar = new BaseBar(Duration.ofMinutes(Config.BAR_MINUTES), time,
                         Double.parseDouble(record.get(1).toString()),
                         Double.parseDouble(record.get(2).toString()),
                         Double.parseDouble(record.get(3).toString()),
@@ -294,77 +350,146 @@ public class DataManager {
         return series;
     }
 
-    private static DataSetIterator[] createIteratorsFromProcessedData(
-            INDArray trainFeatures, INDArray trainLabels,
-            INDArray valFeatures, INDArray valLabels,
-            INDArray testFeatures, INDArray testLabels,
-            int batchSize) {
+    private static DataSetIterator[] createIteratorsFromProcessedData(ProcessedData data, int batchSize) {
         log.info("Создание итераторов для данных:");
-        log.info("Train: {} примеров", trainFeatures.size(0));
-        log.info("Val: {} примеров", valFeatures.size(0));
-        log.info("Test: {} примеров", testFeatures.size(0));
+        log.info("Train: {} примеров", data.train.size());
+        log.info("Val: {} примеров", data.val.size());
+        log.info("Test: {} примеров", data.test.size());
         return new DataSetIterator[]{
-                new BatchDataSetIterator(trainFeatures, trainLabels, batchSize),
-                new BatchDataSetIterator(valFeatures, valLabels, batchSize),
-                new BatchDataSetIterator(testFeatures, testLabels, batchSize)
+                new WindowDataSetIterator(data.train, batchSize, Config.SHUFFLE_TRAIN_SAMPLES, 12345L),
+                new WindowDataSetIterator(data.val, batchSize),
+                new WindowDataSetIterator(data.test, batchSize)
         };
     }
-    private static void saveFeatureStats(INDArray featureStats) {
+
+    // Статистика - часть стадии split: размер и CRC32C пишутся в манифест вместе с датасетом
+    private static void saveFeatureStats(CacheManifest manifest, double[][] stats) {
+        INDArray featureStats = Nd4j.zeros(stats.length, 2);
+        for (int f = 0; f < stats.length; f++) {
+            featureStats.putScalar(f, 0, stats[f][0]);
+            featureStats.putScalar(f, 1, stats[f][1]);
+        }
         try {
             File cacheDir = new File(Config.CACHE_DIR);
             if (!cacheDir.exists()) cacheDir.mkdirs();
-            File statsFile = new File(cacheDir, Config.DATA_VERSION + "_feature_stats.bin");
-            try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(statsFile))) {
+            String fileName = Config.DATA_VERSION + "_feature_stats.bin";
+            File statsFile = new File(cacheDir, fileName);
+            CheckedOutputStream checked = new CheckedOutputStream(new FileOutputStream(statsFile), new CRC32C());
+            try (DataOutputStream dos = new DataOutputStream(checked)) {
                 Nd4j.write(featureStats, dos);
             }
+            manifest.recordFile(fileName, statsFile.length(), checked.getChecksum().getValue());
         } catch (IOException e) {
             log.warn("Не удалось сохранить статистику признаков: {}", e.getMessage());
         }
     }
-    private static void saveProcessedData(INDArray trainFeatures, INDArray trainLabels,
-                                          INDArray valFeatures, INDArray valLabels,
-                                          INDArray testFeatures, INDArray testLabels) throws IOException {
-        File cacheDir = new File(Config.CACHE_DIR);
+    private static void saveSamples(File cacheDir, CacheManifest manifest, String samplesKey, WindowedDataSet samples) throws IOException {
         if (!cacheDir.exists() && !cacheDir.mkdirs()) {
             throw new IOException("Не удалось создать директорию кэша");
         }
-        String prefix = Config.DATA_VERSION + "_";
-        saveINDArray(new File(cacheDir, prefix + "trainFeatures.bin"), trainFeatures);
-        saveINDArray(new File(cacheDir, prefix + "trainLabels.bin"), trainLabels);
-        saveINDArray(new File(cacheDir, prefix + "valFeatures.bin"), valFeatures);
-        saveINDArray(new File(cacheDir, prefix + "valLabels.bin"), valLabels);
-        saveINDArray(new File(cacheDir, prefix + "testFeatures.bin"), testFeatures);
-        saveINDArray(new File(cacheDir, prefix + "testLabels.bin"), testLabels);
+        manifest.removeStage("samples.");
+        manifest.removeStage("split.");
+        saveCachedDataSet(cacheDir, manifest, Config.DATA_VERSION + "_samples.bin", samples);
+        manifest.putInt("samples.rows", samples.size());
+        manifest.put(CacheManifest.SAMPLES_KEY, samplesKey);
+        manifest.save(cacheDir);
+    }
+
+    private static WindowedDataSet loadSamples(File cacheDir, CacheManifest manifest) {
+        try {
+            WindowedDataSet samples = loadCachedDataSet(cacheDir, manifest, Config.DATA_VERSION + "_samples.bin");
+            if (samples == null || samples.size() != manifest.getInt("samples.rows", -1)) return null;
+            return samples;
+        } catch (Exception e) {
+            log.warn("Не удалось загрузить кэш признаков: {}", e.getMessage());
+            return null;
+        }
     }
-    private static void saveINDArray(File file, INDArray array) throws IOException {
-        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
-            Nd4j.write(array, dos);
+
+    private static void saveProcessedData(File cacheDir, CacheManifest manifest, ProcessedData data) throws IOException {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new IOException("Не удалось создать директорию кэша");
         }
+        saveCachedDataSet(cacheDir, manifest, Config.DATA_VERSION + "_dataset.bin", data.all);
     }
-    private static ProcessedData loadProcessedData() {
+
+    private static ProcessedData loadProcessedData(File cacheDir, CacheManifest manifest) {
         try {
-            File cacheDir = new File(Config.CACHE_DIR);
-            if (!cacheDir.exists()) return null;
-            String prefix = Config.DATA_VERSION + "_";
-            File trainFeaturesFile = new File(cacheDir, prefix + "trainFeatures.bin");
-            if (!trainFeaturesFile.exists()) return null;
-            INDArray trainFeatures = loadINDArray(trainFeaturesFile);
-            INDArray trainLabels = loadINDArray(new File(cacheDir, prefix + "trainLabels.bin"));
-            INDArray valFeatures = loadINDArray(new File(cacheDir, prefix + "valFeatures.bin"));
-            INDArray valLabels = loadINDArray(new File(cacheDir, prefix + "valLabels.bin"));
-            INDArray testFeatures = loadINDArray(new File(cacheDir, prefix + "testFeatures.bin"));
-            INDArray testLabels = loadINDArray(new File(cacheDir, prefix + "testLabels.bin"));
-            return new ProcessedData(trainFeatures, trainLabels, valFeatures, valLabels, testFeatures, testLabels);
+            WindowedDataSet all = loadCachedDataSet(cacheDir, manifest, Config.DATA_VERSION + "_dataset.bin");
+            if (all == null) return null;
+            int trainEnd = manifest.getInt("split.trainEnd", -1);
+            int valEnd = manifest.getInt("split.valEnd", -1);
+            if (all.size() != manifest.getInt("split.total", -1) || trainEnd < 0 || valEnd < trainEnd || valEnd > all.size()) {
+                log.warn("Размеры кэша не совпадают с манифестом, кэш будет пересобран");
+                return null;
+            }
+            return new ProcessedData(all, trainEnd, valEnd);
         } catch (Exception e) {
             log.warn("Не удалось загрузить кэшированные данные: {}", e.getMessage());
             return null;
         }
     }
 
-    static INDArray loadINDArray(File file) throws IOException {
-        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
-            return Nd4j.read(dis);
+    private static void saveCachedDataSet(File cacheDir, CacheManifest manifest, String fileName, WindowedDataSet data) throws IOException {
+        File file = new File(cacheDir, fileName);
+        CheckedOutputStream checked = new CheckedOutputStream(new FileOutputStream(file), new CRC32C());
+        try (Stage stage = Metrics.stage("cache.write");
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16))) {
+            data.write(dos);
+            stage.items(data.size());
+        }
+        manifest.recordFile(fileName, file.length(), checked.getChecksum().getValue());
+    }
+
+    // Контрольная сумма считается на лету при чтении, поэтому проверка почти ничего не стоит
+    private static WindowedDataSet loadCachedDataSet(File cacheDir, CacheManifest manifest, String fileName) throws IOException {
+        File file = new File(cacheDir, fileName);
+        if (!file.exists() || !manifest.hasFile(fileName, file.length())) return null;
+        CheckedInputStream checked = new CheckedInputStream(new FileInputStream(file), new CRC32C());
+        WindowedDataSet data;
+        try (Stage stage = Metrics.stage("cache.read");
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(checked, 1 << 16))) {
+            data = WindowedDataSet.read(dis);
+            dis.transferTo(OutputStream.nullOutputStream());
+            stage.items(data.size());
+        }
+        if (!manifest.verifyFile(fileName, file.length(), checked.getChecksum().getValue())) {
+            log.warn("Контрольная сумма файла кэша {} не совпадает", fileName);
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Статистика z-нормализации обучающего среза [признак][mean, std], сохранённая при подготовке данных.
+     * Файл принимается, только если совпадает с записанным в манифест кэша: статистика от другого датасета
+     * (прерванная пересборка, файл от прежнего разбиения) молча исказила бы входы модели.
+     */
+    public static double[][] loadFeatureStats() throws IOException {
+        File cacheDir = new File(Config.CACHE_DIR);
+        String fileName = Config.DATA_VERSION + "_feature_stats.bin";
+        File statsFile = new File(cacheDir, fileName);
+        if (!statsFile.exists()) {
+            throw new FileNotFoundException("Статистика признаков не найдена: " + statsFile.getPath());
+        }
+        CacheManifest manifest = CacheManifest.load(cacheDir);
+        byte[] bytes = Files.readAllBytes(statsFile.toPath());
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        if (manifest == null || !manifest.verifyFile(fileName, bytes.length, crc.getValue())) {
+            throw new IOException("Статистика признаков " + statsFile.getPath()
+                    + " не соответствует манифесту кэша - подготовьте данные заново");
+        }
+        INDArray featureStats;
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            featureStats = Nd4j.read(dis);
+        }
+        double[][] stats = new double[(int) featureStats.size(0)][2];
+        for (int f = 0; f < stats.length; f++) {
+            stats[f][0] = featureStats.getDouble(f, 0);
+            stats[f][1] = featureStats.getDouble(f, 1);
         }
+        return stats;
     }
 
     public static double getOriginalAtr(int testStep) {
@@ -0,0 +1,281 @@
+package org.varavin;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.buffer.util.DataTypeUtil;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.backtest.BacktestSeries;
+import org.varavin.backtest.BatchSimulator;
+import org.varavin.backtest.ExecutionCostModel;
+import org.varavin.entity.BotParameters;
+import org.varavin.entity.WindowedDataSet;
+import org.varavin.features.FeatureRegistry;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Перестановочная важность признаков на тестовом срезе: значения одного канала (или одного шага канала)
+ * перемешиваются между примерами, и меряется, насколько растёт MAE регрессии и меняется профит-фактор бэктеста
+ * на предсказаниях модели. Каждая перестановка повторяется с IMPORTANCE_REPEATS зёрнами.
+ *
+ * Окна теста собираются один раз в батчи из float[] с заранее созданными входами INDArray. У каждого рабочего потока
+ * своя копия батчей и свой клон модели. Перестановка переписывает на месте только свой канал, после прогона
+ * канал восстанавливается из исходных окон. Задачи раздаются потокам из общего счётчика, зерно каждой задачи
+ * отщеплено заранее, поэтому результат не зависит от числа потоков.
+ * Аргументы: [повторов] [steps - по каждому шагу окна отдельно].
+ */
+public class FeatureImportance {
+    private static final Logger log = LoggerFactory.getLogger(FeatureImportance.class);
+
+    private static final LatencyHistogram TASK_TIME = Metrics.histogram("importance.task");
+
+    /**
+     * Важность признака (step = -1 - весь канал): среднее и СКО прироста MAE и средний сдвиг профит-фактора.
+     * Повторы с бесконечным профит-фактором (прогон без убыточных сделок) в сдвиг не входят, их число -
+     * profitFactorSkipped; если не осталось ни одного повтора, сдвиг равен NaN.
+     */
+    public record Entry(String feature, int step, double maeIncrease, double maeIncreaseStd, double profitFactorChange,
+                        int profitFactorSkipped) {
+    }
+
+    public record Report(double baseMae, double baseProfitFactor, int repeats, long elapsedMillis, List<Entry> entries) {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int repeats = args.length > 0 ? Integer.parseInt(args[0]) : Config.IMPORTANCE_REPEATS;
+        boolean perStep = args.length > 1 ? args[1].equals("steps") : Config.IMPORTANCE_PER_TIME_STEP;
+        try {
+            MemoryPlanner.configure();
+            DataTypeUtil.setDTypeForContext(DataType.FLOAT);
+            if (DataManager.prepareData(Config.BATCH_SIZE) == null) {
+                throw new IllegalStateException("Не удалось подготовить данные");
+            }
+            MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(new File(Config.MODEL_DIR, "bestModel.bin"));
+            BotParameters parameters = new BotParameters(Config.ATR_STOP_MULTIPLIER, Config.FIXED_RISK_REWARD_RATIO,
+                    Config.SIGNAL_THRESHOLD, Config.RISK_PER_TRADE_PERCENT);
+            Report report = run(model, DataManager.getProcessedData().test, parameters, repeats, perStep, Config.IMPORTANCE_SEED);
+
+            log.info(String.format("Базовые MAE %.5f, профит-фактор %.3f; %d повторов, %d мс",
+                    report.baseMae(), report.baseProfitFactor(), report.repeats(), report.elapsedMillis()));
+            for (Entry e : report.entries()) {
+                log.info(String.format("%-20s %s ΔMAE %+.5f ± %.5f | ΔПФ %+.3f%s",
+                        e.feature(), e.step() >= 0 ? String.format("шаг %2d", e.step()) : "      ",
+                        e.maeIncrease(), e.maeIncreaseStd(), e.profitFactorChange(),
+                        e.profitFactorSkipped() > 0 ? " (пропущено повторов: " + e.profitFactorSkipped() + ")" : ""));
+            }
+        } finally {
+            Metrics.logSummary();
+        }
+    }
+
+    /** test - нормализованный тестовый срез DataManager, шаги которого совпадают с шагами бэктеста. */
+    public static Report run(MultiLayerNetwork model, WindowedDataSet test, BotParameters parameters, int repeats,
+                             boolean perStep, long seed) throws InterruptedException {
+        long start = System.nanoTime();
+        int size = test.size();
+        int numFeatures = test.numFeatures();
+        int timeSteps = test.timeSteps();
+        int windowSize = test.windowSize();
+        int numOutputs = test.numOutputs();
+        int batchSize = Math.min(size, Config.IMPORTANCE_BATCH_SIZE);
+
+        float[] windows = new float[size * windowSize];
+        float[] labels = new float[size * numOutputs];
+        for (int s = 0; s < size; s++) {
+            test.copyWindow(s, windows, s * windowSize);
+            test.copyLabels(s, labels, s * numOutputs);
+        }
+        ExecutionCostModel costModel = ExecutionCostModel.fromConfig();
+        Evaluation base = new Worker(model, windows, labels, size, batchSize, windowSize, numOutputs, timeSteps)
+                .evaluate(costModel, parameters, null);
+        BacktestSeries baseSeries = base.series;
+
+        // Задачи: (признак, шаг или -1, повтор) с заранее отщеплёнными зёрнами
+        int stepsPerFeature = perStep ? timeSteps : 1;
+        int tasks = numFeatures * stepsPerFeature * repeats;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[tasks];
+        for (int t = 0; t < tasks; t++) {
+            randoms[t] = root.split();
+        }
+        double[] mae = new double[tasks];
+        double[] profitFactor = new double[tasks];
+
+        int threads = Math.max(1, Math.min(tasks, Config.IMPORTANCE_THREADS > 0
+                ? Config.IMPORTANCE_THREADS : Runtime.getRuntime().availableProcessors()));
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < threads; w++) {
+                futures.add(pool.submit(() -> {
+                    Worker worker = new Worker(model.clone(), windows, labels, size, batchSize, windowSize, numOutputs, timeSteps);
+                    int[] permutation = new int[size];
+                    for (int t; (t = next.getAndIncrement()) < tasks; ) {
+                        long taskStart = System.nanoTime();
+                        int feature = t / (stepsPerFeature * repeats);
+                        int step = perStep ? t / repeats % timeSteps : -1;
+                        shuffle(permutation, randoms[t]);
+                        worker.permute(feature, step, permutation);
+                        Evaluation evaluation = worker.evaluate(costModel, parameters, baseSeries);
+                        worker.restore(feature, step);
+                        mae[t] = evaluation.mae;
+                        profitFactor[t] = evaluation.profitFactor;
+                        TASK_TIME.recordSince(taskStart);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка при оценке важности признаков", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        FeatureRegistry registry = FeatureRegistry.defaultRegistry();
+        List<Entry> entries = new ArrayList<>();
+        for (int group = 0; group < numFeatures * stepsPerFeature; group++) {
+            double sum = 0;
+            double sq = 0;
+            double pfSum = 0;
+            int pfCount = 0;
+            for (int r = 0; r < repeats; r++) {
+                double delta = mae[group * repeats + r] - base.mae;
+                sum += delta;
+                sq += delta * delta;
+                double pfDelta = profitFactor[group * repeats + r] - base.profitFactor;
+                if (Double.isFinite(pfDelta)) {
+                    pfSum += pfDelta;
+                    pfCount++;
+                }
+            }
+            double mean = sum / repeats;
+            double std = repeats > 1 ? Math.sqrt(Math.max(0, (sq - repeats * mean * mean) / (repeats - 1))) : 0.0;
+            int feature = group / stepsPerFeature;
+            String name = feature < registry.size() ? registry.features().get(feature).name() : "f" + feature;
+            entries.add(new Entry(name, perStep ? group % timeSteps : -1, mean, std,
+                    pfCount > 0 ? pfSum / pfCount : Double.NaN, repeats - pfCount));
+        }
+        entries.sort(Comparator.comparingDouble(Entry::maeIncrease).reversed());
+        return new Report(base.mae, base.profitFactor, repeats, (System.nanoTime() - start) / 1_000_000, entries);
+    }
+
+    private static void shuffle(int[] permutation, SplittableRandom random) {
+        for (int i = 0; i < permutation.length; i++) permutation[i] = i;
+        for (int i = permutation.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = tmp;
+        }
+    }
+
+    private record Evaluation(double mae, double profitFactor, BacktestSeries series) {
+    }
+
+    /** Клон модели и собственная копия окон теста, разложенная по батчам, с входами INDArray для каждого батча. */
+    private static final class Worker {
+        final MultiLayerNetwork model;
+        final float[] windows;
+        final float[] labels;
+        final int size;
+        final int batchSize;
+        final int windowSize;
+        final int numOutputs;
+        final int timeSteps;
+        final float[][] batches;
+        final INDArray[] inputs;
+        final WorkspaceConfiguration outputWorkspace;
+        final double[] predictedUp;
+        final double[] predictedDown;
+
+        Worker(MultiLayerNetwork model, float[] windows, float[] labels, int size, int batchSize,
+               int windowSize, int numOutputs, int timeSteps) {
+            this.model = model;
+            this.windows = windows;
+            this.labels = labels;
+            this.size = size;
+            this.batchSize = batchSize;
+            this.windowSize = windowSize;
+            this.numOutputs = numOutputs;
+            this.timeSteps = timeSteps;
+            int count = (size + batchSize - 1) / batchSize;
+            this.batches = new float[count][];
+            this.inputs = new INDArray[count];
+            for (int b = 0; b < count; b++) {
+                int rows = Math.min(batchSize, size - b * batchSize);
+                batches[b] = new float[rows * windowSize];
+                System.arraycopy(windows, b * batchSize * windowSize, batches[b], 0, batches[b].length);
+                inputs[b] = Nd4j.create(DataType.FLOAT, rows, windowSize / timeSteps, timeSteps);
+            }
+            this.outputWorkspace = MemoryPlanner.outputWorkspace(batchSize, numOutputs);
+            this.predictedUp = new double[size];
+            this.predictedDown = new double[size];
+        }
+
+        // Канал feature (или один его шаг) примера s берётся из примера permutation[s]
+        void permute(int feature, int step, int[] permutation) {
+            int from = step >= 0 ? feature * timeSteps + step : feature * timeSteps;
+            int length = step >= 0 ? 1 : timeSteps;
+            for (int s = 0; s < size; s++) {
+                System.arraycopy(windows, permutation[s] * windowSize + from,
+                        batches[s / batchSize], (s % batchSize) * windowSize + from, length);
+            }
+        }
+
+        void restore(int feature, int step) {
+            int from = step >= 0 ? feature * timeSteps + step : feature * timeSteps;
+            int length = step >= 0 ? 1 : timeSteps;
+            for (int s = 0; s < size; s++) {
+                System.arraycopy(windows, s * windowSize + from, batches[s / batchSize], (s % batchSize) * windowSize + from, length);
+            }
+        }
+
+        // MAE по всем выходам и профит-фактор бэктеста на предсказаниях; reference - цены и фильтры базовой серии
+        Evaluation evaluate(ExecutionCostModel costModel, BotParameters parameters, BacktestSeries reference) {
+            double absError = 0;
+            for (int b = 0; b < batches.length; b++) {
+                inputs[b].data().setData(batches[b]);
+                try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().getAndActivateWorkspace(outputWorkspace, "IMPORTANCE_OUTPUT")) {
+                    INDArray output = model.output(inputs[b], false, ws);
+                    int rows = (int) output.size(0);
+                    for (int r = 0; r < rows; r++) {
+                        int sample = b * batchSize + r;
+                        for (int o = 0; o < numOutputs; o++) {
+                            absError += Math.abs(output.getFloat(r, o) - labels[sample * numOutputs + o]);
+                        }
+                        predictedUp[sample] = output.getFloat(r, 0);
+                        predictedDown[sample] = output.getFloat(r, 1);
+                    }
+                }
+            }
+            BacktestSeries series = reference == null
+                    ? BacktestSeries.fromDataManager(Nd4j.createFromArray(new double[][]{predictedUp, predictedDown}).transpose())
+                    : new BacktestSeries(reference.close, reference.open, reference.atr, reference.ema, reference.adx,
+                            predictedUp, predictedDown);
+            double profitFactor = new BatchSimulator(series, costModel).run(List.of(parameters))[0].profitFactor();
+            return new Evaluation(absError / ((double) size * numOutputs), profitFactor, series);
+        }
+    }
+}
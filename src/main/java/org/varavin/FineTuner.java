@@ -0,0 +1,136 @@
+package org.varavin;
+
+import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
+import org.deeplearning4j.earlystopping.EarlyStoppingResult;
+import org.deeplearning4j.earlystopping.saver.InMemoryModelSaver;
+import org.deeplearning4j.earlystopping.scorecalc.DataSetLossCalculator;
+import org.deeplearning4j.earlystopping.termination.MaxEpochsTerminationCondition;
+import org.deeplearning4j.earlystopping.trainer.EarlyStoppingTrainer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
+import org.deeplearning4j.util.ModelSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.entity.ProcessedData;
+import org.varavin.entity.WindowDataSetIterator;
+import org.varavin.entity.WindowedDataSet;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+import org.varavin.metrics.TrainingTelemetryListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Дообучение текущей лучшей модели на свежих данных вместо полного обучения с нуля. Модель загружается вместе
+ * с состоянием Adam и расписанием скорости обучения. Затем FINE_TUNE_EPOCHS эпох она учится на последних
+ * FINE_TUNE_RECENT_SAMPLES окнах, смешанных со случайной выборкой старых окон: выборка не даёт забыть прошлые
+ * режимы рынка. Качество проверяется на последних FINE_TUNE_VALIDATION_SAMPLES окнах. Между ними и обучающими окнами
+ * пропущен горизонт меток, чтобы метки обучения не заходили в валидацию.
+ *
+ * Новая модель заменяет bestModel.bin, только если её потери на валидации ниже потерь текущей модели на тех же окнах.
+ * Файл пишется во временный и атомарно переименовывается, прежняя модель остаётся в bestModel.previous.bin.
+ * Дообучение использует самые свежие окна, включая тестовый срез DataManager, поэтому после него бэктест
+ * на этом срезе уже не вне выборки.
+ */
+public final class FineTuner {
+    private static final Logger log = LoggerFactory.getLogger(FineTuner.class);
+
+    /** Итог: потери текущей и новой модели на валидации, лучшая эпоха и была ли модель заменена. */
+    public record Result(double incumbentScore, double candidateScore, int bestEpoch, int trainSamples,
+                         int validationSamples, boolean promoted, long elapsedMillis) {
+    }
+
+    private FineTuner() {
+    }
+
+    public static Result run(ProcessedData data, File modelFile) throws IOException {
+        long start = System.nanoTime();
+        WindowedDataSet all = data.all;
+        int gap = Arrays.stream(Config.LABEL_HORIZONS).max().orElse(Config.MAX_FUTURE_TICKS);
+        int validationFrom = Math.max(0, all.size() - Config.FINE_TUNE_VALIDATION_SAMPLES);
+        int recentTo = Math.max(0, validationFrom - gap);
+        int recentFrom = Math.max(0, recentTo - Config.FINE_TUNE_RECENT_SAMPLES);
+        if (recentTo - recentFrom < Config.BATCH_SIZE || all.size() - validationFrom < Config.BATCH_SIZE) {
+            throw new IllegalStateException("Слишком мало данных для дообучения: " + all.size() + " окон");
+        }
+
+        WindowedDataSet train = all.select(trainingSamples(recentFrom, recentTo, Config.FINE_TUNE_REPLAY_RATIO, Config.FINE_TUNE_SEED));
+        WindowedDataSet validation = all.subset(validationFrom, all.size());
+        log.info("Дообучение: обучающих окон {}, из них старых {}, валидация {} окон",
+                train.size(), train.size() - (recentTo - recentFrom), validation.size());
+
+        MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(modelFile, true);
+        MemoryPlanner.applyWorkspaceModes(model.getLayerWiseConfigurations());
+        int batchSize = MemoryPlanner.fitBatchSize(model, all, Config.BATCH_SIZE);
+        DataSetLossCalculator validationLoss = new DataSetLossCalculator(new WindowDataSetIterator(validation, batchSize), true);
+        double incumbentScore = validationLoss.calculateScore(model);
+
+        model.setListeners(
+                new TrainingTelemetryListener(new File(modelFile.getAbsoluteFile().getParentFile(), "finetune_telemetry.csv")),
+                new ScoreIterationListener(100)
+        );
+        EarlyStoppingConfiguration<MultiLayerNetwork> esConf = new EarlyStoppingConfiguration.Builder<MultiLayerNetwork>()
+                .epochTerminationConditions(new MaxEpochsTerminationCondition(Config.FINE_TUNE_EPOCHS))
+                .scoreCalculator(validationLoss)
+                .evaluateEveryNEpochs(1)
+                .modelSaver(new InMemoryModelSaver<>())
+                .build();
+        EarlyStoppingResult<MultiLayerNetwork> result;
+        try (Stage stage = Metrics.stage("train.finetune")) {
+            // Перемешивание на каждой эпохе, чтобы свежие и старые окна шли вперемешку в каждом батче
+            WindowDataSetIterator trainIter = new WindowDataSetIterator(train, batchSize, true, Config.FINE_TUNE_SEED);
+            result = new EarlyStoppingTrainer(esConf, model, trainIter).fit();
+            stage.items((long) train.size() * result.getTotalEpochs());
+        }
+
+        // getBestModelScore() берёт score() у сохранённой копии модели, а у копии он не выставлен - пересчитываем
+        MultiLayerNetwork candidate = result.getBestModel();
+        double candidateScore = candidate != null ? validationLoss.calculateScore(candidate) : Double.NaN;
+        boolean promoted = candidate != null && candidateScore < incumbentScore * (1 - Config.FINE_TUNE_MIN_IMPROVEMENT);
+        if (promoted) {
+            promote(candidate, modelFile);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info(String.format("Потери на валидации: текущая модель %.6f, дообученная %.6f (эпоха %d) - %s, %d мс",
+                incumbentScore, candidateScore, result.getBestModelEpoch(),
+                promoted ? "модель заменена" : "модель оставлена прежней", elapsedMillis));
+        return new Result(incumbentScore, candidateScore, result.getBestModelEpoch(), train.size(), validation.size(),
+                promoted, elapsedMillis);
+    }
+
+    /**
+     * Индексы обучающих окон: все окна [recentFrom, recentTo) и replayRatio * их числа окон, выбранных
+     * с возвращением из более старых [0, recentFrom).
+     */
+    static int[] trainingSamples(int recentFrom, int recentTo, double replayRatio, long seed) {
+        int recent = recentTo - recentFrom;
+        int replay = recentFrom > 0 ? (int) Math.round(recent * replayRatio) : 0;
+        int[] samples = new int[recent + replay];
+        for (int i = 0; i < recent; i++) {
+            samples[i] = recentFrom + i;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < replay; i++) {
+            samples[recent + i] = random.nextInt(recentFrom);
+        }
+        return samples;
+    }
+
+    // Прежняя модель сохраняется рядом, новая пишется во временный файл и атомарно встаёт на место
+    private static void promote(MultiLayerNetwork model, File modelFile) throws IOException {
+        File directory = modelFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("bestModel", ".tmp", directory);
+        try {
+            ModelSerializer.writeModel(model, temp, true);
+            Files.copy(modelFile.toPath(), new File(directory, "bestModel.previous.bin").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), modelFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
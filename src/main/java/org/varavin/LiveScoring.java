@@ -0,0 +1,51 @@
+package org.varavin;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.buffer.util.DataTypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.live.CsvReplaySource;
+import org.varavin.live.MarketDataSource;
+import org.varavin.live.ScoringScheduler;
+import org.varavin.live.ThresholdSignalStrategy;
+import org.varavin.metrics.Metrics;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Онлайн-скоринг универсума инструментов на закрытии баров. Без брокерского стрима данные воспроизводятся из CSV:
+ * один файл под REPLAY_INSTRUMENTS именами - для проверки бюджета времени на 100+ инструментах.
+ * Аргументы: [число инструментов] [пауза между барами, мс].
+ */
+public class LiveScoring {
+    private static final Logger log = LoggerFactory.getLogger(LiveScoring.class);
+
+    public static void main(String[] args) throws Exception {
+        MemoryPlanner.configure();
+        DataTypeUtil.setDTypeForContext(DataType.FLOAT);
+        int instruments = args.length > 0 ? Integer.parseInt(args[0]) : Config.REPLAY_INSTRUMENTS;
+        long pauseMillis = args.length > 1 ? Long.parseLong(args[1]) : Config.REPLAY_BAR_PAUSE_MS;
+
+        File modelFile = new File(Config.MODEL_DIR, "bestModel.bin");
+        if (!modelFile.exists()) {
+            log.error("Файл лучшей модели не найден: {}", modelFile.getAbsolutePath());
+            return;
+        }
+        MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(modelFile);
+        // Статистика нормализации - та же, что при обучении; без неё признаки в бою разъедутся с обучающими
+        double[][] featureStats = DataManager.loadFeatureStats();
+
+        try (MarketDataSource source = CsvReplaySource.replicated(new File(Config.CSV_FILE_NAME), "GAZP", instruments, pauseMillis)) {
+            ScoringScheduler scheduler = new ScoringScheduler(model, source.instruments(),
+                    id -> new ThresholdSignalStrategy(Config.SIGNAL_THRESHOLD),
+                    featureStats, Config.SCORING_DEADLINE_MS, TimeUnit.MILLISECONDS);
+            log.info("Скоринг {} инструментов, дедлайн {} мс", instruments, Config.SCORING_DEADLINE_MS);
+            source.run(scheduler);
+        } finally {
+            Metrics.logSummary();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.varavin;
+
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.entity.WindowedDataSet;
+import org.varavin.metrics.OffHeapMonitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Планирование памяти вместо ручных -Xmx / javacpp.maxbytes. {@link #configure()} до первого обращения к ND4J
+ * выставляет лимиты JavaCPP от объёма памяти машины (с учётом лимита контейнера) и запускает {@link OffHeapMonitor}.
+ * {@link #plan} оценивает кучу под данные и память вне кучи под обучение и инференс по размерам датасета,
+ * батчу и слоям модели и уменьшает батч обучения, пока он не помещается в лимит.
+ *
+ * Оценка по слоям: параметры, градиенты и состояние Adam, плюс на пример батча вход, выходы слоёв и ошибки
+ * по ним, а у LSTM ещё гейты и состояния ячейки на каждом шаге. Встроенный отчёт DL4J (getMemoryReport)
+ * не поддерживает Conv1D на рекуррентном входе, поэтому считаем сами. Внутренними workspace обучения DL4J
+ * управляет сам, явно задаются только режимы; свои циклы инференса пишут выходы в {@link #outputWorkspace}.
+ */
+public final class MemoryPlanner {
+    private static final Logger log = LoggerFactory.getLogger(MemoryPlanner.class);
+
+    private static final String MAX_BYTES = "org.bytedeco.javacpp.maxbytes";
+    private static final String MAX_PHYSICAL_BYTES = "org.bytedeco.javacpp.maxphysicalbytes";
+    private static final long MB = 1L << 20;
+    private static final long HEAP_BASELINE_BYTES = 256 * MB;     // JVM, классы DL4J/ND4J, буферы логов
+    private static final long OFF_HEAP_BASELINE_BYTES = 128 * MB; // нативные буферы ND4J/OpenBLAS вне наших массивов
+    private static final long TA4J_BYTES_PER_BAR = 600;           // BaseBar с DoubleNum и индикаторы с кэшем
+
+    /** Оценки в байтах, лимиты процесса и батч обучения, который в них помещается. */
+    public record Plan(int requestedBatchSize, int batchSize, long heapBytes, long heapLimit,
+                       long trainingBytes, long inferenceBytes, long offHeapLimit) {
+
+        public boolean fitsHeap() {
+            return heapBytes <= heapLimit;
+        }
+
+        public boolean fitsOffHeap() {
+            return trainingBytes <= offHeapLimit;
+        }
+    }
+
+    private MemoryPlanner() {
+    }
+
+    /**
+     * Лимиты JavaCPP, если они не заданы в командной строке: доля OFF_HEAP_RAM_FRACTION памяти машины сверх кучи
+     * под ND4J и RSS не больше 95% памяти. Вызывается первым делом в main - JavaCPP читает свойства один раз.
+     */
+    public static synchronized void configure() {
+        if (System.getProperty(MAX_BYTES) == null) {
+            long ram = physicalMemory();
+            long heap = Runtime.getRuntime().maxMemory();
+            long offHeap = Math.max(OFF_HEAP_BASELINE_BYTES * 2, (long) ((ram - heap) * Config.OFF_HEAP_RAM_FRACTION));
+            System.setProperty(MAX_BYTES, Long.toString(offHeap));
+            if (System.getProperty(MAX_PHYSICAL_BYTES) == null) {
+                System.setProperty(MAX_PHYSICAL_BYTES, Long.toString(Math.max(heap + offHeap, (long) (ram * 0.95))));
+            }
+            if (Pointer.maxBytes() != offHeap) {
+                log.warn("JavaCPP инициализирован раньше MemoryPlanner.configure(), лимит вне кучи остался {}",
+                        Pointer.formatBytes(Pointer.maxBytes()));
+            }
+        }
+        log.info("Память: машина {}, куча до {}, вне кучи до {}, RSS до {}",
+                Pointer.formatBytes(physicalMemory()), Pointer.formatBytes(Runtime.getRuntime().maxMemory()),
+                Pointer.formatBytes(Pointer.maxBytes()), Pointer.formatBytes(Pointer.maxPhysicalBytes()));
+        OffHeapMonitor.start(Config.MEMORY_SAMPLE_INTERVAL_MS);
+    }
+
+    /** План для обучения model на data батчами не больше batchSize. */
+    public static Plan plan(MultiLayerNetwork model, WindowedDataSet data, int batchSize) {
+        long heapBytes = HEAP_BASELINE_BYTES
+                // бары: ta4j, BarColumns, колонки признаков double, матрица float исходная и нормализованная
+                + (long) data.numBars() * (TA4J_BYTES_PER_BAR + 6L * Double.BYTES + (long) data.numFeatures() * (Double.BYTES + 2L * Float.BYTES))
+                // примеры: индекс конца окна и метки
+                + (long) data.size() * (Integer.BYTES + (long) data.numOutputs() * Float.BYTES);
+        long offHeapLimit = offHeapLimit();
+        long available = offHeapLimit - OFF_HEAP_BASELINE_BYTES;
+
+        int fitted = batchSize;
+        while (fitted > 1 && trainingBytes(model, data, fitted) > available) {
+            fitted /= 2;
+        }
+        return new Plan(batchSize, fitted, heapBytes, Runtime.getRuntime().maxMemory(),
+                trainingBytes(model, data, fitted), inferenceBytes(model, data, fitted), offHeapLimit);
+    }
+
+    /** Батч, при котором обучение помещается в память, с предупреждениями, если оценка выходит за лимиты. */
+    public static int fitBatchSize(MultiLayerNetwork model, WindowedDataSet data, int batchSize) {
+        Plan plan = plan(model, data, batchSize);
+        log.info("План памяти: куча {} из {}, обучение {} и инференс {} вне кучи из {}, батч {}",
+                Pointer.formatBytes(plan.heapBytes()), Pointer.formatBytes(plan.heapLimit()),
+                Pointer.formatBytes(plan.trainingBytes()), Pointer.formatBytes(plan.inferenceBytes()),
+                Pointer.formatBytes(plan.offHeapLimit()), plan.batchSize());
+        if (!plan.fitsHeap()) {
+            log.warn("Данным нужно около {} кучи, доступно {} - увеличьте -Xmx или -XX:MaxRAMPercentage",
+                    Pointer.formatBytes(plan.heapBytes()), Pointer.formatBytes(plan.heapLimit()));
+        }
+        if (plan.batchSize() != batchSize) {
+            log.warn("Батч обучения уменьшен с {} до {}, чтобы поместиться в память вне кучи", batchSize, plan.batchSize());
+        }
+        if (!plan.fitsOffHeap()) {
+            log.warn("Даже батч {} не помещается в {} вне кучи", plan.batchSize(), Pointer.formatBytes(plan.offHeapLimit()));
+        }
+        return plan.batchSize();
+    }
+
+    /** Параметры, градиенты, состояние оптимизатора, активации и ошибки батча, буферы итератора. */
+    public static long trainingBytes(MultiLayerNetwork model, WindowedDataSet data, int batchSize) {
+        long params = model.numParams();
+        INDArray updaterState = model.getUpdater() != null ? model.getUpdater().getStateViewArray() : null;
+        long updater = updaterState != null ? updaterState.length() : 2 * params;
+        long perExample = layerElements(model.getLayerWiseConfigurations(), data.numFeatures(), data.timeSteps(), true)
+                + 2L * (data.windowSize() + data.numOutputs());
+        return (long) (Config.MEMORY_SAFETY_FACTOR * Float.BYTES * (2 * params + updater + (long) batchSize * perExample));
+    }
+
+    /** Параметры и две соседние активации батча: при инференсе DL4J держит только вход и выход текущего слоя. */
+    public static long inferenceBytes(MultiLayerNetwork model, WindowedDataSet data, int batchSize) {
+        long perExample = layerElements(model.getLayerWiseConfigurations(), data.numFeatures(), data.timeSteps(), false)
+                + data.windowSize();
+        return (long) (Config.MEMORY_SAFETY_FACTOR * Float.BYTES * (model.numParams() + (long) batchSize * perExample));
+    }
+
+    /**
+     * Workspace для выходов модели в цикле инференса: model.output(input, false, workspace) пишет выход в один
+     * и тот же заранее выделенный блок вместо нового массива вне кучи на каждый батч, который освобождается
+     * только сборщиком мусора. Выход действителен до закрытия workspace - значения читаются внутри него.
+     */
+    public static WorkspaceConfiguration outputWorkspace(int batchSize, int numOutputs) {
+        return WorkspaceConfiguration.builder()
+                .initialSize(2L * batchSize * numOutputs * Float.BYTES + 1024)
+                .policyAllocation(AllocationPolicy.STRICT)
+                .policyLearning(LearningPolicy.NONE)
+                .policyReset(ResetPolicy.BLOCK_LEFT)
+                .policySpill(SpillPolicy.REALLOCATE)
+                .build();
+    }
+
+    /** Явные режимы workspace вместо значений по умолчанию (у старых сохранённых моделей они могут отличаться). */
+    public static void applyWorkspaceModes(MultiLayerConfiguration conf) {
+        conf.setTrainingWorkspaceMode(WorkspaceMode.ENABLED);
+        conf.setInferenceWorkspaceMode(WorkspaceMode.ENABLED);
+        conf.setCacheMode(CacheMode.NONE);
+    }
+
+    // Элементов float на пример: при обучении сумма по слоям, при инференсе максимум пары вход/выход слоя
+    private static long layerElements(MultiLayerConfiguration conf, int numFeatures, int timeSteps, boolean training) {
+        InputType input = InputType.recurrent(numFeatures, timeSteps);
+        List<InputType> types = conf.getLayerActivationTypes(input);
+        long previous = input.arrayElementsPerExample();
+        long total = previous;
+        long peak = 0;
+        for (int i = 0; i < types.size(); i++) {
+            long out = types.get(i).arrayElementsPerExample();
+            boolean lstm = conf.getConf(i).getLayer() instanceof LSTM;
+            // LSTM: четыре гейта и два состояния ячейки на каждом шаге для обратного прохода, гейты при инференсе
+            total += 2 * out + (lstm ? 6 * out : 0);
+            peak = Math.max(peak, previous + out + (lstm ? 4 * out : 0));
+            previous = out;
+        }
+        return training ? total : peak;
+    }
+
+    // Буферы ND4J на CPU не проходят через учёт JavaCPP, поэтому лимит - ещё и то, что остаётся от машины после кучи
+    private static long offHeapLimit() {
+        long machine = Math.max(0, physicalMemory() - Runtime.getRuntime().maxMemory());
+        long limit = Pointer.maxBytes();
+        return limit > 0 ? Math.min(limit, machine) : machine;
+    }
+
+    // Объём памяти с учётом лимита контейнера (cgroup), в отличие от Pointer.totalPhysicalBytes()
+    private static long physicalMemory() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalMemorySize();
+    }
+}
@@ -31,6 +31,9 @@ import org.nd4j.linalg.schedule.ScheduleType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.varavin.entity.BotParameters;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+import org.varavin.metrics.TrainingTelemetryListener;
 
 import java.io.File;
 import java.io.IOException;
@@ -38,8 +41,13 @@ import java.io.IOException;
 public class NeuralNetwork {
     private static final Logger log = LoggerFactory.getLogger(NeuralNetwork.class);
 
+    /**
+     * Без аргументов - обучение (если IS_TRAINING_MODE) и бэктест лучшей модели; {@code finetune} - дообучение
+     * bestModel.bin на свежих данных для регулярного обновления (см. {@link FineTuner}).
+     */
     public static void main(String[] args) {
         try {
+            MemoryPlanner.configure();
             setupEnvironment();
             new File(Config.MODEL_DIR).mkdirs();
 
@@ -48,16 +56,30 @@ public class NeuralNetwork {
                 throw new RuntimeException("Не удалось подготовить данные");
             }
 
+            if (args.length > 0 && args[0].equals("finetune")) {
+                FineTuner.run(DataManager.getProcessedData(), new File(Config.MODEL_DIR, "bestModel.bin"));
+                Metrics.logSummary();
+                return;
+            }
+
             DataSetIterator trainIter = data[0];
             DataSetIterator valIter = data[1];
             DataSetIterator testIter = data[2];
 
             if (Config.IS_TRAINING_MODE) {
                 MultiLayerNetwork model = createOrLoadModel();
+                MemoryPlanner.applyWorkspaceModes(model.getLayerWiseConfigurations());
+                int batchSize = MemoryPlanner.fitBatchSize(model, DataManager.getProcessedData().all, Config.BATCH_SIZE);
+                if (batchSize != Config.BATCH_SIZE) {
+                    DataSetIterator[] fitted = DataManager.createIterators(batchSize);
+                    trainIter = fitted[0];
+                    valIter = fitted[1];
+                }
                 trainModel(model, trainIter, valIter);
             }
 
             runBacktestAndEvaluation(testIter);
+            Metrics.logSummary();
 
         } catch (Exception e) {
             log.error("Критическая ошибка: ", e);
@@ -90,7 +112,7 @@ public class NeuralNetwork {
     }
 
     // --- ИЗМЕНЕНИЕ: Убрали SelfAttentionLayer ---
-    private static MultiLayerConfiguration createRegressionModel() {
+    static MultiLayerConfiguration createRegressionModel() {
         Adam adamUpdater = new Adam(new ExponentialSchedule(ScheduleType.EPOCH, Config.INITIAL_LEARNING_RATE, Config.LR_DECAY_RATE));
 
         return new NeuralNetConfiguration.Builder()
@@ -132,13 +154,21 @@ public class NeuralNetwork {
     }
 
     private static void trainModel(MultiLayerNetwork model, DataSetIterator trainIter, DataSetIterator valIter) {
-        UIServer uiServer = UIServer.getInstance();
-        StatsStorage statsStorage = new InMemoryStatsStorage();
-        uiServer.attach(statsStorage);
-        model.setListeners(
-                new StatsListener(statsStorage),
-                new ScoreIterationListener(100)
-        );
+        if (Config.TRAINING_UI_ENABLED) {
+            UIServer uiServer = UIServer.getInstance();
+            StatsStorage statsStorage = new InMemoryStatsStorage();
+            uiServer.attach(statsStorage);
+            model.setListeners(
+                    new StatsListener(statsStorage),
+                    new ScoreIterationListener(100)
+            );
+        } else {
+            // Без веб-интерфейса: StatsListener собирает гистограммы параметров и градиентов на каждой итерации
+            model.setListeners(
+                    new TrainingTelemetryListener(new File(Config.MODEL_DIR, "training_telemetry.csv")),
+                    new ScoreIterationListener(100)
+            );
+        }
 
         EarlyStoppingConfiguration<MultiLayerNetwork> esConf = new EarlyStoppingConfiguration.Builder<MultiLayerNetwork>()
                 .epochTerminationConditions(
@@ -151,8 +181,9 @@ public class NeuralNetwork {
                 .build();
 
         EarlyStoppingTrainer trainer = new EarlyStoppingTrainer(esConf, model, trainIter);
-        try {
+        try (Stage stage = Metrics.stage("train.fit")) {
             EarlyStoppingResult<MultiLayerNetwork> result = trainer.fit();
+            stage.items((long) DataManager.getProcessedData().train.size() * result.getTotalEpochs());
             log.info("Обучение завершено.");
             log.info("Причина остановки: {}", result.getTerminationReason());
             log.info("Лучшая эпоха: {}", result.getBestModelEpoch());
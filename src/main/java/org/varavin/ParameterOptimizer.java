@@ -5,16 +5,50 @@ import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.varavin.backtest.BacktestSeries;
+import org.varavin.backtest.BatchSimulator;
+import org.varavin.backtest.ExecutionCostModel;
+import org.varavin.backtest.Leaderboard;
+import org.varavin.backtest.PredictionCache;
+import org.varavin.backtest.PruningRules;
+import org.varavin.backtest.PruningStats;
+import org.varavin.distributed.Coordinator;
+import org.varavin.distributed.Protocol;
+import org.varavin.distributed.Worker;
 import org.varavin.entity.BotParameters;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+import org.varavin.report.ChartRenderer;
+import org.varavin.report.Heatmap;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ParameterOptimizer {
 
     private static final Logger log = LoggerFactory.getLogger(ParameterOptimizer.class);
 
-    public static void main(String[] args) throws IOException {
+    /**
+     * Режимы запуска: без аргументов - локальный перебор; {@code coordinator [порт]} - раздача сетки воркерам;
+     * {@code worker <хост> [порт]} - воркер распределённого перебора.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        try {
+            MemoryPlanner.configure();
+            run(args);
+        } finally {
+            Metrics.logSummary();
+        }
+    }
+
+    private static void run(String[] args) throws IOException, InterruptedException {
+        String mode = args.length > 0 ? args[0] : "local";
+
         log.info("--- Подготовка данных для оптимизации ---");
         DataSetIterator[] data = DataManager.prepareData(Config.BATCH_SIZE);
         if (data == null) {
@@ -28,8 +62,13 @@ public class ParameterOptimizer {
             log.error("Файл лучшей модели не найден: {}. Оптимизация невозможна.", bestModelFile.getAbsolutePath());
             return;
         }
-        MultiLayerNetwork bestModel = ModelSerializer.restoreMultiLayerNetwork(bestModelFile);
-        log.info("Загружена модель для оптимизации: {}", bestModelFile.getName());
+
+        if (mode.equals("worker")) {
+            String host = args.length > 1 ? args[1] : "localhost";
+            int port = args.length > 2 ? Integer.parseInt(args[2]) : Config.DISTRIBUTED_PORT;
+            runWorker(bestModelFile, testIter, host, port);
+            return;
+        }
 
         // --- Новые диапазоны для новой сигнальной логики ---
         double atrStopStart = 1.5;
@@ -48,64 +87,166 @@ public class ParameterOptimizer {
         double riskPercentEnd = 0.10;   // 10%
         double riskPercentStep = 0.02;  // Шаг 2%
 
-        optimize(bestModel, testIter,
-                atrStopStart, atrStopEnd, atrStopStep,
-                rrStart, rrEnd, rrStep,
-                thresholdStart, thresholdEnd, thresholdStep,
-                riskPercentStart, riskPercentEnd, riskPercentStep);
-    }
-
-    private static void optimize(MultiLayerNetwork model, DataSetIterator testIterator,
-                                 double atrStopStart, double atrStopEnd, double atrStopStep,
-                                 double rrStart, double rrEnd, double rrStep,
-                                 double thresholdStart, double thresholdEnd, double thresholdStep,
-                                 double riskStart, double riskEnd, double riskStep) {
-
         log.info("\n--- НАЧАЛО ОПТИМИЗАЦИИ ПАРАМЕТРОВ (СИГНАЛЬНАЯ ЛОГИКА) ---");
         log.info("Диапазон ATR Stop Multiplier: [{}...{}]", atrStopStart, atrStopEnd);
         log.info("Диапазон Fixed R/R Ratio:   [{}...{}]", rrStart, rrEnd);
         log.info("Диапазон Signal Threshold:  [{}...{}]", thresholdStart, thresholdEnd);
-        log.info("Диапазон Risk Percent:      [{}...{}]", riskStart, riskEnd);
+        log.info("Диапазон Risk Percent:      [{}...{}]", riskPercentStart, riskPercentEnd);
+        log.info("Издержки: проскальзывание {}, исполнение по открытию следующего бара: {}, макс. доля объёма: {}",
+                Config.SLIPPAGE_MODEL, Config.FILL_ON_NEXT_BAR_OPEN, Config.MAX_VOLUME_PARTICIPATION);
         log.info("----------------------------------------------------------");
 
-        BotParameters bestParams = null;
-        double bestBalance = -Double.MAX_VALUE;
-        int totalIterations = 0;
+        List<BotParameters> grid = buildGrid(
+                atrStopStart, atrStopEnd, atrStopStep,
+                rrStart, rrEnd, rrStep,
+                thresholdStart, thresholdEnd, thresholdStep,
+                riskPercentStart, riskPercentEnd, riskPercentStep);
 
+        if (mode.equals("coordinator")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : Config.DISTRIBUTED_PORT;
+            Coordinator coordinator = new Coordinator(grid, Protocol.sessionKey(bestModelFile), port,
+                    Config.DISTRIBUTED_UNIT_SIZE, Config.OPTIMIZER_TOP_N);
+            Leaderboard leaderboard = coordinator.run();
+            logSummary(grid.size(), leaderboard);
+            return;
+        }
+
+        optimize(bestModelFile, testIter, grid);
+    }
+
+    private static List<BotParameters> buildGrid(double atrStopStart, double atrStopEnd, double atrStopStep,
+                                                 double rrStart, double rrEnd, double rrStep,
+                                                 double thresholdStart, double thresholdEnd, double thresholdStep,
+                                                 double riskStart, double riskEnd, double riskStep) {
+        List<BotParameters> grid = new ArrayList<>();
         for (double risk = riskStart; risk <= riskEnd; risk += riskStep) {
             for (double atrStop = atrStopStart; atrStop <= atrStopEnd; atrStop += atrStopStep) {
                 for (double rr = rrStart; rr <= rrEnd; rr += rrStep) {
                     for (double threshold = thresholdStart; threshold <= thresholdEnd; threshold += thresholdStep) {
+                        grid.add(new BotParameters(atrStop, rr, threshold, risk));
+                    }
+                }
+            }
+        }
+        return grid;
+    }
 
-                        totalIterations++;
+    // Симулятор строится из локально подготовленных данных и кэша предсказаний - модель прогоняется только при промахе кэша
+    private static BatchSimulator createSimulator(File modelFile, DataSetIterator testIterator) throws IOException {
+        BacktestSeries series = BacktestSeries.fromDataManager(PredictionCache.loadOrCompute(modelFile, testIterator));
+        // Модель издержек строится один раз: массивы ATR/объёма общие для всех прогонов
+        return new BatchSimulator(series, ExecutionCostModel.fromConfig());
+    }
 
-                        BotParameters currentParams = new BotParameters(atrStop, rr, threshold, risk);
+    private static void runWorker(File modelFile, DataSetIterator testIterator, String host, int port)
+            throws IOException, InterruptedException {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        Worker worker = new Worker(host, port, name, Protocol.sessionKey(modelFile),
+                createSimulator(modelFile, testIterator), PruningRules.fromConfig());
+        worker.run();
+    }
 
-                        TradingBot bot = new TradingBot(currentParams, false);
-                        testIterator.reset();
-                        TradingBot.SimulationResult result = bot.runSimulation(model, testIterator);
+    private static void optimize(File modelFile, DataSetIterator testIterator, List<BotParameters> grid) throws IOException {
+        int totalIterations = grid.size();
 
-                        if (result == null || result.totalTrades() < 10) { // Ищем более активные стратегии
-                            continue;
-                        }
+        // Предсказания не зависят от параметров: считаем их один раз, а весь перебор идёт одним проходом по барам
+        long startNanos = System.nanoTime();
+        BatchSimulator simulator = createSimulator(modelFile, testIterator);
+        PruningStats pruningStats = new PruningStats();
+        TradingBot.SimulationResult[] results;
+        try (Stage stage = Metrics.stage("optimizer.grid")) {
+            results = simulator.run(grid, PruningRules.fromConfig(), pruningStats);
+            stage.items(totalIterations);
+        }
+        log.info("Пакетная симуляция {} наборов: {} мс", totalIterations, (System.nanoTime() - startNanos) / 1_000_000);
+        log.info("Отсечение: {}", pruningStats);
 
-                        if (result.finalBalance() > bestBalance) {
-                            bestBalance = result.finalBalance();
-                            bestParams = currentParams;
-                            log.info(String.format("НОВЫЙ ЛИДЕР: Баланс: %.2f | Сделок: %d | ПФ: %.2f | Risk: %.0f%%, ATR Stop: %.1f, R/R: %.2f, Thresh: %.1f",
-                                    bestBalance, result.totalTrades(), result.profitFactor(),
-                                    bestParams.riskPercent() * 100, bestParams.atrStopMultiplier(),
-                                    bestParams.fixedRiskRewardRatio(), bestParams.signalThreshold()));
-                        }
-                    }
+        BotParameters bestParams = null;
+        TradingBot.SimulationResult bestResult = null;
+        double bestBalance = -Double.MAX_VALUE;
+
+        for (int i = 0; i < totalIterations; i++) {
+            TradingBot.SimulationResult result = results[i];
+            if (result == null || result.totalTrades() < Config.OPTIMIZER_MIN_TRADES) { // Ищем более активные стратегии
+                continue;
+            }
+
+            if (result.finalBalance() > bestBalance) {
+                bestBalance = result.finalBalance();
+                bestParams = grid.get(i);
+                bestResult = result;
+                log.info(String.format("НОВЫЙ ЛИДЕР: Баланс: %.2f | Сделок: %d | ПФ: %.2f | Risk: %.0f%%, ATR Stop: %.1f, R/R: %.2f, Thresh: %.1f",
+                        bestBalance, result.totalTrades(), result.profitFactor(),
+                        bestParams.riskPercent() * 100, bestParams.atrStopMultiplier(),
+                        bestParams.fixedRiskRewardRatio(), bestParams.signalThreshold()));
+            }
+        }
+
+        // Графики рисуются в своих потоках, пока здесь идёт контрольный прогон
+        ChartRenderer charts = Config.REPORT_CHARTS && bestParams != null ? ChartRenderer.fromConfig() : null;
+        List<CompletableFuture<File>> rendered = charts != null
+                ? renderCharts(charts, simulator, grid, results, bestParams) : List.of();
+
+        if (bestParams != null) {
+            // Контроль: лучший набор переигрывается обычным TradingBot, результаты должны совпасть
+            MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(modelFile);
+            testIterator.reset();
+            TradingBot.SimulationResult check = new TradingBot(bestParams, false, ExecutionCostModel.fromConfig())
+                    .runSimulation(model, testIterator);
+            if (check == null || Math.abs(check.finalBalance() - bestResult.finalBalance()) > 1e-6
+                    || check.totalTrades() != bestResult.totalTrades()) {
+                log.warn("Пакетная симуляция расходится с TradingBot: {} против {}", bestResult, check);
+            }
+        }
+
+        logSummary(totalIterations, Leaderboard.of(grid, results, 0, Config.OPTIMIZER_MIN_TRADES, Config.OPTIMIZER_TOP_N));
+
+        if (charts != null) {
+            try (charts) {
+                for (CompletableFuture<File> chart : rendered) {
+                    log.info("График: {}", chart.join().getPath());
                 }
+            } catch (CompletionException e) {
+                log.warn("Не удалось нарисовать график", e.getCause());
             }
         }
+    }
+
+    // Капитал и просадка лучшего набора и карта баланса ATR стоп × R/R при его пороге и риске
+    private static List<CompletableFuture<File>> renderCharts(ChartRenderer charts, BatchSimulator simulator,
+                                                              List<BotParameters> grid,
+                                                              TradingBot.SimulationResult[] results,
+                                                              BotParameters best) {
+        double[] equity = simulator.equityCurve(best);
+        Heatmap heatmap = Heatmap.atrStopByRiskReward(grid, results, best.signalThreshold(), best.riskPercent(),
+                Config.OPTIMIZER_MIN_TRADES);
+        String parameters = String.format("ATR Stop %.1f, R/R %.2f, Thresh %.1f, Risk %.0f%%",
+                best.atrStopMultiplier(), best.fixedRiskRewardRatio(), best.signalThreshold(), best.riskPercent() * 100);
+        return List.of(
+                charts.equityCurve("optimizer_equity.png", "Капитал: " + parameters, equity),
+                charts.drawdown("optimizer_drawdown.png", "Просадка: " + parameters, equity),
+                charts.heatmap("optimizer_heatmap.png",
+                        String.format("Баланс: ATR Stop × R/R (Thresh %.1f, Risk %.0f%%)", best.signalThreshold(), best.riskPercent() * 100),
+                        "ATR Stop", "R/R", "Баланс", heatmap, Config.INITIAL_BALANCE));
+    }
 
+    private static void logSummary(int totalIterations, Leaderboard leaderboard) {
         log.info("\n--- ОПТИМИЗАЦИЯ ЗАВЕРШЕНА ---");
         log.info("Всего итераций: {}", totalIterations);
-        if (bestParams != null) {
-            log.info("Лучший результат: Баланс = {}", String.format("%.2f", bestBalance));
+        log.info("Топ-{} наборов:", leaderboard.capacity());
+        List<Leaderboard.Entry> entries = leaderboard.entries();
+        for (int place = 0; place < entries.size(); place++) {
+            BotParameters p = entries.get(place).parameters();
+            TradingBot.SimulationResult r = entries.get(place).result();
+            log.info(String.format("\t%d. Баланс: %.2f | Сделок: %d | ПФ: %.2f | Risk: %.0f%%, ATR Stop: %.1f, R/R: %.2f, Thresh: %.1f",
+                    place + 1, r.finalBalance(), r.totalTrades(), r.profitFactor(),
+                    p.riskPercent() * 100, p.atrStopMultiplier(), p.fixedRiskRewardRatio(), p.signalThreshold()));
+        }
+
+        Leaderboard.Entry best = leaderboard.best();
+        if (best != null) {
+            BotParameters bestParams = best.parameters();
+            log.info("Лучший результат: Баланс = {}", String.format("%.2f", best.result().finalBalance()));
             log.info("Лучшие параметры:");
             log.info("\tRISK_PER_TRADE_PERCENT = {}", bestParams.riskPercent());
             log.info("\tATR_STOP_MULTIPLIER = {}", bestParams.atrStopMultiplier());
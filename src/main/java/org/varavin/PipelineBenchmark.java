@@ -0,0 +1,133 @@
+package org.varavin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.bus.BatchEventProcessor;
+import org.varavin.bus.EventBus;
+import org.varavin.bus.EventHandler;
+import org.varavin.bus.WaitStrategy;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность и задержка передачи событий через цепочку стадий: шина на кольцевом буфере с разными
+ * стратегиями ожидания против цепочки ArrayBlockingQueue, где на каждое событие создаётся объект.
+ * Стадии почти ничего не делают - меряется только транспорт. Задержка - от публикации до последней стадии.
+ * Аргументы: [число событий] [стратегии через запятую: busy-spin,yield,park,queue].
+ */
+public class PipelineBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(PipelineBenchmark.class);
+
+    private static final int STAGES = 4;
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /** Итог одного варианта. */
+    public record Result(String name, long events, long elapsedNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+        public double eventsPerSecond() {
+            return events / (elapsedNanos / 1e9);
+        }
+    }
+
+    static final class BenchEvent {
+        long value;
+        long publishNanos;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long events = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        String variants = args.length > 1 ? args[1] : defaultVariants();
+        for (String variant : variants.split(",")) {
+            // Прогрев JIT на той же конфигурации, затем замер
+            run(variant, Math.min(events, 200_000));
+            Result result = run(variant, events);
+            log.info(String.format("%-10s %,12.0f соб/с | задержка p50 %s p99 %s max %s",
+                    result.name(), result.eventsPerSecond(), micros(result.p50Nanos()),
+                    micros(result.p99Nanos()), micros(result.maxNanos())));
+        }
+    }
+
+    public static Result run(String variant, long events) throws InterruptedException {
+        return variant.equals("queue") ? runQueues(events) : runBus(WaitStrategy.named(variant), events);
+    }
+
+    // Крутящимся стадиям нужно по ядру, иначе они отнимают время у производителя и друг у друга
+    private static String defaultVariants() {
+        if (Runtime.getRuntime().availableProcessors() > STAGES + 1) {
+            return "busy-spin,yield,park,queue";
+        }
+        log.warn("Ядер {} - меньше, чем потоков конвейера ({}), busy-spin пропускается", Runtime.getRuntime().availableProcessors(), STAGES + 1);
+        return "yield,park,queue";
+    }
+
+    private static Result runBus(WaitStrategy waitStrategy, long events) {
+        LatencyHistogram latency = Metrics.histogram("benchmark." + waitStrategy);
+        Metrics.reset();
+        long start;
+        try (EventBus<BenchEvent> bus = new EventBus<>(BenchEvent::new, 1 << 14, waitStrategy)) {
+            BatchEventProcessor<BenchEvent> previous = null;
+            for (int s = 0; s < STAGES; s++) {
+                boolean last = s == STAGES - 1;
+                EventHandler<BenchEvent> handler = (event, sequence, endOfBatch) -> {
+                    event.value++;
+                    if (last) latency.recordSince(event.publishNanos);
+                };
+                previous = previous == null
+                        ? bus.addStage("bench-" + s, handler)
+                        : bus.addStage("bench-" + s, handler, previous);
+            }
+            bus.start();
+            start = System.nanoTime();
+            for (long i = 0; i < events; i++) {
+                bus.publish((event, value) -> {
+                    event.value = value;
+                    event.publishNanos = System.nanoTime();
+                }, 0L);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Result(waitStrategy.toString(), events, elapsed, latency.percentileNanos(50), latency.percentileNanos(99), latency.maxNanos());
+    }
+
+    private static Result runQueues(long events) throws InterruptedException {
+        LatencyHistogram latency = Metrics.histogram("benchmark.queue");
+        Metrics.reset();
+        List<BlockingQueue<BenchEvent>> queues = new ArrayList<>();
+        for (int s = 0; s < STAGES; s++) queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < STAGES; s++) {
+            BlockingQueue<BenchEvent> in = queues.get(s);
+            BlockingQueue<BenchEvent> out = s + 1 < STAGES ? queues.get(s + 1) : null;
+            threads.add(Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    for (long i = 0; i < events; i++) {
+                        BenchEvent event = in.take();
+                        event.value++;
+                        if (out != null) out.put(event);
+                        else latency.recordSince(event.publishNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (long i = 0; i < events; i++) {
+            BenchEvent event = new BenchEvent();
+            event.publishNanos = System.nanoTime();
+            queues.get(0).put(event);
+        }
+        for (Thread thread : threads) thread.join(TimeUnit.MINUTES.toMillis(5));
+        long elapsed = System.nanoTime() - start;
+        return new Result("queue", events, elapsed, latency.percentileNanos(50), latency.percentileNanos(99), latency.maxNanos());
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f мкс", nanos / 1e3);
+    }
+}
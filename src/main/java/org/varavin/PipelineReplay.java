@@ -0,0 +1,215 @@
+package org.varavin;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.buffer.util.DataTypeUtil;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.ta4j.core.BarSeries;
+import org.varavin.backtest.BacktestSeries;
+import org.varavin.backtest.PredictionCache;
+import org.varavin.bus.EventHandler;
+import org.varavin.bus.WaitStrategy;
+import org.varavin.entity.BotParameters;
+import org.varavin.entity.Candle;
+import org.varavin.execution.ExecutionEngine;
+import org.varavin.execution.ExecutionListener;
+import org.varavin.execution.Fill;
+import org.varavin.execution.SimulatedExchange;
+import org.varavin.journal.JournalWriter;
+import org.varavin.journal.SessionInfo;
+import org.varavin.live.PipelineEvent;
+import org.varavin.live.TradingPipeline;
+import org.varavin.metrics.Metrics;
+import org.varavin.risk.MarketClock;
+import org.varavin.risk.RiskManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сквозная проверка торгового конвейера на CSV: все свечи серии проходят через TradingPipeline с симулятором биржи,
+ * а решения на тестовом участке сверяются с офлайн-расчётом (предсказания PredictionCache, EMA/ADX из ta4j,
+ * правило сигнала TradingBot). Заявки проходят риск-лимиты RiskManager по часам рынка - тот же код, что на счёте.
+ * При JOURNAL_ENABLED сессия пишется в журнал в JOURNAL_DIR - его воспроизводит {@link SessionReplay}.
+ * Сверку в режиме lockstep выполняет тест PipelineReplayTest; main печатает отчёт и пропускную способность,
+ * код возврата 1 - есть расхождения.
+ * Аргументы: [lockstep|free] - ждать ли обработки каждой свечи (детерминированно) или публиковать без пауз.
+ */
+public class PipelineReplay {
+    private static final Logger log = LoggerFactory.getLogger(PipelineReplay.class);
+
+    private static final double PREDICTION_TOLERANCE = 1e-4;
+    private static final double INDICATOR_TOLERANCE = 1e-6;
+
+    /** Итог прогона: события, сверенные шаги и расхождения по видам. */
+    public record Report(int events, long elapsedNanos, int checkedSteps, int predictionMismatches,
+                         int indicatorMismatches, int signalMismatches, int signals, long orders, long fills) {
+        public boolean passed() {
+            return predictionMismatches == 0 && indicatorMismatches == 0 && signalMismatches == 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean lockstep = args.length == 0 || !args[0].equals("free");
+        Report report;
+        try {
+            MemoryPlanner.configure();
+            report = run(lockstep);
+        } finally {
+            Metrics.logSummary();
+        }
+        log.info("Событий: {}, {} событий/с; сверено шагов: {}, расхождений: предсказания {}, индикаторы {}, сигналы {}",
+                report.events(), String.format("%.0f", report.events() / (report.elapsedNanos() / 1e9)), report.checkedSteps(),
+                report.predictionMismatches(), report.indicatorMismatches(), report.signalMismatches());
+        log.info("Сигналов: {}, заявок: {}, исполнений: {}", report.signals(), report.orders(), report.fills());
+        if (!report.passed()) {
+            log.error("Конвейер расходится с офлайн-расчётом");
+            System.exit(1);
+        }
+    }
+
+    public static Report run(boolean lockstep) throws IOException {
+        DataTypeUtil.setDTypeForContext(DataType.FLOAT);
+        DataSetIterator[] data = DataManager.prepareData(Config.BATCH_SIZE);
+        if (data == null) throw new IllegalStateException("Не удалось подготовить данные");
+        File modelFile = new File(Config.MODEL_DIR, "bestModel.bin");
+        MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(modelFile);
+        INDArray predictions = PredictionCache.loadOrCompute(modelFile, data[2]);
+        BacktestSeries reference = BacktestSeries.fromDataManager(predictions);
+        int testStart = DataManager.getTestDataStartIndex();
+
+        BarSeries series = DataManager.getOriginalSeries();
+        int bars = series.getBarCount();
+        Recorder recorder = new Recorder(bars);
+        BotParameters params = new BotParameters(Config.ATR_STOP_MULTIPLIER, Config.FIXED_RISK_REWARD_RATIO,
+                Config.SIGNAL_THRESHOLD, Config.RISK_PER_TRADE_PERCENT);
+        String instrument = Config.INSTRUMENT_FIGI;
+
+        LongAdder fills = new LongAdder();
+        long orders;
+        long start;
+        long elapsed;
+        SimulatedExchange exchange = new SimulatedExchange();
+        MarketClock clock = new MarketClock();
+        RiskManager risk = RiskManager.fromConfig(List.of(instrument), clock);
+        double[][] featureStats = DataManager.loadFeatureStats();
+        JournalWriter journal = Config.JOURNAL_ENABLED ? openJournal(modelFile, params, List.of(instrument), featureStats) : null;
+        EventHandler<PipelineEvent> observer = journal == null ? recorder : (event, sequence, endOfBatch) -> {
+            recorder.onEvent(event, sequence, endOfBatch);
+            journal.onEvent(event, sequence, endOfBatch);
+        };
+        try (journal; ExecutionEngine engine = new ExecutionEngine(exchange, risk)) {
+            engine.addListener(new ExecutionListener() {
+                @Override
+                public void onFill(Fill fill) {
+                    fills.increment();
+                }
+            });
+            if (journal != null) engine.addListener(journal);
+            long ordersBefore = Metrics.counter("pipeline.orders").sum();
+            try (TradingPipeline pipeline = new TradingPipeline(model, List.of(instrument), params, featureStats,
+                    engine::getPosition, engine, risk, observer, WaitStrategy.named(Config.PIPELINE_WAIT_STRATEGY))) {
+                start = System.nanoTime();
+                for (int i = 0; i < bars; i++) {
+                    Candle candle = Candle.fromBar(series.getBar(i));
+                    clock.advance(candle.endEpochSecond());
+                    // Сначала биржа сводит заявки на свече, затем конвейер принимает решение на её закрытии
+                    exchange.onCandle(instrument, candle).join();
+                    long sequence = pipeline.publish(instrument, candle);
+                    if (lockstep) {
+                        pipeline.awaitProcessed(sequence);
+                        exchange.awaitIdle();
+                    }
+                }
+            }
+            elapsed = System.nanoTime() - start;
+            exchange.awaitIdle();
+            orders = Metrics.counter("pipeline.orders").sum() - ordersBefore;
+        }
+
+        int predictionMismatches = 0;
+        int indicatorMismatches = 0;
+        int signalMismatches = 0;
+        int signals = 0;
+        int checked = 0;
+        for (int step = 0; step < reference.steps; step++) {
+            int bar = testStart + step;
+            if (bar >= bars) break;
+            checked++;
+            if (!recorder.predicted[bar]
+                    || Math.abs(recorder.up[bar] - reference.predictedUp[step]) > PREDICTION_TOLERANCE
+                    || Math.abs(recorder.down[bar] - reference.predictedDown[step]) > PREDICTION_TOLERANCE) {
+                predictionMismatches++;
+            }
+            if (!close(recorder.ema[bar], reference.ema[step]) || !close(recorder.adx[bar], reference.adx[step])) {
+                indicatorMismatches++;
+            }
+            int expected = expectedSignal(reference, step, params.signalThreshold());
+            if (expected != recorder.signal[bar]) signalMismatches++;
+            if (recorder.signal[bar] != 0) signals++;
+        }
+        return new Report(bars, elapsed, checked, predictionMismatches, indicatorMismatches, signalMismatches,
+                signals, orders, fills.sum());
+    }
+
+    private static JournalWriter openJournal(File modelFile, BotParameters params, List<String> instruments,
+                                             double[][] featureStats) throws IOException {
+        long start = System.currentTimeMillis();
+        SessionInfo session = new SessionInfo(start, Config.TIME_STEPS, params, CacheManifest.sha256(modelFile),
+                instruments, featureStats);
+        return JournalWriter.create(new File(Config.JOURNAL_DIR, "session-" + start + ".journal"), session,
+                Config.JOURNAL_SEGMENT_BYTES);
+    }
+
+    // Правило TradingBot на офлайн-рядах: порог сигнала, ADX-тренд и сторона EMA
+    private static int expectedSignal(BacktestSeries s, int step, double threshold) {
+        double up = s.predictedUp[step];
+        double down = s.predictedDown[step];
+        int raw = up > down && up > threshold ? 1 : down > up && down > threshold ? -1 : 0;
+        if (raw == 0 || !(s.adx[step] > Config.ADX_TREND_THRESHOLD)) return 0;
+        if (raw == 1 && s.close[step] > s.ema[step]) return 1;
+        if (raw == -1 && Config.ALLOW_SHORT_TRADING && s.close[step] < s.ema[step]) return -1;
+        return 0;
+    }
+
+    private static boolean close(double actual, double expected) {
+        return Math.abs(actual - expected) <= INDICATOR_TOLERANCE * Math.max(1.0, Math.abs(expected));
+    }
+
+    // Последняя стадия: копирует решения в массивы по номеру бара (один инструмент - номер события равен бару)
+    private static final class Recorder implements EventHandler<PipelineEvent> {
+        final boolean[] predicted;
+        final double[] up;
+        final double[] down;
+        final double[] ema;
+        final double[] adx;
+        final int[] signal;
+
+        Recorder(int bars) {
+            predicted = new boolean[bars];
+            up = new double[bars];
+            down = new double[bars];
+            ema = new double[bars];
+            adx = new double[bars];
+            signal = new int[bars];
+        }
+
+        @Override
+        public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+            int bar = (int) sequence;
+            if (bar >= predicted.length) return;
+            predicted[bar] = event.predicted;
+            up[bar] = event.predictedUp;
+            down[bar] = event.predictedDown;
+            ema[bar] = event.ema;
+            adx[bar] = event.adx;
+            signal[bar] = event.signal;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.varavin;
+
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.backtest.BacktestSeries;
+import org.varavin.backtest.ExecutionCostModel;
+import org.varavin.backtest.MonteCarloSimulator;
+import org.varavin.backtest.PredictionCache;
+import org.varavin.entity.BotParameters;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Проверка устойчивости результата бэктеста методом Монте-Карло на тестовом участке и предсказаниях из кэша.
+ * Аргументы: [число прогонов] [ATR стоп] [R/R] [порог] [риск] - без параметров берутся значения Config.
+ */
+public class RobustnessTest {
+    private static final Logger log = LoggerFactory.getLogger(RobustnessTest.class);
+
+    public static void main(String[] args) throws IOException {
+        try {
+            MemoryPlanner.configure();
+            run(args);
+        } finally {
+            Metrics.logSummary();
+        }
+    }
+
+    public static MonteCarloSimulator.Report run(String[] args) throws IOException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : Config.MONTE_CARLO_RUNS;
+        BotParameters parameters = args.length >= 5
+                ? new BotParameters(Double.parseDouble(args[1]), Double.parseDouble(args[2]),
+                        Double.parseDouble(args[3]), Double.parseDouble(args[4]))
+                : new BotParameters(Config.ATR_STOP_MULTIPLIER, Config.FIXED_RISK_REWARD_RATIO,
+                        Config.SIGNAL_THRESHOLD, Config.RISK_PER_TRADE_PERCENT);
+
+        DataSetIterator[] data = DataManager.prepareData(Config.BATCH_SIZE);
+        if (data == null) throw new IllegalStateException("Не удалось подготовить данные");
+        File modelFile = new File(Config.MODEL_DIR, "bestModel.bin");
+        BacktestSeries series = BacktestSeries.fromDataManager(PredictionCache.loadOrCompute(modelFile, data[2]));
+        MonteCarloSimulator simulator = MonteCarloSimulator.fromConfig(series, ExecutionCostModel.fromConfig(), parameters);
+
+        MonteCarloSimulator.Report report;
+        long start = System.nanoTime();
+        try (Stage stage = Metrics.stage("montecarlo.run")) {
+            report = simulator.run(runs, Config.MONTE_CARLO_SEED, Config.MONTE_CARLO_CONFIDENCE);
+            stage.items((long) runs * report.summaries().size());
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        log.info(String.format("Базовый прогон: баланс %.2f | ПФ %.2f | просадка %.1f%% | сделок %d",
+                report.finalBalance(), report.profitFactor(), report.maxDrawdown() * 100, report.trades()));
+        log.info(String.format("Монте-Карло: %d прогонов на сценарий, %d мс, интервалы %.0f%% [нижняя, медиана, верхняя]",
+                runs, elapsedMs, report.confidence() * 100));
+        for (MonteCarloSimulator.Summary s : report.summaries()) {
+            log.info(String.format("%-17s баланс [%.0f, %.0f, %.0f] | ПФ [%.2f, %.2f, %.2f] | просадка [%.1f%%, %.1f%%, %.1f%%] | P(убыток) %.1f%%",
+                    s.scenario(), s.finalBalance().low(), s.finalBalance().median(), s.finalBalance().high(),
+                    s.profitFactor().low(), s.profitFactor().median(), s.profitFactor().high(),
+                    s.maxDrawdown().low() * 100, s.maxDrawdown().median() * 100, s.maxDrawdown().high() * 100,
+                    s.lossProbability() * 100));
+        }
+        return report;
+    }
+}
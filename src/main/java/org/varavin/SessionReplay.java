@@ -0,0 +1,230 @@
+package org.varavin;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.buffer.util.DataTypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.bus.EventHandler;
+import org.varavin.bus.WaitStrategy;
+import org.varavin.entity.Candle;
+import org.varavin.journal.JournalReader;
+import org.varavin.journal.RecordedEvent;
+import org.varavin.journal.SessionInfo;
+import org.varavin.live.PipelineEvent;
+import org.varavin.live.TradingPipeline;
+import org.varavin.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Воспроизведение журнала сессии ({@link org.varavin.journal.JournalWriter}): свечи из журнала проходят через новый
+ * TradingPipeline с той же моделью, параметрами и статистикой нормализации, без пауз и без исполнения. Внешние входы
+ * решений - позиция и капитал, которые видела стадия риска, - подставляются из журнала, поэтому исполнения заново
+ * не сводятся. Пачки инференса собираются по записанным границам (последние биты выхода сети зависят от состава
+ * батча), для этого свечи публикуются пачками до точек, где у записанного инференса не было ожидающих окон.
+ * Каждое событие сравнивается с записанным побитово: окно признаков, индикаторы, предсказание, сигнал и заявка.
+ * Код возврата 1 - есть расхождения.
+ * Аргументы: [файл журнала, по умолчанию последний в JOURNAL_DIR] [free|lockstep].
+ */
+public class SessionReplay {
+    private static final Logger log = LoggerFactory.getLogger(SessionReplay.class);
+
+    /** Что разошлось с журналом; событие считается по первому расхождению в порядке стадий. */
+    public enum Diff {
+        INPUT, VALIDITY, WINDOW, INDICATORS, PREDICTION, SIGNAL, ORDER
+    }
+
+    public record Report(int events, int compared, long elapsedNanos, long sessionSeconds, Map<Diff, Long> diffs,
+                         List<String> details, int fills, int orderUpdates) {
+        public boolean passed() {
+            return compared == events && diffs.values().stream().allMatch(n -> n == 0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file = args.length > 0 ? new File(args[0]) : latestJournal();
+        boolean lockstep = args.length > 1 && args[1].equals("lockstep");
+        Report report;
+        try {
+            MemoryPlanner.configure();
+            report = run(file, lockstep);
+        } finally {
+            Metrics.logSummary();
+        }
+        double seconds = report.elapsedNanos() / 1e9;
+        log.info("Журнал {}: событий {}, сверено {}, исполнений {}, статусов заявок {}", file.getName(), report.events(),
+                report.compared(), report.fills(), report.orderUpdates());
+        log.info("Воспроизведение: {} событий/с, в {} раз быстрее реального времени", String.format("%.0f", report.events() / seconds),
+                String.format("%.0f", report.sessionSeconds() / seconds));
+        log.info("Расхождения: {}", report.diffs());
+        report.details().forEach(log::warn);
+        if (!report.passed()) {
+            log.error("Решения воспроизведения расходятся с журналом");
+            System.exit(1);
+        }
+    }
+
+    public static Report run(File file, boolean lockstep) throws IOException {
+        DataTypeUtil.setDTypeForContext(DataType.FLOAT);
+        try (JournalReader journal = JournalReader.open(file)) {
+            SessionInfo session = journal.session();
+            File modelFile = new File(Config.MODEL_DIR, "bestModel.bin");
+            if (!CacheManifest.sha256(modelFile).equals(session.modelHash())) {
+                throw new IllegalStateException("Журнал записан другой моделью, чем " + modelFile);
+            }
+            MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(modelFile);
+
+            int events = journal.events();
+            RecordedAccount account = new RecordedAccount(journal);
+            DiffStage diff = new DiffStage(journal);
+            RecordedEvent in = new RecordedEvent(session.windowSize());
+            long start;
+            try (TradingPipeline pipeline = new TradingPipeline(model, session.instrumentIds(), session.params(),
+                    session.featureStats(), account::position, account::equity, null, null, diff,
+                    WaitStrategy.named(Config.PIPELINE_WAIT_STRATEGY))) {
+                start = System.nanoTime();
+                // Окон, ожидавших прямого прохода при записи; публиковать можно только при нуле
+                int pendingWindows = 0;
+                for (int i = 0; i < events; i++) {
+                    journal.event(i, in);
+                    pipeline.stage(session.instrumentIds().get(in.instrument),
+                            new Candle(in.endEpochSecond, in.open, in.high, in.low, in.close, in.volume),
+                            in.endOfInferenceBatch);
+                    if (in.endOfInferenceBatch) {
+                        pendingWindows = 0;
+                    } else if (in.windowReady) {
+                        pendingWindows++;
+                    }
+                    if (pendingWindows == 0 || i == events - 1) {
+                        long sequence = pipeline.publishStaged();
+                        if (lockstep) pipeline.awaitProcessed(sequence);
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long sessionSeconds = 0;
+            if (events > 1) {
+                long first = journal.event(0, in).endEpochSecond;
+                sessionSeconds = journal.event(events - 1, in).endEpochSecond - first;
+            }
+            Map<Diff, Long> diffs = new EnumMap<>(Diff.class);
+            for (Diff kind : Diff.values()) diffs.put(kind, diff.counts[kind.ordinal()]);
+            return new Report(events, diff.compared, elapsed, sessionSeconds, diffs, List.copyOf(diff.details),
+                    journal.fills().size(), journal.orderUpdates().size());
+        }
+    }
+
+    private static File latestJournal() {
+        File[] files = new File(Config.JOURNAL_DIR).listFiles((dir, name) -> name.endsWith(".journal"));
+        if (files == null || files.length == 0) {
+            throw new IllegalStateException("В " + Config.JOURNAL_DIR + " нет журналов сессий");
+        }
+        return Arrays.stream(files).max(Comparator.comparingLong(File::lastModified)).orElseThrow();
+    }
+
+    /**
+     * Входы стадии риска из журнала. Стадия спрашивает позицию ровно один раз на каждое валидное событие, по порядку,
+     * а капитал - только после позиции того же события, поэтому хватает курсора по валидным событиям.
+     * Используется только потоком стадии риска.
+     */
+    private static final class RecordedAccount {
+        private final long[] positions;
+        private final double[] equities;
+        private int cursor = -1;
+
+        RecordedAccount(JournalReader journal) {
+            RecordedEvent event = new RecordedEvent(journal.session().windowSize());
+            long[] positions = new long[journal.events()];
+            double[] equities = new double[journal.events()];
+            int valid = 0;
+            for (int i = 0; i < journal.events(); i++) {
+                journal.event(i, event);
+                if (!event.valid) continue;
+                positions[valid] = event.position;
+                equities[valid++] = event.equity;
+            }
+            this.positions = Arrays.copyOf(positions, valid);
+            this.equities = Arrays.copyOf(equities, valid);
+        }
+
+        long position(String instrumentId) {
+            // Лишние валидные события воспроизведения уже видны как расхождение VALIDITY
+            return ++cursor < positions.length ? positions[cursor] : 0;
+        }
+
+        double equity() {
+            return cursor < equities.length ? equities[cursor] : Double.NaN;
+        }
+    }
+
+    // Последняя стадия: побитовое сравнение события с записанным под тем же номером
+    private static final class DiffStage implements EventHandler<PipelineEvent> {
+        private final JournalReader journal;
+        private final RecordedEvent expected;
+        private final long[] counts = new long[Diff.values().length];
+        private final List<String> details = new ArrayList<>();
+        private int compared;
+
+        DiffStage(JournalReader journal) {
+            this.journal = journal;
+            this.expected = new RecordedEvent(journal.session().windowSize());
+        }
+
+        @Override
+        public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+            if (sequence >= journal.events()) return;
+            RecordedEvent e = journal.event((int) sequence, expected);
+            compared++;
+            Diff diff = compare(event, e);
+            if (diff == null) return;
+            counts[diff.ordinal()]++;
+            if (details.size() < Config.REPLAY_MAX_REPORTED_DIFFS) {
+                details.add(String.format("#%d %s %d: %s | журнал: сигнал %d, вверх %s, вниз %s, кол-во %d | "
+                                + "воспроизведение: сигнал %d, вверх %s, вниз %s, кол-во %d",
+                        sequence, event.instrumentId, event.endEpochSecond, diff, e.signal, e.predictedUp,
+                        e.predictedDown, e.quantity, event.signal, event.predictedUp, event.predictedDown, event.quantity));
+            }
+        }
+
+        private static Diff compare(PipelineEvent a, RecordedEvent e) {
+            if (a.instrument != e.instrument || a.endEpochSecond != e.endEpochSecond || !same(a.open, e.open)
+                    || !same(a.high, e.high) || !same(a.low, e.low) || !same(a.close, e.close)
+                    || !same(a.volume, e.volume)) {
+                return Diff.INPUT;
+            }
+            if (a.valid != e.valid) return Diff.VALIDITY;
+            if (a.windowReady != e.windowReady) return Diff.WINDOW;
+            if (a.windowReady) {
+                for (int i = 0; i < e.window.length; i++) {
+                    if (Float.floatToIntBits(a.window[i]) != Float.floatToIntBits(e.window[i])) return Diff.WINDOW;
+                }
+            }
+            if (!same(a.atr, e.atr) || !same(a.ema, e.ema) || !same(a.adx, e.adx)) return Diff.INDICATORS;
+            if (a.predicted != e.predicted || !same(a.predictedUp, e.predictedUp)
+                    || !same(a.predictedDown, e.predictedDown)) {
+                return Diff.PREDICTION;
+            }
+            if (a.signal != e.signal) return Diff.SIGNAL;
+            if (a.quantity != e.quantity || a.routed != e.routed || !same(a.stopLossPrice, e.stopLossPrice)
+                    || !same(a.takeProfitPrice, e.takeProfitPrice)) {
+                return Diff.ORDER;
+            }
+            return null;
+        }
+
+        // Побитовое равенство; все NaN равны между собой
+        private static boolean same(double a, double b) {
+            return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+        }
+    }
+}
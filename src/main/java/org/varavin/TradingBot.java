@@ -2,22 +2,25 @@ package org.varavin;
 
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.ta4j.core.BarSeries;
 import org.ta4j.core.indicators.EMAIndicator;
 import org.ta4j.core.indicators.adx.ADXIndicator;
 import org.ta4j.core.indicators.helpers.ClosePriceIndicator;
+import org.varavin.backtest.ExecutionCostModel;
+import org.varavin.backtest.PredictionCache;
 import org.varavin.entity.BotParameters;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 public class TradingBot {
     private static final Logger log = LoggerFactory.getLogger(TradingBot.class);
+    private static final LatencyHistogram SIMULATION_TIME = Metrics.histogram("simulation.run");
+    private static final LongAdder SIMULATION_STEPS = Metrics.counter("simulation.run.items");
 
     // Этот record виден из ParameterOptimizer, так как он public
     public record SimulationResult(double finalBalance, double profitFactor, int totalTrades) {}
@@ -50,11 +53,17 @@ public class TradingBot {
     }
 
     private final BotParameters params;
+    private final ExecutionCostModel costModel;
     private final double initialBalance;
     private double currentBalance;
     private Position currentPosition;
     private final boolean needPrintLog;
 
+    // Отложенные до открытия следующего бара вход и выход (при costModel.fillOnNextBarOpen())
+    private SignalType pendingEntrySignal = SignalType.NONE;
+    private int pendingEntrySignalStep = -1;
+    private String pendingExitReason = null;
+
     private int totalTrades = 0;
     private int winTrades = 0;
     private double grossProfit = 0.0;
@@ -65,7 +74,12 @@ public class TradingBot {
 
     // Этот конструктор соответствует тому, что ожидают ParameterOptimizer и NeuralNetwork
     public TradingBot(BotParameters params, boolean needPrintLog) {
+        this(params, needPrintLog, ExecutionCostModel.fromConfig());
+    }
+
+    public TradingBot(BotParameters params, boolean needPrintLog, ExecutionCostModel costModel) {
         this.params = params;
+        this.costModel = costModel;
         this.initialBalance = Config.INITIAL_BALANCE;
         this.currentBalance = initialBalance;
         this.currentPosition = null;
@@ -92,20 +106,33 @@ public class TradingBot {
         testIterator.reset();
         int step = 0;
 
-        List<DataSet> testData = new ArrayList<>();
-        testIterator.forEachRemaining(testData::add);
-        INDArray allFeatures = Nd4j.vstack(testData.stream().map(DataSet::getFeatures).toArray(INDArray[]::new));
-        INDArray allPredictions = model.output(allFeatures);
+        // Итератор переиспользует буферы батчей, поэтому предсказания собираем потоково, не накапливая DataSet
+        INDArray allPredictions = PredictionCache.predict(model, testIterator);
+        long simulationStart = System.nanoTime();
+        long totalSteps = allPredictions.size(0);
 
-        while (step < allFeatures.size(0)) {
+        while (step < totalSteps) {
             double currentPrice = DataManager.getOriginalPrice(step);
             if (currentPrice <= 0) {
                 step++;
                 continue;
             }
 
+            if (pendingExitReason != null) {
+                // Выход, обнаруженный на закрытии прошлого бара, исполняется по открытию текущего
+                closePosition(DataManager.getOriginalOpen(step), step, pendingExitReason);
+                pendingExitReason = null;
+                step++;
+                continue;
+            }
+
+            if (pendingEntrySignal != SignalType.NONE) {
+                enterPosition(DataManager.getOriginalOpen(step), step, pendingEntrySignalStep, pendingEntrySignal);
+                pendingEntrySignal = SignalType.NONE;
+            }
+
             if (isPositionOpen()) {
-                if (checkExits(currentPrice)) {
+                if (checkExits(currentPrice, step)) {
                     step++;
                     continue;
                 }
@@ -122,10 +149,13 @@ public class TradingBot {
         if (isPositionOpen()) {
             double finalPrice = DataManager.getOriginalPrice(step - 1);
             if (finalPrice > 0) {
-                closePosition(finalPrice, "Конец симуляции");
+                closePosition(finalPrice, step - 1, "Конец симуляции");
             }
         }
 
+        SIMULATION_TIME.recordSince(simulationStart);
+        SIMULATION_STEPS.add(totalSteps);
+
         if (needPrintLog) {
             printResults();
         }
@@ -141,6 +171,9 @@ public class TradingBot {
         this.winTrades = 0;
         this.grossProfit = 0.0;
         this.grossLoss = 0.0;
+        this.pendingEntrySignal = SignalType.NONE;
+        this.pendingEntrySignalStep = -1;
+        this.pendingExitReason = null;
         Position.nextId = 1;
     }
 
@@ -154,43 +187,65 @@ public class TradingBot {
 
             if (isTrendConfirmed) {
                 if (signal == SignalType.LONG && currentPrice > emaFilter.getValue(originalIndex).doubleValue()) {
-                    enterPosition(currentPrice, step, SignalType.LONG);
+                    submitEntry(currentPrice, step, SignalType.LONG);
                 } else if (signal == SignalType.SHORT && Config.ALLOW_SHORT_TRADING && currentPrice < emaFilter.getValue(originalIndex).doubleValue()) {
-                    enterPosition(currentPrice, step, SignalType.SHORT);
+                    submitEntry(currentPrice, step, SignalType.SHORT);
                 }
             }
         }
     }
 
-    private boolean checkExits(double currentPrice) {
+    private void submitEntry(double signalPrice, int step, SignalType signalType) {
+        if (costModel.fillOnNextBarOpen()) {
+            pendingEntrySignal = signalType;
+            pendingEntrySignalStep = step;
+        } else {
+            enterPosition(signalPrice, step, step, signalType);
+        }
+    }
+
+    private boolean checkExits(double currentPrice, int step) {
         if (!isPositionOpen()) return false;
 
         if (currentPosition.type == PositionType.LONG) {
             if (currentPrice <= currentPosition.stopLossPrice) {
-                closePosition(currentPosition.stopLossPrice, "Stop-Loss");
+                exitPosition(currentPosition.stopLossPrice, step, "Stop-Loss");
                 return true;
             }
             if (currentPrice >= currentPosition.takeProfitPrice) {
-                closePosition(currentPosition.takeProfitPrice, "Take-Profit");
+                exitPosition(currentPosition.takeProfitPrice, step, "Take-Profit");
                 return true;
             }
         } else { // SHORT
             if (currentPrice >= currentPosition.stopLossPrice) {
-                closePosition(currentPosition.stopLossPrice, "Stop-Loss");
+                exitPosition(currentPosition.stopLossPrice, step, "Stop-Loss");
                 return true;
             }
             if (currentPrice <= currentPosition.takeProfitPrice) {
-                closePosition(currentPosition.takeProfitPrice, "Take-Profit");
+                exitPosition(currentPosition.takeProfitPrice, step, "Take-Profit");
                 return true;
             }
         }
         return false;
     }
 
-    private void enterPosition(double price, int step, SignalType signalType) {
-        double atrValue = DataManager.getOriginalAtr(step);
+    private void exitPosition(double triggerPrice, int step, String reason) {
+        if (costModel.fillOnNextBarOpen()) {
+            pendingExitReason = reason;
+        } else {
+            closePosition(triggerPrice, step, reason);
+        }
+    }
+
+    // signalStep - бар, на котором возник сигнал (по нему берётся ATR), step - бар исполнения
+    private void enterPosition(double quotedPrice, int step, int signalStep, SignalType signalType) {
+        if (quotedPrice <= 0) return;
+        double atrValue = DataManager.getOriginalAtr(signalStep);
         if (atrValue <= 0) return;
 
+        int direction = signalType == SignalType.LONG ? 1 : -1;
+        double price = costModel.executionPrice(step, quotedPrice, 0, direction);
+
         double stopLossDistance = atrValue * params.atrStopMultiplier();
         if (stopLossDistance <= 1e-6) return;
 
@@ -207,12 +262,15 @@ public class TradingBot {
         }
 
         int lotSize = calculatePositionSize(price, stopLossPrice);
+        lotSize = costModel.fillableQuantity(step, lotSize, Config.MINIMUM_LOT_SIZE);
         if (lotSize < Config.MINIMUM_LOT_SIZE) {
             return;
         }
+        // Проскальзывание, зависящее от объёма, уточняем по фактическому количеству
+        price = costModel.executionPrice(step, quotedPrice, lotSize, direction);
 
         currentPosition = new Position(signalType == SignalType.LONG ? PositionType.LONG : PositionType.SHORT, price, lotSize, stopLossPrice, takeProfitPrice);
-        double commission = lotSize * price * Config.COMMISSION_RATE;
+        double commission = lotSize * price * costModel.commissionRate();
         currentBalance -= commission;
 
         if(needPrintLog) {
@@ -236,12 +294,16 @@ public class TradingBot {
         return (desiredQuantity / Config.MINIMUM_LOT_SIZE) * Config.MINIMUM_LOT_SIZE;
     }
 
-    private void closePosition(double price, String reason) {
+    private void closePosition(double quotedPrice, int step, String reason) {
         if (!isPositionOpen()) return;
+        if (quotedPrice <= 0) quotedPrice = DataManager.getOriginalPrice(step);
+
+        int direction = currentPosition.type == PositionType.LONG ? -1 : 1;
+        double price = costModel.executionPrice(step, quotedPrice, currentPosition.quantity, direction);
 
         double entryValue = currentPosition.quantity * currentPosition.entryPrice;
         double exitValue = currentPosition.quantity * price;
-        double exitCommission = exitValue * Config.COMMISSION_RATE;
+        double exitCommission = exitValue * costModel.commissionRate();
 
         double pnl = (currentPosition.type == PositionType.LONG) ? (exitValue - entryValue) : (entryValue - exitValue);
         double netProfit = pnl - exitCommission;
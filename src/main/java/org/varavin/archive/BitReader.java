@@ -0,0 +1,44 @@
+package org.varavin.archive;
+
+/** Чтение битового потока {@link BitWriter} из массива слов. */
+final class BitReader {
+
+    private final long[] words;
+    private long position;
+
+    BitReader(long[] words) {
+        this.words = words;
+    }
+
+    /** Следующие bits (1..64) бит как беззнаковое число. */
+    long read(int bits) {
+        int index = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        position += bits;
+        long value = words[index] << shift;
+        if (shift + bits > 64) {
+            value |= words[index + 1] >>> (64 - shift);
+        }
+        return value >>> (64 - bits);
+    }
+
+    /** Следующие bits (1..31) бит без продвижения позиции; за концом потока читаются нули дополнительного слова. */
+    int peek(int bits) {
+        int index = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        long value = words[index] << shift;
+        if (shift + bits > 64) {
+            value |= words[index + 1] >>> (64 - shift);
+        }
+        return (int) (value >>> (64 - bits));
+    }
+
+    void skip(int bits) {
+        position += bits;
+    }
+
+    /** Следующие bits бит как число в дополнительном коде. */
+    long readSigned(int bits) {
+        return read(bits) << (64 - bits) >> (64 - bits);
+    }
+}
@@ -0,0 +1,38 @@
+package org.varavin.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Запись битового потока старшими битами вперёд в массив 64-битных слов. */
+final class BitWriter {
+
+    private long[] words = new long[64];
+    private long position;
+
+    /** Младшие bits (1..64) бит value. */
+    void write(long value, int bits) {
+        if (bits < 64) value &= (1L << bits) - 1;
+        int index = (int) (position >>> 6);
+        if (index + 2 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int free = 64 - (int) (position & 63);
+        if (bits <= free) {
+            words[index] |= value << (free - bits);
+        } else {
+            words[index] |= value >>> (bits - free);
+            words[index + 1] |= value << (64 - (bits - free));
+        }
+        position += bits;
+    }
+
+    // Плюс одно нулевое слово в конце: BitReader.peek может заглянуть за последний бит
+    int wordCount() {
+        return (int) ((position + 63) >>> 6) + 1;
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.asLongBuffer().put(words, 0, wordCount());
+        out.position(out.position() + wordCount() * Long.BYTES);
+    }
+}
@@ -0,0 +1,303 @@
+package org.varavin.archive;
+
+import org.varavin.entity.BarColumns;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Архив свечей многих инструментов: бары каждого тикера лежат чанками по chunkBars баров, сжатыми
+ * {@link ChunkCodec}, а индекс в конце файла хранит для каждого чанка интервал времени, число баров, смещение
+ * и CRC32C. Диапазон [from, to) читается по индексу: раскодируются только чанки, пересекающие диапазон,
+ * несколько чанков - параллельно прямо в итоговые массивы.
+ *
+ * Файл: int MAGIC, int VERSION, чанки подряд, индекс, long смещение индекса, int MAGIC.
+ * Время баров - конец бара в epoch seconds, как в {@link BarColumns}. Чтение потокобезопасно.
+ */
+public final class CandleArchive implements Closeable {
+
+    private static final int MAGIC = 0x434E444C;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int FOOTER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private record Chunk(long firstEpoch, long lastEpoch, int count, long offset, int length, int crc) {
+    }
+
+    private final FileChannel channel;
+    private final Map<String, Chunk[]> index;
+
+    private CandleArchive(FileChannel channel, Map<String, Chunk[]> index) {
+        this.channel = channel;
+        this.index = index;
+    }
+
+    public static CandleArchive open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES + FOOTER_BYTES) {
+                throw new IOException("Файл " + file + " не является архивом свечей");
+            }
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = footer.getLong();
+            if (footer.getInt() != MAGIC || header.getInt() != MAGIC) {
+                throw new IOException("Файл " + file + " не является архивом свечей");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия архива свечей " + version + " в " + file);
+            }
+            ByteBuffer indexBytes = read(channel, indexOffset, (int) (size - FOOTER_BYTES - indexOffset));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexBytes.array()));
+            int tickers = in.readInt();
+            Map<String, Chunk[]> index = new LinkedHashMap<>();
+            for (int t = 0; t < tickers; t++) {
+                String ticker = in.readUTF();
+                Chunk[] chunks = new Chunk[in.readInt()];
+                for (int c = 0; c < chunks.length; c++) {
+                    chunks[c] = new Chunk(in.readLong(), in.readLong(), in.readInt(), in.readLong(), in.readInt(), in.readInt());
+                }
+                index.put(ticker, chunks);
+            }
+            return new CandleArchive(channel, index);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Set<String> tickers() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public int barCount(String ticker) {
+        int count = 0;
+        for (Chunk chunk : chunks(ticker)) {
+            count += chunk.count();
+        }
+        return count;
+    }
+
+    /** Бары тикера с концом в [fromEpochSecond, toEpochSecond). */
+    public BarColumns read(String ticker, long fromEpochSecond, long toEpochSecond) throws IOException {
+        Chunk[] chunks = chunks(ticker);
+        int first = firstChunkEndingAtOrAfter(chunks, fromEpochSecond);
+        int last = first;
+        while (last < chunks.length && chunks[last].firstEpoch() < toEpochSecond) {
+            last++;
+        }
+        if (first >= last || fromEpochSecond >= toEpochSecond) {
+            return empty(0);
+        }
+
+        int[] offsets = new int[last - first + 1];
+        for (int c = first; c < last; c++) {
+            offsets[c - first + 1] = offsets[c - first] + chunks[c].count();
+        }
+        BarColumns bars = empty(offsets[offsets.length - 1]);
+        try {
+            IntStream decode = IntStream.range(first, last);
+            (last - first > 1 ? decode.parallel() : decode).forEach(c -> {
+                try {
+                    ChunkCodec.decode(readChunk(chunks[c]), bars, offsets[c - first]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Обрезка только по краевым чанкам
+        long[] time = bars.endEpochSeconds();
+        int from = lowerBound(time, 0, chunks[first].count(), fromEpochSecond);
+        int to = lowerBound(time, offsets[offsets.length - 2], time.length, toEpochSecond);
+        if (from == 0 && to == time.length) {
+            return bars;
+        }
+        return new BarColumns(Arrays.copyOfRange(time, from, to),
+                Arrays.copyOfRange(bars.open(), from, to), Arrays.copyOfRange(bars.high(), from, to),
+                Arrays.copyOfRange(bars.low(), from, to), Arrays.copyOfRange(bars.close(), from, to),
+                Arrays.copyOfRange(bars.volume(), from, to));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Chunk[] chunks(String ticker) {
+        Chunk[] chunks = index.get(ticker);
+        if (chunks == null) {
+            throw new IllegalArgumentException("В архиве нет тикера " + ticker);
+        }
+        return chunks;
+    }
+
+    private ByteBuffer readChunk(Chunk chunk) throws IOException {
+        ByteBuffer bytes = read(channel, chunk.offset(), chunk.length());
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.array(), 0, chunk.length());
+        if ((int) crc.getValue() != chunk.crc()) {
+            throw new IOException("Контрольная сумма чанка по смещению " + chunk.offset() + " не совпадает");
+        }
+        return bytes;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Неожиданный конец архива");
+            }
+        }
+        return buffer.flip();
+    }
+
+    // Чанки тикера идут по времени, поэтому их концы возрастают
+    private static int firstChunkEndingAtOrAfter(Chunk[] chunks, long epochSecond) {
+        int lo = 0;
+        int hi = chunks.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (chunks[mid].lastEpoch() < epochSecond) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int lowerBound(long[] time, int from, int to, long epochSecond) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time[mid] < epochSecond) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static BarColumns empty(int size) {
+        return new BarColumns(new long[size], new double[size], new double[size], new double[size], new double[size], new double[size]);
+    }
+
+    public static Writer writer(File file, int chunkBars) throws IOException {
+        return new Writer(file, chunkBars);
+    }
+
+    /**
+     * Запись архива: бары каждого тикера добавляются по возрастанию времени, за несколько вызовов add можно.
+     * Файл пишется во временный и при {@link #commit()} с индексом атомарно встаёт на место; close() без commit()
+     * (например, после исключения) удаляет временный файл, а прежний архив остаётся нетронутым.
+     */
+    public static final class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final FileChannel channel;
+        private final int chunkBars;
+        private final Map<String, List<Chunk>> index = new LinkedHashMap<>();
+        private long position;
+        private boolean committed;
+
+        private Writer(File file, int chunkBars) throws IOException {
+            if (chunkBars < 1) {
+                throw new IllegalArgumentException("Размер чанка должен быть положительным: " + chunkBars);
+            }
+            this.target = file.toPath();
+            this.temp = new File(file.getPath() + ".tmp").toPath();
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.chunkBars = chunkBars;
+            write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        public void add(String ticker, BarColumns bars) throws IOException {
+            List<Chunk> chunks = index.computeIfAbsent(ticker, k -> new ArrayList<>());
+            long[] time = bars.endEpochSeconds();
+            long previous = chunks.isEmpty() ? Long.MIN_VALUE : chunks.get(chunks.size() - 1).lastEpoch();
+            for (long t : time) {
+                if (t <= previous) {
+                    throw new IllegalArgumentException("Бары " + ticker + " не упорядочены по времени: " + t + " после " + previous);
+                }
+                previous = t;
+            }
+            for (int from = 0; from < bars.size(); from += chunkBars) {
+                int count = Math.min(chunkBars, bars.size() - from);
+                ByteBuffer chunk = ChunkCodec.encode(bars, from, count);
+                CRC32C crc = new CRC32C();
+                crc.update(chunk.array(), 0, chunk.limit());
+                chunks.add(new Chunk(time[from], time[from + count - 1], count, position, chunk.limit(), (int) crc.getValue()));
+                write(chunk);
+            }
+        }
+
+        /** Дописывает индекс и заменяет архив; после commit() писать нельзя. */
+        public void commit() throws IOException {
+            if (committed) {
+                throw new IllegalStateException("Архив уже записан: " + target);
+            }
+            try (channel) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(index.size());
+                for (Map.Entry<String, List<Chunk>> entry : index.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (Chunk chunk : entry.getValue()) {
+                        out.writeLong(chunk.firstEpoch());
+                        out.writeLong(chunk.lastEpoch());
+                        out.writeInt(chunk.count());
+                        out.writeLong(chunk.offset());
+                        out.writeInt(chunk.length());
+                        out.writeInt(chunk.crc());
+                    }
+                }
+                long indexOffset = position;
+                write(ByteBuffer.wrap(bytes.toByteArray()));
+                write(ByteBuffer.allocate(FOOTER_BYTES).putLong(indexOffset).putInt(MAGIC).flip());
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            try (channel) {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.varavin.archive;
+
+import org.varavin.entity.BarColumns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Сжатие чанка баров по колонкам, как в Gorilla (Facebook TSDB). Время - дельта дельт с префиксным кодом:
+ * у баров с постоянным шагом это один бит на бар. Цены и объём - XOR с предыдущим значением: повтор стоит
+ * один бит, иначе пишутся только значащие биты XOR, а окно нулей переиспользуется, пока оно подходит.
+ *
+ * Чанк: int число баров, затем шесть колонок (время, open, high, low, close, volume), каждая - int число слов
+ * и сами слова. Колонки независимы и декодируются каждая своим плотным циклом.
+ */
+final class ChunkCodec {
+
+    static final int COLUMNS = 6;
+    private static final int PREFIX_BITS = 5;
+
+    private ChunkCodec() {
+    }
+
+    static ByteBuffer encode(BarColumns bars, int from, int count) {
+        BitWriter[] streams = new BitWriter[COLUMNS];
+        streams[0] = new BitWriter();
+        encodeTimes(bars.endEpochSeconds(), from, count, streams[0]);
+        double[][] values = {bars.open(), bars.high(), bars.low(), bars.close(), bars.volume()};
+        for (int c = 0; c < values.length; c++) {
+            streams[c + 1] = new BitWriter();
+            encodeDoubles(values[c], from, count, streams[c + 1]);
+        }
+        int size = Integer.BYTES;
+        for (BitWriter stream : streams) {
+            size += Integer.BYTES + stream.wordCount() * Long.BYTES;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(count);
+        for (BitWriter stream : streams) {
+            out.putInt(stream.wordCount());
+            stream.writeTo(out);
+        }
+        return out.flip();
+    }
+
+    /** Раскодирует чанк в колонки out начиная с индекса offset; возвращает число баров. */
+    static int decode(ByteBuffer chunk, BarColumns out, int offset) {
+        int count = chunk.getInt();
+        decodeTimes(new BitReader(words(chunk)), count, out.endEpochSeconds(), offset);
+        decodeDoubles(new BitReader(words(chunk)), count, out.open(), offset);
+        decodeDoubles(new BitReader(words(chunk)), count, out.high(), offset);
+        decodeDoubles(new BitReader(words(chunk)), count, out.low(), offset);
+        decodeDoubles(new BitReader(words(chunk)), count, out.close(), offset);
+        decodeDoubles(new BitReader(words(chunk)), count, out.volume(), offset);
+        return count;
+    }
+
+    private static long[] words(ByteBuffer chunk) {
+        long[] words = new long[chunk.getInt()];
+        chunk.asLongBuffer().get(words);
+        chunk.position(chunk.position() + words.length * Long.BYTES);
+        return words;
+    }
+
+    // Префиксы дельты дельт: 0 - ноль, 10 - 7 бит, 110 - 9 бит, 1110 - 12 бит, 11110 - 32 бита, 11111 - 64 бита
+    private static void encodeTimes(long[] time, int from, int count, BitWriter out) {
+        out.write(time[from], 64);
+        long previousDelta = 0;
+        for (int i = from + 1; i < from + count; i++) {
+            long delta = time[i] - time[i - 1];
+            long dod = delta - previousDelta;
+            previousDelta = delta;
+            if (dod == 0) {
+                out.write(0b0, 1);
+            } else if (dod >= -64 && dod < 64) {
+                out.write(0b10, 2);
+                out.write(dod, 7);
+            } else if (dod >= -256 && dod < 256) {
+                out.write(0b110, 3);
+                out.write(dod, 9);
+            } else if (dod >= -2048 && dod < 2048) {
+                out.write(0b1110, 4);
+                out.write(dod, 12);
+            } else if (dod == (int) dod) {
+                out.write(0b11110, 5);
+                out.write(dod, 32);
+            } else {
+                out.write(0b11111, 5);
+                out.write(dod, 64);
+            }
+        }
+    }
+
+    private static void decodeTimes(BitReader in, int count, long[] out, int offset) {
+        long time = in.read(64);
+        out[offset] = time;
+        long delta = 0;
+        for (int i = offset + 1; i < offset + count; i++) {
+            // Префикс целиком: число ведущих единиц в следующих пяти битах
+            int ones = Integer.numberOfLeadingZeros(~(in.peek(PREFIX_BITS) << (32 - PREFIX_BITS)));
+            in.skip(ones < PREFIX_BITS ? ones + 1 : PREFIX_BITS);
+            delta += switch (ones) {
+                case 0 -> 0;
+                case 1 -> in.readSigned(7);
+                case 2 -> in.readSigned(9);
+                case 3 -> in.readSigned(12);
+                case 4 -> in.readSigned(32);
+                default -> in.read(64);
+            };
+            time += delta;
+            out[i] = time;
+        }
+    }
+
+    // 0 - значение повторилось; 10 - значащие биты XOR в прежнем окне; 11 - 6 бит ведущих нулей, 6 бит длины - 1, биты
+    private static void encodeDoubles(double[] values, int from, int count, BitWriter out) {
+        long previous = Double.doubleToRawLongBits(values[from]);
+        out.write(previous, 64);
+        int leading = -1;
+        int trailing = 0;
+        for (int i = from + 1; i < from + count; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0b0, 1);
+                continue;
+            }
+            int lead = Long.numberOfLeadingZeros(xor);
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                int meaningful = 64 - lead - trail;
+                out.write(0b11, 2);
+                out.write(lead, 6);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trail, meaningful);
+                leading = lead;
+                trailing = trail;
+            }
+        }
+    }
+
+    private static void decodeDoubles(BitReader in, int count, double[] out, int offset) {
+        long bits = in.read(64);
+        out[offset] = Double.longBitsToDouble(bits);
+        int leading = 0;
+        int meaningful = 64;
+        for (int i = offset + 1; i < offset + count; i++) {
+            int control = in.peek(2);
+            if (control < 0b10) {
+                in.skip(1);
+            } else {
+                in.skip(2);
+                if (control == 0b11) {
+                    int header = (int) in.read(12);
+                    leading = header >>> 6;
+                    meaningful = (header & 63) + 1;
+                }
+                bits ^= in.read(meaningful) << (64 - leading - meaningful);
+            }
+            out[i] = Double.longBitsToDouble(bits);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.varavin.backtest;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.ta4j.core.BarSeries;
+import org.ta4j.core.indicators.EMAIndicator;
+import org.ta4j.core.indicators.adx.ADXIndicator;
+import org.ta4j.core.indicators.helpers.ClosePriceIndicator;
+import org.varavin.DataManager;
+
+/**
+ * Все входные ряды тестового участка в примитивных массивах по шагу: цены, ATR, фильтры и предсказания модели.
+ * Считаются один раз и читаются всеми симуляциями перебора, вместо обращений к BarSeries и INDArray на каждом шаге.
+ * Значения вне серии, как и у аксессоров DataManager, равны -1.
+ */
+public final class BacktestSeries {
+
+    public final int steps;
+    public final double[] close;
+    public final double[] open;
+    public final double[] atr;
+    public final double[] ema;
+    public final double[] adx;
+    public final double[] predictedUp;
+    public final double[] predictedDown;
+
+    public BacktestSeries(double[] close, double[] open, double[] atr, double[] ema, double[] adx,
+                          double[] predictedUp, double[] predictedDown) {
+        this.steps = predictedUp.length;
+        this.close = close;
+        this.open = open;
+        this.atr = atr;
+        this.ema = ema;
+        this.adx = adx;
+        this.predictedUp = predictedUp;
+        this.predictedDown = predictedDown;
+    }
+
+    /** Ряды тестового участка DataManager и предсказания [шаг][рост, падение] для него. */
+    public static BacktestSeries fromDataManager(INDArray predictions) {
+        BarSeries series = DataManager.getOriginalSeries();
+        if (series == null) {
+            throw new IllegalStateException("Данные не загружены: BarSeries отсутствует");
+        }
+        int steps = (int) predictions.size(0);
+        int startIndex = DataManager.getTestDataStartIndex();
+
+        // Те же фильтры, что и в TradingBot
+        EMAIndicator emaFilter = new EMAIndicator(new ClosePriceIndicator(series), 200);
+        ADXIndicator adxFilter = new ADXIndicator(series, 14);
+
+        double[] close = new double[steps];
+        double[] open = new double[steps];
+        double[] atr = new double[steps];
+        double[] ema = new double[steps];
+        double[] adx = new double[steps];
+        double[] up = new double[steps];
+        double[] down = new double[steps];
+        for (int step = 0; step < steps; step++) {
+            close[step] = DataManager.getOriginalPrice(step);
+            open[step] = DataManager.getOriginalOpen(step);
+            atr[step] = DataManager.getOriginalAtr(step);
+            int originalIndex = startIndex + step;
+            if (originalIndex < series.getBarCount()) {
+                ema[step] = emaFilter.getValue(originalIndex).doubleValue();
+                adx[step] = adxFilter.getValue(originalIndex).doubleValue();
+            }
+            up[step] = predictions.getDouble(step, 0);
+            down[step] = predictions.getDouble(step, 1);
+        }
+        return new BacktestSeries(close, open, atr, ema, adx, up, down);
+    }
+}
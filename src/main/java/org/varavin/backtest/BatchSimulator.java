@@ -0,0 +1,555 @@
+package org.varavin.backtest;
+
+import org.varavin.Config;
+import org.varavin.TradingBot;
+import org.varavin.entity.BotParameters;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Пакетная симуляция: K наборов BotParameters проходят тестовый участок одновременно, бар за баром.
+ * Состояние каждого набора (баланс, позиция, стоп/тейк, отложенные заявки, статистика) лежит в примитивных
+ * массивах по индексу набора, поэтому данные бара читаются один раз на весь блок наборов, а не на каждый прогон.
+ *
+ * Логика повторяет TradingBot шаг в шаг, включая модель издержек: результат набора совпадает с
+ * {@code new TradingBot(params, false, costModel).runSimulation(...)} на тех же предсказаниях.
+ * Блоки наборов независимы и считаются параллельно.
+ *
+ * С {@link PruningRules} безнадёжные прогоны останавливаются досрочно (их результат - null):
+ * просадка сверх лимита; недостаточно оставшихся сигналов, чтобы набрать minTrades сделок;
+ * верхняя граница достижимого баланса ниже N-го места среди уже завершённых прогонов. Граница - минимум из двух:
+ * <ul>
+ *   <li>позиция не больше баланса, а выход не лучше пути цены, поэтому баланс растёт не сильнее
+ *       произведения max(p1/p0, p0/p1) по последовательным ценам открытия и закрытия;</li>
+ *   <li>объём ограничен риском (qty * SL <= balance * risk), и выход не дальше тейка плюс движение
+ *       последнего бара и гэп до открытия, поэтому сделка даёт не больше balance * risk * (RR + движение / SL),
+ *       а сделок впереди не больше, чем оставшихся сигналов.</li>
+ * </ul>
+ */
+public final class BatchSimulator {
+
+    // Размер блока подобран так, чтобы состояние блока помещалось в L1/L2
+    // Блоки помельче, чтобы порог таблицы лидеров успевал уточняться по мере завершения блоков
+    private static final int BLOCK_SIZE = 128;
+    // Правила проверяются раз в несколько баров: остановка чуть позже дешевле проверки на каждом шаге
+    private static final int PRUNE_CHECK_INTERVAL = 8;
+    // Граница баланса требует exp/log1p на набор, поэтому считается ещё реже
+    private static final int BOUND_CHECK_INTERVAL = 32;
+
+    private static final LatencyHistogram BLOCK_TIME = Metrics.histogram("simulation.block");
+    private static final LongAdder BLOCK_SIMULATIONS = Metrics.counter("simulation.block.items");
+
+    private final BacktestSeries series;
+    private final ExecutionCostModel costModel;
+
+    // Общий для всех наборов сигнал бара: направление (+1/-1/0) и сила; от параметров зависит только порог
+    private final int[] signalSide;
+    private final double[] signalStrength;
+    // Множитель, на который баланс может вырасти после закрытия/открытия бара до конца участка
+    private final double[] growthAfterClose;
+    private final double[] growthAfterOpen;
+    // Наибольший выход цены за тейк/стоп на баре срабатывания (движение бара + гэп) и наименьший ATR после шага
+    private final double[] maxOvershootAfter;
+    private final double[] minAtrAfter;
+    // Силы всех сигнальных баров по возрастанию - число сигналов выше порога ищется бинарным поиском
+    private final double[] sortedSignalStrengths;
+
+    public BatchSimulator(BacktestSeries series, ExecutionCostModel costModel) {
+        this.series = series;
+        this.costModel = costModel;
+        int steps = series.steps;
+        this.signalSide = new int[steps];
+        this.signalStrength = new double[steps];
+        computeSignals(series, series.predictedUp, series.predictedDown, signalSide, signalStrength);
+
+        // Накопленная сумма |ln(p1/p0)| по пути open[0], close[0], open[1], close[1], ...
+        double[] logAtOpen = new double[steps];
+        double[] logAtClose = new double[steps];
+        double acc = 0.0;
+        double prev = -1.0;
+        for (int step = 0; step < steps; step++) {
+            if (series.open[step] > 0) {
+                if (prev > 0) acc += Math.abs(Math.log(series.open[step] / prev));
+                prev = series.open[step];
+            }
+            logAtOpen[step] = acc;
+            if (series.close[step] > 0) {
+                if (prev > 0) acc += Math.abs(Math.log(series.close[step] / prev));
+                prev = series.close[step];
+            }
+            logAtClose[step] = acc;
+        }
+        this.growthAfterClose = new double[steps];
+        this.growthAfterOpen = new double[steps];
+        for (int step = 0; step < steps; step++) {
+            // Небольшой запас на погрешность округления, чтобы граница оставалась верхней
+            growthAfterClose[step] = Math.exp(acc - logAtClose[step]) * (1 + 1e-9);
+            growthAfterOpen[step] = Math.exp(acc - logAtOpen[step]) * (1 + 1e-9);
+        }
+
+        this.sortedSignalStrengths = IntStream.range(0, steps)
+                .filter(step -> signalSide[step] != 0)
+                .mapToDouble(step -> signalStrength[step])
+                .sorted()
+                .toArray();
+
+        this.maxOvershootAfter = new double[steps];
+        this.minAtrAfter = new double[steps];
+        double maxOvershoot = 0.0;
+        double minAtr = Double.POSITIVE_INFINITY;
+        for (int step = steps - 1; step >= 0; step--) {
+            double close = series.close[step];
+            if (close > 0) {
+                double overshoot = 0.0;
+                if (step > 0 && series.close[step - 1] > 0) overshoot += Math.abs(close - series.close[step - 1]);
+                if (series.open[step] > 0) overshoot += Math.abs(close - series.open[step]);
+                if (step + 1 < steps && series.open[step + 1] > 0) overshoot += Math.abs(series.open[step + 1] - close);
+                maxOvershoot = Math.max(maxOvershoot, overshoot);
+            }
+            if (series.atr[step] > 0) minAtr = Math.min(minAtr, series.atr[step]);
+            maxOvershootAfter[step] = maxOvershoot;
+            minAtrAfter[step] = minAtr;
+        }
+    }
+
+    /**
+     * Сигнал бара по предсказаниям up/down с фильтрами ADX и EMA, как в TradingBot: направление (+1/-1/0) и сила.
+     * Порог набора параметров здесь не применяется. Массивы side и strength перезаписываются целиком.
+     */
+    static void computeSignals(BacktestSeries series, double[] up, double[] down, int[] side, double[] strength) {
+        for (int step = 0; step < series.steps; step++) {
+            side[step] = 0;
+            strength[step] = 0.0;
+            double price = series.close[step];
+            if (price <= 0 || !(series.adx[step] > Config.ADX_TREND_THRESHOLD)) continue;
+            if (up[step] > down[step] && price > series.ema[step]) {
+                side[step] = 1;
+                strength[step] = up[step];
+            } else if (down[step] > up[step] && Config.ALLOW_SHORT_TRADING && price < series.ema[step]) {
+                side[step] = -1;
+                strength[step] = down[step];
+            }
+        }
+    }
+
+    /**
+     * Капитал на каждом баре для одного набора с переоценкой открытой позиции по закрытию - для графиков.
+     * Считается на уже посчитанных сигналах той же логикой, что и пакетный прогон.
+     */
+    public double[] equityCurve(BotParameters parameters) {
+        double[] equity = new double[series.steps];
+        PathSimulator path = new PathSimulator(this, parameters);
+        path.record(null, equity);
+        path.run(signalSide, signalStrength);
+        return equity;
+    }
+
+    /** Блок из одной дорожки без отсечения для {@link PathSimulator}: те же ветки, что у пакетного прогона. */
+    Block lane(BotParameters parameters) {
+        return new Block(List.of(parameters), PruningRules.none(), new PruningStats(),
+                new TopNThreshold(1, Double.NEGATIVE_INFINITY));
+    }
+
+    /** Полный перебор без отсечения; результаты в порядке входного списка. */
+    public TradingBot.SimulationResult[] run(List<BotParameters> parameters) {
+        return run(parameters, PruningRules.none(), new PruningStats());
+    }
+
+    /** Перебор с отсечением: для остановленных прогонов результат равен null. */
+    public TradingBot.SimulationResult[] run(List<BotParameters> parameters, PruningRules rules, PruningStats stats) {
+        return run(parameters, rules, stats, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * То же с заранее известным порогом таблицы лидеров (например, N-е место общей таблицы при распределённом переборе):
+     * прогоны, которые не могут его превзойти, отсекаются с самого начала.
+     */
+    public TradingBot.SimulationResult[] run(List<BotParameters> parameters, PruningRules rules, PruningStats stats, double leaderFloor) {
+        int total = parameters.size();
+        TradingBot.SimulationResult[] results = new TradingBot.SimulationResult[total];
+        TopNThreshold leaders = new TopNThreshold(Math.max(1, rules.topN()), leaderFloor);
+        stats.addSimulations(total, series.steps);
+        int blocks = (total + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int from = b * BLOCK_SIZE;
+            int to = Math.min(total, from + BLOCK_SIZE);
+            long start = System.nanoTime();
+            new Block(parameters.subList(from, to), rules, stats, leaders).run(signalSide, signalStrength, results, from);
+            BLOCK_TIME.recordSince(start);
+            BLOCK_SIMULATIONS.add(to - from);
+        });
+        return results;
+    }
+
+    /** N-е место среди завершённых прогонов с достаточным числом сделок; до заполнения таблицы - минус бесконечность. */
+    private static final class TopNThreshold {
+        private final int capacity;
+        private final PriorityQueue<Double> best = new PriorityQueue<>();
+        private final double floor;
+        private volatile double threshold;
+
+        TopNThreshold(int capacity, double floor) {
+            this.capacity = capacity;
+            this.floor = floor;
+            this.threshold = floor;
+        }
+
+        synchronized void offer(double finalBalance) {
+            if (best.size() < capacity) {
+                best.add(finalBalance);
+            } else if (finalBalance > best.peek()) {
+                best.poll();
+                best.add(finalBalance);
+            }
+            if (best.size() == capacity) {
+                threshold = Math.max(floor, best.peek());
+            }
+        }
+
+        double threshold() {
+            return threshold;
+        }
+    }
+
+    /**
+     * Состояние блока наборов в виде структуры массивов. Блок переиспользуется: {@link #reset()} возвращает его
+     * к началу участка. По запросу ({@link #track}) дорожка 0 ведёт капитал с переоценкой открытой позиции
+     * по закрытию бара, его просадку и доходность каждой сделки - для {@link PathSimulator}.
+     */
+    final class Block {
+        final int size;
+        // Параметры
+        final double[] atrStop;
+        final double[] riskReward;
+        final double[] threshold;
+        final double[] riskPercent;
+        // Позиция: side = +1 лонг, -1 шорт, 0 нет позиции
+        final int[] side;
+        final double[] entryPrice;
+        final double[] stopLoss;
+        final double[] takeProfit;
+        final int[] quantity;
+        // Отложенные до открытия следующего бара вход и выход
+        final int[] pendingEntrySide;
+        final int[] pendingEntryStep;
+        final boolean[] pendingExit;
+        // Счёт и статистика
+        final double[] balance;
+        final int[] trades;
+        final double[] grossProfit;
+        final double[] grossLoss;
+        // Отсечение
+        final PruningRules rules;
+        final PruningStats stats;
+        final TopNThreshold leaders;
+        final boolean[] active;
+        final double[] peakBalance;
+        final double[] boundBase;
+        final double[] boundGrowth;
+        final double[] stopDistance;
+        final int[] signalsLeft;
+        // Запись дорожки 0: включена track(), массивы необязательны
+        boolean tracking;
+        double[] equity;
+        double[] tradeReturns;
+        double peakEquity;
+        double maxDrawdown;
+
+        Block(List<BotParameters> parameters, PruningRules rules, PruningStats stats, TopNThreshold leaders) {
+            size = parameters.size();
+            atrStop = new double[size];
+            riskReward = new double[size];
+            threshold = new double[size];
+            riskPercent = new double[size];
+            for (int k = 0; k < size; k++) {
+                BotParameters p = parameters.get(k);
+                atrStop[k] = p.atrStopMultiplier();
+                riskReward[k] = p.fixedRiskRewardRatio();
+                threshold[k] = p.signalThreshold();
+                riskPercent[k] = p.riskPercent();
+            }
+            side = new int[size];
+            entryPrice = new double[size];
+            stopLoss = new double[size];
+            takeProfit = new double[size];
+            quantity = new int[size];
+            pendingEntrySide = new int[size];
+            pendingEntryStep = new int[size];
+            pendingExit = new boolean[size];
+            balance = new double[size];
+            trades = new int[size];
+            grossProfit = new double[size];
+            grossLoss = new double[size];
+
+            this.rules = rules;
+            this.stats = stats;
+            this.leaders = leaders;
+            active = new boolean[size];
+            peakBalance = new double[size];
+            boundBase = new double[size];
+            boundGrowth = new double[size];
+            stopDistance = new double[size];
+            signalsLeft = new int[size];
+            reset();
+        }
+
+        void reset() {
+            Arrays.fill(side, 0);
+            Arrays.fill(quantity, 0);
+            Arrays.fill(pendingEntrySide, 0);
+            Arrays.fill(pendingExit, false);
+            Arrays.fill(balance, Config.INITIAL_BALANCE);
+            Arrays.fill(trades, 0);
+            Arrays.fill(grossProfit, 0.0);
+            Arrays.fill(grossLoss, 0.0);
+            Arrays.fill(active, true);
+            Arrays.fill(peakBalance, Config.INITIAL_BALANCE);
+            // Сколько сигналов сильнее порога набора ещё впереди; уменьшается по мере прохода баров
+            for (int k = 0; k < size; k++) {
+                signalsLeft[k] = countStronger(threshold[k]);
+            }
+            peakEquity = Config.INITIAL_BALANCE;
+            maxDrawdown = 0.0;
+        }
+
+        /** Включает запись дорожки 0; массив сделок должен вместить все сделки, null - не записывать. */
+        void track(double[] tradeReturns, double[] equity) {
+            this.tracking = true;
+            this.tradeReturns = tradeReturns;
+            this.equity = equity;
+        }
+
+        private int countStronger(double minStrength) {
+            int lo = 0;
+            int hi = sortedSignalStrengths.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sortedSignalStrengths[mid] > minStrength) hi = mid;
+                else lo = mid + 1;
+            }
+            return sortedSignalStrengths.length - lo;
+        }
+
+        /** Прогон по сигналам баров; results == null - итог остаётся в полях блока (дорожка PathSimulator). */
+        void run(int[] signalSide, double[] signalStrength, TradingBot.SimulationResult[] results, int offset) {
+            boolean nextBarOpen = costModel.fillOnNextBarOpen();
+            boolean pruning = rules.enabled();
+            // Минимальное расстояние между сигналами соседних сделок: вход, выход и пропуск бара выхода
+            int barsPerTrade = nextBarOpen ? 3 : 2;
+            int steps = series.steps;
+            int alive = size;
+            long simulatedLaneBars = 0;
+            double lastEquity = Config.INITIAL_BALANCE;
+            for (int step = 0; step < steps && alive > 0; step++) {
+                double price = series.close[step];
+                if (price <= 0) {
+                    if (equity != null) equity[step] = lastEquity;
+                    continue;
+                }
+                double openPrice = series.open[step];
+                int signal = signalSide[step];
+                double strength = signalStrength[step];
+                double leaderThreshold = leaders.threshold();
+                int maxNewTradesByBars = (steps - 1 - step) / barsPerTrade + 1;
+                simulatedLaneBars += alive;
+
+                for (int k = 0; k < size; k++) {
+                    if (active[k]) stepLane(k, step, price, openPrice, signal, strength, nextBarOpen);
+                }
+                if (tracking) lastEquity = trackEquity(step, price);
+                if (pruning && signal != 0) {
+                    for (int k = 0; k < size; k++) {
+                        if (strength > threshold[k]) signalsLeft[k]--;
+                    }
+                }
+                if (pruning && step % PRUNE_CHECK_INTERVAL == 0) {
+                    for (int k = 0; k < size; k++) {
+                        if (active[k] && prune(k, step, maxNewTradesByBars, leaderThreshold, nextBarOpen)) {
+                            active[k] = false;
+                            alive--;
+                        }
+                    }
+                }
+            }
+            stats.addSimulatedLaneBars(simulatedLaneBars);
+
+            for (int k = 0; k < size; k++) {
+                if (!active[k]) continue;
+                if (side[k] != 0 && steps > 0 && series.close[steps - 1] > 0) {
+                    close(k, series.close[steps - 1], steps - 1);
+                    if (tracking && k == 0) {
+                        if (equity != null) equity[steps - 1] = balance[0];
+                        if (balance[0] < peakEquity) maxDrawdown = Math.max(maxDrawdown, 1 - balance[0] / peakEquity);
+                    }
+                }
+                if (results == null) continue;
+                results[offset + k] = new TradingBot.SimulationResult(balance[k], profitFactor(k), trades[k]);
+                if (trades[k] >= rules.minTrades()) {
+                    leaders.offer(balance[k]);
+                }
+            }
+        }
+
+        double profitFactor(int k) {
+            return grossLoss[k] > 0 ? grossProfit[k] / grossLoss[k] : Double.POSITIVE_INFINITY;
+        }
+
+        // Капитал дорожки 0 на закрытии бара с переоценкой открытой позиции
+        private double trackEquity(int step, double price) {
+            double value = side[0] != 0 ? balance[0] + side[0] * quantity[0] * (price - entryPrice[0]) : balance[0];
+            if (value > peakEquity) peakEquity = value;
+            else maxDrawdown = Math.max(maxDrawdown, 1 - value / peakEquity);
+            if (equity != null) equity[step] = value;
+            return value;
+        }
+
+        // Один бар набора k - те же ветки, что в TradingBot.runSimulation
+        private void stepLane(int k, int step, double price, double openPrice, int signal, double strength, boolean nextBarOpen) {
+            if (pendingExit[k]) {
+                close(k, openPrice, step);
+                pendingExit[k] = false;
+                return;
+            }
+            if (pendingEntrySide[k] != 0) {
+                enter(k, openPrice, step, pendingEntryStep[k], pendingEntrySide[k], growthAfterOpen[step]);
+                pendingEntrySide[k] = 0;
+            }
+            if (side[k] != 0) {
+                double trigger = exitTrigger(k, price);
+                if (trigger > 0) {
+                    if (nextBarOpen) pendingExit[k] = true;
+                    else close(k, trigger, step);
+                    return;
+                }
+            }
+            if (side[k] == 0 && signal != 0 && strength > threshold[k]) {
+                if (nextBarOpen) {
+                    pendingEntrySide[k] = signal;
+                    pendingEntryStep[k] = step;
+                } else {
+                    enter(k, price, step, step, signal, growthAfterClose[step]);
+                }
+            }
+        }
+
+        private boolean prune(int k, int step, int maxNewTradesByBars, double leaderThreshold, boolean nextBarOpen) {
+            if (rules.maxDrawdown() > 0 && balance[k] < peakBalance[k] * (1 - rules.maxDrawdown())) {
+                stats.drawdown();
+                return true;
+            }
+            int open = side[k] != 0 || pendingEntrySide[k] != 0 ? 1 : 0;
+            int newTrades = Math.min(signalsLeft[k], maxNewTradesByBars);
+            if (trades[k] + open + newTrades < rules.minTrades()) {
+                stats.trades();
+                return true;
+            }
+            if (leaderThreshold == Double.NEGATIVE_INFINITY || step % BOUND_CHECK_INTERVAL != 0) {
+                return false;
+            }
+            if (upperBound(k, step, newTrades, nextBarOpen) < leaderThreshold) {
+                stats.bound();
+                return true;
+            }
+            return false;
+        }
+
+        private double upperBound(int k, int step, int newTrades, boolean nextBarOpen) {
+            double overshoot = nextBarOpen ? maxOvershootAfter[step] : 0.0;
+            double base;
+            double pathBound;
+            if (side[k] != 0) {
+                // Текущая сделка: от баланса до входа, выход не дальше тейка и выброса цены
+                base = boundBase[k] * (1 + riskPercent[k] * (riskReward[k] + overshoot / stopDistance[k]));
+                pathBound = boundBase[k] * boundGrowth[k];
+            } else {
+                base = balance[k];
+                pathBound = balance[k] * growthAfterClose[step];
+                if (pendingEntrySide[k] != 0) newTrades++;
+            }
+            double minStop = minAtrAfter[step] * atrStop[k];
+            double extra = nextBarOpen && minStop > 0 && minStop < Double.POSITIVE_INFINITY ? overshoot / minStop : 0.0;
+            double perTrade = Math.log1p(riskPercent[k] * (riskReward[k] + extra));
+            double tradeBound = base * Math.exp(newTrades * perTrade) * (1 + 1e-9);
+            return Math.min(pathBound, tradeBound);
+        }
+
+        // Цена срабатывания стопа или тейка на закрытии бара; 0 - позиция остаётся
+        private double exitTrigger(int k, double price) {
+            if (side[k] > 0) {
+                if (price <= stopLoss[k]) return stopLoss[k];
+                if (price >= takeProfit[k]) return takeProfit[k];
+            } else {
+                if (price >= stopLoss[k]) return stopLoss[k];
+                if (price <= takeProfit[k]) return takeProfit[k];
+            }
+            return 0.0;
+        }
+
+        private void enter(int k, double quotedPrice, int step, int signalStep, int direction, double growthBound) {
+            if (quotedPrice <= 0) return;
+            double atrValue = series.atr[signalStep];
+            if (atrValue <= 0) return;
+
+            double price = costModel.executionPrice(step, quotedPrice, 0, direction);
+            double stopLossDistance = atrValue * atrStop[k];
+            if (stopLossDistance <= 1e-6) return;
+            double takeProfitDistance = stopLossDistance * riskReward[k];
+
+            double stopLossPrice = price - direction * stopLossDistance;
+            double takeProfitPrice = price + direction * takeProfitDistance;
+
+            int lots = positionSize(k, price, stopLossPrice);
+            lots = costModel.fillableQuantity(step, lots, Config.MINIMUM_LOT_SIZE);
+            if (lots < Config.MINIMUM_LOT_SIZE) return;
+            price = costModel.executionPrice(step, quotedPrice, lots, direction);
+
+            boundBase[k] = balance[k];
+            boundGrowth[k] = growthBound;
+            stopDistance[k] = stopLossDistance;
+            side[k] = direction;
+            entryPrice[k] = price;
+            stopLoss[k] = stopLossPrice;
+            takeProfit[k] = takeProfitPrice;
+            quantity[k] = lots;
+            balance[k] -= lots * price * costModel.commissionRate();
+        }
+
+        private int positionSize(int k, double price, double stopLossPrice) {
+            double riskPerShare = Math.abs(price - stopLossPrice);
+            if (riskPerShare <= 1e-6) return 0;
+            int quantityByRisk = (int) (balance[k] * riskPercent[k] / riskPerShare);
+            int quantityByBalance = (int) (balance[k] / (price * (1 + Config.COMMISSION_RATE)));
+            int desired = Math.min(quantityByRisk, quantityByBalance);
+            return (desired / Config.MINIMUM_LOT_SIZE) * Config.MINIMUM_LOT_SIZE;
+        }
+
+        private void close(int k, double quotedPrice, int step) {
+            if (side[k] == 0) return;
+            if (quotedPrice <= 0) quotedPrice = series.close[step];
+
+            double price = costModel.executionPrice(step, quotedPrice, quantity[k], -side[k]);
+            double entryValue = quantity[k] * entryPrice[k];
+            double exitValue = quantity[k] * price;
+            double exitCommission = exitValue * costModel.commissionRate();
+            double pnl = side[k] > 0 ? exitValue - entryValue : entryValue - exitValue;
+            double netProfit = pnl - exitCommission;
+
+            balance[k] += netProfit;
+            // boundBase - баланс перед входом, до комиссии входа
+            if (tracking && k == 0 && tradeReturns != null && trades[k] < tradeReturns.length) {
+                tradeReturns[trades[k]] = balance[k] / boundBase[k] - 1;
+            }
+            trades[k]++;
+            if (netProfit > 0) grossProfit[k] += netProfit;
+            else grossLoss[k] += Math.abs(netProfit);
+            if (balance[k] > peakBalance[k]) peakBalance[k] = balance[k];
+            side[k] = 0;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.varavin.backtest;
+
+import org.varavin.Config;
+import org.varavin.DataManager;
+
+/**
+ * Модель издержек исполнения в бэктесте: проскальзывание, задержка исполнения до открытия следующего бара
+ * и частичное исполнение входа, ограниченное долей объёма бара. Все проверки - примитивные функции по индексу шага.
+ */
+public final class ExecutionCostModel {
+
+    private final SlippageModel slippageModel;
+    private final boolean fillOnNextBarOpen;
+    private final double maxVolumeParticipation;
+    private final double commissionRate;
+    private final double[] volumeByStep;
+
+    public ExecutionCostModel(SlippageModel slippageModel, boolean fillOnNextBarOpen,
+                              double maxVolumeParticipation, double commissionRate, double[] volumeByStep) {
+        this.slippageModel = slippageModel;
+        this.fillOnNextBarOpen = fillOnNextBarOpen;
+        this.maxVolumeParticipation = maxVolumeParticipation;
+        this.commissionRate = commissionRate;
+        this.volumeByStep = volumeByStep;
+    }
+
+    /** Исполнение точно по цене сигнала/стопа/тейка, только комиссия - прежнее поведение бэктеста. */
+    public static ExecutionCostModel frictionless() {
+        return new ExecutionCostModel(SlippageModel.none(), false, 0.0, Config.COMMISSION_RATE, null);
+    }
+
+    /** Модель по настройкам Config для тестового участка, загруженного в DataManager. */
+    public static ExecutionCostModel fromConfig() {
+        int steps = DataManager.getTestBarCount();
+        double[] atr = new double[Math.max(steps, 1)];
+        double[] volume = new double[Math.max(steps, 1)];
+        for (int step = 0; step < steps; step++) {
+            atr[step] = DataManager.getOriginalAtr(step);
+            volume[step] = DataManager.getOriginalVolume(step);
+        }
+        return fromConfig(atr, volume);
+    }
+
+    /** Модель по настройкам Config для произвольного прогона: ATR и объём бара каждого шага бэктеста. */
+    public static ExecutionCostModel fromConfig(double[] atr, double[] volume) {
+        SlippageModel slippage = switch (Config.SLIPPAGE_MODEL) {
+            case "TICKS" -> SlippageModel.fixedTicks(Config.SLIPPAGE_TICKS, Config.TICK_SIZE);
+            case "ATR" -> SlippageModel.atrProportional(Config.SLIPPAGE_ATR_FRACTION, atr);
+            case "VOLUME" -> SlippageModel.volumeProportional(Config.SLIPPAGE_VOLUME_IMPACT, volume);
+            default -> SlippageModel.none();
+        };
+        return new ExecutionCostModel(slippage, Config.FILL_ON_NEXT_BAR_OPEN,
+                Config.MAX_VOLUME_PARTICIPATION, Config.COMMISSION_RATE, volume);
+    }
+
+    /** Цена исполнения с учётом проскальзывания; direction = +1 для покупки, -1 для продажи. */
+    public double executionPrice(int step, double price, double quantity, int direction) {
+        return price + direction * slippageModel.slippage(step, price, quantity);
+    }
+
+    /** Количество, которое реально исполнится на баре, округлённое вниз до лота; 0 - заявка не исполнена. */
+    public int fillableQuantity(int step, int desiredQuantity, int lotSize) {
+        if (maxVolumeParticipation <= 0 || volumeByStep == null) {
+            return desiredQuantity;
+        }
+        double volume = volumeByStep[Math.min(step, volumeByStep.length - 1)];
+        int cap = (int) (volume * maxVolumeParticipation);
+        int quantity = Math.min(desiredQuantity, cap);
+        return (quantity / lotSize) * lotSize;
+    }
+
+    public boolean fillOnNextBarOpen() {
+        return fillOnNextBarOpen;
+    }
+
+    public double commissionRate() {
+        return commissionRate;
+    }
+}
@@ -0,0 +1,77 @@
+package org.varavin.backtest;
+
+import org.varavin.TradingBot;
+import org.varavin.entity.BotParameters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Таблица лидеров перебора: N лучших наборов по конечному балансу. При равном балансе выше набор с меньшим
+ * индексом в сетке - так порядок не зависит от того, в каком порядке пришли результаты частей перебора,
+ * и таблицы воркеров сливаются в ту же таблицу, что дал бы локальный перебор.
+ */
+public final class Leaderboard {
+
+    public record Entry(int index, BotParameters parameters, TradingBot.SimulationResult result) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingDouble((Entry e) -> e.result().finalBalance()).reversed()
+            .thenComparingInt(Entry::index);
+
+    private final int capacity;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public Leaderboard(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /** Результаты перебора в порядке сетки; учитываются только прогоны с minTrades и более сделками. */
+    public static Leaderboard of(List<BotParameters> grid, TradingBot.SimulationResult[] results, int indexOffset,
+                                 int minTrades, int capacity) {
+        Leaderboard leaderboard = new Leaderboard(capacity);
+        for (int i = 0; i < results.length; i++) {
+            TradingBot.SimulationResult result = results[i];
+            if (result != null && result.totalTrades() >= minTrades) {
+                leaderboard.offer(new Entry(indexOffset + i, grid.get(i), result));
+            }
+        }
+        return leaderboard;
+    }
+
+    /** Возвращает true, если запись вошла в таблицу. */
+    public synchronized boolean offer(Entry entry) {
+        if (entries.size() == capacity && ORDER.compare(entry, entries.get(capacity - 1)) >= 0) {
+            return false;
+        }
+        int position = 0;
+        while (position < entries.size() && ORDER.compare(entries.get(position), entry) < 0) position++;
+        entries.add(position, entry);
+        if (entries.size() > capacity) entries.remove(capacity);
+        return true;
+    }
+
+    public synchronized void merge(Collection<Entry> other) {
+        for (Entry entry : other) offer(entry);
+    }
+
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(entries);
+    }
+
+    public synchronized Entry best() {
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    /** Баланс N-го места; пока таблица не заполнена - минус бесконечность. */
+    public synchronized double threshold() {
+        return entries.size() == capacity ? entries.get(capacity - 1).result().finalBalance() : Double.NEGATIVE_INFINITY;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,283 @@
+package org.varavin.backtest;
+
+import org.varavin.Config;
+import org.varavin.entity.BotParameters;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Проверка устойчивости результата бэктеста методом Монте-Карло для одного набора параметров. Сценарии:
+ * <ul>
+ *   <li>{@link Scenario#TRADE_BOOTSTRAP} - доходности сделок базового прогона выбираются с возвращением
+ *       в случайном порядке; просадка считается по балансу после сделок;</li>
+ *   <li>{@link Scenario#BLOCK_BOOTSTRAP} - циклический блочный бутстрап доходностей капитала по барам,
+ *       блоки сохраняют автокорреляцию внутри сделок;</li>
+ *   <li>{@link Scenario#ENTRY_JITTER} - каждый сигнал сдвигается на случайные 0..maxEntryDelay баров, затем полная симуляция;</li>
+ *   <li>{@link Scenario#PREDICTION_NOISE} - к предсказаниям роста и падения добавляется гауссов шум со СКО,
+ *       равным predictionNoise СКО соответствующего выхода на участке; сигналы пересчитываются с фильтрами,
+ *       затем полная симуляция.</li>
+ * </ul>
+ * Прогоны делятся на части, каждая часть получает свой SplittableRandom, отщеплённый от общего зерна заранее, поэтому
+ * результат не зависит от числа потоков. Рабочие массивы принадлежат потоку и переиспользуются: внутри прогона
+ * память не выделяется, результаты пишутся в заранее созданные массивы по номеру прогона.
+ */
+public final class MonteCarloSimulator {
+
+    public enum Scenario { TRADE_BOOTSTRAP, BLOCK_BOOTSTRAP, ENTRY_JITTER, PREDICTION_NOISE }
+
+    /** Доверительный интервал: нижняя граница, медиана, верхняя граница. */
+    public record Interval(double low, double median, double high) {
+    }
+
+    /** Итог сценария: интервалы конечного баланса, профит-фактора и просадки, доля прогонов с убытком. */
+    public record Summary(Scenario scenario, int runs, Interval finalBalance, Interval profitFactor,
+                          Interval maxDrawdown, double lossProbability) {
+    }
+
+    /** Базовый прогон без возмущений и итоги сценариев. */
+    public record Report(double finalBalance, double profitFactor, double maxDrawdown, int trades,
+                         double confidence, List<Summary> summaries) {
+    }
+
+    // Прогонов на одну часть: достаточно крупно, чтобы окупить передачу задачи, и достаточно мелко для балансировки
+    private static final int CHUNK_SIZE = 64;
+    // values() каждый раз копирует массив - на горячем пути берём общий
+    private static final Scenario[] SCENARIOS = Scenario.values();
+
+    private static final LatencyHistogram CHUNK_TIME = Metrics.histogram("montecarlo.chunk");
+    private static final LongAdder CHUNK_RUNS = Metrics.counter("montecarlo.chunk.items");
+
+    private final BacktestSeries series;
+    private final BatchSimulator batch;
+    private final BotParameters parameters;
+    private final int blockLength;
+    private final int maxEntryDelay;
+    // СКО шума для предсказаний роста и падения
+    private final double noiseUp;
+    private final double noiseDown;
+
+    // Базовый прогон: сигналы, сделки и доходности капитала по барам
+    private final int[] baseSide;
+    private final double[] baseStrength;
+    private final double[] baseTradeReturns;
+    private final double[] baseBarReturns;
+    private final double baseBalance;
+    private final double baseProfitFactor;
+    private final double baseDrawdown;
+
+    private final ThreadLocal<Workspace> workspaces;
+
+    public MonteCarloSimulator(BacktestSeries series, ExecutionCostModel costModel, BotParameters parameters,
+                               int blockLength, int maxEntryDelay, double predictionNoise) {
+        this.series = series;
+        this.batch = new BatchSimulator(series, costModel);
+        this.parameters = parameters;
+        this.blockLength = Math.max(1, blockLength);
+        this.maxEntryDelay = Math.max(0, maxEntryDelay);
+        this.noiseUp = predictionNoise * standardDeviation(series.predictedUp);
+        this.noiseDown = predictionNoise * standardDeviation(series.predictedDown);
+
+        int steps = series.steps;
+        this.baseSide = new int[steps];
+        this.baseStrength = new double[steps];
+        BatchSimulator.computeSignals(series, series.predictedUp, series.predictedDown, baseSide, baseStrength);
+
+        double[] tradeBuffer = new double[steps + 1];
+        double[] equity = new double[steps];
+        PathSimulator base = new PathSimulator(batch, parameters);
+        base.record(tradeBuffer, equity);
+        base.run(baseSide, baseStrength);
+        this.baseTradeReturns = Arrays.copyOf(tradeBuffer, base.trades());
+        this.baseBalance = base.finalBalance();
+        this.baseProfitFactor = base.profitFactor();
+        this.baseDrawdown = base.maxDrawdown();
+
+        this.baseBarReturns = new double[steps];
+        double previous = Config.INITIAL_BALANCE;
+        for (int step = 0; step < steps; step++) {
+            baseBarReturns[step] = equity[step] / previous - 1;
+            previous = equity[step];
+        }
+
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(steps));
+    }
+
+    public static MonteCarloSimulator fromConfig(BacktestSeries series, ExecutionCostModel costModel, BotParameters parameters) {
+        return new MonteCarloSimulator(series, costModel, parameters,
+                Config.MONTE_CARLO_BLOCK_LENGTH, Config.MONTE_CARLO_MAX_ENTRY_DELAY, Config.MONTE_CARLO_PREDICTION_NOISE);
+    }
+
+    public int baseTrades() {
+        return baseTradeReturns.length;
+    }
+
+    /** runs прогонов каждого сценария; confidence - покрытие двустороннего интервала, например 0.9. */
+    public Report run(int runs, long seed, double confidence) {
+        int scenarios = SCENARIOS.length;
+        double[][] balances = new double[scenarios][runs];
+        double[][] profitFactors = new double[scenarios][runs];
+        double[][] drawdowns = new double[scenarios][runs];
+
+        int chunks = (runs + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            randoms[c] = root.split();
+        }
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            long start = System.nanoTime();
+            Workspace ws = workspaces.get();
+            SplittableRandom random = randoms[c];
+            int to = Math.min(runs, (c + 1) * CHUNK_SIZE);
+            for (int run = c * CHUNK_SIZE; run < to; run++) {
+                for (Scenario scenario : SCENARIOS) {
+                    switch (scenario) {
+                        case TRADE_BOOTSTRAP -> ws.tradeBootstrap(random);
+                        case BLOCK_BOOTSTRAP -> ws.blockBootstrap(random);
+                        case ENTRY_JITTER -> ws.entryJitter(random);
+                        case PREDICTION_NOISE -> ws.predictionNoise(random);
+                    }
+                    int s = scenario.ordinal();
+                    balances[s][run] = ws.finalBalance;
+                    profitFactors[s][run] = ws.profitFactor;
+                    drawdowns[s][run] = ws.maxDrawdown;
+                }
+            }
+            CHUNK_TIME.recordSince(start);
+            CHUNK_RUNS.add((long) (to - c * CHUNK_SIZE) * scenarios);
+        });
+
+        List<Summary> summaries = new ArrayList<>(scenarios);
+        for (Scenario scenario : SCENARIOS) {
+            int s = scenario.ordinal();
+            long losses = Arrays.stream(balances[s]).filter(b -> b < Config.INITIAL_BALANCE).count();
+            summaries.add(new Summary(scenario, runs, interval(balances[s], confidence),
+                    interval(profitFactors[s], confidence), interval(drawdowns[s], confidence),
+                    runs > 0 ? (double) losses / runs : 0.0));
+        }
+        return new Report(baseBalance, baseProfitFactor, baseDrawdown, baseTradeReturns.length, confidence, summaries);
+    }
+
+    private static double standardDeviation(double[] values) {
+        if (values.length == 0) return 0.0;
+        double mean = Arrays.stream(values).average().orElse(0.0);
+        double sum = 0.0;
+        for (double v : values) sum += (v - mean) * (v - mean);
+        return Math.sqrt(sum / values.length);
+    }
+
+    // Перцентильный интервал; массив сортируется на месте
+    private static Interval interval(double[] values, double confidence) {
+        if (values.length == 0) return new Interval(Double.NaN, Double.NaN, Double.NaN);
+        Arrays.sort(values);
+        double tail = (1 - confidence) / 2;
+        return new Interval(percentile(values, tail), percentile(values, 0.5), percentile(values, 1 - tail));
+    }
+
+    private static double percentile(double[] sorted, double quantile) {
+        int index = (int) Math.round(quantile * (sorted.length - 1));
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /** Рабочие массивы одного потока и итог последнего прогона. */
+    private final class Workspace {
+        final PathSimulator simulator = new PathSimulator(batch, parameters);
+        final int[] side;
+        final double[] strength;
+        final double[] up;
+        final double[] down;
+        double finalBalance;
+        double profitFactor;
+        double maxDrawdown;
+
+        Workspace(int steps) {
+            side = new int[steps];
+            strength = new double[steps];
+            up = new double[steps];
+            down = new double[steps];
+        }
+
+        void tradeBootstrap(SplittableRandom random) {
+            int n = baseTradeReturns.length;
+            double balance = Config.INITIAL_BALANCE;
+            double peak = balance;
+            double drawdown = 0.0;
+            double profit = 0.0;
+            double loss = 0.0;
+            for (int i = 0; i < n; i++) {
+                double pnl = balance * baseTradeReturns[random.nextInt(n)];
+                balance += pnl;
+                if (pnl > 0) profit += pnl;
+                else loss -= pnl;
+                if (balance > peak) peak = balance;
+                else drawdown = Math.max(drawdown, 1 - balance / peak);
+            }
+            finish(balance, profit, loss, drawdown);
+        }
+
+        void blockBootstrap(SplittableRandom random) {
+            int n = baseBarReturns.length;
+            double balance = Config.INITIAL_BALANCE;
+            double peak = balance;
+            double drawdown = 0.0;
+            double profit = 0.0;
+            double loss = 0.0;
+            int position = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % blockLength == 0) position = random.nextInt(n);
+                double pnl = balance * baseBarReturns[position];
+                position = position + 1 == n ? 0 : position + 1;
+                balance += pnl;
+                if (pnl > 0) profit += pnl;
+                else loss -= pnl;
+                if (balance > peak) peak = balance;
+                else drawdown = Math.max(drawdown, 1 - balance / peak);
+            }
+            finish(balance, profit, loss, drawdown);
+        }
+
+        void entryJitter(SplittableRandom random) {
+            Arrays.fill(side, 0);
+            Arrays.fill(strength, 0.0);
+            int steps = side.length;
+            for (int step = 0; step < steps; step++) {
+                if (baseSide[step] == 0) continue;
+                int delayed = step + random.nextInt(maxEntryDelay + 1);
+                if (delayed >= steps) continue;
+                side[delayed] = baseSide[step];
+                strength[delayed] = baseStrength[step];
+            }
+            simulate();
+        }
+
+        void predictionNoise(SplittableRandom random) {
+            for (int step = 0; step < up.length; step++) {
+                up[step] = series.predictedUp[step] + noiseUp * random.nextGaussian();
+                down[step] = series.predictedDown[step] + noiseDown * random.nextGaussian();
+            }
+            BatchSimulator.computeSignals(series, up, down, side, strength);
+            simulate();
+        }
+
+        private void simulate() {
+            simulator.run(side, strength);
+            finalBalance = simulator.finalBalance();
+            profitFactor = simulator.profitFactor();
+            maxDrawdown = simulator.maxDrawdown();
+        }
+
+        private void finish(double balance, double profit, double loss, double drawdown) {
+            finalBalance = balance;
+            profitFactor = loss > 0 ? profit / loss : Double.POSITIVE_INFINITY;
+            maxDrawdown = drawdown;
+        }
+    }
+}
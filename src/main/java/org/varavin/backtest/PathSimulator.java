@@ -0,0 +1,48 @@
+package org.varavin.backtest;
+
+import org.varavin.entity.BotParameters;
+
+/**
+ * Один прогон одного набора параметров по заданным сигналам баров. Это блок BatchSimulator из одной дорожки
+ * без отсечения, поэтому вход, стоп/тейк и издержки считаются тем же кодом, что и в пакетном прогоне. Блок
+ * создаётся один раз и сбрасывается перед прогоном, так что повторные прогоны на одном экземпляре не выделяют
+ * память. Экземпляр не потокобезопасен.
+ *
+ * Кроме баланса и профит-фактора считает максимальную просадку по капиталу с переоценкой открытой позиции
+ * по закрытию бара, а по запросу пишет доходность каждой сделки и капитал на каждом баре.
+ */
+final class PathSimulator {
+
+    private final BatchSimulator.Block lane;
+
+    PathSimulator(BatchSimulator simulator, BotParameters parameters) {
+        this.lane = simulator.lane(parameters);
+        lane.track(null, null);
+    }
+
+    /** Включает запись сделок и капитала по барам; null - не записывать. Массив сделок должен вместить все сделки. */
+    void record(double[] tradeReturns, double[] equity) {
+        lane.track(tradeReturns, equity);
+    }
+
+    void run(int[] signalSide, double[] signalStrength) {
+        lane.reset();
+        lane.run(signalSide, signalStrength, null, 0);
+    }
+
+    double finalBalance() {
+        return lane.balance[0];
+    }
+
+    double profitFactor() {
+        return lane.profitFactor(0);
+    }
+
+    double maxDrawdown() {
+        return lane.maxDrawdown;
+    }
+
+    int trades() {
+        return lane.trades[0];
+    }
+}
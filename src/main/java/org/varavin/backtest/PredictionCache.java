@@ -0,0 +1,151 @@
+package org.varavin.backtest;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.CacheManifest;
+import org.varavin.Config;
+import org.varavin.DataManager;
+import org.varavin.MemoryPlanner;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Кэш предсказаний модели на тестовом участке. Ключ - данные DataManager и хэш файла модели, поэтому кэш
+ * переиспользуется между запусками и между процессами на одной машине. Файл пишется во временный и атомарно
+ * переименовывается, так что параллельные воркеры не видят недописанный кэш.
+ */
+public final class PredictionCache {
+    private static final Logger log = LoggerFactory.getLogger(PredictionCache.class);
+
+    private static final int MAGIC = 0x50524544; // "PRED"
+
+    private PredictionCache() {
+    }
+
+    public static String key(File modelFile) throws IOException {
+        if (DataManager.getDataKey() == null) {
+            throw new IllegalStateException("Данные не подготовлены: ключ данных отсутствует");
+        }
+        return CacheManifest.sha256(DataManager.getDataKey(), CacheManifest.sha256(modelFile));
+    }
+
+    /** Предсказания [шаг][выход] из кэша; при промахе модель загружается и прогоняется по testIterator. */
+    public static INDArray loadOrCompute(File modelFile, DataSetIterator testIterator) throws IOException {
+        String key = key(modelFile);
+        File file = cacheFile();
+        INDArray cached = load(file, key);
+        if (cached != null) {
+            log.info("Предсказания модели взяты из кэша {}", file.getName());
+            return cached;
+        }
+
+        MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(modelFile);
+        INDArray predictions = predict(model, testIterator).castTo(DataType.FLOAT);
+        save(file, key, predictions);
+        log.info("Предсказания модели сохранены в кэш: {} строк", predictions.size(0));
+        return predictions;
+    }
+
+    /**
+     * Прогон модели по итератору с начала, батч за батчем: время каждого батча идёт в гистограмму inference.batch.
+     * Выход батча пишется в workspace и сразу копируется в кучу, итоговая матрица создаётся один раз.
+     */
+    public static INDArray predict(MultiLayerNetwork model, DataSetIterator iterator) {
+        LatencyHistogram batchTime = Metrics.histogram("inference.batch");
+        LongAdder samples = Metrics.counter("inference.batch.items");
+        WorkspaceConfiguration workspace = MemoryPlanner.outputWorkspace(iterator.batch(), Config.NUM_OUTPUTS);
+        iterator.reset();
+        List<float[]> rows = new ArrayList<>();
+        while (iterator.hasNext()) {
+            DataSet batch = iterator.next();
+            long start = System.nanoTime();
+            try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().getAndActivateWorkspace(workspace, "PREDICT_OUTPUT")) {
+                INDArray output = model.output(batch.getFeatures(), false, batch.getFeaturesMaskArray(), null, ws);
+                batchTime.recordSince(start);
+                samples.add(output.size(0));
+                rows.addAll(List.of(output.toFloatMatrix()));
+            }
+        }
+        if (rows.isEmpty()) throw new IllegalStateException("Итератор не вернул ни одного батча");
+        return Nd4j.create(rows.toArray(new float[0][]));
+    }
+
+    private static File cacheFile() {
+        return new File(Config.CACHE_DIR, Config.DATA_VERSION + "_predictions.bin");
+    }
+
+    private static INDArray load(File file, String key) {
+        if (!file.exists()) return null;
+        try {
+            // Файл небольшой (шаги x выходы), читаем целиком: CRC32C - по всему, кроме последних 8 байт
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < Long.BYTES) return null;
+            CRC32C crc = new CRC32C();
+            crc.update(bytes, 0, bytes.length - Long.BYTES);
+            if (ByteBuffer.wrap(bytes, bytes.length - Long.BYTES, Long.BYTES).getLong() != crc.getValue()) {
+                log.warn("Контрольная сумма кэша предсказаний не совпадает, пересчитываем");
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) return null;
+            int rows = in.readInt();
+            int cols = in.readInt();
+            byte[] data = new byte[rows * cols * Float.BYTES];
+            in.readFully(data);
+            float[] values = new float[rows * cols];
+            ByteBuffer.wrap(data).asFloatBuffer().get(values);
+            return Nd4j.create(values, new long[]{rows, cols}, 'c');
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать кэш предсказаний: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void save(File file, String key, INDArray predictions) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Не удалось создать директорию кэша");
+        }
+        int rows = (int) predictions.size(0);
+        int cols = (int) predictions.size(1);
+        float[] values = predictions.dup('c').data().asFloat();
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES);
+        buffer.asFloatBuffer().put(values);
+
+        File tmp = File.createTempFile("predictions", ".tmp", dir);
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(new FileOutputStream(tmp), new CRC32C());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(key);
+                out.writeInt(rows);
+                out.writeInt(cols);
+                out.write(buffer.array());
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
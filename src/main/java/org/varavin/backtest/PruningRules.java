@@ -0,0 +1,21 @@
+package org.varavin.backtest;
+
+import org.varavin.Config;
+
+/**
+ * Правила досрочного прекращения прогонов в переборе параметров.
+ * maxDrawdown - допустимая просадка реализованного баланса от пика (0 - без ограничения);
+ * minTrades - сколько сделок нужно, чтобы результат учитывался; topN - размер таблицы лидеров,
+ * с N-м местом которой сравнивается верхняя граница достижимого баланса.
+ */
+public record PruningRules(boolean enabled, double maxDrawdown, int minTrades, int topN) {
+
+    public static PruningRules none() {
+        return new PruningRules(false, 0.0, 0, 1);
+    }
+
+    public static PruningRules fromConfig() {
+        return new PruningRules(Config.OPTIMIZER_PRUNING, Config.PRUNE_MAX_DRAWDOWN,
+                Config.OPTIMIZER_MIN_TRADES, Config.OPTIMIZER_TOP_N);
+    }
+}
@@ -0,0 +1,103 @@
+package org.varavin.backtest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика отсечения: сколько прогонов и по какому правилу остановлено и какая доля работы
+ * (шагов "набор x бар") реально просчитана. Счётчики потокобезопасны - блоки пишут в них параллельно.
+ */
+public final class PruningStats {
+
+    private final LongAdder simulations = new LongAdder();
+    private final LongAdder prunedByDrawdown = new LongAdder();
+    private final LongAdder prunedByBound = new LongAdder();
+    private final LongAdder prunedByTrades = new LongAdder();
+    private final LongAdder totalLaneBars = new LongAdder();
+    private final LongAdder simulatedLaneBars = new LongAdder();
+
+    void addSimulations(long count, long bars) {
+        simulations.add(count);
+        totalLaneBars.add(count * bars);
+    }
+
+    void addSimulatedLaneBars(long count) {
+        simulatedLaneBars.add(count);
+    }
+
+    void drawdown() {
+        prunedByDrawdown.increment();
+    }
+
+    void bound() {
+        prunedByBound.increment();
+    }
+
+    void trades() {
+        prunedByTrades.increment();
+    }
+
+    public long simulations() {
+        return simulations.sum();
+    }
+
+    public long prunedByDrawdown() {
+        return prunedByDrawdown.sum();
+    }
+
+    public long prunedByBound() {
+        return prunedByBound.sum();
+    }
+
+    public long prunedByTrades() {
+        return prunedByTrades.sum();
+    }
+
+    public long pruned() {
+        return prunedByDrawdown() + prunedByBound() + prunedByTrades();
+    }
+
+    /** Доля просчитанных шагов "набор x бар" от полного перебора. */
+    public double simulatedFraction() {
+        long total = totalLaneBars.sum();
+        return total > 0 ? (double) simulatedLaneBars.sum() / total : 1.0;
+    }
+
+    /** Добавляет счётчики другого перебора, например, присланные воркером. */
+    public void merge(PruningStats other) {
+        simulations.add(other.simulations.sum());
+        prunedByDrawdown.add(other.prunedByDrawdown.sum());
+        prunedByBound.add(other.prunedByBound.sum());
+        prunedByTrades.add(other.prunedByTrades.sum());
+        totalLaneBars.add(other.totalLaneBars.sum());
+        simulatedLaneBars.add(other.simulatedLaneBars.sum());
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(simulations.sum());
+        out.writeLong(prunedByDrawdown.sum());
+        out.writeLong(prunedByBound.sum());
+        out.writeLong(prunedByTrades.sum());
+        out.writeLong(totalLaneBars.sum());
+        out.writeLong(simulatedLaneBars.sum());
+    }
+
+    public static PruningStats read(DataInputStream in) throws IOException {
+        PruningStats stats = new PruningStats();
+        stats.simulations.add(in.readLong());
+        stats.prunedByDrawdown.add(in.readLong());
+        stats.prunedByBound.add(in.readLong());
+        stats.prunedByTrades.add(in.readLong());
+        stats.totalLaneBars.add(in.readLong());
+        stats.simulatedLaneBars.add(in.readLong());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("прогонов %d, отсечено %d (просадка %d, верхняя граница %d, мало сделок %d), просчитано %.1f%% шагов",
+                simulations(), pruned(), prunedByDrawdown(), prunedByBound(), prunedByTrades(), simulatedFraction() * 100);
+    }
+}
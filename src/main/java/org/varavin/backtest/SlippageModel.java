@@ -0,0 +1,38 @@
+package org.varavin.backtest;
+
+/**
+ * Проскальзывание исполнения в ценовых единицах (всегда неблагоприятное, >= 0) как примитивная функция бара.
+ * Реализации не выделяют память и читают только заранее подготовленные массивы, поэтому дёшевы в переборе параметров.
+ */
+@FunctionalInterface
+public interface SlippageModel {
+
+    double slippage(int step, double price, double quantity);
+
+    static SlippageModel none() {
+        return (step, price, quantity) -> 0.0;
+    }
+
+    /** Фиксированное число тиков на каждое исполнение. */
+    static SlippageModel fixedTicks(int ticks, double tickSize) {
+        double slip = ticks * tickSize;
+        return (step, price, quantity) -> slip;
+    }
+
+    /** Доля текущего ATR: на волатильном рынке исполнение хуже. */
+    static SlippageModel atrProportional(double atrFraction, double[] atrByStep) {
+        return (step, price, quantity) -> {
+            double atr = atrByStep[Math.min(step, atrByStep.length - 1)];
+            return atr > 0 ? atr * atrFraction : 0.0;
+        };
+    }
+
+    /** Линейное влияние на цену: доля цены, пропорциональная доле заявки в объёме бара. */
+    static SlippageModel volumeProportional(double impactCoefficient, double[] volumeByStep) {
+        return (step, price, quantity) -> {
+            double volume = volumeByStep[Math.min(step, volumeByStep.length - 1)];
+            if (volume <= 0) return price * impactCoefficient;
+            return price * impactCoefficient * Math.min(1.0, quantity / volume);
+        };
+    }
+}
@@ -0,0 +1,12 @@
+package org.varavin.bus;
+
+/** Барьер остановлен - потребитель должен завершиться. Без стека: это штатный сигнал, а не ошибка. */
+public final class AlertException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    static final AlertException INSTANCE = new AlertException();
+
+    private AlertException() {
+        super("Барьер остановлен", null, false, false);
+    }
+}
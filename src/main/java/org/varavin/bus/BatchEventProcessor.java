@@ -0,0 +1,72 @@
+package org.varavin.bus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Поток стадии: ждёт на барьере, обрабатывает все доступные события одной пачкой и только после пачки
+ * сдвигает свой счётчик - один release-store на пачку, а не на событие. Ошибка обработчика логируется,
+ * событие пропускается, конвейер не останавливается.
+ */
+public final class BatchEventProcessor<E> implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(BatchEventProcessor.class);
+
+    private final String name;
+    private final RingBuffer<E> ringBuffer;
+    private final SequenceBarrier barrier;
+    private final EventHandler<E> handler;
+    private final Sequence sequence = new Sequence();
+    private final LongAdder batches;
+    private final LongAdder events;
+    private final LongAdder errors;
+
+    BatchEventProcessor(String name, RingBuffer<E> ringBuffer, SequenceBarrier barrier, EventHandler<E> handler) {
+        this.name = name;
+        this.ringBuffer = ringBuffer;
+        this.barrier = barrier;
+        this.handler = handler;
+        this.batches = Metrics.counter("bus." + name + ".batches");
+        this.events = Metrics.counter("bus." + name + ".events");
+        this.errors = Metrics.counter("bus." + name + ".errors");
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Sequence sequence() {
+        return sequence;
+    }
+
+    @Override
+    public void run() {
+        long next = sequence.get() + 1;
+        while (true) {
+            long available;
+            try {
+                available = barrier.waitFor(next);
+            } catch (AlertException e) {
+                return;
+            }
+            for (long s = next; s <= available; s++) {
+                try {
+                    handler.onEvent(ringBuffer.get(s), s, s == available);
+                } catch (Exception e) {
+                    errors.increment();
+                    log.error("Стадия {}: ошибка на событии {}: ", name, s, e);
+                }
+            }
+            batches.increment();
+            events.add(available - next + 1);
+            sequence.set(available);
+            next = available + 1;
+        }
+    }
+
+    void halt() {
+        barrier.alert();
+    }
+}
@@ -0,0 +1,106 @@
+package org.varavin.bus;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Шина событий на кольцевом буфере: один производитель, стадии-потребители с зависимостями между собой.
+ * Каждая стадия читает те же слоты, что и предыдущая, и дописывает в них свои поля - события не копируются
+ * между очередями. Стадии без зависимостей читают опубликованное производителем; стадии, от которых никто
+ * не зависит, сдерживают производителя.
+ * <pre>
+ * EventBus&lt;E&gt; bus = new EventBus&lt;&gt;(E::new, 4096, WaitStrategy.yielding());
+ * BatchEventProcessor&lt;E&gt; a = bus.addStage("a", handlerA);
+ * bus.addStage("b", handlerB, a);
+ * bus.start();
+ * bus.publish((event, value) -&gt; event.value = value, 42);
+ * </pre>
+ */
+public final class EventBus<E> implements AutoCloseable {
+
+    private final RingBuffer<E> ringBuffer;
+    private final WaitStrategy waitStrategy;
+    private final List<BatchEventProcessor<E>> processors = new ArrayList<>();
+    private final Set<BatchEventProcessor<E>> dependedOn = new HashSet<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private Sequence[] tails = new Sequence[0];
+
+    public EventBus(Supplier<E> factory, int size, WaitStrategy waitStrategy) {
+        this.ringBuffer = new RingBuffer<>(factory, size);
+        this.waitStrategy = waitStrategy;
+    }
+
+    /** Добавляет стадию, которая видит событие только после всех стадий after. */
+    @SafeVarargs
+    public final BatchEventProcessor<E> addStage(String name, EventHandler<E> handler, BatchEventProcessor<E>... after) {
+        if (!threads.isEmpty()) throw new IllegalStateException("Шина уже запущена");
+        Sequence[] dependencies = new Sequence[after.length];
+        for (int i = 0; i < after.length; i++) {
+            dependencies[i] = after[i].sequence();
+            dependedOn.add(after[i]);
+        }
+        BatchEventProcessor<E> processor = new BatchEventProcessor<>(name, ringBuffer,
+                ringBuffer.newBarrier(waitStrategy, dependencies), handler);
+        processors.add(processor);
+        return processor;
+    }
+
+    /** Запускает по платформенному потоку на стадию: ожидание крутится, поэтому виртуальные потоки не подходят. */
+    public void start() {
+        List<Sequence> tailSequences = new ArrayList<>();
+        for (BatchEventProcessor<E> processor : processors) {
+            if (!dependedOn.contains(processor)) tailSequences.add(processor.sequence());
+        }
+        tails = tailSequences.toArray(new Sequence[0]);
+        ringBuffer.setGatingSequences(tails);
+        for (BatchEventProcessor<E> processor : processors) {
+            Thread thread = Thread.ofPlatform().daemon().name("bus-" + processor.name()).start(processor);
+            threads.add(thread);
+        }
+    }
+
+    /** Публикует событие: translator заполняет слот из arg. Лямбда без захвата не создаёт объектов. */
+    public <A> long publish(BiConsumer<E, A> translator, A arg) {
+        long sequence = ringBuffer.next();
+        translator.accept(ringBuffer.get(sequence), arg);
+        ringBuffer.publish(sequence);
+        return sequence;
+    }
+
+    public RingBuffer<E> ringBuffer() {
+        return ringBuffer;
+    }
+
+    /** Ждёт, пока все стадии обработают событие sequence; false - не дождались за timeout. */
+    public boolean awaitProcessed(long sequence, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (Sequence.minimum(tails, Long.MAX_VALUE) < sequence) {
+            if (System.nanoTime() > deadline) return false;
+            LockSupport.parkNanos(1_000);
+        }
+        return true;
+    }
+
+    /** Дожидается обработки всего опубликованного и останавливает стадии. */
+    @Override
+    public void close() {
+        awaitProcessed(ringBuffer.cursor(), 30, TimeUnit.SECONDS);
+        for (BatchEventProcessor<E> processor : processors) {
+            processor.halt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
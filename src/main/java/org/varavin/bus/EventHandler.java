@@ -0,0 +1,12 @@
+package org.varavin.bus;
+
+/**
+ * Обработчик стадии. Вызывается из одного потока подряд для всех событий пачки; endOfBatch - последнее
+ * доступное событие, на нём стоит сбрасывать накопленную работу (например, прогнать сеть по всей пачке).
+ * Слот нельзя запоминать после возврата из вызова с endOfBatch: после этого его может переиспользовать производитель.
+ */
+@FunctionalInterface
+public interface EventHandler<E> {
+
+    void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,79 @@
+package org.varavin.bus;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Кольцевой буфер заранее созданных изменяемых событий для одного производителя. Производитель захватывает
+ * номер ({@link #next()}), заполняет слот ({@link #get(long)}) и публикует его ({@link #publish(long)});
+ * слоты не создаются и не освобождаются, поэтому на событие нет ни выделения памяти, ни блокировок.
+ * Производитель не обгоняет самого медленного потребителя больше чем на размер буфера.
+ */
+public final class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+    private final Sequence cursor = new Sequence();
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+
+    // Доступны только потоку производителя
+    private long nextSequence = Sequence.INITIAL;
+    private long cachedGating = Sequence.INITIAL;
+
+    public RingBuffer(Supplier<E> factory, int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Размер буфера должен быть степенью двойки: " + size);
+        }
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = factory.get();
+        }
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) (sequence & mask)];
+    }
+
+    /** Захватывает следующий слот; если буфер полон, ждёт самого медленного потребителя. */
+    public long next() {
+        long next = nextSequence + 1;
+        long wrapPoint = next - entries.length;
+        if (wrapPoint > cachedGating) {
+            long minimum;
+            while (wrapPoint > (minimum = Sequence.minimum(gatingSequences, next - 1))) {
+                LockSupport.parkNanos(1);
+            }
+            cachedGating = minimum;
+        }
+        nextSequence = next;
+        return next;
+    }
+
+    public void publish(long sequence) {
+        cursor.set(sequence);
+    }
+
+    /** Номер последнего опубликованного события. */
+    public long cursor() {
+        return cursor.get();
+    }
+
+    Sequence cursorSequence() {
+        return cursor;
+    }
+
+    /** Счётчики, которые производитель не может обогнать на круг, - обычно последние стадии конвейера. */
+    void setGatingSequences(Sequence... sequences) {
+        this.gatingSequences = sequences.clone();
+    }
+
+    SequenceBarrier newBarrier(WaitStrategy waitStrategy, Sequence... dependencies) {
+        return new SequenceBarrier(cursor, dependencies, waitStrategy);
+    }
+}
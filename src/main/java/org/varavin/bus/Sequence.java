@@ -0,0 +1,65 @@
+package org.varavin.bus;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Счётчик позиции в кольцевом буфере. Значение отделено от соседних полей набивкой, чтобы счётчики
+ * производителя и потребителей не попадали в одну кэш-линию (false sharing).
+ * Запись - release, чтение - acquire: всё, что записано в слот до set, видно тому, кто прочитал новое значение.
+ */
+public final class Sequence extends SequenceValue {
+    public static final long INITIAL = -1L;
+
+    @SuppressWarnings("unused")
+    private long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Sequence() {
+        this(INITIAL);
+    }
+
+    public Sequence(long initial) {
+        VALUE.setRelease(this, initial);
+    }
+
+    public long get() {
+        return (long) VALUE.getAcquire(this);
+    }
+
+    public void set(long value) {
+        VALUE.setRelease(this, value);
+    }
+
+    /** Минимум по счётчикам; для пустого массива - fallback. */
+    static long minimum(Sequence[] sequences, long fallback) {
+        long min = fallback;
+        for (Sequence sequence : sequences) {
+            min = Math.min(min, sequence.get());
+        }
+        return min;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
+
+abstract class SequencePadding {
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class SequenceValue extends SequencePadding {
+    protected long value;
+}
@@ -0,0 +1,37 @@
+package org.varavin.bus;
+
+/**
+ * Граница, до которой потребитель может читать: курсор производителя и счётчики стадий, от которых он зависит.
+ * Событие доступно, когда его опубликовал производитель и обработали все предыдущие стадии.
+ */
+public final class SequenceBarrier {
+
+    private final Sequence cursor;
+    private final Sequence[] dependencies;
+    private final WaitStrategy waitStrategy;
+    private volatile boolean alerted;
+
+    SequenceBarrier(Sequence cursor, Sequence[] dependencies, WaitStrategy waitStrategy) {
+        this.cursor = cursor;
+        this.dependencies = dependencies;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public long waitFor(long sequence) throws AlertException {
+        checkAlert();
+        return waitStrategy.waitFor(sequence, this);
+    }
+
+    long available() {
+        long published = cursor.get();
+        return dependencies.length == 0 ? published : Sequence.minimum(dependencies, published);
+    }
+
+    void alert() {
+        alerted = true;
+    }
+
+    void checkAlert() throws AlertException {
+        if (alerted) throw AlertException.INSTANCE;
+    }
+}
@@ -0,0 +1,100 @@
+package org.varavin.bus;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Как потребитель ждёт новых событий. Компромисс между задержкой и расходом CPU:
+ * <ul>
+ *   <li>{@link #busySpin()} - минимальная задержка, но ядро на каждого потребителя занято целиком;
+ *       имеет смысл, только если ядер больше, чем потоков конвейера;</li>
+ *   <li>{@link #yielding()} - крутится немного, затем уступает ядро; хороший выбор по умолчанию;</li>
+ *   <li>{@link #parking(long)} - после короткого ожидания засыпает на parkNanos; почти не тратит CPU,
+ *       но добавляет к задержке десятки микросекунд.</li>
+ * </ul>
+ */
+public abstract class WaitStrategy {
+
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * Ждёт, пока барьер не откроет sequence, и возвращает наибольший доступный номер (может быть больше sequence -
+     * тогда потребитель обработает пачку). Бросает {@link AlertException}, если барьер остановлен.
+     */
+    final long waitFor(long sequence, SequenceBarrier barrier) throws AlertException {
+        long available;
+        int counter = 0;
+        while ((available = barrier.available()) < sequence) {
+            barrier.checkAlert();
+            counter = idle(counter);
+        }
+        return available;
+    }
+
+    /** Одна итерация ожидания; counter - сколько итераций уже прошло. */
+    protected abstract int idle(int counter);
+
+    public static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            @Override
+            protected int idle(int counter) {
+                Thread.onSpinWait();
+                return counter;
+            }
+
+            @Override
+            public String toString() {
+                return "busy-spin";
+            }
+        };
+    }
+
+    public static WaitStrategy yielding() {
+        return new WaitStrategy() {
+            @Override
+            protected int idle(int counter) {
+                if (counter < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                return counter + 1;
+            }
+
+            @Override
+            public String toString() {
+                return "yield";
+            }
+        };
+    }
+
+    public static WaitStrategy parking(long parkNanos) {
+        return new WaitStrategy() {
+            @Override
+            protected int idle(int counter) {
+                if (counter < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (counter < 2 * SPIN_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(parkNanos);
+                }
+                return counter + 1;
+            }
+
+            @Override
+            public String toString() {
+                return "park";
+            }
+        };
+    }
+
+    /** По имени из конфигурации: busy-spin, yield или park. */
+    public static WaitStrategy named(String name) {
+        return switch (name) {
+            case "busy-spin" -> busySpin();
+            case "yield" -> yielding();
+            case "park" -> parking(50_000);
+            default -> throw new IllegalArgumentException("Неизвестная стратегия ожидания: " + name);
+        };
+    }
+}
@@ -0,0 +1,206 @@
+package org.varavin.distributed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.Config;
+import org.varavin.backtest.Leaderboard;
+import org.varavin.backtest.PruningStats;
+import org.varavin.entity.BotParameters;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Координатор распределённого перебора: делит сетку параметров на единицы работы и раздаёт их воркерам,
+ * подключившимся по TCP. На каждое соединение - виртуальный поток, который держит у воркера одну единицу.
+ * Если воркер отвалился, не ответил за DISTRIBUTED_UNIT_TIMEOUT_MS или сообщил об ошибке, единица возвращается
+ * в начало очереди и достаётся другому воркеру; после DISTRIBUTED_MAX_ATTEMPTS попыток она считается проваленной.
+ * Таблицы лидеров единиц сливаются в общую, а её текущий порог уходит с каждой новой единицей для отсечения.
+ */
+public final class Coordinator {
+    private static final Logger log = LoggerFactory.getLogger(Coordinator.class);
+
+    private final List<BotParameters> grid;
+    private final String sessionKey;
+    private final int port;
+    private final BlockingDeque<Protocol.WorkUnit> pending = new LinkedBlockingDeque<>();
+    private final AtomicInteger[] attempts;
+    private final boolean[] completed;
+    private final AtomicInteger remaining;
+    private final AtomicInteger failedUnits = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Leaderboard leaderboard;
+    private final PruningStats stats = new PruningStats();
+    private volatile ServerSocket serverSocket;
+
+    public Coordinator(List<BotParameters> grid, String sessionKey, int port, int unitSize, int topN) {
+        this.grid = grid;
+        this.sessionKey = sessionKey;
+        this.port = port;
+        this.leaderboard = new Leaderboard(topN);
+        int units = (grid.size() + unitSize - 1) / unitSize;
+        this.attempts = new AtomicInteger[units];
+        this.completed = new boolean[units];
+        for (int id = 0; id < units; id++) {
+            attempts[id] = new AtomicInteger();
+            pending.add(new Protocol.WorkUnit(id, id * unitSize, Math.min(grid.size(), (id + 1) * unitSize)));
+        }
+        this.remaining = new AtomicInteger(units);
+    }
+
+    /** Блокирует до обработки всех единиц и возвращает общую таблицу лидеров. */
+    public Leaderboard run() throws IOException, InterruptedException {
+        if (remaining.get() == 0) return leaderboard;
+        serverSocket = new ServerSocket(port);
+        log.info("Координатор слушает порт {}: {} наборов в {} единицах работы", serverSocket.getLocalPort(), grid.size(), attempts.length);
+        Thread acceptor = Thread.ofVirtual().name("coordinator-accept").start(this::acceptLoop);
+
+        while (!done.await(30, TimeUnit.SECONDS)) {
+            log.info("Прогресс: осталось {} из {} единиц, лидер: {}", remaining.get(), attempts.length, describe(leaderboard.best()));
+        }
+        // Обработчики соединений сами отправляют воркерам SHUTDOWN, когда очередь опустела
+        TimeUnit.MILLISECONDS.sleep(500);
+        serverSocket.close();
+        acceptor.join(TimeUnit.SECONDS.toMillis(5));
+
+        if (failedUnits.get() > 0) {
+            log.warn("Не обработано единиц работы: {} - результат перебора неполный", failedUnits.get());
+        }
+        log.info("Отсечение на воркерах: {}", stats);
+        return leaderboard;
+    }
+
+    public int localPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    public PruningStats getStats() {
+        return stats;
+    }
+
+    public int getFailedUnits() {
+        return failedUnits.get();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("coordinator-" + socket.getRemoteSocketAddress()).start(() -> serve(socket));
+            }
+        } catch (SocketException e) {
+            // Сокет закрыт по завершении перебора
+        } catch (IOException e) {
+            log.error("Ошибка приёма соединений: ", e);
+        }
+    }
+
+    private void serve(Socket socket) {
+        String worker = String.valueOf(socket.getRemoteSocketAddress());
+        Protocol.WorkUnit unit = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Config.DISTRIBUTED_UNIT_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readByte() != Protocol.HELLO || in.readInt() != Protocol.MAGIC || in.readInt() != Protocol.VERSION) {
+                log.warn("Соединение {} отклонено: неизвестный протокол", worker);
+                return;
+            }
+            worker = in.readUTF() + "@" + worker;
+            String workerKey = in.readUTF();
+            if (!sessionKey.equals(workerKey)) {
+                log.warn("Воркер {} отклонён: другие данные, модель или сборка", worker);
+                out.writeByte(Protocol.REJECT);
+                out.writeUTF("Ключ сессии не совпадает");
+                out.flush();
+                return;
+            }
+            out.writeByte(Protocol.ACCEPT);
+            out.flush();
+            log.info("Подключён воркер {}", worker);
+
+            while ((unit = nextUnit()) != null) {
+                int attempt = attempts[unit.id()].incrementAndGet();
+                Protocol.writeWork(out, unit, attempt, leaderboard.threshold(), grid);
+                byte type = in.readByte();
+                int unitId = in.readInt();
+                if (unitId != unit.id()) {
+                    throw new IOException("Ответ на чужую единицу работы: " + unitId);
+                }
+                if (type == Protocol.RESULT) {
+                    PruningStats unitStats = PruningStats.read(in);
+                    List<Leaderboard.Entry> leaders = Protocol.readLeaders(in, grid);
+                    complete(unit, unitStats, leaders);
+                } else if (type == Protocol.FAILED) {
+                    log.warn("Воркер {} не смог обработать единицу {}: {}", worker, unit.id(), in.readUTF());
+                    retry(unit);
+                } else {
+                    throw new IOException("Неожиданное сообщение " + type);
+                }
+                unit = null;
+            }
+            out.writeByte(Protocol.SHUTDOWN);
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Воркер {} отключился: {}", worker, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (unit != null) retry(unit);
+        }
+    }
+
+    // Следующая единица работы; null - перебор завершён. Пока другие воркеры держат единицы, ждём: их могут вернуть
+    private Protocol.WorkUnit nextUnit() throws InterruptedException {
+        while (done.getCount() > 0) {
+            Protocol.WorkUnit unit = pending.pollFirst(200, TimeUnit.MILLISECONDS);
+            if (unit != null) return unit;
+        }
+        return null;
+    }
+
+    private void complete(Protocol.WorkUnit unit, PruningStats unitStats, List<Leaderboard.Entry> leaders) {
+        synchronized (completed) {
+            if (completed[unit.id()]) return;
+            completed[unit.id()] = true;
+        }
+        leaderboard.merge(leaders);
+        stats.merge(unitStats);
+        finishUnit();
+    }
+
+    private void retry(Protocol.WorkUnit unit) {
+        synchronized (completed) {
+            if (completed[unit.id()]) return;
+            if (attempts[unit.id()].get() >= Config.DISTRIBUTED_MAX_ATTEMPTS) {
+                completed[unit.id()] = true;
+                log.error("Единица работы {} [{}, {}) провалена после {} попыток", unit.id(), unit.from(), unit.to(), attempts[unit.id()].get());
+                failedUnits.incrementAndGet();
+                finishUnit();
+                return;
+            }
+        }
+        pending.addFirst(unit);
+    }
+
+    private void finishUnit() {
+        if (remaining.decrementAndGet() == 0) {
+            done.countDown();
+        }
+    }
+
+    private static String describe(Leaderboard.Entry entry) {
+        return entry == null ? "нет" : String.format("%.2f (набор #%d)", entry.result().finalBalance(), entry.index());
+    }
+}
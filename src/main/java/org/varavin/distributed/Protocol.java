@@ -0,0 +1,116 @@
+package org.varavin.distributed;
+
+import org.varavin.CacheManifest;
+import org.varavin.Config;
+import org.varavin.TradingBot;
+import org.varavin.backtest.BacktestSeries;
+import org.varavin.backtest.BatchSimulator;
+import org.varavin.backtest.ExecutionCostModel;
+import org.varavin.backtest.Leaderboard;
+import org.varavin.backtest.PredictionCache;
+import org.varavin.backtest.PruningStats;
+import org.varavin.backtest.SlippageModel;
+import org.varavin.entity.BotParameters;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Бинарный протокол координатора и воркеров поверх TCP: кадр - байт типа сообщения и поля через DataOutputStream.
+ * <pre>
+ * воркер -> HELLO(magic, version, имя, ключ данных)   координатор -> ACCEPT | REJECT(причина)
+ * координатор -> WORK(unit, попытка, порог лидеров, наборы)   воркер -> RESULT(unit, статистика, лидеры) | FAILED(unit, ошибка)
+ * координатор -> SHUTDOWN
+ * </pre>
+ * Ключ данных сверяется при подключении: воркер с другими данными, моделью или сборкой не получает работу.
+ */
+public final class Protocol {
+
+    static final int MAGIC = 0x41495452; // "AITR"
+    static final int VERSION = 1;
+
+    static final byte HELLO = 1;
+    static final byte ACCEPT = 2;
+    static final byte REJECT = 3;
+    static final byte WORK = 4;
+    static final byte RESULT = 5;
+    static final byte FAILED = 6;
+    static final byte SHUTDOWN = 7;
+
+    private Protocol() {
+    }
+
+    /** Единица работы - непрерывный диапазон [from, to) сетки параметров. */
+    record WorkUnit(int id, int from, int to) {
+    }
+
+    /**
+     * Ключ, общий для координатора и воркеров: данные и модель плюс код симулятора, издержек и рядов бэктеста
+     * и настройки - воркер со старой версией любого из них считал бы другие результаты.
+     */
+    public static String sessionKey(File modelFile) throws IOException {
+        return CacheManifest.sha256(PredictionCache.key(modelFile),
+                CacheManifest.classHash(Config.class), CacheManifest.classHash(BatchSimulator.class),
+                CacheManifest.classHash(ExecutionCostModel.class), CacheManifest.classHash(SlippageModel.class),
+                CacheManifest.classHash(BacktestSeries.class));
+    }
+
+    static void writeWork(DataOutputStream out, WorkUnit unit, int attempt, double leaderFloor,
+                          List<BotParameters> grid) throws IOException {
+        out.writeByte(WORK);
+        out.writeInt(unit.id());
+        out.writeInt(attempt);
+        out.writeDouble(leaderFloor);
+        out.writeInt(unit.from());
+        out.writeInt(unit.to() - unit.from());
+        for (int i = unit.from(); i < unit.to(); i++) {
+            BotParameters p = grid.get(i);
+            out.writeDouble(p.atrStopMultiplier());
+            out.writeDouble(p.fixedRiskRewardRatio());
+            out.writeDouble(p.signalThreshold());
+            out.writeDouble(p.riskPercent());
+        }
+        out.flush();
+    }
+
+    static List<BotParameters> readParameters(DataInputStream in, int count) throws IOException {
+        List<BotParameters> parameters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            parameters.add(new BotParameters(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
+        }
+        return parameters;
+    }
+
+    static void writeResult(DataOutputStream out, int unitId, PruningStats stats, List<Leaderboard.Entry> leaders) throws IOException {
+        out.writeByte(RESULT);
+        out.writeInt(unitId);
+        stats.write(out);
+        out.writeInt(leaders.size());
+        for (Leaderboard.Entry entry : leaders) {
+            out.writeInt(entry.index());
+            out.writeDouble(entry.result().finalBalance());
+            out.writeDouble(entry.result().profitFactor());
+            out.writeInt(entry.result().totalTrades());
+        }
+        out.flush();
+    }
+
+    /** Записи таблицы лидеров воркера; параметры восстанавливаются по индексу из сетки координатора. */
+    static List<Leaderboard.Entry> readLeaders(DataInputStream in, List<BotParameters> grid) throws IOException {
+        int count = in.readInt();
+        List<Leaderboard.Entry> leaders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            TradingBot.SimulationResult result = new TradingBot.SimulationResult(in.readDouble(), in.readDouble(), in.readInt());
+            if (index < 0 || index >= grid.size()) {
+                throw new IOException("Индекс набора вне сетки: " + index);
+            }
+            leaders.add(new Leaderboard.Entry(index, grid.get(index), result));
+        }
+        return leaders;
+    }
+}
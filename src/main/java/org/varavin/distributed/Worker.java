@@ -0,0 +1,113 @@
+package org.varavin.distributed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.Config;
+import org.varavin.TradingBot;
+import org.varavin.backtest.BatchSimulator;
+import org.varavin.backtest.Leaderboard;
+import org.varavin.backtest.PruningRules;
+import org.varavin.backtest.PruningStats;
+import org.varavin.entity.BotParameters;
+import org.varavin.metrics.Metrics;
+import org.varavin.metrics.Stage;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Воркер распределённого перебора: подключается к координатору, получает единицы работы и считает их
+ * пакетным симулятором на локально подготовленных данных и кэше предсказаний. Возвращает только
+ * таблицу лидеров единицы и статистику отсечения, а не результаты всех наборов.
+ */
+public final class Worker {
+    private static final Logger log = LoggerFactory.getLogger(Worker.class);
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final String sessionKey;
+    private final BatchSimulator simulator;
+    private final PruningRules rules;
+
+    public Worker(String host, int port, String name, String sessionKey, BatchSimulator simulator, PruningRules rules) {
+        this.host = host;
+        this.port = port;
+        this.name = name;
+        this.sessionKey = sessionKey;
+        this.simulator = simulator;
+        this.rules = rules;
+    }
+
+    /** Работает до команды SHUTDOWN; возвращает число обработанных единиц. */
+    public int run() throws IOException, InterruptedException {
+        try (Socket socket = connect()) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeByte(Protocol.HELLO);
+            out.writeInt(Protocol.MAGIC);
+            out.writeInt(Protocol.VERSION);
+            out.writeUTF(name);
+            out.writeUTF(sessionKey);
+            out.flush();
+            byte reply = in.readByte();
+            if (reply == Protocol.REJECT) {
+                throw new IOException("Координатор отклонил воркера: " + in.readUTF());
+            }
+            if (reply != Protocol.ACCEPT) {
+                throw new IOException("Неожиданный ответ координатора: " + reply);
+            }
+            log.info("Воркер {} подключён к {}:{}", name, host, port);
+
+            int processed = 0;
+            while (true) {
+                byte type = in.readByte();
+                if (type == Protocol.SHUTDOWN) {
+                    log.info("Воркер {} завершает работу: обработано единиц {}", name, processed);
+                    return processed;
+                }
+                if (type != Protocol.WORK) {
+                    throw new IOException("Неожиданное сообщение " + type);
+                }
+                int unitId = in.readInt();
+                int attempt = in.readInt();
+                double leaderFloor = in.readDouble();
+                int from = in.readInt();
+                List<BotParameters> parameters = Protocol.readParameters(in, in.readInt());
+                try (Stage stage = Metrics.stage("distributed.unit")) {
+                    PruningStats stats = new PruningStats();
+                    TradingBot.SimulationResult[] results = simulator.run(parameters, rules, stats, leaderFloor);
+                    stage.items(parameters.size());
+                    Leaderboard leaders = Leaderboard.of(parameters, results, from, rules.minTrades(), rules.topN());
+                    Protocol.writeResult(out, unitId, stats, leaders.entries());
+                    processed++;
+                    log.debug("Единица {} (попытка {}): {} наборов, {}", unitId, attempt, parameters.size(), stats);
+                } catch (RuntimeException e) {
+                    log.error("Ошибка в единице {}: ", unitId, e);
+                    out.writeByte(Protocol.FAILED);
+                    out.writeInt(unitId);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    // Координатор может стартовать позже воркеров - повторяем подключение
+    private Socket connect() throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (attempt >= Config.DISTRIBUTED_CONNECT_RETRIES) throw e;
+                log.info("Координатор {}:{} недоступен, повтор через 1 с ({}/{})", host, port, attempt, Config.DISTRIBUTED_CONNECT_RETRIES);
+                TimeUnit.SECONDS.sleep(1);
+            }
+        }
+    }
+}
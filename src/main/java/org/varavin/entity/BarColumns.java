@@ -0,0 +1,41 @@
+package org.varavin.entity;
+
+import org.ta4j.core.Bar;
+import org.ta4j.core.BarSeries;
+
+/**
+ * Серия баров в колоночном виде (struct-of-arrays) на примитивных массивах.
+ * Время - конец бара в epoch seconds. Индексы совпадают с индексами исходной BarSeries.
+ */
+public record BarColumns(
+        long[] endEpochSeconds,
+        double[] open,
+        double[] high,
+        double[] low,
+        double[] close,
+        double[] volume
+) {
+    public static BarColumns fromSeries(BarSeries series) {
+        int n = series.getBarCount();
+        long[] time = new long[n];
+        double[] open = new double[n];
+        double[] high = new double[n];
+        double[] low = new double[n];
+        double[] close = new double[n];
+        double[] volume = new double[n];
+        for (int i = 0; i < n; i++) {
+            Bar bar = series.getBar(i);
+            time[i] = bar.getEndTime().toEpochSecond();
+            open[i] = bar.getOpenPrice().doubleValue();
+            high[i] = bar.getHighPrice().doubleValue();
+            low[i] = bar.getLowPrice().doubleValue();
+            close[i] = bar.getClosePrice().doubleValue();
+            volume[i] = bar.getVolume().doubleValue();
+        }
+        return new BarColumns(time, open, high, low, close, volume);
+    }
+
+    public int size() {
+        return close.length;
+    }
+}
@@ -0,0 +1,26 @@
+package org.varavin.entity;
+
+import org.ta4j.core.Bar;
+
+/**
+ * Свеча в примитивном виде: время закрытия (epoch seconds) и OHLCV.
+ * Используется исполнением и симулятором биржи, где ta4j-объекты не нужны.
+ */
+public record Candle(
+        long endEpochSecond,
+        double open,
+        double high,
+        double low,
+        double close,
+        double volume
+) {
+    public static Candle fromBar(Bar bar) {
+        return new Candle(
+                bar.getEndTime().toEpochSecond(),
+                bar.getOpenPrice().doubleValue(),
+                bar.getHighPrice().doubleValue(),
+                bar.getLowPrice().doubleValue(),
+                bar.getClosePrice().doubleValue(),
+                bar.getVolume().doubleValue());
+    }
+}
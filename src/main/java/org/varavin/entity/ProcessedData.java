@@ -1,20 +1,16 @@
 package org.varavin.entity;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
-
+/**
+ * Подготовленные данные: нормализованный датасет окон и его срезы train/val/test (общая матрица баров).
+ */
 public class ProcessedData {
-    public final INDArray trainFeatures, trainLabels;
-    public final INDArray valFeatures, valLabels;
-    public final INDArray testFeatures, testLabels;
+    public final WindowedDataSet all;
+    public final WindowedDataSet train, val, test;
 
-    public ProcessedData(INDArray trainFeatures, INDArray trainLabels,
-                         INDArray valFeatures, INDArray valLabels,
-                         INDArray testFeatures, INDArray testLabels) {
-        this.trainFeatures = trainFeatures;
-        this.trainLabels = trainLabels;
-        this.valFeatures = valFeatures;
-        this.valLabels = valLabels;
-        this.testFeatures = testFeatures;
-        this.testLabels = testLabels;
+    public ProcessedData(WindowedDataSet all, int trainEnd, int valEnd) {
+        this.all = all;
+        this.train = all.subset(0, trainEnd);
+        this.val = all.subset(trainEnd, valEnd);
+        this.test = all.subset(valEnd, all.size());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+package org.varavin.entity;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Итератор минибатчей по {@link WindowedDataSet}: окна собираются на лету в переиспользуемые буферы.
+ * Возвращаемый DataSet действителен только до следующего вызова next() - потребитель не должен его накапливать.
+ * При shuffle порядок примеров перемешивается по индексам на каждом reset().
+ */
+public class WindowDataSetIterator implements DataSetIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    // Итератор - Serializable только по контракту DataSetIterator; данные в него не сериализуются
+    private final transient WindowedDataSet data;
+    private final int batchSize;
+    private final boolean shuffle;
+    private final Random random;
+    private final int[] order;
+    private int cursor = 0;
+    private DataSetPreProcessor preProcessor;
+
+    // Буферы полного батча и хвостового (последнего неполного) батча
+    private float[] featureStaging;
+    private float[] labelStaging;
+    private INDArray featureBuffer;
+    private INDArray labelBuffer;
+    private float[] tailFeatureStaging;
+    private float[] tailLabelStaging;
+    private INDArray tailFeatureBuffer;
+    private INDArray tailLabelBuffer;
+
+    public WindowDataSetIterator(WindowedDataSet data, int batchSize) {
+        this(data, batchSize, false, 0L);
+    }
+
+    public WindowDataSetIterator(WindowedDataSet data, int batchSize, boolean shuffle, long seed) {
+        this.data = data;
+        this.batchSize = batchSize;
+        this.shuffle = shuffle;
+        this.random = new Random(seed);
+        this.order = new int[data.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        if (shuffle) shuffleOrder();
+    }
+
+    @Override
+    public DataSet next(int num) {
+        int actualBatchSize = Math.min(num, data.size() - cursor);
+        if (actualBatchSize <= 0) {
+            throw new NoSuchElementException();
+        }
+
+        boolean tail = actualBatchSize != batchSize;
+        if (tail) {
+            ensureTailBuffers(actualBatchSize);
+        } else if (featureBuffer == null) {
+            featureStaging = new float[batchSize * data.windowSize()];
+            labelStaging = new float[batchSize * data.numOutputs()];
+            featureBuffer = Nd4j.create(DataType.FLOAT, batchSize, data.numFeatures(), data.timeSteps());
+            labelBuffer = Nd4j.create(DataType.FLOAT, batchSize, data.numOutputs());
+        }
+        float[] features = tail ? tailFeatureStaging : featureStaging;
+        float[] labels = tail ? tailLabelStaging : labelStaging;
+
+        int windowSize = data.windowSize();
+        int numOutputs = data.numOutputs();
+        for (int b = 0; b < actualBatchSize; b++) {
+            int sample = order[cursor + b];
+            data.copyWindow(sample, features, b * windowSize);
+            data.copyLabels(sample, labels, b * numOutputs);
+        }
+        cursor += actualBatchSize;
+
+        INDArray batchFeatures = tail ? tailFeatureBuffer : featureBuffer;
+        INDArray batchLabels = tail ? tailLabelBuffer : labelBuffer;
+        batchFeatures.data().setData(features);
+        batchLabels.data().setData(labels);
+
+        DataSet dataSet = new DataSet(batchFeatures, batchLabels);
+        if (preProcessor != null) {
+            preProcessor.preProcess(dataSet);
+        }
+        return dataSet;
+    }
+
+    private void ensureTailBuffers(int size) {
+        if (tailFeatureBuffer == null || tailFeatureBuffer.size(0) != size) {
+            tailFeatureStaging = new float[size * data.windowSize()];
+            tailLabelStaging = new float[size * data.numOutputs()];
+            tailFeatureBuffer = Nd4j.create(DataType.FLOAT, size, data.numFeatures(), data.timeSteps());
+            tailLabelBuffer = Nd4j.create(DataType.FLOAT, size, data.numOutputs());
+        }
+    }
+
+    private void shuffleOrder() {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    public WindowedDataSet getData() {
+        return data;
+    }
+
+    @Override
+    public int inputColumns() {
+        return data.numFeatures();
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return data.numOutputs();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        // Буферы переиспользуются, асинхронная предвыборка их бы перезаписала
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        cursor = 0;
+        if (shuffle) shuffleOrder();
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor < data.size();
+    }
+
+    @Override
+    public DataSet next() {
+        return next(batchSize);
+    }
+}
@@ -0,0 +1,204 @@
+package org.varavin.entity;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Датасет скользящих окон без материализации окон: каждый бар хранится один раз в матрице признаков,
+ * а пример задаётся индексом последнего бара окна. Окно [NUM_FEATURES, TIME_STEPS] собирается по запросу.
+ *
+ * Матрица хранится по признакам (feature-major: features[f * numBars + bar]), чтобы окно одного признака
+ * было непрерывным участком памяти. Срезы train/val/test - это представления с общими массивами.
+ */
+public class WindowedDataSet {
+
+    private static final int IO_CHUNK_FLOATS = 1 << 14;
+
+    private final float[] features;
+    private final int numFeatures;
+    private final int numBars;
+    private final int timeSteps;
+    private final int[] sampleEndBars;
+    private final float[] labels;
+    private final int numOutputs;
+    private final int from;
+    private final int to;
+
+    public WindowedDataSet(float[] features, int numFeatures, int numBars, int timeSteps,
+                           int[] sampleEndBars, float[] labels, int numOutputs) {
+        this(features, numFeatures, numBars, timeSteps, sampleEndBars, labels, numOutputs, 0, sampleEndBars.length);
+    }
+
+    private WindowedDataSet(float[] features, int numFeatures, int numBars, int timeSteps,
+                            int[] sampleEndBars, float[] labels, int numOutputs, int from, int to) {
+        this.features = features;
+        this.numFeatures = numFeatures;
+        this.numBars = numBars;
+        this.timeSteps = timeSteps;
+        this.sampleEndBars = sampleEndBars;
+        this.labels = labels;
+        this.numOutputs = numOutputs;
+        this.from = from;
+        this.to = to;
+    }
+
+    /** Представление примеров [fromSample, toSample) относительно текущего среза. */
+    public WindowedDataSet subset(int fromSample, int toSample) {
+        if (fromSample < 0 || toSample > size() || fromSample > toSample) {
+            throw new IndexOutOfBoundsException("Срез [" + fromSample + ", " + toSample + ") вне [0, " + size() + ")");
+        }
+        return new WindowedDataSet(features, numFeatures, numBars, timeSteps, sampleEndBars, labels, numOutputs,
+                from + fromSample, from + toSample);
+    }
+
+    /**
+     * Выборка примеров по индексам относительно текущего среза, в заданном порядке (повторы допустимы).
+     * Матрица баров общая, копируются только индексы окон и метки выбранных примеров.
+     */
+    public WindowedDataSet select(int[] samples) {
+        int[] ends = new int[samples.length];
+        float[] rows = new float[samples.length * numOutputs];
+        for (int i = 0; i < samples.length; i++) {
+            int sample = samples[i];
+            if (sample < 0 || sample >= size()) {
+                throw new IndexOutOfBoundsException("Пример " + sample + " вне [0, " + size() + ")");
+            }
+            ends[i] = sampleEndBars[from + sample];
+            System.arraycopy(labels, (from + sample) * numOutputs, rows, i * numOutputs, numOutputs);
+        }
+        return new WindowedDataSet(features, numFeatures, numBars, timeSteps, ends, rows, numOutputs);
+    }
+
+    /** Копия с z-нормализованной матрицей признаков; stats[f] = {mean, std}. Окна и метки общие. */
+    public WindowedDataSet normalized(double[][] stats) {
+        float[] normalized = new float[features.length];
+        for (int f = 0; f < numFeatures; f++) {
+            double mean = stats[f][0];
+            double std = stats[f][1];
+            int base = f * numBars;
+            for (int b = 0; b < numBars; b++) {
+                normalized[base + b] = std > 1e-8 ? (float) ((features[base + b] - mean) / std) : features[base + b];
+            }
+        }
+        return new WindowedDataSet(normalized, numFeatures, numBars, timeSteps, sampleEndBars, labels, numOutputs, from, to);
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public int numFeatures() {
+        return numFeatures;
+    }
+
+    public int numBars() {
+        return numBars;
+    }
+
+    public int timeSteps() {
+        return timeSteps;
+    }
+
+    public int numOutputs() {
+        return numOutputs;
+    }
+
+    public int windowSize() {
+        return numFeatures * timeSteps;
+    }
+
+    public int sampleEndBar(int sample) {
+        return sampleEndBars[from + sample];
+    }
+
+    public float feature(int feature, int bar) {
+        return features[feature * numBars + bar];
+    }
+
+    public float label(int sample, int output) {
+        return labels[(from + sample) * numOutputs + output];
+    }
+
+    /** Копирует окно примера в out с offset в раскладке [признак, шаг]. */
+    public void copyWindow(int sample, float[] out, int offset) {
+        int start = sampleEndBars[from + sample] - timeSteps + 1;
+        for (int f = 0; f < numFeatures; f++) {
+            System.arraycopy(features, f * numBars + start, out, offset + f * timeSteps, timeSteps);
+        }
+    }
+
+    public void copyLabels(int sample, float[] out, int offset) {
+        System.arraycopy(labels, (from + sample) * numOutputs, out, offset, numOutputs);
+    }
+
+    /** Материализует все окна среза в тензор [size, numFeatures, timeSteps] - только для небольших срезов. */
+    public INDArray toFeatureTensor() {
+        float[] windows = new float[size() * windowSize()];
+        for (int s = 0; s < size(); s++) {
+            copyWindow(s, windows, s * windowSize());
+        }
+        return Nd4j.create(windows, new long[]{size(), numFeatures, timeSteps}, 'c');
+    }
+
+    public INDArray toLabelMatrix() {
+        float[] rows = new float[size() * numOutputs];
+        System.arraycopy(labels, from * numOutputs, rows, 0, rows.length);
+        return Nd4j.create(rows, new long[]{size(), numOutputs}, 'c');
+    }
+
+    /** Сохраняет матрицу баров, индексы окон и метки (только текущий срез примеров). */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(numFeatures);
+        out.writeInt(numBars);
+        out.writeInt(timeSteps);
+        out.writeInt(numOutputs);
+        out.writeInt(size());
+        writeFloats(out, features, 0, features.length);
+        ByteBuffer buffer = ByteBuffer.allocate(size() * Integer.BYTES);
+        buffer.asIntBuffer().put(sampleEndBars, from, size());
+        out.write(buffer.array());
+        writeFloats(out, labels, from * numOutputs, size() * numOutputs);
+    }
+
+    public static WindowedDataSet read(DataInputStream in) throws IOException {
+        int numFeatures = in.readInt();
+        int numBars = in.readInt();
+        int timeSteps = in.readInt();
+        int numOutputs = in.readInt();
+        int samples = in.readInt();
+        float[] features = readFloats(in, numFeatures * numBars);
+        byte[] indexBytes = new byte[samples * Integer.BYTES];
+        in.readFully(indexBytes);
+        int[] sampleEndBars = new int[samples];
+        ByteBuffer.wrap(indexBytes).asIntBuffer().get(sampleEndBars);
+        float[] labels = readFloats(in, samples * numOutputs);
+        return new WindowedDataSet(features, numFeatures, numBars, timeSteps, sampleEndBars, labels, numOutputs);
+    }
+
+    // Массивы пишутся блоками через ByteBuffer, а не поэлементно
+    private static void writeFloats(DataOutputStream out, float[] values, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(IO_CHUNK_FLOATS * Float.BYTES);
+        for (int pos = 0; pos < length; pos += IO_CHUNK_FLOATS) {
+            int count = Math.min(IO_CHUNK_FLOATS, length - pos);
+            buffer.clear();
+            buffer.asFloatBuffer().put(values, offset + pos, count);
+            out.write(buffer.array(), 0, count * Float.BYTES);
+        }
+    }
+
+    private static float[] readFloats(DataInputStream in, int length) throws IOException {
+        float[] values = new float[length];
+        byte[] bytes = new byte[IO_CHUNK_FLOATS * Float.BYTES];
+        for (int pos = 0; pos < length; pos += IO_CHUNK_FLOATS) {
+            int count = Math.min(IO_CHUNK_FLOATS, length - pos);
+            in.readFully(bytes, 0, count * Float.BYTES);
+            ByteBuffer.wrap(bytes, 0, count * Float.BYTES).asFloatBuffer().get(values, pos, count);
+        }
+        return values;
+    }
+}
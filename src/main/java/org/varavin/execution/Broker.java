@@ -0,0 +1,24 @@
+package org.varavin.execution;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Брокерский шлюз. Все операции неблокирующие: возвращают future, который завершается подтверждением брокера,
+ * а исполнения приходят отдельным потоком событий через {@link ExecutionListener}.
+ */
+public interface Broker extends AutoCloseable {
+
+    /** Выставляет заявку, future завершается идентификатором заявки у брокера. */
+    CompletableFuture<String> placeOrder(OrderRequest request);
+
+    /** Снимает заявку, future завершается false, если заявка уже исполнена или не найдена. */
+    CompletableFuture<Boolean> cancelOrder(String orderId);
+
+    /** Меняет количество и цену (лимитную или стоп) активной заявки, future завершается новым идентификатором. */
+    CompletableFuture<String> amendOrder(String orderId, long newQuantity, double newPrice);
+
+    void addListener(ExecutionListener listener);
+
+    @Override
+    void close();
+}
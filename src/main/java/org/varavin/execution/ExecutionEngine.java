@@ -0,0 +1,243 @@
+package org.varavin.execution;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.risk.RiskDecision;
+import org.varavin.risk.RiskManager;
+import org.varavin.risk.RiskRejectedException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Слой исполнения между стратегией и брокером: маршрутизирует заявки, ведёт позиции по инструментам,
+ * выставляет защитные SL/TP после входа (bracket) и эмулирует OCO для брокеров, которые его не поддерживают.
+ *
+ * Если задан {@link RiskManager}, каждая заявка (вход и защитные SL/TP) сначала проходит его проверку; отказ
+ * возвращается как future с {@link RiskRejectedException}, а исполнения попадают в RiskManager раньше слушателей.
+ *
+ * Вызовы стратегии не блокируются: заявка сразу уходит в брокерский шлюз, а реакция на подтверждения и исполнения
+ * выполняется в виртуальных потоках. Задержка "решение -> подтверждение брокера" считается по decisionNanos заявки.
+ * Заявка учитывается по clientOrderId до отправки брокеру: исполнение может прийти раньше подтверждения.
+ */
+public final class ExecutionEngine implements ExecutionListener, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ExecutionEngine.class);
+
+    private record Bracket(double stopLossPrice, double takeProfitPrice) {}
+
+    private final Broker broker;
+    private final RiskManager risk;
+    private final ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<ExecutionListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, OrderRequest> activeOrders = new ConcurrentHashMap<>();
+    // Заявки от отправки до исполнения или снятия; исполненная до подтверждения в activeOrders уже не попадает
+    private final Map<String, OrderRequest> requestsByClientId = new ConcurrentHashMap<>();
+    // Исполнено по заявке до её завершения - при снятии освобождается только остаток резерва
+    private final Map<String, Long> filledByClientId = new ConcurrentHashMap<>();
+    private final Map<String, Bracket> pendingBrackets = new ConcurrentHashMap<>();
+    private final Map<String, Long> positions = new ConcurrentHashMap<>();
+
+    private final LongAdder ackCount = new LongAdder();
+    private final LongAdder ackLatencyNanosTotal = new LongAdder();
+    private final AtomicLong ackLatencyNanosMax = new AtomicLong();
+
+    public ExecutionEngine(Broker broker) {
+        this(broker, null);
+    }
+
+    public ExecutionEngine(Broker broker, RiskManager risk) {
+        this.broker = broker;
+        this.risk = risk;
+        broker.addListener(this);
+    }
+
+    public void addListener(ExecutionListener listener) {
+        listeners.add(listener);
+    }
+
+    public CompletableFuture<String> submit(OrderRequest request) {
+        if (risk != null) {
+            RiskDecision decision = risk.check(request.instrumentId(), request.side().sign() * request.quantity(),
+                    request.type() == OrderType.LIMIT ? request.limitPrice() : request.stopPrice());
+            if (!decision.accepted()) {
+                log.warn("Заявка {} не прошла риск-проверку: {}", request.clientOrderId(), decision);
+                return CompletableFuture.failedFuture(new RiskRejectedException(request.instrumentId(), decision));
+            }
+        }
+        requestsByClientId.put(request.clientOrderId(), request);
+        return broker.placeOrder(request).whenComplete((orderId, error) -> {
+            if (error != null) {
+                requestsByClientId.remove(request.clientOrderId());
+                release(request, request.quantity());
+                log.warn("Заявка {} отклонена: {}", request.clientOrderId(), error.getMessage());
+                return;
+            }
+            long latency = System.nanoTime() - request.decisionNanos();
+            ackCount.increment();
+            ackLatencyNanosTotal.add(latency);
+            ackLatencyNanosMax.accumulateAndGet(latency, Math::max);
+            requestsByClientId.computeIfPresent(request.clientOrderId(), (clientOrderId, pending) -> {
+                activeOrders.putIfAbsent(orderId, pending);
+                return pending;
+            });
+        });
+    }
+
+    /**
+     * Вход рыночной заявкой; после исполнения входа выставляются стоп-лосс и тейк-профит одной OCO-группой.
+     */
+    public CompletableFuture<String> submitBracket(String instrumentId, OrderSide side, long quantity,
+                                                   double stopLossPrice, double takeProfitPrice) {
+        OrderRequest entry = OrderRequest.market(instrumentId, side, quantity);
+        pendingBrackets.put(entry.clientOrderId(), new Bracket(stopLossPrice, takeProfitPrice));
+        return submit(entry).whenComplete((orderId, error) -> {
+            if (error != null) pendingBrackets.remove(entry.clientOrderId());
+        });
+    }
+
+    public CompletableFuture<Boolean> cancel(String orderId) {
+        return broker.cancelOrder(orderId);
+    }
+
+    /**
+     * Изменение активной заявки. Увеличение количества проходит риск-проверку как новая заявка на разницу
+     * и резервируется до отправки брокеру (при неудаче резерв снимается), уменьшение освобождает неисполненную
+     * разницу после подтверждения.
+     */
+    public CompletableFuture<String> amend(String orderId, long newQuantity, double newPrice) {
+        OrderRequest current = activeOrders.get(orderId);
+        if (current == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Активная заявка не найдена: " + orderId));
+        }
+        long added = newQuantity - current.quantity();
+        if (risk != null && added > 0) {
+            RiskDecision decision = risk.check(current.instrumentId(), current.side().sign() * added, newPrice);
+            if (!decision.accepted()) {
+                log.warn("Изменение заявки {} не прошло риск-проверку: {}", current.clientOrderId(), decision);
+                return CompletableFuture.failedFuture(new RiskRejectedException(current.instrumentId(), decision));
+            }
+        }
+        return broker.amendOrder(orderId, newQuantity, newPrice).whenComplete((newOrderId, error) -> {
+            if (error != null) {
+                release(current, added);
+                log.warn("Не удалось изменить заявку {}: {}", orderId, error.getMessage());
+                return;
+            }
+            long filled = filledByClientId.getOrDefault(current.clientOrderId(), 0L);
+            release(current, (current.quantity() - filled) - Math.max(0, newQuantity - filled));
+            OrderRequest old = activeOrders.remove(orderId);
+            if (old != null) {
+                OrderRequest amended = old.withQuantityAndPrice(newQuantity, newPrice);
+                requestsByClientId.replace(old.clientOrderId(), amended);
+                activeOrders.put(newOrderId, amended);
+            }
+        });
+    }
+
+    public long getPosition(String instrumentId) {
+        return positions.getOrDefault(instrumentId, 0L);
+    }
+
+    public int getActiveOrderCount() {
+        return activeOrders.size();
+    }
+
+    public double getAverageAckLatencyMillis() {
+        long count = ackCount.sum();
+        return count > 0 ? ackLatencyNanosTotal.sum() / (count * 1e6) : 0.0;
+    }
+
+    public double getMaxAckLatencyMillis() {
+        return ackLatencyNanosMax.get() / 1e6;
+    }
+
+    @Override
+    public void onFill(Fill fill) {
+        if (risk != null) risk.onFill(fill);
+        positions.merge(fill.instrumentId(), fill.side().sign() * fill.quantity(), Long::sum);
+
+        OrderRequest request = resolveRequest(fill);
+        if (fill.remainingQuantity() == 0 && request != null) {
+            // Сначала снимаем с учёта по clientOrderId - подтверждение после этого заявку в активные не вернёт
+            requestsByClientId.remove(request.clientOrderId());
+            filledByClientId.remove(request.clientOrderId());
+            activeOrders.values().remove(request);
+            if (request.ocoGroup() != null) {
+                cancelOcoSiblings(request);
+            }
+            Bracket bracket = pendingBrackets.remove(request.clientOrderId());
+            if (bracket != null) {
+                placeProtectiveOrders(request, bracket);
+            }
+        } else if (request != null) {
+            filledByClientId.merge(request.clientOrderId(), fill.quantity(), Long::sum);
+        }
+
+        for (ExecutionListener listener : listeners) {
+            callbacks.execute(() -> listener.onFill(fill));
+        }
+    }
+
+    @Override
+    public void onOrderUpdate(String orderId, OrderStatus status, String message) {
+        if (status == OrderStatus.CANCELLED || status == OrderStatus.REJECTED) {
+            OrderRequest request = activeOrders.remove(orderId);
+            if (request != null) {
+                requestsByClientId.remove(request.clientOrderId());
+                Long filled = filledByClientId.remove(request.clientOrderId());
+                release(request, request.quantity() - (filled != null ? filled : 0));
+            }
+        }
+        for (ExecutionListener listener : listeners) {
+            callbacks.execute(() -> listener.onOrderUpdate(orderId, status, message));
+        }
+    }
+
+    @Override
+    public void close() {
+        log.info("Исполнение: подтверждений {}, средняя задержка {} мс, максимальная {} мс",
+                ackCount.sum(), String.format("%.3f", getAverageAckLatencyMillis()), String.format("%.3f", getMaxAckLatencyMillis()));
+        callbacks.shutdown();
+        broker.close();
+    }
+
+    // Резерв риск-лимитов под quantity штук заявки, которые уже не исполнятся
+    private void release(OrderRequest request, long quantity) {
+        if (risk == null || quantity <= 0) return;
+        int instrument = risk.index(request.instrumentId());
+        if (instrument >= 0) risk.release(instrument, request.side().sign() * quantity);
+    }
+
+    // По идентификатору брокера, а до подтверждения - по clientOrderId, под которым заявка учтена при отправке
+    private OrderRequest resolveRequest(Fill fill) {
+        OrderRequest request = activeOrders.get(fill.orderId());
+        if (request == null && fill.clientOrderId() != null) {
+            request = requestsByClientId.get(fill.clientOrderId());
+        }
+        return request;
+    }
+
+    private void placeProtectiveOrders(OrderRequest entry, Bracket bracket) {
+        OrderSide exitSide = entry.side().opposite();
+        String group = entry.clientOrderId();
+        submit(OrderRequest.stop(entry.instrumentId(), exitSide, entry.quantity(), bracket.stopLossPrice(), group));
+        submit(OrderRequest.limit(entry.instrumentId(), exitSide, entry.quantity(), bracket.takeProfitPrice(), group));
+    }
+
+    private void cancelOcoSiblings(OrderRequest filled) {
+        for (Map.Entry<String, OrderRequest> entry : activeOrders.entrySet()) {
+            OrderRequest sibling = entry.getValue();
+            if (sibling != filled && filled.ocoGroup().equals(sibling.ocoGroup())) {
+                String siblingId = entry.getKey();
+                activeOrders.remove(siblingId);
+                requestsByClientId.remove(sibling.clientOrderId());
+                filledByClientId.remove(sibling.clientOrderId());
+                broker.cancelOrder(siblingId);
+            }
+        }
+    }
+}
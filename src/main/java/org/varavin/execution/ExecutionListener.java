@@ -0,0 +1,12 @@
+package org.varavin.execution;
+
+/**
+ * Получатель событий исполнения. Вызывается асинхронно и не должен блокировать поток.
+ */
+public interface ExecutionListener {
+
+    void onFill(Fill fill);
+
+    default void onOrderUpdate(String orderId, OrderStatus status, String message) {
+    }
+}
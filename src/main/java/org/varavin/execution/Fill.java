@@ -0,0 +1,15 @@
+package org.varavin.execution;
+
+/**
+ * Исполнение (сделка) по заявке. remainingQuantity - неисполненный остаток заявки после этой сделки.
+ */
+public record Fill(
+        String orderId,
+        String clientOrderId,
+        String instrumentId,
+        OrderSide side,
+        double price,
+        long quantity,
+        long remainingQuantity,
+        long timestampMillis
+) {}
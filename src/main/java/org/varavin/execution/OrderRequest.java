@@ -0,0 +1,43 @@
+package org.varavin.execution;
+
+import java.util.UUID;
+
+/**
+ * Заявка стратегии на исполнение.
+ * decisionNanos - System.nanoTime() момента принятия решения, по нему считается задержка до подтверждения брокером.
+ * ocoGroup - заявки с одинаковой группой взаимно отменяют друг друга при исполнении (SL/TP), может быть null.
+ */
+public record OrderRequest(
+        String clientOrderId,
+        String instrumentId,
+        OrderSide side,
+        OrderType type,
+        long quantity,
+        double limitPrice,
+        double stopPrice,
+        String ocoGroup,
+        long decisionNanos
+) {
+    public static OrderRequest market(String instrumentId, OrderSide side, long quantity) {
+        return new OrderRequest(newId(), instrumentId, side, OrderType.MARKET, quantity, Double.NaN, Double.NaN, null, System.nanoTime());
+    }
+
+    public static OrderRequest limit(String instrumentId, OrderSide side, long quantity, double limitPrice, String ocoGroup) {
+        return new OrderRequest(newId(), instrumentId, side, OrderType.LIMIT, quantity, limitPrice, Double.NaN, ocoGroup, System.nanoTime());
+    }
+
+    public static OrderRequest stop(String instrumentId, OrderSide side, long quantity, double stopPrice, String ocoGroup) {
+        return new OrderRequest(newId(), instrumentId, side, OrderType.STOP, quantity, Double.NaN, stopPrice, ocoGroup, System.nanoTime());
+    }
+
+    public OrderRequest withQuantityAndPrice(long newQuantity, double newPrice) {
+        return new OrderRequest(clientOrderId, instrumentId, side, type, newQuantity,
+                type == OrderType.LIMIT ? newPrice : limitPrice,
+                type == OrderType.STOP ? newPrice : stopPrice,
+                ocoGroup, System.nanoTime());
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString();
+    }
+}
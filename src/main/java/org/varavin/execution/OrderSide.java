@@ -0,0 +1,13 @@
+package org.varavin.execution;
+
+public enum OrderSide {
+    BUY, SELL;
+
+    public OrderSide opposite() {
+        return this == BUY ? SELL : BUY;
+    }
+
+    public int sign() {
+        return this == BUY ? 1 : -1;
+    }
+}
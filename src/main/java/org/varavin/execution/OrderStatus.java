@@ -0,0 +1,5 @@
+package org.varavin.execution;
+
+public enum OrderStatus {
+    NEW, PARTIALLY_FILLED, FILLED, CANCELLED, REJECTED
+}
@@ -0,0 +1,5 @@
+package org.varavin.execution;
+
+public enum OrderType {
+    MARKET, LIMIT, STOP
+}
@@ -0,0 +1,253 @@
+package org.varavin.execution;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.entity.Candle;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Внутрипроцессная биржа для песочницы и тестов: хранит стакан активных заявок и сводит их со свечами.
+ * Всё состояние меняется только в одном виртуальном потоке (matching loop), поэтому синхронизация не нужна,
+ * а события исполнения рассылаются слушателям отдельным последовательным виртуальным потоком.
+ *
+ * Правила сведения для свечи:
+ * MARKET - по цене открытия следующей свечи (или по последнему закрытию, если fillMarketAtLastClose),
+ * LIMIT  - при касании лимита, по лучшей из цен лимита и открытия (гэп),
+ * STOP   - при касании стопа, по худшей из цен стопа и открытия (гэп).
+ * Если в одной свече срабатывают и стоп, и тейк одной OCO-группы, считаем, что первым исполнился стоп.
+ */
+public class SimulatedExchange implements Broker {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedExchange.class);
+
+    private static class RestingOrder {
+        final String orderId;
+        final long sequence;
+        OrderRequest request;
+
+        RestingOrder(String orderId, long sequence, OrderRequest request) {
+            this.orderId = orderId;
+            this.sequence = sequence;
+            this.request = request;
+        }
+    }
+
+    private final boolean fillMarketAtLastClose;
+    private final ExecutorService matchingLoop = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("sim-matching").factory());
+    private final ExecutorService eventLoop = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("sim-events").factory());
+    private final List<ExecutionListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong idSequence = new AtomicLong();
+
+    // Доступны только из matchingLoop
+    private final Map<String, RestingOrder> book = new LinkedHashMap<>();
+    private final Map<String, Candle> lastCandles = new HashMap<>();
+    private long currentTimeMillis = 0;
+
+    public SimulatedExchange() {
+        this(false);
+    }
+
+    public SimulatedExchange(boolean fillMarketAtLastClose) {
+        this.fillMarketAtLastClose = fillMarketAtLastClose;
+    }
+
+    @Override
+    public CompletableFuture<String> placeOrder(OrderRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            String rejectReason = validate(request);
+            String orderId = "SIM-" + idSequence.incrementAndGet();
+            if (rejectReason != null) {
+                publishUpdate(orderId, OrderStatus.REJECTED, rejectReason);
+                throw new CompletionException(new IllegalArgumentException(rejectReason));
+            }
+            publishUpdate(orderId, OrderStatus.NEW, null);
+
+            Candle last = lastCandles.get(request.instrumentId());
+            if (request.type() == OrderType.MARKET && fillMarketAtLastClose && last != null) {
+                RestingOrder order = new RestingOrder(orderId, idSequence.get(), request);
+                fill(order, last.close());
+                return orderId;
+            }
+            book.put(orderId, new RestingOrder(orderId, idSequence.get(), request));
+            return orderId;
+        }, matchingLoop);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> cancelOrder(String orderId) {
+        return CompletableFuture.supplyAsync(() -> {
+            RestingOrder removed = book.remove(orderId);
+            if (removed == null) {
+                return false;
+            }
+            publishUpdate(orderId, OrderStatus.CANCELLED, null);
+            return true;
+        }, matchingLoop);
+    }
+
+    @Override
+    public CompletableFuture<String> amendOrder(String orderId, long newQuantity, double newPrice) {
+        return CompletableFuture.supplyAsync(() -> {
+            RestingOrder order = book.get(orderId);
+            if (order == null) {
+                throw new CompletionException(new IllegalStateException("Заявка не найдена или уже исполнена: " + orderId));
+            }
+            OrderRequest amended = order.request.withQuantityAndPrice(newQuantity, newPrice);
+            String rejectReason = validate(amended);
+            if (rejectReason != null) {
+                throw new CompletionException(new IllegalArgumentException(rejectReason));
+            }
+            order.request = amended;
+            return orderId;
+        }, matchingLoop);
+    }
+
+    @Override
+    public void addListener(ExecutionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Сводит активные заявки инструмента с новой свечой. Future завершается, когда все исполнения по свече
+     * учтены в стакане (сами события слушателям могут прийти чуть позже).
+     */
+    public CompletableFuture<Void> onCandle(String instrumentId, Candle candle) {
+        return CompletableFuture.runAsync(() -> {
+            currentTimeMillis = candle.endEpochSecond() * 1000L;
+            matchCandle(instrumentId, candle);
+            lastCandles.put(instrumentId, candle);
+        }, matchingLoop);
+    }
+
+    /**
+     * Проигрывает свечи по порядку: сначала сведение заявок на свече, затем решение стратегии на её закрытии.
+     * Заявки, выставленные в onBarClose, попадают в стакан до следующей свечи.
+     */
+    public void replay(String instrumentId, List<Candle> candles, Consumer<Candle> onBarClose) {
+        for (Candle candle : candles) {
+            onCandle(instrumentId, candle).join();
+            awaitIdle();
+            onBarClose.accept(candle);
+            awaitIdle();
+        }
+    }
+
+    /**
+     * Барьер: события исполнения доставлены, а заявки, выставленные слушателями в ответ на них, уже в стакане.
+     */
+    public void awaitIdle() {
+        CompletableFuture.runAsync(() -> {}, matchingLoop).join();
+        CompletableFuture.runAsync(() -> {}, eventLoop).join();
+        CompletableFuture.runAsync(() -> {}, matchingLoop).join();
+    }
+
+    public CompletableFuture<Integer> openOrderCount() {
+        return CompletableFuture.supplyAsync(book::size, matchingLoop);
+    }
+
+    @Override
+    public void close() {
+        matchingLoop.shutdown();
+        eventLoop.shutdown();
+        try {
+            matchingLoop.awaitTermination(5, TimeUnit.SECONDS);
+            eventLoop.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void matchCandle(String instrumentId, Candle candle) {
+        List<RestingOrder> candidates = new ArrayList<>();
+        for (RestingOrder order : book.values()) {
+            if (order.request.instrumentId().equals(instrumentId)) {
+                candidates.add(order);
+            }
+        }
+        // Стопы проверяются раньше лимитов: пессимистичное допущение при неизвестном порядке цен внутри свечи
+        candidates.sort(Comparator.comparingInt((RestingOrder o) -> o.request.type() == OrderType.STOP ? 0 : 1)
+                .thenComparingLong(o -> o.sequence));
+
+        for (RestingOrder order : candidates) {
+            if (!book.containsKey(order.orderId)) {
+                continue; // снята как часть сработавшей OCO-группы
+            }
+            double price = matchPrice(order.request, candle);
+            if (!Double.isNaN(price)) {
+                fill(order, price);
+            }
+        }
+    }
+
+    private static double matchPrice(OrderRequest request, Candle candle) {
+        boolean buy = request.side() == OrderSide.BUY;
+        switch (request.type()) {
+            case MARKET:
+                return candle.open();
+            case LIMIT:
+                if (buy && candle.low() <= request.limitPrice()) return Math.min(request.limitPrice(), candle.open());
+                if (!buy && candle.high() >= request.limitPrice()) return Math.max(request.limitPrice(), candle.open());
+                return Double.NaN;
+            case STOP:
+                if (buy && candle.high() >= request.stopPrice()) return Math.max(request.stopPrice(), candle.open());
+                if (!buy && candle.low() <= request.stopPrice()) return Math.min(request.stopPrice(), candle.open());
+                return Double.NaN;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private void fill(RestingOrder order, double price) {
+        book.remove(order.orderId);
+        OrderRequest request = order.request;
+        Fill fill = new Fill(order.orderId, request.clientOrderId(), request.instrumentId(), request.side(),
+                price, request.quantity(), 0, currentTimeMillis);
+        publishFill(fill);
+        publishUpdate(order.orderId, OrderStatus.FILLED, null);
+
+        if (request.ocoGroup() != null) {
+            Iterator<RestingOrder> it = book.values().iterator();
+            while (it.hasNext()) {
+                RestingOrder sibling = it.next();
+                if (request.ocoGroup().equals(sibling.request.ocoGroup())) {
+                    it.remove();
+                    publishUpdate(sibling.orderId, OrderStatus.CANCELLED, "OCO");
+                }
+            }
+        }
+    }
+
+    private static String validate(OrderRequest request) {
+        if (request.quantity() <= 0) return "Некорректное количество: " + request.quantity();
+        if (request.type() == OrderType.LIMIT && !(request.limitPrice() > 0)) return "Не задана лимитная цена";
+        if (request.type() == OrderType.STOP && !(request.stopPrice() > 0)) return "Не задана стоп-цена";
+        return null;
+    }
+
+    private void publishFill(Fill fill) {
+        eventLoop.execute(() -> {
+            for (ExecutionListener listener : listeners) {
+                try {
+                    listener.onFill(fill);
+                } catch (Exception e) {
+                    log.error("Ошибка обработчика исполнения", e);
+                }
+            }
+        });
+    }
+
+    private void publishUpdate(String orderId, OrderStatus status, String message) {
+        eventLoop.execute(() -> {
+            for (ExecutionListener listener : listeners) {
+                try {
+                    listener.onOrderUpdate(orderId, status, message);
+                } catch (Exception e) {
+                    log.error("Ошибка обработчика статуса заявки", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,291 @@
+package org.varavin.execution;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.Config;
+import ru.tinkoff.piapi.contract.v1.*;
+import ru.tinkoff.piapi.core.InvestApi;
+import ru.tinkoff.piapi.core.utils.MapperUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Адаптер Tinkoff Invest API. Рыночные и лимитные заявки идут через OrdersService, стоп-заявки - через StopOrdersService.
+ * Исполнения приходят из стрима сделок (OrdersStreamService) и транслируются слушателям в виртуальных потоках.
+ *
+ * Количество в {@link OrderRequest} задаётся в штуках и переводится в лоты по lotSize.
+ * Исполнения стоп-заявок приходят под идентификатором порождённой биржевой заявки, а не самой стоп-заявки; адаптер
+ * сопоставляет их со своей сработавшей стоп-заявкой и отдаёт слушателям под идентификатором и clientOrderId
+ * стоп-заявки - под ними её знает исполнение (OCO, учёт активных заявок). Стрим сделок разбирается по порядку
+ * в одном потоке: сопоставление может обращаться к API.
+ *
+ * Сделки рыночной заявки нередко приходят раньше ответа на PostOrder, а в стриме нет clientOrderId. Поэтому заявка
+ * учитывается по clientOrderId до отправки, а сделки под неизвестным идентификатором, для которых есть отправленная
+ * без ответа заявка того же инструмента и направления, придерживаются до ответа, связывающего идентификатор
+ * с заявкой, и только потом отдаются слушателям.
+ */
+public class TinkoffBroker implements Broker {
+    private static final Logger log = LoggerFactory.getLogger(TinkoffBroker.class);
+
+    private final InvestApi api;
+    private final String accountId;
+    private final int lotSize;
+    private final ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService tradeStream = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("tinkoff-trades").factory());
+    private final List<ExecutionListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, OrderRequest> orders = new ConcurrentHashMap<>();
+    private final Map<String, Long> filledQuantities = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> stopOrderIds = new ConcurrentHashMap<>();
+    // Биржевая заявка, порождённая сработавшей стоп-заявкой -> идентификатор стоп-заявки
+    private final Map<String, String> stopOrderIdsByExchangeId = new ConcurrentHashMap<>();
+    // Отправленные заявки без ответа брокера: clientOrderId (для замены - ключ идемпотентности) -> заявка
+    private final Map<String, OrderRequest> awaitingAck = new ConcurrentHashMap<>();
+    // Сделки, пришедшие раньше ответа на свою заявку, по биржевому идентификатору; только поток стрима сделок
+    private final Map<String, List<OrderTrades>> heldTrades = new LinkedHashMap<>();
+
+    public TinkoffBroker(InvestApi api, String accountId, int lotSize) {
+        this.api = api;
+        this.accountId = accountId;
+        this.lotSize = lotSize;
+        api.getOrdersStreamService().subscribeTrades(
+                response -> tradeStream.execute(() -> onTradesStream(response)),
+                error -> log.error("Ошибка стрима сделок Tinkoff", error),
+                List.of(accountId));
+    }
+
+    /**
+     * Создаёт адаптер по настройкам из Config: токен берётся из переменной окружения, режим песочницы - из флага.
+     */
+    public static TinkoffBroker fromConfig() {
+        String token = System.getenv(Config.TINKOFF_TOKEN_ENV);
+        if (token == null || token.isBlank()) {
+            throw new IllegalStateException("Не задан токен Tinkoff Invest API в переменной " + Config.TINKOFF_TOKEN_ENV);
+        }
+        InvestApi api = Config.TINKOFF_USE_SANDBOX ? InvestApi.createSandbox(token) : InvestApi.create(token);
+        return new TinkoffBroker(api, Config.TINKOFF_ACCOUNT_ID, Config.MINIMUM_LOT_SIZE);
+    }
+
+    @Override
+    public CompletableFuture<String> placeOrder(OrderRequest request) {
+        long lots = request.quantity() / lotSize;
+        if (lots <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Количество меньше лота: " + request.quantity()));
+        }
+
+        if (request.type() == OrderType.STOP) {
+            StopOrderDirection direction = request.side() == OrderSide.BUY
+                    ? StopOrderDirection.STOP_ORDER_DIRECTION_BUY : StopOrderDirection.STOP_ORDER_DIRECTION_SELL;
+            Quotation stopPrice = toQuotation(request.stopPrice());
+            return api.getStopOrdersService()
+                    .postStopOrderGoodTillCancel(request.instrumentId(), lots, stopPrice, stopPrice, direction, accountId,
+                            StopOrderType.STOP_ORDER_TYPE_STOP_LOSS)
+                    .thenApplyAsync(stopOrderId -> {
+                        orders.put(stopOrderId, request);
+                        stopOrderIds.put(stopOrderId, Boolean.TRUE);
+                        publishUpdate(stopOrderId, OrderStatus.NEW, null);
+                        return stopOrderId;
+                    }, callbacks);
+        }
+
+        OrderDirection direction = request.side() == OrderSide.BUY ? OrderDirection.ORDER_DIRECTION_BUY : OrderDirection.ORDER_DIRECTION_SELL;
+        ru.tinkoff.piapi.contract.v1.OrderType type = request.type() == OrderType.LIMIT
+                ? ru.tinkoff.piapi.contract.v1.OrderType.ORDER_TYPE_LIMIT
+                : ru.tinkoff.piapi.contract.v1.OrderType.ORDER_TYPE_MARKET;
+        Quotation price = request.type() == OrderType.LIMIT ? toQuotation(request.limitPrice()) : Quotation.getDefaultInstance();
+
+        awaitingAck.put(request.clientOrderId(), request);
+        return acknowledged(request.clientOrderId(), api.getOrdersService()
+                .postOrder(request.instrumentId(), lots, price, direction, accountId, type, request.clientOrderId())
+                .thenApplyAsync(response -> {
+                    String orderId = response.getOrderId();
+                    orders.put(orderId, request);
+                    if (response.getExecutionReportStatus() == OrderExecutionReportStatus.EXECUTION_REPORT_STATUS_REJECTED) {
+                        publishUpdate(orderId, OrderStatus.REJECTED, response.getMessage());
+                        throw new CompletionException(new IllegalStateException("Заявка отклонена брокером: " + response.getMessage()));
+                    }
+                    publishUpdate(orderId, OrderStatus.NEW, null);
+                    return orderId;
+                }, callbacks));
+    }
+
+    // Ответ получен (или запрос не прошёл): заявка больше не ждёт, придержанные сделки разбираются заново
+    private <T> CompletableFuture<T> acknowledged(String key, CompletableFuture<T> ack) {
+        return ack.whenComplete((result, error) -> {
+            awaitingAck.remove(key);
+            if (!tradeStream.isShutdown()) tradeStream.execute(this::releaseHeldTrades);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> cancelOrder(String orderId) {
+        CompletableFuture<?> cancel = stopOrderIds.containsKey(orderId)
+                ? api.getStopOrdersService().cancelStopOrder(accountId, orderId)
+                : api.getOrdersService().cancelOrder(accountId, orderId);
+        return cancel.handleAsync((time, error) -> {
+            if (error != null) {
+                log.warn("Не удалось снять заявку {}: {}", orderId, error.getMessage());
+                return false;
+            }
+            stopOrderIds.remove(orderId);
+            publishUpdate(orderId, OrderStatus.CANCELLED, null);
+            return true;
+        }, callbacks);
+    }
+
+    @Override
+    public CompletableFuture<String> amendOrder(String orderId, long newQuantity, double newPrice) {
+        OrderRequest original = orders.get(orderId);
+        if (original == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Заявка не найдена: " + orderId));
+        }
+        OrderRequest amended = original.withQuantityAndPrice(newQuantity, newPrice);
+
+        // Стоп-заявки API заменять не умеет: снимаем и выставляем заново
+        if (stopOrderIds.containsKey(orderId)) {
+            return cancelOrder(orderId).thenCompose(cancelled -> cancelled
+                    ? placeOrder(amended)
+                    : CompletableFuture.failedFuture(new IllegalStateException("Стоп-заявка уже исполнена: " + orderId)));
+        }
+
+        String idempotencyKey = amended.clientOrderId() + "-r" + System.nanoTime();
+        awaitingAck.put(idempotencyKey, amended);
+        return acknowledged(idempotencyKey, api.getOrdersService()
+                .replaceOrder(accountId, newQuantity / lotSize, toQuotation(newPrice), idempotencyKey,
+                        orderId, PriceType.PRICE_TYPE_CURRENCY)
+                .thenApplyAsync(response -> {
+                    String newOrderId = response.getOrderId();
+                    orders.remove(orderId);
+                    orders.put(newOrderId, amended);
+                    return newOrderId;
+                }, callbacks));
+    }
+
+    @Override
+    public void addListener(ExecutionListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        tradeStream.shutdown();
+        callbacks.shutdown();
+        api.destroy(5);
+    }
+
+    private void onTradesStream(TradesStreamResponse response) {
+        if (!response.hasOrderTrades()) {
+            return;
+        }
+        OrderTrades orderTrades = response.getOrderTrades();
+        if (awaitsAck(orderTrades)) {
+            heldTrades.computeIfAbsent(orderTrades.getOrderId(), id -> new ArrayList<>()).add(orderTrades);
+            return;
+        }
+        // Более ранние сделки той же заявки - вперёд, иначе остаток считался бы не по порядку
+        List<OrderTrades> held = heldTrades.remove(orderTrades.getOrderId());
+        if (held != null) held.forEach(this::emitTrades);
+        emitTrades(orderTrades);
+    }
+
+    // Неизвестный идентификатор, а заявка того же инструмента и направления ещё ждёт ответа - это, скорее всего, она
+    private boolean awaitsAck(OrderTrades orderTrades) {
+        String orderId = orderTrades.getOrderId();
+        if (orders.containsKey(orderId) || stopOrderIdsByExchangeId.containsKey(orderId)) return false;
+        OrderSide side = side(orderTrades);
+        return awaitingAck.values().stream()
+                .anyMatch(request -> request.instrumentId().equals(orderTrades.getFigi()) && request.side() == side);
+    }
+
+    private void releaseHeldTrades() {
+        for (String orderId : List.copyOf(heldTrades.keySet())) {
+            List<OrderTrades> held = heldTrades.get(orderId);
+            if (awaitsAck(held.get(0))) continue;
+            heldTrades.remove(orderId);
+            held.forEach(this::emitTrades);
+        }
+    }
+
+    private void emitTrades(OrderTrades orderTrades) {
+        String exchangeOrderId = orderTrades.getOrderId();
+        OrderSide side = side(orderTrades);
+        String orderId = resolveOrderId(exchangeOrderId, orderTrades.getFigi(), side);
+        OrderRequest request = orders.get(orderId);
+
+        for (OrderTrade trade : orderTrades.getTradesList()) {
+            long filled = filledQuantities.merge(orderId, trade.getQuantity(), Long::sum);
+            long remaining = request != null ? Math.max(0, request.quantity() - filled) : 0;
+            long timestamp = trade.getDateTime().getSeconds() * 1000L + trade.getDateTime().getNanos() / 1_000_000;
+            Fill fill = new Fill(orderId, request != null ? request.clientOrderId() : null, orderTrades.getFigi(), side,
+                    MapperUtils.quotationToBigDecimal(trade.getPrice()).doubleValue(), trade.getQuantity(), remaining, timestamp);
+            if (remaining == 0) {
+                orders.remove(orderId);
+                filledQuantities.remove(orderId);
+                stopOrderIdsByExchangeId.remove(exchangeOrderId);
+            }
+            callbacks.execute(() -> {
+                for (ExecutionListener listener : listeners) {
+                    listener.onFill(fill);
+                }
+            });
+        }
+    }
+
+    /**
+     * Исполнение под неизвестным идентификатором - заявка, порождённая сработавшей стоп-заявкой. API этой версии
+     * не отдаёт связь стоп-заявки с биржевой заявкой, поэтому берётся своя стоп-заявка того же инструмента
+     * и направления, которой уже нет среди активных (GetStopOrders). Не нашли - идентификатор остаётся биржевым.
+     */
+    private String resolveOrderId(String exchangeOrderId, String figi, OrderSide side) {
+        if (orders.containsKey(exchangeOrderId)) return exchangeOrderId;
+        String known = stopOrderIdsByExchangeId.get(exchangeOrderId);
+        if (known != null) return known;
+
+        List<String> candidates = stopOrderIds.keySet().stream()
+                .filter(id -> {
+                    OrderRequest request = orders.get(id);
+                    return request != null && request.instrumentId().equals(figi) && request.side() == side;
+                })
+                .toList();
+        if (candidates.isEmpty()) return exchangeOrderId;
+        Set<String> active;
+        try {
+            active = api.getStopOrdersService().getStopOrdersSync(accountId).stream()
+                    .map(StopOrder::getStopOrderId)
+                    .collect(Collectors.toSet());
+        } catch (RuntimeException e) {
+            log.warn("Не удалось получить стоп-заявки для исполнения {}: {}", exchangeOrderId, e.getMessage());
+            return exchangeOrderId;
+        }
+        List<String> triggered = candidates.stream().filter(id -> !active.contains(id)).toList();
+        if (triggered.isEmpty()) return exchangeOrderId;
+        if (triggered.size() > 1) {
+            log.warn("Исполнение {} подходит к нескольким сработавшим стоп-заявкам {}, берём первую", exchangeOrderId, triggered);
+        }
+        String stopOrderId = triggered.get(0);
+        stopOrderIds.remove(stopOrderId);
+        stopOrderIdsByExchangeId.put(exchangeOrderId, stopOrderId);
+        return stopOrderId;
+    }
+
+    private static OrderSide side(OrderTrades orderTrades) {
+        return orderTrades.getDirection() == OrderDirection.ORDER_DIRECTION_BUY ? OrderSide.BUY : OrderSide.SELL;
+    }
+
+    private void publishUpdate(String orderId, OrderStatus status, String message) {
+        for (ExecutionListener listener : listeners) {
+            callbacks.execute(() -> listener.onOrderUpdate(orderId, status, message));
+        }
+    }
+
+    private static Quotation toQuotation(double price) {
+        return MapperUtils.bigDecimalToQuotation(BigDecimal.valueOf(price));
+    }
+}
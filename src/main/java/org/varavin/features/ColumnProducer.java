@@ -0,0 +1,12 @@
+package org.varavin.features;
+
+import org.varavin.entity.BarColumns;
+
+/**
+ * Вычисляет одну колонку признака по всей серии: результат имеет длину bars.size(),
+ * значение с индексом i может зависеть только от баров с индексами <= i.
+ */
+@FunctionalInterface
+public interface ColumnProducer {
+    double[] compute(BarColumns bars);
+}
@@ -0,0 +1,3 @@
+package org.varavin.features;
+
+public record Feature(String name, ColumnProducer producer) {}
@@ -0,0 +1,232 @@
+package org.varavin.features;
+
+import org.varavin.Config;
+import org.varavin.entity.BarColumns;
+import org.varavin.entity.WindowedDataSet;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Декларативный реестр признаков: каждый признак - именованная колонка, вычисляемая по примитивным OHLCV-массивам.
+ * Порядок регистрации задаёт порядок каналов во входе сети. Реестр же строит матрицу признаков для датасета окон
+ * и считает статистику для z-нормализации, поэтому новый признак добавляется одной строкой в defaultRegistry().
+ * Группы {@link StreamingFeatures} (например, старшие таймфреймы) считаются одним проходом по барам; онлайн их ведёт
+ * {@link StreamingState} бар за баром, а не пересчёт по окну истории.
+ */
+public class FeatureRegistry {
+
+    private static final FeatureRegistry DEFAULT = createDefault();
+
+    private final List<Feature> features = new ArrayList<>();
+    private final List<StreamingGroup> groups = new ArrayList<>();
+
+    // Потоковая группа занимает признаки [first, first + width) - у них нет своего ColumnProducer
+    private record StreamingGroup(int first, int width, Supplier<StreamingFeatures> factory) {
+    }
+
+    public static FeatureRegistry defaultRegistry() {
+        return DEFAULT;
+    }
+
+    // --- Набор признаков v9_simple_features ---
+    private static FeatureRegistry createDefault() {
+        ZoneId zone = ZoneId.systemDefault();
+        FeatureRegistry registry = new FeatureRegistry()
+                // 1. Price Action
+                .add("open_vs_prev_close", bars -> Indicators.pctChange(bars.open(), bars.close(), 1))
+                .add("high_vs_open", bars -> Indicators.pctChange(bars.high(), bars.open(), 0))
+                .add("low_vs_open", bars -> Indicators.pctChange(bars.low(), bars.open(), 0))
+                .add("close_vs_open", bars -> Indicators.pctChange(bars.close(), bars.open(), 0))
+                // 2. Volume
+                .add("volume_change", bars -> Indicators.pctChange(bars.volume(), bars.volume(), 1))
+                // 3. Momentum
+                .add("rsi14", bars -> Indicators.finiteOrZero(Indicators.rsi(bars.close(), 14)))
+                // 4. Volatility
+                .add("atr14", bars -> Indicators.finiteOrZero(Indicators.atr(bars.high(), bars.low(), bars.close(), 14)))
+                // 5. Time
+                .add("day_of_week", bars -> Indicators.dayOfWeekFraction(bars.endEpochSeconds(), zone))
+                .add("hour_of_day", bars -> Indicators.hourFraction(bars.endEpochSeconds(), zone));
+        // 6. Старшие таймфреймы: доходность, ATR и RSI завершённых баров
+        if (Config.MULTI_TIMEFRAME_FEATURES) {
+            int[] timeframes = TimeframeResampler.parseTimeframes(Config.HIGHER_TIMEFRAMES);
+            registry.addStreaming(TimeframeResampler.featureNames(timeframes),
+                    () -> new TimeframeResampler(Config.BAR_MINUTES, timeframes, zone));
+        }
+        return registry;
+    }
+
+    public FeatureRegistry add(String name, ColumnProducer producer) {
+        for (Feature feature : features) {
+            if (feature.name().equals(name)) {
+                throw new IllegalArgumentException("Признак уже зарегистрирован: " + name);
+            }
+        }
+        features.add(new Feature(name, producer));
+        return this;
+    }
+
+    /** Регистрирует потоковую группу; names - имена её выходов в порядке StreamingFeatures.update. */
+    public FeatureRegistry addStreaming(List<String> names, Supplier<StreamingFeatures> factory) {
+        int width = factory.get().width();
+        if (width != names.size()) {
+            throw new IllegalArgumentException("Группа выдаёт " + width + " значений, имён " + names.size());
+        }
+        int first = features.size();
+        for (String name : names) {
+            add(name, null);
+        }
+        groups.add(new StreamingGroup(first, width, factory));
+        return this;
+    }
+
+    public boolean hasStreaming() {
+        return !groups.isEmpty();
+    }
+
+    public int size() {
+        return features.size();
+    }
+
+    public List<Feature> features() {
+        return Collections.unmodifiableList(features);
+    }
+
+    /** Описание набора признаков для ключа кэша. */
+    public String signature() {
+        return features.stream().map(Feature::name).collect(Collectors.joining(";"));
+    }
+
+    /**
+     * Вычисляет все колонки [признак][бар]. Колонки и потоковые группы независимы, поэтому считаются параллельно по ядрам.
+     */
+    public double[][] computeColumns(BarColumns bars) {
+        double[][] columns = computeBatchColumns(bars);
+        groups.parallelStream().forEach(group -> computeGroup(group, bars, columns));
+        return columns;
+    }
+
+    /** То же без потоковых групп: их колонки остаются null, значения для них ведёт {@link StreamingState}. */
+    public double[][] computeBatchColumns(BarColumns bars) {
+        double[][] columns = new double[features.size()][];
+        IntStream.range(0, features.size()).parallel().forEach(f -> {
+            ColumnProducer producer = features.get(f).producer();
+            if (producer == null) return;
+            double[] column = producer.compute(bars);
+            if (column.length != bars.size()) {
+                throw new IllegalStateException("Признак " + features.get(f).name() + " вернул колонку длины " + column.length);
+            }
+            columns[f] = column;
+        });
+        return columns;
+    }
+
+    private static void computeGroup(StreamingGroup group, BarColumns bars, double[][] columns) {
+        StreamingFeatures streaming = group.factory().get();
+        int n = bars.size();
+        int width = group.width();
+        for (int k = 0; k < width; k++) {
+            columns[group.first() + k] = new double[n];
+        }
+        double[] row = new double[width];
+        for (int i = 0; i < n; i++) {
+            streaming.update(bars.endEpochSeconds()[i], bars.open()[i], bars.high()[i], bars.low()[i], bars.close()[i],
+                    bars.volume()[i], row, 0);
+            for (int k = 0; k < width; k++) {
+                columns[group.first() + k][i] = row[k];
+            }
+        }
+    }
+
+    /** Состояние всех потоковых групп для одной серии, например одного инструмента онлайн. */
+    public StreamingState newStreamingState() {
+        return new StreamingState();
+    }
+
+    public final class StreamingState {
+        private final StreamingFeatures[] instances = new StreamingFeatures[groups.size()];
+        private final double[] row;
+
+        private StreamingState() {
+            int maxWidth = 0;
+            for (int g = 0; g < instances.length; g++) {
+                instances[g] = groups.get(g).factory().get();
+                maxWidth = Math.max(maxWidth, groups.get(g).width());
+            }
+            row = new double[maxWidth];
+        }
+
+        /** Подаёт очередной бар и пишет значения потоковых признаков в columns[признак][index]. */
+        public void update(long endEpochSecond, double open, double high, double low, double close, double volume,
+                           double[][] columns, int index) {
+            for (int g = 0; g < instances.length; g++) {
+                StreamingGroup group = groups.get(g);
+                instances[g].update(endEpochSecond, open, high, low, close, volume, row, 0);
+                for (int k = 0; k < group.width(); k++) {
+                    columns[group.first() + k][index] = row[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Строит датасет окон: матрица признаков [признак][бар] из колонок (каждый бар хранится один раз),
+     * примеры - индексы последних баров окон, метки - строки [пример][выход].
+     */
+    public static WindowedDataSet buildDataSet(double[][] columns, int timeSteps, int[] sampleEndBars, float[] labels, int numOutputs) {
+        int numFeatures = columns.length;
+        int numBars = numFeatures > 0 ? columns[0].length : 0;
+        float[] matrix = new float[numFeatures * numBars];
+        IntStream.range(0, numFeatures).parallel().forEach(f -> {
+            double[] column = columns[f];
+            int base = f * numBars;
+            for (int b = 0; b < numBars; b++) {
+                matrix[base + b] = (float) column[b];
+            }
+        });
+        return new WindowedDataSet(matrix, numFeatures, numBars, timeSteps, sampleEndBars, labels, numOutputs);
+    }
+
+    /**
+     * Среднее и стандартное отклонение каждого признака по всем окнам датасета (обычно обучающего среза).
+     * Бар входит в статистику столько раз, сколько окон его покрывают, - ровно как при подсчёте по тензору окон,
+     * но без его материализации. Возвращает [признак][mean, std]; нулевое отклонение заменяется единицей.
+     */
+    public static double[][] zScoreStats(WindowedDataSet data) {
+        int bars = data.numBars();
+        int timeSteps = data.timeSteps();
+        long[] coverage = new long[bars + 1];
+        for (int s = 0; s < data.size(); s++) {
+            coverage[data.sampleEndBar(s) - timeSteps + 1]++;
+            coverage[data.sampleEndBar(s) + 1]--;
+        }
+        long running = 0;
+        for (int i = 0; i < bars; i++) {
+            running += coverage[i];
+            coverage[i] = running;
+        }
+        long n = (long) data.size() * timeSteps;
+
+        double[][] stats = new double[data.numFeatures()][2];
+        IntStream.range(0, data.numFeatures()).parallel().forEach(f -> {
+            double sum = 0;
+            for (int i = 0; i < bars; i++) sum += coverage[i] * (double) data.feature(f, i);
+            double mean = n > 0 ? sum / n : 0.0;
+            double sq = 0;
+            for (int i = 0; i < bars; i++) {
+                double d = data.feature(f, i) - mean;
+                sq += coverage[i] * d * d;
+            }
+            double std = n > 1 ? Math.sqrt(sq / (n - 1)) : 1.0;
+            if (std < 1e-8) std = 1.0;
+            stats[f][0] = mean;
+            stats[f][1] = std;
+        });
+        return stats;
+    }
+}
@@ -0,0 +1,108 @@
+package org.varavin.features;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Индикаторы на примитивных массивах. RSI и ATR считаются со сглаживанием Уайлдера так же, как в ta4j
+ * (RSIIndicator/ATRIndicator поверх MMAIndicator), чтобы значения совпадали с прежним конвейером.
+ */
+public final class Indicators {
+
+    private Indicators() {
+    }
+
+    public static double pctChange(double current, double previous) {
+        if (previous == 0 || Math.abs(previous) < 1e-9) return 0.0;
+        return (current - previous) / previous;
+    }
+
+    /** current[i] относительно reference[i - lag]; первые lag значений равны 0. */
+    public static double[] pctChange(double[] current, double[] reference, int lag) {
+        double[] result = new double[current.length];
+        for (int i = lag; i < current.length; i++) {
+            result[i] = pctChange(current[i], reference[i - lag]);
+        }
+        return result;
+    }
+
+    /** Модифицированная скользящая средняя (Уайлдер): первое значение - сам вход, далее prev + (x - prev) / period. */
+    public static double[] wilderSmoothing(double[] values, int period) {
+        double[] result = new double[values.length];
+        if (values.length == 0) return result;
+        double multiplier = 1.0 / period;
+        result[0] = values[0];
+        for (int i = 1; i < values.length; i++) {
+            result[i] = result[i - 1] + (values[i] - result[i - 1]) * multiplier;
+        }
+        return result;
+    }
+
+    public static double[] trueRange(double[] high, double[] low, double[] close) {
+        double[] tr = new double[close.length];
+        for (int i = 0; i < close.length; i++) {
+            double range = high[i] - low[i];
+            if (i == 0) {
+                tr[i] = Math.abs(range);
+                continue;
+            }
+            double highToPrevClose = Math.abs(high[i] - close[i - 1]);
+            double prevCloseToLow = Math.abs(close[i - 1] - low[i]);
+            tr[i] = Math.max(Math.abs(range), Math.max(highToPrevClose, prevCloseToLow));
+        }
+        return tr;
+    }
+
+    public static double[] atr(double[] high, double[] low, double[] close, int period) {
+        return wilderSmoothing(trueRange(high, low, close), period);
+    }
+
+    public static double[] rsi(double[] close, int period) {
+        int n = close.length;
+        double[] gains = new double[n];
+        double[] losses = new double[n];
+        for (int i = 1; i < n; i++) {
+            double change = close[i] - close[i - 1];
+            gains[i] = Math.max(change, 0.0);
+            losses[i] = Math.max(-change, 0.0);
+        }
+        double[] avgGain = wilderSmoothing(gains, period);
+        double[] avgLoss = wilderSmoothing(losses, period);
+        double[] rsi = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (avgLoss[i] == 0.0) {
+                rsi[i] = avgGain[i] == 0.0 ? 0.0 : 100.0;
+            } else {
+                rsi[i] = 100.0 - 100.0 / (1.0 + avgGain[i] / avgLoss[i]);
+            }
+        }
+        return rsi;
+    }
+
+    public static double[] dayOfWeekFraction(long[] endEpochSeconds, ZoneId zone) {
+        double[] result = new double[endEpochSeconds.length];
+        for (int i = 0; i < result.length; i++) {
+            ZonedDateTime time = Instant.ofEpochSecond(endEpochSeconds[i]).atZone(zone);
+            result[i] = (double) time.getDayOfWeek().getValue() / 7.0;
+        }
+        return result;
+    }
+
+    public static double[] hourFraction(long[] endEpochSeconds, ZoneId zone) {
+        double[] result = new double[endEpochSeconds.length];
+        for (int i = 0; i < result.length; i++) {
+            ZonedDateTime time = Instant.ofEpochSecond(endEpochSeconds[i]).atZone(zone);
+            result[i] = (double) time.getHour() / 23.0;
+        }
+        return result;
+    }
+
+    /** Заменяет NaN/Infinity нулём, как прежний getIndicatorValueSafe. */
+    public static double[] finiteOrZero(double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (!Double.isFinite(values[i])) values[i] = 0.0;
+        }
+        return values;
+    }
+}
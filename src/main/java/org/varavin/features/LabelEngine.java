@@ -0,0 +1,115 @@
+package org.varavin.features;
+
+import org.varavin.entity.BarColumns;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Метки "потенциальное движение в ATR" для нескольких горизонтов сразу.
+ * Максимум high и минимум low на будущих барах (i, i + h] считаются скользящим окном на монотонной деке
+ * за O(N) на горизонт, независимо от его длины; горизонты обрабатываются параллельно.
+ */
+public final class LabelEngine {
+
+    private LabelEngine() {
+    }
+
+    /**
+     * Метки [бар][горизонт * 2 + k], k = 0 - рост (max high - close) / ATR, k = 1 - падение (close - min low) / ATR.
+     * Цена закрытия текущего бара входит в экстремумы, как и раньше. Для баров без полного будущего окна
+     * или с ATR < 1e-6 значения равны NaN.
+     */
+    public static LabelMatrix volatilityNormalizedLabels(BarColumns bars, double[] atr, int[] horizons) {
+        int n = bars.size();
+        int width = horizons.length * 2;
+        double[] values = new double[n * width];
+        IntStream.range(0, horizons.length).parallel().forEach(h -> {
+            int horizon = horizons[h];
+            double[] maxHigh = forwardRollingMax(bars.high(), horizon);
+            double[] minLow = forwardRollingMin(bars.low(), horizon);
+            double[] close = bars.close();
+            for (int i = 0; i < n; i++) {
+                int offset = i * width + h * 2;
+                double currentAtr = atr[i];
+                if (Double.isNaN(maxHigh[i]) || currentAtr < 1e-6) {
+                    values[offset] = Double.NaN;
+                    values[offset + 1] = Double.NaN;
+                    continue;
+                }
+                double maxFuturePrice = Math.max(close[i], maxHigh[i]);
+                double minFuturePrice = Math.min(close[i], minLow[i]);
+                values[offset] = (maxFuturePrice - close[i]) / currentAtr;
+                values[offset + 1] = (close[i] - minFuturePrice) / currentAtr;
+            }
+        });
+        return new LabelMatrix(horizons.clone(), n, values);
+    }
+
+    /** result[i] = max(values[i + 1 .. i + horizon]); NaN, если окно выходит за конец массива. */
+    public static double[] forwardRollingMax(double[] values, int horizon) {
+        return forwardRolling(values, horizon, true);
+    }
+
+    /** result[i] = min(values[i + 1 .. i + horizon]); NaN, если окно выходит за конец массива. */
+    public static double[] forwardRollingMin(double[] values, int horizon) {
+        return forwardRolling(values, horizon, false);
+    }
+
+    private static double[] forwardRolling(double[] values, int horizon, boolean max) {
+        int n = values.length;
+        double[] result = new double[n];
+        Arrays.fill(result, Double.NaN);
+        if (horizon <= 0) return result;
+
+        // Кольцевая дека индексов: значения по индексам монотонны от головы к хвосту
+        int[] deque = new int[horizon + 1];
+        int head = 0;
+        int size = 0;
+        for (int k = 0; k < n; k++) {
+            double v = values[k];
+            while (size > 0) {
+                int tailIdx = deque[(head + size - 1) % deque.length];
+                if (max ? values[tailIdx] <= v : values[tailIdx] >= v) size--;
+                else break;
+            }
+            deque[(head + size) % deque.length] = k;
+            size++;
+            if (deque[head] <= k - horizon) {
+                head = (head + 1) % deque.length;
+                size--;
+            }
+            // Окно [k - horizon + 1, k] - это будущее окно для бара i = k - horizon
+            int i = k - horizon;
+            if (i >= 0) {
+                result[i] = values[deque[head]];
+            }
+        }
+        return result;
+    }
+
+    /** Матрица меток в плоском массиве [бар][горизонт * 2 + k]. */
+    public record LabelMatrix(int[] horizons, int bars, double[] values) {
+
+        public int width() {
+            return horizons.length * 2;
+        }
+
+        public double get(int bar, int horizonIndex, int k) {
+            return values[bar * width() + horizonIndex * 2 + k];
+        }
+
+        public boolean isValid(int bar) {
+            int offset = bar * width();
+            for (int c = 0; c < width(); c++) {
+                if (Double.isNaN(values[offset + c])) return false;
+            }
+            return true;
+        }
+
+        /** Копирует строку бара в out начиная с offset. */
+        public void copyRow(int bar, double[] out, int offset) {
+            System.arraycopy(values, bar * width(), out, offset, width());
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.varavin.features;
+
+/**
+ * Группа признаков, которые считаются потоково: бары подаются по одному в порядке времени, и после каждого бара
+ * в out пишутся width() значений для него. Значения зависят только от уже поданных баров. Одна и та же реализация
+ * строит колонки при подготовке данных и ведёт признаки инструмента онлайн, поэтому они совпадают без прогрева
+ * по истории. Экземпляр хранит состояние одной серии и не потокобезопасен.
+ */
+public interface StreamingFeatures {
+
+    int width();
+
+    void update(long endEpochSecond, double open, double high, double low, double close, double volume,
+                double[] out, int offset);
+}
@@ -0,0 +1,168 @@
+package org.varavin.features;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Бары старших таймфреймов и их индикаторы за один проход по базовой серии, без отдельных BarSeries.
+ * Для каждого таймфрейма в примитивных массивах ведутся формирующийся бар и состояние индикаторов по завершённым
+ * барам: доходность последнего завершённого бара, ATR14 и RSI14 (сглаживание Уайлдера, как в {@link Indicators}).
+ *
+ * Признаки базового бара берутся только из завершённых баров старшего таймфрейма - заглядывания вперёд нет.
+ * Бар таймфрейма завершается на базовом баре, время конца которого совпадает с его границей, либо, если на границе
+ * бара не было (конец сессии, пропуски), на первом баре следующего периода - до того, как этот бар в него войдёт.
+ * Границы считаются в часовом поясе zone, так что дневной бар - это торговый день по местному времени.
+ */
+public final class TimeframeResampler implements StreamingFeatures {
+
+    private static final int PERIOD = 14;
+    private static final int VALUES_PER_TIMEFRAME = 3;
+
+    private final long baseSeconds;
+    private final long[] periodSeconds;
+    private final ZoneRules zoneRules;
+    private final int fixedOffsetSeconds;
+
+    // Формирующийся бар: номер периода и OHLC
+    private final long[] bucket;
+    private final boolean[] forming;
+    private final double[] open;
+    private final double[] high;
+    private final double[] low;
+    private final double[] close;
+    // Индикаторы по завершённым барам
+    private final int[] completed;
+    private final double[] lastClose;
+    private final double[] lastReturn;
+    private final double[] atr;
+    private final double[] avgGain;
+    private final double[] avgLoss;
+
+    public TimeframeResampler(int baseMinutes, int[] timeframeMinutes, ZoneId zone) {
+        this.baseSeconds = baseMinutes * 60L;
+        int n = timeframeMinutes.length;
+        this.periodSeconds = new long[n];
+        for (int k = 0; k < n; k++) {
+            if (timeframeMinutes[k] <= baseMinutes || timeframeMinutes[k] % baseMinutes != 0) {
+                throw new IllegalArgumentException("Таймфрейм " + timeframeMinutes[k] + " мин не кратен базовому бару " + baseMinutes + " мин");
+            }
+            periodSeconds[k] = timeframeMinutes[k] * 60L;
+        }
+        this.zoneRules = zone.getRules();
+        this.fixedOffsetSeconds = zoneRules.isFixedOffset() ? zoneRules.getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+        this.bucket = new long[n];
+        this.forming = new boolean[n];
+        this.open = new double[n];
+        this.high = new double[n];
+        this.low = new double[n];
+        this.close = new double[n];
+        this.completed = new int[n];
+        this.lastClose = new double[n];
+        this.lastReturn = new double[n];
+        this.atr = new double[n];
+        this.avgGain = new double[n];
+        this.avgLoss = new double[n];
+    }
+
+    /** Таймфреймы вида "15m,1h,1d" в минутах. */
+    public static int[] parseTimeframes(String spec) {
+        String[] parts = spec.split(",");
+        int[] minutes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int value = Integer.parseInt(part.substring(0, part.length() - 1));
+            minutes[i] = switch (part.charAt(part.length() - 1)) {
+                case 'm' -> value;
+                case 'h' -> value * 60;
+                case 'd' -> value * 1440;
+                default -> throw new IllegalArgumentException("Неизвестный таймфрейм: " + part);
+            };
+        }
+        return minutes;
+    }
+
+    /** Имена признаков в порядке выхода update(): на каждый таймфрейм ret_, atr14_, rsi14_. */
+    public static List<String> featureNames(int[] timeframeMinutes) {
+        List<String> names = new ArrayList<>();
+        for (int minutes : timeframeMinutes) {
+            String label = minutes % 1440 == 0 ? minutes / 1440 + "d" : minutes % 60 == 0 ? minutes / 60 + "h" : minutes + "m";
+            names.add("ret_" + label);
+            names.add("atr14_" + label);
+            names.add("rsi14_" + label);
+        }
+        return names;
+    }
+
+    @Override
+    public int width() {
+        return periodSeconds.length * VALUES_PER_TIMEFRAME;
+    }
+
+    @Override
+    public void update(long endEpochSecond, double o, double h, double l, double c, double volume, double[] out, int offset) {
+        long localEnd = endEpochSecond + offsetSeconds(endEpochSecond);
+        long localStart = localEnd - baseSeconds;
+        for (int k = 0; k < periodSeconds.length; k++) {
+            long period = periodSeconds[k];
+            long b = Math.floorDiv(localStart, period);
+            if (forming[k] && b != bucket[k]) {
+                complete(k);
+            }
+            if (!forming[k]) {
+                forming[k] = true;
+                bucket[k] = b;
+                open[k] = o;
+                high[k] = h;
+                low[k] = l;
+            } else {
+                high[k] = Math.max(high[k], h);
+                low[k] = Math.min(low[k], l);
+            }
+            close[k] = c;
+            if (Math.floorMod(localEnd, period) == 0) {
+                complete(k);
+            }
+
+            int base = offset + k * VALUES_PER_TIMEFRAME;
+            out[base] = lastReturn[k];
+            out[base + 1] = atr[k];
+            out[base + 2] = rsi(k);
+        }
+    }
+
+    private int offsetSeconds(long epochSecond) {
+        return zoneRules.isFixedOffset() ? fixedOffsetSeconds : zoneRules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+    }
+
+    // Бар k завершён: те же формулы, что Indicators.trueRange / wilderSmoothing / rsi по ряду завершённых баров
+    private void complete(int k) {
+        double range = Math.abs(high[k] - low[k]);
+        if (completed[k] == 0) {
+            atr[k] = range;
+            avgGain[k] = 0.0;
+            avgLoss[k] = 0.0;
+            lastReturn[k] = 0.0;
+        } else {
+            double previous = lastClose[k];
+            double trueRange = Math.max(range, Math.max(Math.abs(high[k] - previous), Math.abs(previous - low[k])));
+            atr[k] += (trueRange - atr[k]) / PERIOD;
+            double change = close[k] - previous;
+            avgGain[k] += (Math.max(change, 0.0) - avgGain[k]) / PERIOD;
+            avgLoss[k] += (Math.max(-change, 0.0) - avgLoss[k]) / PERIOD;
+            lastReturn[k] = Indicators.pctChange(close[k], previous);
+        }
+        lastClose[k] = close[k];
+        completed[k]++;
+        forming[k] = false;
+    }
+
+    private double rsi(int k) {
+        if (avgLoss[k] == 0.0) {
+            return avgGain[k] == 0.0 ? 0.0 : 100.0;
+        }
+        return 100.0 - 100.0 / (1.0 + avgGain[k] / avgLoss[k]);
+    }
+}
@@ -0,0 +1,70 @@
+package org.varavin.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Раскладка журнала сессии. Файл: int MAGIC, int VERSION, int размер сегмента, затем записи подряд, little-endian.
+ * Запись - int длина (тип + данные), byte тип, данные. Запись не пересекает границу сегмента: хвост сегмента,
+ * куда она не помещается, помечается длиной SEGMENT_END. Длина 0 - конец журнала (несписанная часть отображения
+ * заполнена нулями), длина пишется последней, поэтому оборванная при падении запись не читается.
+ */
+final class JournalFormat {
+
+    static final int MAGIC = 0x564A524E; // "VJRN"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 3 * Integer.BYTES;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final int SEGMENT_END = -1;
+    static final int RECORD_HEADER_BYTES = Integer.BYTES + 1;
+
+    static final byte SESSION = 1;
+    static final byte EVENT = 2;
+    static final byte FILL = 3;
+    static final byte ORDER_UPDATE = 4;
+
+    // Флаги события конвейера
+    static final byte VALID = 1;
+    static final byte WINDOW_READY = 2;
+    static final byte PREDICTED = 4;
+    static final byte ROUTED = 8;
+    static final byte END_OF_INFERENCE_BATCH = 16;
+
+    // Событие без окна: sequence, instrument, время, OHLCV, флаги, ATR/EMA/ADX, предсказание, сигнал,
+    // позиция, капитал, количество, SL, TP
+    static final int EVENT_FIXED_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES + 5 * Double.BYTES + 1
+            + 5 * Double.BYTES + 1 + Long.BYTES + Double.BYTES + Long.BYTES + 2 * Double.BYTES;
+
+    private JournalFormat() {
+    }
+
+    static int stringBytes(String value) {
+        return Short.BYTES + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /** Строка, которая поместится в запись: длиннее 32767 байт UTF-8 обрезается по границе символа. */
+    static String fit(String value) {
+        if (value == null || value.length() * 3 <= Short.MAX_VALUE) return value;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= Short.MAX_VALUE) return value;
+        int end = Short.MAX_VALUE;
+        // Байт на границе - продолжение символа: отступаем к его началу
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) end--;
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("Строка длиннее 32767 байт");
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,209 @@
+package org.varavin.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.entity.BotParameters;
+import org.varavin.execution.Fill;
+import org.varavin.execution.OrderSide;
+import org.varavin.execution.OrderStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.varavin.journal.JournalFormat.*;
+
+/**
+ * Чтение журнала сессии: файл отображается в память посегментно, при открытии один проход строит индекс
+ * смещений событий, исполнения и статусы заявок разбираются сразу (их мало). Событие по номеру читается
+ * абсолютными чтениями из отображения, поэтому {@link #event(int, RecordedEvent)} можно звать из разных потоков.
+ * Оборванная последняя запись (падение во время записи) отбрасывается.
+ */
+public final class JournalReader implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(JournalReader.class);
+
+    /** Статус заявки из журнала; время - часы процесса в момент записи. */
+    public record OrderUpdate(long timestampMillis, String orderId, OrderStatus status, String message) {
+    }
+
+    private final FileChannel channel;
+    private final int segmentBytes;
+    private final MappedByteBuffer[] segments;
+    private final SessionInfo session;
+    private final long[] eventOffsets;
+    private final int events;
+    private final List<Fill> fills;
+    private final List<OrderUpdate> orderUpdates;
+
+    private JournalReader(FileChannel channel, int segmentBytes, MappedByteBuffer[] segments) {
+        this.channel = channel;
+        this.segmentBytes = segmentBytes;
+        this.segments = segments;
+
+        SessionInfo session = null;
+        long[] offsets = new long[1024];
+        int count = 0;
+        List<Fill> fills = new ArrayList<>();
+        List<OrderUpdate> updates = new ArrayList<>();
+        long position = HEADER_BYTES;
+        while (true) {
+            int local = (int) (position % segmentBytes);
+            int index = (int) (position / segmentBytes);
+            if (index >= segments.length) break;
+            ByteBuffer segment = segments[index];
+            if (local + Integer.BYTES > segment.limit()) {
+                position = (long) (index + 1) * segmentBytes;
+                continue;
+            }
+            int length = segment.getInt(local);
+            if (length == 0) break;
+            if (length == SEGMENT_END) {
+                position = (long) (index + 1) * segmentBytes;
+                continue;
+            }
+            if (length < 1 || local + Integer.BYTES + length > segment.limit()) {
+                log.warn("Оборванная запись журнала на смещении {}, дальше не читаем", position);
+                break;
+            }
+            ByteBuffer payload = segment.slice(local + RECORD_HEADER_BYTES, length - 1).order(ORDER);
+            switch (segment.get(local + Integer.BYTES)) {
+                case SESSION -> session = readSession(payload);
+                case EVENT -> {
+                    if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                    offsets[count++] = position + RECORD_HEADER_BYTES;
+                }
+                case FILL -> fills.add(readFill(payload));
+                case ORDER_UPDATE -> updates.add(readOrderUpdate(payload));
+                default -> log.warn("Неизвестный тип записи журнала на смещении {}", position);
+            }
+            position += Integer.BYTES + length;
+        }
+        if (session == null) throw new IllegalStateException("В журнале нет записи сессии");
+        this.session = session;
+        this.eventOffsets = offsets;
+        this.events = count;
+        this.fills = Collections.unmodifiableList(fills);
+        this.orderUpdates = Collections.unmodifiableList(updates);
+    }
+
+    public static JournalReader open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES) throw new IOException("Файл слишком мал для журнала: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ORDER);
+            if (header.getInt() != MAGIC) throw new IOException("Не журнал сессии: " + file);
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Неподдерживаемая версия журнала: " + version);
+            int segmentBytes = header.getInt();
+            int count = (int) ((size + segmentBytes - 1) / segmentBytes);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * segmentBytes;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentBytes, size - start));
+                segments[i].order(ORDER);
+            }
+            return new JournalReader(channel, segmentBytes, segments);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public SessionInfo session() {
+        return session;
+    }
+
+    public int events() {
+        return events;
+    }
+
+    public List<Fill> fills() {
+        return fills;
+    }
+
+    public List<OrderUpdate> orderUpdates() {
+        return orderUpdates;
+    }
+
+    /** Читает событие number (по порядку записи) в into; окно into должно быть размера окна сессии. */
+    public RecordedEvent event(int number, RecordedEvent into) {
+        if (number < 0 || number >= events) throw new IndexOutOfBoundsException(number);
+        long offset = eventOffsets[number];
+        ByteBuffer s = segments[(int) (offset / segmentBytes)];
+        int p = (int) (offset % segmentBytes);
+        into.sequence = s.getLong(p);
+        into.instrument = s.getInt(p += Long.BYTES);
+        into.endEpochSecond = s.getLong(p += Integer.BYTES);
+        into.open = s.getDouble(p += Long.BYTES);
+        into.high = s.getDouble(p += Double.BYTES);
+        into.low = s.getDouble(p += Double.BYTES);
+        into.close = s.getDouble(p += Double.BYTES);
+        into.volume = s.getDouble(p += Double.BYTES);
+        byte flags = s.get(p += Double.BYTES);
+        into.valid = (flags & VALID) != 0;
+        into.windowReady = (flags & WINDOW_READY) != 0;
+        into.predicted = (flags & PREDICTED) != 0;
+        into.routed = (flags & ROUTED) != 0;
+        into.endOfInferenceBatch = (flags & END_OF_INFERENCE_BATCH) != 0;
+        into.atr = s.getDouble(p += 1);
+        into.ema = s.getDouble(p += Double.BYTES);
+        into.adx = s.getDouble(p += Double.BYTES);
+        into.predictedUp = s.getDouble(p += Double.BYTES);
+        into.predictedDown = s.getDouble(p += Double.BYTES);
+        into.signal = s.get(p += Double.BYTES);
+        into.position = s.getLong(p += 1);
+        into.equity = s.getDouble(p += Long.BYTES);
+        into.quantity = s.getLong(p += Double.BYTES);
+        into.stopLossPrice = s.getDouble(p += Long.BYTES);
+        into.takeProfitPrice = s.getDouble(p += Double.BYTES);
+        p += Double.BYTES;
+        if (into.windowReady) {
+            float[] window = into.window;
+            for (int i = 0; i < window.length; i++, p += Float.BYTES) window[i] = s.getFloat(p);
+        } else {
+            Arrays.fill(into.window, 0f);
+        }
+        return into;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static SessionInfo readSession(ByteBuffer in) {
+        long start = in.getLong();
+        int timeSteps = in.getInt();
+        BotParameters params = new BotParameters(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+        String modelHash = getString(in);
+        List<String> instruments = new ArrayList<>();
+        for (int i = in.getInt(); i > 0; i--) instruments.add(getString(in));
+        double[][] stats = new double[in.getInt()][];
+        for (int f = 0; f < stats.length; f++) stats[f] = new double[]{in.getDouble(), in.getDouble()};
+        return new SessionInfo(start, timeSteps, params, modelHash, List.copyOf(instruments), stats);
+    }
+
+    private static Fill readFill(ByteBuffer in) {
+        long timestamp = in.getLong();
+        String orderId = getString(in);
+        String clientOrderId = getString(in);
+        String instrumentId = getString(in);
+        OrderSide side = OrderSide.values()[in.get()];
+        return new Fill(orderId, clientOrderId, instrumentId, side, in.getDouble(), in.getLong(), in.getLong(), timestamp);
+    }
+
+    private static OrderUpdate readOrderUpdate(ByteBuffer in) {
+        long timestamp = in.getLong();
+        String orderId = getString(in);
+        OrderStatus status = OrderStatus.values()[in.get()];
+        return new OrderUpdate(timestamp, orderId, status, getString(in));
+    }
+}
@@ -0,0 +1,225 @@
+package org.varavin.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.bus.EventHandler;
+import org.varavin.execution.ExecutionListener;
+import org.varavin.execution.Fill;
+import org.varavin.execution.OrderStatus;
+import org.varavin.live.PipelineEvent;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.varavin.journal.JournalFormat.*;
+
+/**
+ * Журнал сессии: только дозапись в отображённый в память файл, сегмент за сегментом. Запись - копирование полей
+ * в отображение без системных вызовов и без объектов; сброс на диск делает ОС, поэтому падение процесса журнал
+ * не теряет, падение машины - может потерять хвост.
+ *
+ * Подключается последней стадией конвейера (observer): видит каждую свечу вместе с окном признаков, индикаторами,
+ * предсказанием, сигналом, заявкой и входами стадии риска, не задерживая решение. Как {@link ExecutionListener}
+ * записывает исполнения и статусы заявок. Запись синхронизирована: события пишет поток конвейера, исполнения -
+ * потоки обратных вызовов ExecutionEngine.
+ */
+public final class JournalWriter implements EventHandler<PipelineEvent>, ExecutionListener, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(JournalWriter.class);
+
+    private final File file;
+    private final FileChannel channel;
+    private final int segmentBytes;
+    private final int windowSize;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private boolean closed;
+
+    private final LatencyHistogram appendTime = Metrics.histogram("journal.append");
+    private final LongAdder bytes = Metrics.counter("journal.bytes");
+
+    private JournalWriter(File file, FileChannel channel, int segmentBytes, int windowSize) {
+        this.file = file;
+        this.channel = channel;
+        this.segmentBytes = segmentBytes;
+        this.windowSize = windowSize;
+    }
+
+    /** Создаёт журнал (существующий файл перезаписывается) и пишет заголовок с записью сессии. */
+    public static JournalWriter create(File file, SessionInfo session, int segmentBytes) throws IOException {
+        int windowBytes = session.windowSize() * Float.BYTES;
+        if (segmentBytes < HEADER_BYTES + 2 * (RECORD_HEADER_BYTES + EVENT_FIXED_BYTES + windowBytes)) {
+            throw new IllegalArgumentException("Сегмент журнала меньше двух событий: " + segmentBytes);
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        JournalWriter writer = new JournalWriter(file, channel, segmentBytes, session.windowSize());
+        try {
+            writer.map(0);
+            writer.segment.putInt(MAGIC).putInt(VERSION).putInt(segmentBytes);
+            writer.writeSession(session);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        log.info("Журнал сессии: {}", file.getAbsolutePath());
+        return writer;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    @Override
+    public synchronized void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        if (closed) return;
+        long start = System.nanoTime();
+        boolean window = event.windowReady;
+        int length = EVENT_FIXED_BYTES + (window ? windowSize * Float.BYTES : 0);
+        int at = begin(EVENT, length);
+        segment.putLong(sequence)
+                .putInt(event.instrument)
+                .putLong(event.endEpochSecond)
+                .putDouble(event.open).putDouble(event.high).putDouble(event.low).putDouble(event.close)
+                .putDouble(event.volume)
+                .put((byte) ((event.valid ? VALID : 0) | (window ? WINDOW_READY : 0)
+                        | (event.predicted ? PREDICTED : 0) | (event.routed ? ROUTED : 0)
+                        | (event.endOfInferenceBatch ? END_OF_INFERENCE_BATCH : 0)))
+                .putDouble(event.atr).putDouble(event.ema).putDouble(event.adx)
+                .putDouble(event.predictedUp).putDouble(event.predictedDown)
+                .put((byte) event.signal)
+                .putLong(event.position)
+                .putDouble(event.equity)
+                .putLong(event.quantity)
+                .putDouble(event.stopLossPrice).putDouble(event.takeProfitPrice);
+        if (window) {
+            float[] values = event.window;
+            for (int i = 0; i < windowSize; i++) segment.putFloat(values[i]);
+        }
+        end(at, length);
+        appendTime.recordSince(start);
+    }
+
+    // Строки обрезаются и размер проверяется до begin: исключение после резерва оставило бы в журнале
+    // запись с нулевой длиной, то есть конец журнала, и ушло бы в обратный вызов ExecutionEngine
+    @Override
+    public synchronized void onFill(Fill fill) {
+        if (closed) return;
+        String orderId = fit(fill.orderId());
+        String clientOrderId = fit(fill.clientOrderId());
+        String instrumentId = fit(fill.instrumentId());
+        int length = Long.BYTES + stringBytes(orderId) + stringBytes(clientOrderId)
+                + stringBytes(instrumentId) + 1 + Double.BYTES + 2 * Long.BYTES;
+        if (!fits(FILL, length)) return;
+        int at = begin(FILL, length);
+        segment.putLong(fill.timestampMillis());
+        putString(segment, orderId);
+        putString(segment, clientOrderId);
+        putString(segment, instrumentId);
+        segment.put((byte) fill.side().ordinal())
+                .putDouble(fill.price())
+                .putLong(fill.quantity())
+                .putLong(fill.remainingQuantity());
+        end(at, length);
+    }
+
+    @Override
+    public synchronized void onOrderUpdate(String orderId, OrderStatus status, String message) {
+        if (closed) return;
+        orderId = fit(orderId);
+        message = fit(message);
+        int length = Long.BYTES + stringBytes(orderId) + 1 + stringBytes(message);
+        if (!fits(ORDER_UPDATE, length)) return;
+        int at = begin(ORDER_UPDATE, length);
+        segment.putLong(System.currentTimeMillis());
+        putString(segment, orderId);
+        segment.put((byte) status.ordinal());
+        putString(segment, message);
+        end(at, length);
+    }
+
+    /** Сбрасывает отображение на диск и обрезает файл по последней записи. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        long size = segmentStart + segment.position();
+        segment.force();
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            // Пока отображение живо, не все ОС дают обрезать файл; хвост из нулей читатель понимает как конец
+            log.warn("Не удалось обрезать журнал {}: {}", file.getName(), e.getMessage());
+        }
+        channel.close();
+    }
+
+    private void writeSession(SessionInfo session) {
+        double[][] stats = session.featureStats();
+        int length = Long.BYTES + Integer.BYTES + 4 * Double.BYTES + stringBytes(session.modelHash())
+                + Integer.BYTES + session.instrumentIds().stream().mapToInt(JournalFormat::stringBytes).sum()
+                + Integer.BYTES + stats.length * 2 * Double.BYTES;
+        int at = begin(SESSION, length);
+        segment.putLong(session.startEpochMillis())
+                .putInt(session.timeSteps())
+                .putDouble(session.params().atrStopMultiplier())
+                .putDouble(session.params().fixedRiskRewardRatio())
+                .putDouble(session.params().signalThreshold())
+                .putDouble(session.params().riskPercent());
+        putString(segment, session.modelHash());
+        segment.putInt(session.instrumentIds().size());
+        for (String id : session.instrumentIds()) putString(segment, id);
+        segment.putInt(stats.length);
+        for (double[] feature : stats) segment.putDouble(feature[0]).putDouble(feature[1]);
+        end(at, length);
+    }
+
+    // Запись исполнения или статуса, не помещающаяся в сегмент, пропускается: журнал не должен ронять исполнение
+    private boolean fits(byte type, int length) {
+        if (RECORD_HEADER_BYTES + length <= segmentBytes - HEADER_BYTES) return true;
+        log.warn("Запись журнала типа {} ({} байт) больше сегмента, пропущена", type, length);
+        return false;
+    }
+
+    // Резервирует место под запись и пишет тип; длина пишется в end, после данных
+    private int begin(byte type, int length) {
+        if (RECORD_HEADER_BYTES + length > segmentBytes - HEADER_BYTES) {
+            throw new IllegalArgumentException("Запись журнала больше сегмента: " + length);
+        }
+        if (segment.remaining() < RECORD_HEADER_BYTES + length) {
+            if (segment.remaining() >= Integer.BYTES) segment.putInt(SEGMENT_END);
+            try {
+                map(segmentStart + segmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось расширить журнал " + file, e);
+            }
+        }
+        int at = segment.position();
+        segment.position(at + Integer.BYTES);
+        segment.put(type);
+        return at;
+    }
+
+    private void end(int at, int length) {
+        if (segment.position() != at + RECORD_HEADER_BYTES + length) {
+            throw new IllegalStateException("Размер записи журнала не совпал с расчётным");
+        }
+        segment.putInt(at, 1 + length);
+        bytes.add(RECORD_HEADER_BYTES + length);
+    }
+
+    private void map(long position) throws IOException {
+        // Отображение за концом файла в режиме записи расширяет файл
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, position, segmentBytes);
+        segment.order(ORDER);
+        segmentStart = position;
+    }
+}
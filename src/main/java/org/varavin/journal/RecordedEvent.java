@@ -0,0 +1,39 @@
+package org.varavin.journal;
+
+/**
+ * Событие конвейера из журнала - поля {@link org.varavin.live.PipelineEvent} без отметок времени процесса.
+ * Экземпляр переиспользуется: {@link JournalReader#event(int, RecordedEvent)} перезаписывает все поля;
+ * окно заполнено только при windowReady.
+ */
+public final class RecordedEvent {
+
+    public long sequence;
+    public int instrument;
+    public long endEpochSecond;
+    public double open;
+    public double high;
+    public double low;
+    public double close;
+    public double volume;
+    public boolean valid;
+    public boolean windowReady;
+    public boolean endOfInferenceBatch;
+    public boolean predicted;
+    public boolean routed;
+    public double atr;
+    public double ema;
+    public double adx;
+    public double predictedUp;
+    public double predictedDown;
+    public int signal;
+    public long position;
+    public double equity;
+    public long quantity;
+    public double stopLossPrice;
+    public double takeProfitPrice;
+    public final float[] window;
+
+    public RecordedEvent(int windowSize) {
+        this.window = new float[windowSize];
+    }
+}
@@ -0,0 +1,18 @@
+package org.varavin.journal;
+
+import org.varavin.entity.BotParameters;
+
+import java.util.List;
+
+/**
+ * Всё, кроме рыночных данных и исполнения, от чего зависят решения конвейера: параметры стратегии,
+ * хэш файла модели, инструменты (номер инструмента в событии - индекс в instrumentIds) и статистика
+ * нормализации признаков {mean, std}. Первая запись журнала.
+ */
+public record SessionInfo(long startEpochMillis, int timeSteps, BotParameters params, String modelHash,
+                          List<String> instrumentIds, double[][] featureStats) {
+
+    public int windowSize() {
+        return featureStats.length * timeSteps;
+    }
+}
@@ -0,0 +1,30 @@
+package org.varavin.live;
+
+import org.varavin.bus.EventHandler;
+import org.varavin.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Приём свечей: отбрасывает повторы и свечи не по порядку времени, как при загрузке CSV в DataManager. */
+final class CandleIngestStage implements EventHandler<PipelineEvent> {
+
+    private final long[] lastEpochSecond;
+    private final LongAdder dropped = Metrics.counter("pipeline.dropped_candles");
+
+    CandleIngestStage(int instruments) {
+        this.lastEpochSecond = new long[instruments];
+        Arrays.fill(lastEpochSecond, Long.MIN_VALUE);
+    }
+
+    @Override
+    public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        boolean valid = event.endEpochSecond > lastEpochSecond[event.instrument] && event.close > 0;
+        if (valid) {
+            lastEpochSecond[event.instrument] = event.endEpochSecond;
+        } else {
+            dropped.increment();
+        }
+        event.valid = valid;
+    }
+}
@@ -0,0 +1,107 @@
+package org.varavin.live;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.entity.Candle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Воспроизведение свечей из CSV (формат как у DataManager: время закрытия в epoch seconds, OHLCV) вместо
+ * брокерского стрима. Серии инструментов сливаются по времени: на каждый момент отдаются свечи всех инструментов,
+ * у которых он есть, и затем закрытие бара. Пауза между барами позволяет имитировать темп реального рынка.
+ */
+public final class CsvReplaySource implements MarketDataSource {
+    private static final Logger log = LoggerFactory.getLogger(CsvReplaySource.class);
+
+    private final Map<String, List<Candle>> series;
+    private final long barPauseMillis;
+    private volatile boolean closed;
+
+    private CsvReplaySource(Map<String, List<Candle>> series, long barPauseMillis) {
+        this.series = series;
+        this.barPauseMillis = barPauseMillis;
+    }
+
+    /** По CSV-файлу на инструмент. */
+    public static CsvReplaySource of(Map<String, File> files, long barPauseMillis) throws IOException {
+        Map<String, List<Candle>> series = new LinkedHashMap<>();
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            series.put(entry.getKey(), readCandles(entry.getValue()));
+        }
+        return new CsvReplaySource(series, barPauseMillis);
+    }
+
+    /** Один CSV под count именами инструментов - нагрузочная замена универсума; свечи общие, не копируются. */
+    public static CsvReplaySource replicated(File csv, String prefix, int count, long barPauseMillis) throws IOException {
+        List<Candle> candles = readCandles(csv);
+        Map<String, List<Candle>> series = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            series.put(String.format("%s_%03d", prefix, i), candles);
+        }
+        return new CsvReplaySource(series, barPauseMillis);
+    }
+
+    @Override
+    public List<String> instruments() {
+        return List.copyOf(series.keySet());
+    }
+
+    @Override
+    public void run(MarketDataListener listener) throws InterruptedException {
+        List<String> ids = instruments();
+        List<List<Candle>> lists = new ArrayList<>(series.values());
+        int[] cursors = new int[ids.size()];
+        while (!closed) {
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i] < lists.get(i).size()) {
+                    next = Math.min(next, lists.get(i).get(cursors[i]).endEpochSecond());
+                }
+            }
+            if (next == Long.MAX_VALUE) break;
+            for (int i = 0; i < cursors.length; i++) {
+                List<Candle> candles = lists.get(i);
+                if (cursors[i] < candles.size() && candles.get(cursors[i]).endEpochSecond() == next) {
+                    listener.onCandle(ids.get(i), candles.get(cursors[i]));
+                    cursors[i]++;
+                }
+            }
+            listener.onBarClose(next);
+            if (barPauseMillis > 0) TimeUnit.MILLISECONDS.sleep(barPauseMillis);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private static List<Candle> readCandles(File file) throws IOException {
+        List<Candle> candles = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] record = line.split(",");
+                try {
+                    candles.add(new Candle(
+                            Long.parseLong(record[0].trim()),
+                            Double.parseDouble(record[1].trim()),
+                            Double.parseDouble(record[2].trim()),
+                            Double.parseDouble(record[3].trim()),
+                            Double.parseDouble(record[4].trim()),
+                            Double.parseDouble(record[5].trim())));
+                } catch (RuntimeException e) {
+                    log.warn("Пропуск некорректной записи в {}: {}", file.getName(), e.getMessage());
+                }
+            }
+        }
+        candles.sort(Comparator.comparingLong(Candle::endEpochSecond));
+        return candles;
+    }
+}
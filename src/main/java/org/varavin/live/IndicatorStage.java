@@ -0,0 +1,44 @@
+package org.varavin.live;
+
+import org.varavin.Config;
+import org.varavin.bus.EventHandler;
+import org.varavin.features.FeatureRegistry;
+
+/**
+ * Обновление индикаторов инструмента: история для окна признаков сети и инкрементальные EMA/ATR/ADX
+ * для фильтров и стопов. Нормализованное окно пишется прямо в буфер слота.
+ */
+final class IndicatorStage implements EventHandler<PipelineEvent> {
+
+    private final FeatureRegistry registry = FeatureRegistry.defaultRegistry();
+    private final double[][] featureStats;
+    private final int minBars = Config.MAX_INDICATOR_PERIOD + Config.TIME_STEPS;
+    private final InstrumentWindow[] windows;
+    private final TrendIndicators[] trends;
+
+    IndicatorStage(int instruments, double[][] featureStats) {
+        this.featureStats = featureStats;
+        this.windows = new InstrumentWindow[instruments];
+        this.trends = new TrendIndicators[instruments];
+        for (int i = 0; i < instruments; i++) {
+            windows[i] = new InstrumentWindow(Math.max(Config.LIVE_HISTORY_BARS, minBars), registry);
+            trends[i] = new TrendIndicators(200, 14);
+        }
+    }
+
+    @Override
+    public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        if (!event.valid) return;
+        InstrumentWindow window = windows[event.instrument];
+        window.append(event.endEpochSecond, event.open, event.high, event.low, event.close, event.volume);
+        TrendIndicators trend = trends[event.instrument];
+        trend.update(event.high, event.low, event.close);
+        event.ema = trend.ema();
+        event.atr = trend.atr();
+        event.adx = trend.adx();
+        if (window.isReady(minBars)) {
+            window.copyNormalizedWindow(featureStats, Config.TIME_STEPS, event.window, 0);
+            event.windowReady = true;
+        }
+    }
+}
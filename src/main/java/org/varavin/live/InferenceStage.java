@@ -0,0 +1,90 @@
+package org.varavin.live;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.varavin.Config;
+import org.varavin.MemoryPlanner;
+import org.varavin.bus.EventHandler;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Инференс пачками: окна готовых событий копируются в батч, и сеть прогоняется один раз на конец пачки шины
+ * (или при заполнении батча). Под бурст событий это один прямой проход вместо десятков.
+ * Буферы батча создаются один раз на каждый встретившийся размер и дальше переиспользуются, выход сети пишется
+ * в workspace {@link MemoryPlanner#outputWorkspace}.
+ * Результат сети зависит от состава батча в последних битах, поэтому событие, на котором выполнен проход, отмечается
+ * endOfInferenceBatch; при воспроизведении журнала производитель задаёт эти отметки, и пачки собираются те же.
+ */
+final class InferenceStage implements EventHandler<PipelineEvent> {
+
+    private final MultiLayerNetwork model;
+    private final int maxBatch;
+    private final int windowSize;
+    private final PipelineEvent[] pending;
+    private final float[][] stagingBySize;
+    private final INDArray[] buffersBySize;
+    private final WorkspaceConfiguration outputWorkspace;
+    private int size;
+
+    private final LatencyHistogram forwardTime = Metrics.histogram("pipeline.inference");
+    private final LongAdder forwardItems = Metrics.counter("pipeline.inference.items");
+
+    InferenceStage(MultiLayerNetwork model, int maxBatch, int numFeatures) {
+        this.model = model;
+        this.maxBatch = maxBatch;
+        this.windowSize = numFeatures * Config.TIME_STEPS;
+        this.pending = new PipelineEvent[maxBatch];
+        this.stagingBySize = new float[maxBatch + 1][];
+        this.buffersBySize = new INDArray[maxBatch + 1];
+        this.outputWorkspace = MemoryPlanner.outputWorkspace(maxBatch, Config.NUM_OUTPUTS);
+    }
+
+    @Override
+    public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        if (event.windowReady) {
+            pending[size++] = event;
+        }
+        boolean end = event.inferenceScheduled ? event.endOfInferenceBatch : endOfBatch;
+        if (size > 0 && (end || size == maxBatch)) {
+            flush();
+            event.endOfInferenceBatch = true;
+        }
+    }
+
+    private void flush() {
+        float[] staging = stagingBySize[size];
+        if (staging == null) {
+            staging = new float[size * windowSize];
+            stagingBySize[size] = staging;
+            buffersBySize[size] = Nd4j.create(DataType.FLOAT, size, windowSize / Config.TIME_STEPS, Config.TIME_STEPS);
+        }
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(pending[i].window, 0, staging, i * windowSize, windowSize);
+        }
+        INDArray batch = buffersBySize[size];
+        batch.data().setData(staging);
+
+        long start = System.nanoTime();
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().getAndActivateWorkspace(outputWorkspace, "PIPELINE_OUTPUT")) {
+            INDArray predictions = model.output(batch, false, ws);
+            forwardTime.recordSince(start);
+            forwardItems.add(size);
+
+            for (int i = 0; i < size; i++) {
+                PipelineEvent event = pending[i];
+                event.predictedUp = predictions.getDouble(i, 0);
+                event.predictedDown = predictions.getDouble(i, 1);
+                event.predicted = true;
+                pending[i] = null;
+            }
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,13 @@
+package org.varavin.live;
+
+import org.varavin.entity.Candle;
+
+/**
+ * Стратегия одного инструмента: получает предсказание сети на закрытии бара.
+ * Вызывается из потока планировщика скоринга и не должна блокировать его - заявки уходят через ExecutionEngine.
+ */
+@FunctionalInterface
+public interface InstrumentStrategy {
+
+    void onPrediction(String instrumentId, Candle candle, double predictedUp, double predictedDown);
+}
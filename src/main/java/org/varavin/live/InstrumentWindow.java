@@ -0,0 +1,137 @@
+package org.varavin.live;
+
+import org.varavin.entity.BarColumns;
+import org.varavin.entity.Candle;
+import org.varavin.features.FeatureRegistry;
+
+import java.util.Arrays;
+
+/**
+ * Скользящая история одного инструмента в кольцевых примитивных массивах. На закрытии бара признаки
+ * пересчитываются тем же {@link FeatureRegistry}, что и при обучении, по последним capacity барам, и последнее окно
+ * [признак, шаг] нормализуется статистикой обучения. Рекурсивные индикаторы (RSI, ATR) сходятся за несколько
+ * десятков баров, поэтому истории в сотни баров хватает, чтобы признаки совпадали с обучающими.
+ * Потоковые признаки реестра (старшие таймфреймы) ведутся с первого бара инструмента и хранятся в кольце рядом
+ * с ценами - их период прогрева длиннее истории.
+ */
+final class InstrumentWindow {
+
+    private final int capacity;
+    private final FeatureRegistry registry;
+    private final long[] time;
+    private final double[] open;
+    private final double[] high;
+    private final double[] low;
+    private final double[] close;
+    private final double[] volume;
+    private int head;
+    private int count;
+    private Candle lastCandle;
+
+    // Упорядоченная копия истории (от старых к новым), переиспользуется между барами
+    private final BarColumns ordered;
+    // Значения потоковых признаков [признак][позиция кольца]; для остальных признаков null
+    private final FeatureRegistry.StreamingState streaming;
+    private final double[][] streamed;
+
+    InstrumentWindow(int capacity, FeatureRegistry registry) {
+        this.capacity = capacity;
+        this.registry = registry;
+        this.time = new long[capacity];
+        this.open = new double[capacity];
+        this.high = new double[capacity];
+        this.low = new double[capacity];
+        this.close = new double[capacity];
+        this.volume = new double[capacity];
+        this.ordered = new BarColumns(new long[capacity], new double[capacity], new double[capacity],
+                new double[capacity], new double[capacity], new double[capacity]);
+        this.streamed = new double[registry.size()][];
+        if (registry.hasStreaming()) {
+            this.streaming = registry.newStreamingState();
+            for (int f = 0; f < registry.size(); f++) {
+                if (registry.features().get(f).producer() == null) streamed[f] = new double[capacity];
+            }
+        } else {
+            this.streaming = null;
+        }
+    }
+
+    void append(Candle candle) {
+        append(candle.endEpochSecond(), candle.open(), candle.high(), candle.low(), candle.close(), candle.volume());
+        lastCandle = candle;
+    }
+
+    void append(long endEpochSecond, double open, double high, double low, double close, double volume) {
+        this.time[head] = endEpochSecond;
+        this.open[head] = open;
+        this.high[head] = high;
+        this.low[head] = low;
+        this.close[head] = close;
+        this.volume[head] = volume;
+        if (streaming != null) {
+            streaming.update(endEpochSecond, open, high, low, close, volume, streamed, head);
+        }
+        head = (head + 1) % capacity;
+        count = Math.min(capacity, count + 1);
+    }
+
+    /** Истории достаточно для прогрева индикаторов и полного окна. */
+    boolean isReady(int minBars) {
+        return count >= Math.min(minBars, capacity);
+    }
+
+    Candle lastCandle() {
+        return lastCandle;
+    }
+
+    /**
+     * Считает признаки по истории и пишет нормализованное последнее окно в out с offset
+     * в раскладке [признак, шаг], как WindowedDataSet.copyWindow. stats[f] = {mean, std}.
+     */
+    void copyNormalizedWindow(double[][] stats, int timeSteps, float[] out, int offset) {
+        BarColumns bars = orderedHistory();
+        double[][] columns = registry.computeBatchColumns(bars);
+        int last = bars.size() - 1;
+        // Позиция в кольце самого старого бара истории
+        int oldest = (head - count + capacity) % capacity;
+        for (int f = 0; f < columns.length; f++) {
+            double mean = stats[f][0];
+            double std = stats[f][1];
+            int base = offset + f * timeSteps;
+            for (int t = 0; t < timeSteps; t++) {
+                int bar = last - timeSteps + 1 + t;
+                double raw = columns[f] != null ? columns[f][bar] : streamed[f][(oldest + bar) % capacity];
+                // Как при обучении: признак сначала приводится к float, затем нормализуется
+                float value = (float) raw;
+                out[base + t] = std > 1e-8 ? (float) ((value - mean) / std) : value;
+            }
+        }
+    }
+
+    private BarColumns orderedHistory() {
+        if (count < capacity) {
+            return new BarColumns(slice(time), slice(open), slice(high), slice(low), slice(close), slice(volume));
+        }
+        int tail = capacity - head;
+        copyRing(time, ordered.endEpochSeconds(), tail);
+        copyRing(open, ordered.open(), tail);
+        copyRing(high, ordered.high(), tail);
+        copyRing(low, ordered.low(), tail);
+        copyRing(close, ordered.close(), tail);
+        copyRing(volume, ordered.volume(), tail);
+        return ordered;
+    }
+
+    private void copyRing(Object ring, Object target, int tail) {
+        System.arraycopy(ring, head, target, 0, tail);
+        System.arraycopy(ring, 0, target, tail, head);
+    }
+
+    private long[] slice(long[] values) {
+        return Arrays.copyOf(values, count);
+    }
+
+    private double[] slice(double[] values) {
+        return Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,15 @@
+package org.varavin.live;
+
+import org.varavin.entity.Candle;
+
+/**
+ * Получатель рыночных данных. Источник вызывает его из одного потока: сначала закрытые свечи
+ * инструментов за бар, затем {@link #onBarClose(long)} - сигнал, что бар закрыт по всему универсуму.
+ */
+public interface MarketDataListener {
+
+    void onCandle(String instrumentId, Candle candle);
+
+    /** Бар с временем закрытия endEpochSecond закрыт; свечи опоздавших инструментов к этому моменту не пришли. */
+    void onBarClose(long endEpochSecond);
+}
@@ -0,0 +1,19 @@
+package org.varavin.live;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Источник закрытых свечей для универсума инструментов: брокерский стрим в бою или воспроизведение CSV
+ * ({@link CsvReplaySource}) в песочнице. Планировщику скоринга неважно, откуда пришли данные.
+ */
+public interface MarketDataSource extends AutoCloseable {
+
+    List<String> instruments();
+
+    /** Блокирует, пока данные не закончатся или источник не закроют, и передаёт их слушателю. */
+    void run(MarketDataListener listener) throws IOException, InterruptedException;
+
+    @Override
+    void close();
+}
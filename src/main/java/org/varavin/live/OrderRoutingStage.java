@@ -0,0 +1,43 @@
+package org.varavin.live;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.bus.EventHandler;
+import org.varavin.execution.ExecutionEngine;
+import org.varavin.execution.OrderSide;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отправка заявок: вход рыночной заявкой с защитными SL/TP через ExecutionEngine (вызов не блокирует).
+ * Без исполнения (engine == null) заявки только считаются - для бенчмарка и сухого прогона.
+ * Задержка "публикация свечи - решение" каждого события идёт в гистограмму pipeline.decision.
+ */
+final class OrderRoutingStage implements EventHandler<PipelineEvent> {
+    private static final Logger log = LoggerFactory.getLogger(OrderRoutingStage.class);
+
+    private final ExecutionEngine engine;
+    private final LatencyHistogram decisionTime = Metrics.histogram("pipeline.decision");
+    private final LongAdder orders = Metrics.counter("pipeline.orders");
+
+    OrderRoutingStage(ExecutionEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        if (event.quantity > 0) {
+            OrderSide side = event.signal > 0 ? OrderSide.BUY : OrderSide.SELL;
+            if (engine != null) {
+                engine.submitBracket(event.instrumentId, side, event.quantity, event.stopLossPrice, event.takeProfitPrice);
+            }
+            event.routed = true;
+            orders.increment();
+            log.debug("{} {} {} @ {} | SL {} | TP {}", event.instrumentId, side, event.quantity, event.close,
+                    event.stopLossPrice, event.takeProfitPrice);
+        }
+        decisionTime.recordSince(event.publishNanos);
+    }
+}
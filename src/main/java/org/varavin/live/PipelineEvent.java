@@ -0,0 +1,86 @@
+package org.varavin.live;
+
+import org.varavin.entity.Candle;
+
+/**
+ * Слот кольцевого буфера торгового конвейера. Создаётся один раз и переиспользуется: производитель
+ * записывает свечу, каждая стадия дописывает свои поля (окно признаков, индикаторы, предсказание, сигнал,
+ * размер заявки). Поля стадии читают только стадии, идущие после неё.
+ */
+public final class PipelineEvent {
+
+    // --- Производитель ---
+    public int instrument;
+    public String instrumentId;
+    public long endEpochSecond;
+    public double open;
+    public double high;
+    public double low;
+    public double close;
+    public double volume;
+    public long publishNanos;
+    // Воспроизведение журнала: границы пачек инференса заданы производителем, а не концом пачки шины
+    public boolean inferenceScheduled;
+
+    // --- Приём свечей ---
+    public boolean valid;
+
+    // --- Индикаторы ---
+    public boolean windowReady;
+    public final float[] window;
+    public double atr;
+    public double ema;
+    public double adx;
+
+    // --- Инференс: endOfInferenceBatch - на этом событии выполнен прямой проход накопленной пачки ---
+    public boolean endOfInferenceBatch;
+    public boolean predicted;
+    public double predictedUp;
+    public double predictedDown;
+
+    // --- Сигнал и фильтры: 1 - покупка, -1 - продажа, 0 - нет сигнала ---
+    public int signal;
+
+    // --- Риск: количество 0 - заявки нет; позиция и капитал (NaN - не запрашивался), по которым принято решение ---
+    public long position;
+    public double equity;
+    public long quantity;
+    public double stopLossPrice;
+    public double takeProfitPrice;
+
+    // --- Маршрутизация ---
+    public boolean routed;
+
+    PipelineEvent(int windowSize) {
+        this.window = new float[windowSize];
+    }
+
+    void set(int instrument, String instrumentId, Candle candle) {
+        this.instrument = instrument;
+        this.instrumentId = instrumentId;
+        this.endEpochSecond = candle.endEpochSecond();
+        this.open = candle.open();
+        this.high = candle.high();
+        this.low = candle.low();
+        this.close = candle.close();
+        this.volume = candle.volume();
+        this.valid = false;
+        this.windowReady = false;
+        this.atr = Double.NaN;
+        this.ema = Double.NaN;
+        this.adx = Double.NaN;
+        this.inferenceScheduled = false;
+        this.endOfInferenceBatch = false;
+        this.predicted = false;
+        this.predictedUp = Double.NaN;
+        this.predictedDown = Double.NaN;
+        this.signal = 0;
+        this.position = 0;
+        this.equity = Double.NaN;
+        this.quantity = 0;
+        this.stopLossPrice = Double.NaN;
+        this.takeProfitPrice = Double.NaN;
+        this.routed = false;
+        this.publishNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,105 @@
+package org.varavin.live;
+
+import org.varavin.Config;
+import org.varavin.bus.EventHandler;
+import org.varavin.entity.BotParameters;
+import org.varavin.metrics.Metrics;
+import org.varavin.risk.RiskManager;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Размер позиции по правилам TradingBot: стоп на ATR * atrStopMultiplier, тейк на стоп * R/R, объём - минимум
+ * из риска на сделку и доступного капитала, кратно минимальному лоту. Вход разрешён, только если по инструменту
+ * нет позиции и нет заявки на вход в полёте. Позиция берётся у исполнения (positions), состояние - в примитивных массивах.
+ * С {@link RiskManager} стадия передаёт ему цену закрытия каждой свечи; капитал для объёма даёт equity (обычно
+ * RiskManager::equity), сами лимиты проверяет исполнение при отправке заявки. Позиция и капитал, по которым принято
+ * решение, остаются в событии - это внешние входы стадии, журнал сессии записывает их для воспроизведения.
+ */
+final class RiskStage implements EventHandler<PipelineEvent> {
+
+    private static final byte FLAT = 0;
+    private static final byte ENTRY_PENDING = 1;
+    private static final byte IN_POSITION = 2;
+    // Заявка на вход, не исполненная за столько баров, считается потерянной (отклонена или снята)
+    private static final int ENTRY_TIMEOUT_BARS = 3;
+
+    private final BotParameters params;
+    private final DoubleSupplier equity;
+    private final ToLongFunction<String> positions;
+    private final RiskManager risk;
+    private final int[] riskIndex;
+    private final byte[] state;
+    private final int[] pendingBars;
+
+    private final LongAdder blocked = Metrics.counter("pipeline.signals_blocked");
+
+    RiskStage(List<String> instrumentIds, BotParameters params, DoubleSupplier equity, ToLongFunction<String> positions,
+              RiskManager risk) {
+        int instruments = instrumentIds.size();
+        this.params = params;
+        this.equity = equity;
+        this.positions = positions;
+        this.risk = risk;
+        this.riskIndex = new int[instruments];
+        for (int i = 0; i < instruments; i++) {
+            riskIndex[i] = risk != null ? risk.index(instrumentIds.get(i)) : -1;
+        }
+        this.state = new byte[instruments];
+        this.pendingBars = new int[instruments];
+    }
+
+    @Override
+    public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        event.quantity = 0;
+        if (!event.valid) return;
+        int i = event.instrument;
+        if (riskIndex[i] >= 0) risk.mark(riskIndex[i], event.close);
+        long position = positions.applyAsLong(event.instrumentId);
+        event.position = position;
+        switch (state[i]) {
+            case ENTRY_PENDING -> {
+                if (position != 0) {
+                    state[i] = IN_POSITION;
+                } else if (++pendingBars[i] > ENTRY_TIMEOUT_BARS) {
+                    state[i] = FLAT;
+                }
+            }
+            case IN_POSITION -> {
+                if (position == 0) state[i] = FLAT;
+            }
+            default -> {
+                if (position != 0) state[i] = IN_POSITION;
+            }
+        }
+
+        if (event.signal == 0) return;
+        if (state[i] != FLAT) {
+            blocked.increment();
+            return;
+        }
+        double stopDistance = event.atr * params.atrStopMultiplier();
+        if (!(stopDistance > 1e-6)) return;
+        double price = event.close;
+        event.equity = equity.getAsDouble();
+        long quantity = positionSize(event.equity, price, stopDistance);
+        if (quantity < Config.MINIMUM_LOT_SIZE) return;
+
+        event.quantity = quantity;
+        event.stopLossPrice = price - event.signal * stopDistance;
+        event.takeProfitPrice = price + event.signal * stopDistance * params.fixedRiskRewardRatio();
+        state[i] = ENTRY_PENDING;
+        pendingBars[i] = 0;
+    }
+
+    // Как TradingBot.calculatePositionSize; цена входа оценивается по закрытию сигнального бара
+    private long positionSize(double equity, double price, double stopDistance) {
+        long quantityByRisk = (long) (equity * params.riskPercent() / stopDistance);
+        long quantityByBalance = (long) (equity / (price * (1 + Config.COMMISSION_RATE)));
+        long quantity = Math.min(quantityByRisk, quantityByBalance);
+        return quantity / Config.MINIMUM_LOT_SIZE * Config.MINIMUM_LOT_SIZE;
+    }
+}
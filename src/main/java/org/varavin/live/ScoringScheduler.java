@@ -0,0 +1,155 @@
+package org.varavin.live;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.Config;
+import org.varavin.MemoryPlanner;
+import org.varavin.entity.Candle;
+import org.varavin.features.FeatureRegistry;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Скоринг универсума инструментов на закрытии бара одним прямым проходом сети.
+ *
+ * У каждого инструмента постоянная строка в заранее выделенном батче [инструменты, признаки, шаги]. На закрытии
+ * бара окна инструментов собираются параллельно в эту строку, затем сеть прогоняется один раз по всему батчу,
+ * а предсказания раздаются стратегиям инструментов. Форма батча не меняется от бара к бару, поэтому буферы
+ * переиспользуются. Пропускаются (с метрикой) инструменты без свечи за этот бар, с непрогретой историей
+ * и те, чьё окно не успели собрать до дедлайна - их строки в прогоне есть, но предсказания не раздаются.
+ */
+public final class ScoringScheduler implements MarketDataListener {
+    private static final Logger log = LoggerFactory.getLogger(ScoringScheduler.class);
+
+    private final MultiLayerNetwork model;
+    private final FeatureRegistry registry;
+    private final double[][] featureStats;
+    private final long deadlineNanos;
+    private final int minBars;
+
+    private final String[] instruments;
+    private final Map<String, Integer> rows = new HashMap<>();
+    private final InstrumentWindow[] windows;
+    private final InstrumentStrategy[] strategies;
+    private final boolean[] updated;
+    private final boolean[] scored;
+
+    private final float[] staging;
+    private final INDArray batch;
+    private final WorkspaceConfiguration outputWorkspace;
+    private final int windowSize;
+
+    private final LatencyHistogram assemblyTime = Metrics.histogram("scoring.assembly");
+    private final LatencyHistogram forwardTime = Metrics.histogram("scoring.forward");
+    private final LatencyHistogram roundTime = Metrics.histogram("scoring.round");
+    private final LongAdder scoredCount = Metrics.counter("scoring.scored");
+    private final LongAdder lateCount = Metrics.counter("scoring.skipped_late");
+    private final LongAdder staleCount = Metrics.counter("scoring.skipped_stale");
+    private final LongAdder warmupCount = Metrics.counter("scoring.skipped_warmup");
+    private final LongAdder missedDeadlines = Metrics.counter("scoring.deadline_missed");
+
+    public ScoringScheduler(MultiLayerNetwork model, List<String> instruments, Function<String, InstrumentStrategy> strategyFactory,
+                            double[][] featureStats, long deadline, TimeUnit unit) {
+        this.model = model;
+        this.registry = FeatureRegistry.defaultRegistry();
+        this.featureStats = featureStats;
+        this.deadlineNanos = unit.toNanos(deadline);
+        this.minBars = Config.MAX_INDICATOR_PERIOD + Config.TIME_STEPS;
+        if (featureStats.length != registry.size()) {
+            throw new IllegalArgumentException("Статистика нормализации на " + featureStats.length
+                    + " признаков, в реестре " + registry.size());
+        }
+
+        int n = instruments.size();
+        this.instruments = instruments.toArray(new String[0]);
+        this.windows = new InstrumentWindow[n];
+        this.strategies = new InstrumentStrategy[n];
+        this.updated = new boolean[n];
+        this.scored = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            rows.put(this.instruments[i], i);
+            windows[i] = new InstrumentWindow(Math.max(Config.LIVE_HISTORY_BARS, minBars), registry);
+            strategies[i] = strategyFactory.apply(this.instruments[i]);
+        }
+        this.windowSize = registry.size() * Config.TIME_STEPS;
+        this.staging = new float[n * windowSize];
+        this.batch = Nd4j.create(DataType.FLOAT, n, registry.size(), Config.TIME_STEPS);
+        this.outputWorkspace = MemoryPlanner.outputWorkspace(n, Config.NUM_OUTPUTS);
+    }
+
+    @Override
+    public void onCandle(String instrumentId, Candle candle) {
+        Integer row = rows.get(instrumentId);
+        if (row == null) return;
+        windows[row].append(candle);
+        updated[row] = true;
+    }
+
+    @Override
+    public void onBarClose(long endEpochSecond) {
+        long start = System.nanoTime();
+        long deadline = start + deadlineNanos;
+
+        IntStream.range(0, instruments.length).parallel().forEach(i -> {
+            scored[i] = false;
+            if (!updated[i]) {
+                staleCount.increment();
+                return;
+            }
+            if (!windows[i].isReady(minBars)) {
+                warmupCount.increment();
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                lateCount.increment();
+                return;
+            }
+            windows[i].copyNormalizedWindow(featureStats, Config.TIME_STEPS, staging, i * windowSize);
+            scored[i] = true;
+        });
+        assemblyTime.recordSince(start);
+
+        int ready = 0;
+        for (boolean s : scored) if (s) ready++;
+        if (ready > 0) {
+            long forwardStart = System.nanoTime();
+            batch.data().setData(staging);
+            // Выход пишется в один и тот же блок workspace, а не в новый массив вне кучи на каждый бар
+            try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().getAndActivateWorkspace(outputWorkspace, "SCORING_OUTPUT")) {
+                INDArray predictions = model.output(batch, false, ws);
+                forwardTime.recordSince(forwardStart);
+
+                for (int i = 0; i < instruments.length; i++) {
+                    if (!scored[i]) continue;
+                    strategies[i].onPrediction(instruments[i], windows[i].lastCandle(),
+                            predictions.getDouble(i, 0), predictions.getDouble(i, 1));
+                }
+            }
+            scoredCount.add(ready);
+        }
+        Arrays.fill(updated, false);
+
+        long elapsed = System.nanoTime() - start;
+        roundTime.record(elapsed);
+        if (elapsed > deadlineNanos) {
+            missedDeadlines.increment();
+            log.warn("Скоринг бара {} занял {} мс при дедлайне {} мс", endEpochSecond,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), TimeUnit.NANOSECONDS.toMillis(deadlineNanos));
+        }
+    }
+}
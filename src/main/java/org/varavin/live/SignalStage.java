@@ -0,0 +1,32 @@
+package org.varavin.live;
+
+import org.varavin.Config;
+import org.varavin.bus.EventHandler;
+
+/**
+ * Сигнал и фильтры по правилам TradingBot: сильнейшее предсказанное движение выше порога, тренд по ADX
+ * выше ADX_TREND_THRESHOLD, покупка только над EMA(200), продажа - под ней и если разрешены шорты.
+ */
+final class SignalStage implements EventHandler<PipelineEvent> {
+
+    private final double threshold;
+
+    SignalStage(double threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void onEvent(PipelineEvent event, long sequence, boolean endOfBatch) {
+        event.signal = 0;
+        if (!event.predicted) return;
+        double up = event.predictedUp;
+        double down = event.predictedDown;
+        int raw = up > down && up > threshold ? 1 : down > up && down > threshold ? -1 : 0;
+        if (raw == 0 || !(event.adx > Config.ADX_TREND_THRESHOLD)) return;
+        if (raw == 1 && event.close > event.ema) {
+            event.signal = 1;
+        } else if (raw == -1 && Config.ALLOW_SHORT_TRADING && event.close < event.ema) {
+            event.signal = -1;
+        }
+    }
+}
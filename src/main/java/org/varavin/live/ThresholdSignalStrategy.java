@@ -0,0 +1,35 @@
+package org.varavin.live;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.varavin.entity.Candle;
+import org.varavin.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сигнал по тому же правилу, что и TradingBot: сильнейшее из предсказанных движений выше порога.
+ * Только фиксирует сигналы в логе и метриках - заготовка для стратегии, выставляющей заявки через ExecutionEngine.
+ */
+public final class ThresholdSignalStrategy implements InstrumentStrategy {
+    private static final Logger log = LoggerFactory.getLogger(ThresholdSignalStrategy.class);
+    private static final LongAdder LONG_SIGNALS = Metrics.counter("strategy.signals_long");
+    private static final LongAdder SHORT_SIGNALS = Metrics.counter("strategy.signals_short");
+
+    private final double threshold;
+
+    public ThresholdSignalStrategy(double threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void onPrediction(String instrumentId, Candle candle, double predictedUp, double predictedDown) {
+        if (predictedUp > predictedDown && predictedUp > threshold) {
+            LONG_SIGNALS.increment();
+            log.debug("{} LONG на {}: up {} / down {}", instrumentId, candle.close(), predictedUp, predictedDown);
+        } else if (predictedDown > predictedUp && predictedDown > threshold) {
+            SHORT_SIGNALS.increment();
+            log.debug("{} SHORT на {}: up {} / down {}", instrumentId, candle.close(), predictedUp, predictedDown);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.varavin.live;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.varavin.Config;
+import org.varavin.bus.BatchEventProcessor;
+import org.varavin.bus.EventBus;
+import org.varavin.bus.EventHandler;
+import org.varavin.bus.RingBuffer;
+import org.varavin.bus.WaitStrategy;
+import org.varavin.entity.BotParameters;
+import org.varavin.entity.Candle;
+import org.varavin.execution.ExecutionEngine;
+import org.varavin.features.FeatureRegistry;
+import org.varavin.risk.RiskManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Торговый конвейер на шине событий: приём свечей -> индикаторы -> инференс -> сигнал и фильтры -> риск ->
+ * отправка заявок. Каждая стадия - свой поток, события передаются через общий кольцевой буфер без копирования
+ * и без очередей; инференс обрабатывает накопившиеся события одним прямым проходом.
+ * Публиковать свечи должен один поток.
+ */
+public final class TradingPipeline implements AutoCloseable {
+
+    private final EventBus<PipelineEvent> bus;
+    private final Map<String, Integer> instruments = new HashMap<>();
+    // Положенные, но не опубликованные события воспроизведения
+    private int staged;
+
+    /**
+     * @param positions   позиция инструмента у исполнения (обычно ExecutionEngine::getPosition)
+     * @param engine      исполнение; null - заявки не отправляются
+     * @param riskManager риск-лимиты исполнения: получают последние цены и дают капитал для размера позиции; может быть null
+     * @param observer    необязательная последняя стадия: видит событие со всеми полями (журнал, проверка)
+     */
+    public TradingPipeline(MultiLayerNetwork model, List<String> instrumentIds, BotParameters params, double[][] featureStats,
+                           ToLongFunction<String> positions, ExecutionEngine engine, RiskManager riskManager,
+                           EventHandler<PipelineEvent> observer, WaitStrategy waitStrategy) {
+        this(model, instrumentIds, params, featureStats, positions,
+                riskManager != null ? riskManager::equity : () -> Config.INITIAL_BALANCE,
+                engine, riskManager, observer, waitStrategy);
+    }
+
+    /**
+     * @param equity капитал для размера позиции; вызывается стадией риска только на сигнале
+     *               (воспроизведение журнала подставляет записанный)
+     */
+    public TradingPipeline(MultiLayerNetwork model, List<String> instrumentIds, BotParameters params, double[][] featureStats,
+                           ToLongFunction<String> positions, DoubleSupplier equity, ExecutionEngine engine,
+                           RiskManager riskManager, EventHandler<PipelineEvent> observer, WaitStrategy waitStrategy) {
+        for (int i = 0; i < instrumentIds.size(); i++) {
+            instruments.put(instrumentIds.get(i), i);
+        }
+        int n = instrumentIds.size();
+        int numFeatures = FeatureRegistry.defaultRegistry().size();
+        int windowSize = numFeatures * Config.TIME_STEPS;
+
+        bus = new EventBus<>(() -> new PipelineEvent(windowSize), Config.PIPELINE_RING_SIZE, waitStrategy);
+        BatchEventProcessor<PipelineEvent> ingest = bus.addStage("ingest", new CandleIngestStage(n));
+        BatchEventProcessor<PipelineEvent> indicators = bus.addStage("indicators", new IndicatorStage(n, featureStats), ingest);
+        BatchEventProcessor<PipelineEvent> inference = bus.addStage("inference",
+                new InferenceStage(model, Config.PIPELINE_MAX_INFERENCE_BATCH, numFeatures), indicators);
+        BatchEventProcessor<PipelineEvent> signal = bus.addStage("signal", new SignalStage(params.signalThreshold()), inference);
+        BatchEventProcessor<PipelineEvent> risk = bus.addStage("risk",
+                new RiskStage(instrumentIds, params, equity, positions, riskManager), signal);
+        BatchEventProcessor<PipelineEvent> routing = bus.addStage("routing", new OrderRoutingStage(engine), risk);
+        if (observer != null) {
+            bus.addStage("observer", observer, routing);
+        }
+        bus.start();
+    }
+
+    /** Публикует закрытую свечу; возвращает номер события для {@link #awaitProcessed(long)}. */
+    public long publish(String instrumentId, Candle candle) {
+        long sequence = claim(instrumentId, candle, false, false);
+        bus.ringBuffer().publish(sequence);
+        return sequence;
+    }
+
+    /**
+     * Воспроизведение журнала: кладёт свечу в буфер, не публикуя. Прямой проход инференса выполняется на событии
+     * с endOfInferenceBatch (и при заполнении батча), а не на конце пачки шины. {@link #publishStaged()} нужно звать
+     * только там, где у записанного инференса не было ожидающих окон: стадии видят события пачками до этих точек,
+     * и пачки инференса собираются те же, что при записи.
+     */
+    public long stage(String instrumentId, Candle candle, boolean endOfInferenceBatch) {
+        if (staged == bus.ringBuffer().size()) {
+            throw new IllegalStateException("Между публикациями больше событий, чем слотов буфера");
+        }
+        staged++;
+        return claim(instrumentId, candle, true, endOfInferenceBatch);
+    }
+
+    /** Публикует все положенные {@link #stage} события разом; возвращает номер последнего. */
+    public long publishStaged() {
+        RingBuffer<PipelineEvent> ring = bus.ringBuffer();
+        long sequence = ring.cursor() + staged;
+        ring.publish(sequence);
+        staged = 0;
+        return sequence;
+    }
+
+    private long claim(String instrumentId, Candle candle, boolean scheduled, boolean endOfInferenceBatch) {
+        Integer instrument = instruments.get(instrumentId);
+        if (instrument == null) {
+            throw new IllegalArgumentException("Инструмент не входит в конвейер: " + instrumentId);
+        }
+        if (!scheduled && staged > 0) {
+            throw new IllegalStateException("Есть неопубликованные события воспроизведения");
+        }
+        RingBuffer<PipelineEvent> ring = bus.ringBuffer();
+        long sequence = ring.next();
+        PipelineEvent event = ring.get(sequence);
+        event.set(instrument, instrumentId, candle);
+        event.inferenceScheduled = scheduled;
+        event.endOfInferenceBatch = endOfInferenceBatch;
+        return sequence;
+    }
+
+    /** Ждёт, пока событие пройдёт все стадии, - для пошагового воспроизведения. */
+    public boolean awaitProcessed(long sequence) {
+        return bus.awaitProcessed(sequence, 30, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        bus.close();
+    }
+}
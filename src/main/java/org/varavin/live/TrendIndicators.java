@@ -0,0 +1,86 @@
+package org.varavin.live;
+
+/**
+ * Инкрементальные EMA(200) по закрытию, ATR(14) и ADX(14) для фильтров и стопов стратегии - O(1) на бар.
+ * Формулы повторяют ta4j, которым пользуются TradingBot и BacktestSeries: скользящие средние стартуют
+ * с первого значения серии, сглаживание ATR/DI/ADX - MMA с коэффициентом 1/n, деление на ноль даёт NaN.
+ */
+final class TrendIndicators {
+
+    private final double emaMultiplier;
+    private final double mmaMultiplier;
+
+    private long bars;
+    private double prevHigh;
+    private double prevLow;
+    private double prevClose;
+    private double ema;
+    private double atr;
+    private double plusDm;
+    private double minusDm;
+    private double adx;
+
+    TrendIndicators(int emaPeriod, int adxPeriod) {
+        this.emaMultiplier = 2.0 / (emaPeriod + 1);
+        this.mmaMultiplier = 1.0 / adxPeriod;
+    }
+
+    void update(double high, double low, double close) {
+        double trueRange;
+        double upDm;
+        double downDm;
+        if (bars == 0) {
+            trueRange = Math.abs(high - low);
+            upDm = 0.0;
+            downDm = 0.0;
+        } else {
+            trueRange = Math.max(Math.abs(high - low), Math.max(Math.abs(high - prevClose), Math.abs(prevClose - low)));
+            double upMove = high - prevHigh;
+            double downMove = prevLow - low;
+            upDm = upMove > downMove && upMove > 0 ? upMove : 0.0;
+            downDm = downMove > upMove && downMove > 0 ? downMove : 0.0;
+        }
+
+        if (bars == 0) {
+            ema = close;
+            atr = trueRange;
+            plusDm = upDm;
+            minusDm = downDm;
+        } else {
+            ema = smooth(ema, close, emaMultiplier);
+            atr = smooth(atr, trueRange, mmaMultiplier);
+            plusDm = smooth(plusDm, upDm, mmaMultiplier);
+            minusDm = smooth(minusDm, downDm, mmaMultiplier);
+        }
+        double plusDi = divide(plusDm, atr) * 100;
+        double minusDi = divide(minusDm, atr) * 100;
+        double dx = plusDi + minusDi == 0 ? 0.0 : divide(Math.abs(plusDi - minusDi), plusDi + minusDi) * 100;
+        adx = bars == 0 ? dx : smooth(adx, dx, mmaMultiplier);
+
+        prevHigh = high;
+        prevLow = low;
+        prevClose = close;
+        bars++;
+    }
+
+    double ema() {
+        return ema;
+    }
+
+    double atr() {
+        return atr;
+    }
+
+    double adx() {
+        return adx;
+    }
+
+    // Порядок операций как в ta4j AbstractEMAIndicator: (value - prev) * k + prev
+    private static double smooth(double previous, double value, double multiplier) {
+        return (value - previous) * multiplier + previous;
+    }
+
+    private static double divide(double value, double divisor) {
+        return divisor == 0 || Double.isNaN(divisor) ? Double.NaN : value / divisor;
+    }
+}
@@ -0,0 +1,85 @@
+package org.varavin.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Встроенный слой метрик: именованные счётчики, гистограммы длительностей и пики, общие на процесс.
+ * На горячем пути держите ссылку на счётчик или гистограмму в поле и пишите в неё напрямую -
+ * поиск по имени нужен только при первом обращении. В конце работы {@link #logSummary()} печатает сводку.
+ * <pre>
+ * try (Stage stage = Metrics.stage("data.csv_load")) { ...; stage.items(bars); }
+ * </pre>
+ */
+public final class Metrics {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAccumulator> PEAKS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /** Наибольшее значение в байтах, например пик памяти стадии (см. {@link OffHeapMonitor}). */
+    public static LongAccumulator peak(String name) {
+        return PEAKS.computeIfAbsent(name, n -> new LongAccumulator(Long::max, 0));
+    }
+
+    public static Stage stage(String name) {
+        return new Stage(name, histogram(name));
+    }
+
+    /** Обнуляет все метрики, например между прогонами бенчмарка. */
+    public static void reset() {
+        COUNTERS.values().forEach(LongAdder::reset);
+        HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+        PEAKS.values().forEach(LongAccumulator::reset);
+    }
+
+    /** Сводка: для гистограмм - число замеров, среднее, p50/p90/p99/max, для стадий с элементами - элементов в секунду. */
+    public static void logSummary() {
+        if (HISTOGRAMS.isEmpty() && COUNTERS.isEmpty() && PEAKS.isEmpty()) return;
+        log.info("--- Метрики ---");
+        for (LatencyHistogram h : new TreeMap<>(HISTOGRAMS).values()) {
+            if (h.count() == 0) continue;
+            LongAdder items = COUNTERS.get(h.name() + ".items");
+            String throughput = items != null && h.totalNanos() > 0
+                    ? String.format(" | %.0f эл/с", items.sum() / (h.totalNanos() / 1e9))
+                    : "";
+            log.info(String.format("%-28s n=%-7d mean=%s p50=%s p90=%s p99=%s max=%s%s",
+                    h.name(), h.count(), format(h.meanNanos()), format(h.percentileNanos(50)),
+                    format(h.percentileNanos(90)), format(h.percentileNanos(99)), format(h.maxNanos()), throughput));
+        }
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            if (counter.getKey().endsWith(".items") && HISTOGRAMS.containsKey(counter.getKey().substring(0, counter.getKey().length() - 6))) {
+                continue;
+            }
+            log.info(String.format("%-28s %d", counter.getKey(), counter.getValue().sum()));
+        }
+        for (Map.Entry<String, LongAccumulator> peak : new TreeMap<>(PEAKS).entrySet()) {
+            log.info(String.format("%-28s пик %.1f МБ", peak.getKey(), peak.getValue().get() / (double) (1 << 20)));
+        }
+    }
+
+    static String format(double nanos) {
+        if (nanos >= 1e9) return String.format("%.2fs", nanos / 1e9);
+        if (nanos >= 1e6) return String.format("%.2fms", nanos / 1e6);
+        if (nanos >= 1e3) return String.format("%.1fus", nanos / 1e3);
+        return String.format("%.0fns", nanos);
+    }
+}
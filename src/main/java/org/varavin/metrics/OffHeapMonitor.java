@@ -0,0 +1,80 @@
+package org.varavin.metrics;
+
+import org.bytedeco.javacpp.Pointer;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Пики памяти по стадиям. Фоновый поток раз в интервал читает RSS процесса (Pointer.physicalBytes()) и память
+ * вне кучи - RSS минус занятая куча, и обновляет пики всех открытых окон. Pointer.totalBytes() здесь не подходит:
+ * ND4J на CPU выделяет буферы в libnd4j мимо учёта JavaCPP, и он их не видит. {@link Stage}
+ * открывает окно, если монитор запущен, и при закрытии пишет пики в Metrics.peak("стадия.offheap" / ".rss").
+ * Окно замеряется и при открытии и закрытии, так что короткая стадия тоже получает значения.
+ */
+public final class OffHeapMonitor {
+
+    private static final Set<Window> OPEN = ConcurrentHashMap.newKeySet();
+    private static volatile Thread sampler;
+
+    private OffHeapMonitor() {
+    }
+
+    public static synchronized void start(long intervalMillis) {
+        if (sampler != null) return;
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                sample();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "offheap-monitor");
+        thread.setDaemon(true);
+        thread.start();
+        sampler = thread;
+    }
+
+    static Window open() {
+        if (sampler == null) return null;
+        Window window = new Window();
+        window.sample();
+        OPEN.add(window);
+        return window;
+    }
+
+    private static void sample() {
+        if (OPEN.isEmpty()) return;
+        long rss = Pointer.physicalBytes();
+        long offHeap = Math.max(0, rss - Runtime.getRuntime().totalMemory());
+        for (Window window : OPEN) {
+            window.sample(offHeap, rss);
+        }
+    }
+
+    static final class Window {
+        private final LongAccumulator offHeap = new LongAccumulator(Long::max, 0);
+        private final LongAccumulator rss = new LongAccumulator(Long::max, 0);
+
+        void sample() {
+            long rssBytes = Pointer.physicalBytes();
+            sample(Math.max(0, rssBytes - Runtime.getRuntime().totalMemory()), rssBytes);
+        }
+
+        void sample(long offHeapBytes, long rssBytes) {
+            offHeap.accumulate(offHeapBytes);
+            rss.accumulate(rssBytes);
+        }
+
+        void close(String stage) {
+            sample();
+            OPEN.remove(this);
+            Metrics.peak(stage + ".offheap").accumulate(offHeap.get());
+            Metrics.peak(stage + ".rss").accumulate(rss.get());
+        }
+    }
+}
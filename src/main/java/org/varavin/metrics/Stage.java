@@ -0,0 +1,46 @@
+package org.varavin.metrics;
+
+/**
+ * Замер стадии для try-with-resources: при закрытии длительность попадает в гистограмму стадии,
+ * а при включённой записи JFR коммитится {@link StageEvent}. При запущенном {@link OffHeapMonitor} пишутся
+ * и пики памяти стадии. Для крупных стадий, а не для внутренних циклов.
+ */
+public final class Stage implements AutoCloseable {
+
+    private final LatencyHistogram histogram;
+    private final StageEvent event;
+    private final OffHeapMonitor.Window memory;
+    private final long startNanos;
+    private long items;
+
+    Stage(String name, LatencyHistogram histogram) {
+        this.histogram = histogram;
+        StageEvent stageEvent = new StageEvent();
+        if (stageEvent.isEnabled()) {
+            stageEvent.stage = name;
+            stageEvent.begin();
+            this.event = stageEvent;
+        } else {
+            this.event = null;
+        }
+        this.memory = OffHeapMonitor.open();
+        this.startNanos = System.nanoTime();
+    }
+
+    /** Число обработанных элементов - для пропускной способности в отчёте и в событии JFR. */
+    public Stage items(long items) {
+        this.items = items;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        histogram.record(System.nanoTime() - startNanos);
+        if (items > 0) Metrics.counter(histogram.name() + ".items").add(items);
+        if (memory != null) memory.close(histogram.name());
+        if (event != null) {
+            event.items = items;
+            event.commit();
+        }
+    }
+}
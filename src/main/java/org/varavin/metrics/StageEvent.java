@@ -0,0 +1,27 @@
+package org.varavin.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR-событие стадии конвейера (загрузка CSV, признаки, кэш, инференс, перебор и т.д.).
+ * Видно в JDK Mission Control рядом с GC и аллокациями; пока запись JFR не включена, почти ничего не стоит.
+ */
+@Name("org.varavin.Stage")
+@Label("Pipeline Stage")
+@Category({"AITrader", "Pipeline"})
+@Description("Длительность стадии конвейера и число обработанных элементов")
+@StackTrace(false)
+public class StageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Items")
+    @Description("Сколько элементов обработано: баров, примеров, наборов параметров")
+    public long items;
+}
@@ -0,0 +1,87 @@
+package org.varavin.metrics;
+
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Лёгкая телеметрия обучения для пакетных запусков вместо UIServer + StatsListener: время итераций в гистограмму,
+ * по эпохам - строка в лог и в CSV (эпоха, итерации, score, длительность, примеров в секунду) и событие JFR.
+ * Ничего не копирует из параметров модели и не держит историю в памяти.
+ */
+public class TrainingTelemetryListener extends BaseTrainingListener {
+    private static final Logger log = LoggerFactory.getLogger(TrainingTelemetryListener.class);
+
+    private final LatencyHistogram iterationTime = Metrics.histogram("train.iteration");
+    private final File csvFile;
+
+    private Stage epochStage;
+    private long epochStartNanos;
+    private long lastIterationNanos;
+    private int epochIterations;
+    private long epochSamples;
+    private double scoreSum;
+    private int epoch;
+
+    public TrainingTelemetryListener(File csvFile) {
+        this.csvFile = csvFile;
+        if (csvFile != null && !csvFile.exists()) {
+            writeLine("epoch,iterations,mean_score,last_score,epoch_ms,samples_per_sec");
+        }
+    }
+
+    @Override
+    public void onEpochStart(Model model) {
+        epochStage = Metrics.stage("train.epoch");
+        epochStartNanos = System.nanoTime();
+        lastIterationNanos = epochStartNanos;
+        epochIterations = 0;
+        epochSamples = 0;
+        scoreSum = 0.0;
+    }
+
+    @Override
+    public void iterationDone(Model model, int iteration, int epoch) {
+        long now = System.nanoTime();
+        iterationTime.record(now - lastIterationNanos);
+        lastIterationNanos = now;
+        epochIterations++;
+        // batchSize() читает метки и падает, если их нет; размер батча берём по входу
+        INDArray input = model.input();
+        if (input != null) epochSamples += input.size(0);
+        scoreSum += model.score();
+        this.epoch = epoch;
+    }
+
+    @Override
+    public void onEpochEnd(Model model) {
+        long elapsedNanos = System.nanoTime() - epochStartNanos;
+        if (epochStage != null) {
+            epochStage.items(epochSamples).close();
+            epochStage = null;
+        }
+        double meanScore = epochIterations > 0 ? scoreSum / epochIterations : Double.NaN;
+        double samplesPerSec = elapsedNanos > 0 ? epochSamples / (elapsedNanos / 1e9) : 0.0;
+        log.info(String.format("Эпоха %d: итераций %d, score %.5f (последний %.5f), %d мс, %.0f примеров/с, итерация p50 %s p99 %s",
+                epoch, epochIterations, meanScore, model.score(), elapsedNanos / 1_000_000, samplesPerSec,
+                Metrics.format(iterationTime.percentileNanos(50)), Metrics.format(iterationTime.percentileNanos(99))));
+        writeLine(String.format(java.util.Locale.ROOT, "%d,%d,%.6f,%.6f,%d,%.1f",
+                epoch, epochIterations, meanScore, model.score(), elapsedNanos / 1_000_000, samplesPerSec));
+    }
+
+    private void writeLine(String line) {
+        if (csvFile == null) return;
+        try (PrintWriter out = new PrintWriter(new FileWriter(csvFile, true))) {
+            out.println(line);
+        } catch (IOException e) {
+            log.warn("Не удалось записать телеметрию обучения: {}", e.getMessage());
+        }
+    }
+}
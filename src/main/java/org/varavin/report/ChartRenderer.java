@@ -0,0 +1,207 @@
+package org.varavin.report;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartUtils;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.PaintScale;
+import org.jfree.chart.renderer.xy.XYAreaRenderer;
+import org.jfree.chart.renderer.xy.XYBlockRenderer;
+import org.jfree.chart.title.PaintScaleLegend;
+import org.jfree.chart.ui.RectangleEdge;
+import org.jfree.data.xy.DefaultXYDataset;
+import org.jfree.data.xy.DefaultXYZDataset;
+import org.varavin.Config;
+import org.varavin.metrics.LatencyHistogram;
+import org.varavin.metrics.Metrics;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Отрисовка отчётов в PNG без дисплея (java.awt.headless). Каждый график строится и сохраняется в своём потоке
+ * пула "chart-render", вызывающий поток (симуляция, перебор) получает CompletableFuture и идёт дальше.
+ * Ряды перед отрисовкой прореживаются {@link Downsampler} до maxPoints точек: капитал - LTTB, просадка - min/max,
+ * чтобы не потерять самую глубокую точку. Переданные массивы не копируются - их нельзя менять до завершения future.
+ */
+public final class ChartRenderer implements AutoCloseable {
+
+    private static final LatencyHistogram RENDER_TIME = Metrics.histogram("report.render");
+
+    static {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+    }
+
+    private final File directory;
+    private final int width;
+    private final int height;
+    private final int maxPoints;
+    private final ExecutorService pool;
+
+    public ChartRenderer(File directory, int width, int height, int maxPoints, int threads) {
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.maxPoints = maxPoints;
+        this.pool = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                Thread.ofPlatform().name("chart-render-", 0).daemon(true).factory());
+    }
+
+    public static ChartRenderer fromConfig() {
+        return new ChartRenderer(new File(Config.REPORT_DIR), Config.REPORT_WIDTH, Config.REPORT_HEIGHT,
+                Config.REPORT_MAX_POINTS, Config.REPORT_THREADS);
+    }
+
+    /** Капитал по барам. */
+    public CompletableFuture<File> equityCurve(String fileName, String title, double[] equity) {
+        return submit(fileName, () -> {
+            int[] points = Downsampler.lttb(equity, maxPoints);
+            JFreeChart chart = ChartFactory.createXYLineChart(title, "Бар", "Капитал",
+                    dataset("Капитал", points, equity), PlotOrientation.VERTICAL, false, false, false);
+            ((NumberAxis) chart.getXYPlot().getRangeAxis()).setAutoRangeIncludesZero(false);
+            return chart;
+        });
+    }
+
+    /** Просадка капитала от пика по барам, в процентах. */
+    public CompletableFuture<File> drawdown(String fileName, String title, double[] equity) {
+        return submit(fileName, () -> {
+            double[] drawdown = new double[equity.length];
+            double peak = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < equity.length; i++) {
+                peak = Math.max(peak, equity[i]);
+                drawdown[i] = peak > 0 ? (equity[i] / peak - 1) * 100 : 0;
+            }
+            int[] points = Downsampler.minMax(drawdown, maxPoints / 2);
+            JFreeChart chart = ChartFactory.createXYAreaChart(title, "Бар", "Просадка, %",
+                    dataset("Просадка", points, drawdown), PlotOrientation.VERTICAL, false, false, false);
+            XYPlot plot = chart.getXYPlot();
+            XYAreaRenderer renderer = (XYAreaRenderer) plot.getRenderer();
+            renderer.setSeriesPaint(0, new Color(200, 60, 60));
+            return chart;
+        });
+    }
+
+    /** Тепловая карта: ниже center - красные оттенки, выше - зелёные, NaN - серый. */
+    public CompletableFuture<File> heatmap(String fileName, String title, String xLabel, String yLabel,
+                                           String valueLabel, Heatmap heatmap, double center) {
+        return submit(fileName, () -> {
+            double[] x = heatmap.x();
+            double[] y = heatmap.y();
+            int cells = x.length * y.length;
+            double[][] xyz = new double[3][cells];
+            double low = center;
+            double high = center;
+            int k = 0;
+            for (int i = 0; i < x.length; i++) {
+                for (int j = 0; j < y.length; j++, k++) {
+                    double v = heatmap.value()[i][j];
+                    xyz[0][k] = x[i];
+                    xyz[1][k] = y[j];
+                    xyz[2][k] = v;
+                    if (v < low) low = v;
+                    if (v > high) high = v;
+                }
+            }
+            DefaultXYZDataset dataset = new DefaultXYZDataset();
+            dataset.addSeries(valueLabel, xyz);
+
+            DivergingPaintScale scale = new DivergingPaintScale(low, center, high);
+            XYBlockRenderer renderer = new XYBlockRenderer();
+            renderer.setBlockWidth(step(x));
+            renderer.setBlockHeight(step(y));
+            renderer.setPaintScale(scale);
+            NumberAxis xAxis = new NumberAxis(xLabel);
+            NumberAxis yAxis = new NumberAxis(yLabel);
+            xAxis.setAutoRangeIncludesZero(false);
+            yAxis.setAutoRangeIncludesZero(false);
+            XYPlot plot = new XYPlot(dataset, xAxis, yAxis, renderer);
+            plot.setBackgroundPaint(Color.LIGHT_GRAY);
+            JFreeChart chart = new JFreeChart(title, plot);
+            chart.removeLegend();
+            PaintScaleLegend legend = new PaintScaleLegend(scale, new NumberAxis(valueLabel));
+            legend.setPosition(RectangleEdge.RIGHT);
+            legend.setMargin(4, 4, 40, 4);
+            chart.addSubtitle(legend);
+            return chart;
+        });
+    }
+
+    /** Дожидается уже отправленных графиков. */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<File> submit(String fileName, Supplier<JFreeChart> builder) {
+        File file = new File(directory, fileName);
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                directory.mkdirs();
+                ChartUtils.saveChartAsPNG(file, builder.get(), width, height);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось сохранить график " + file, e);
+            }
+            RENDER_TIME.recordSince(start);
+            return file;
+        }, pool);
+    }
+
+    private static DefaultXYDataset dataset(String key, int[] points, double[] values) {
+        double[][] xy = new double[2][points.length];
+        for (int i = 0; i < points.length; i++) {
+            xy[0][i] = points[i];
+            xy[1][i] = values[points[i]];
+        }
+        DefaultXYDataset dataset = new DefaultXYDataset();
+        dataset.addSeries(key, xy);
+        return dataset;
+    }
+
+    private static double step(double[] axis) {
+        return axis.length > 1 ? axis[1] - axis[0] : 1.0;
+    }
+
+    /** Красный - нижняя граница, белый - center, зелёный - верхняя; NaN - серый. */
+    private record DivergingPaintScale(double low, double center, double high) implements PaintScale {
+
+        @Override
+        public double getLowerBound() {
+            return low;
+        }
+
+        @Override
+        public double getUpperBound() {
+            return high;
+        }
+
+        @Override
+        public Paint getPaint(double value) {
+            if (Double.isNaN(value)) return Color.GRAY;
+            if (value < center) {
+                float t = low < center ? (float) ((center - Math.max(value, low)) / (center - low)) : 0f;
+                return new Color(1f, 1f - 0.8f * t, 1f - 0.8f * t);
+            }
+            float t = high > center ? (float) ((Math.min(value, high) - center) / (high - center)) : 0f;
+            return new Color(1f - 0.8f * t, 1f - 0.3f * t, 1f - 0.8f * t);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.varavin.report;
+
+import java.util.Arrays;
+
+/**
+ * Прореживание рядов перед отрисовкой: на картинке шириной в пару тысяч пикселей миллионы точек неотличимы
+ * от нескольких тысяч правильно выбранных, а рисуются на порядки дольше. Оба метода возвращают индексы
+ * выбранных точек по возрастанию, исходные массивы не меняются и не копируются; работают за один проход.
+ */
+public final class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets (Steinarsson, 2013) с x = индекс точки: первая и последняя точки остаются,
+     * остальные делятся на threshold - 2 корзины, из каждой берётся точка, дающая наибольшую площадь треугольника
+     * с выбранной точкой предыдущей корзины и средним следующей. Сохраняет форму кривой, в том числе пики.
+     */
+    public static int[] lttb(double[] y, int threshold) {
+        int n = y.length;
+        if (threshold >= n || threshold < 3) return identity(n);
+
+        int[] selected = new int[threshold];
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        selected[0] = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int from = (int) (bucket * bucketSize) + 1;
+            int to = (int) ((bucket + 1) * bucketSize) + 1;
+
+            // Среднее следующей корзины; у последней корзины следующая - последняя точка
+            int nextFrom = to;
+            int nextTo = Math.min(n, (int) ((bucket + 2) * bucketSize) + 1);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextFrom; i < nextTo; i++) {
+                avgX += i;
+                avgY += y[i];
+            }
+            int nextCount = nextTo - nextFrom;
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            double ax = a;
+            double ay = y[a];
+            double maxArea = -1;
+            int best = from;
+            for (int i = from; i < to; i++) {
+                // Удвоенная площадь: для сравнения деление на два не нужно
+                double area = Math.abs((ax - avgX) * (y[i] - ay) - (ax - i) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = i;
+                }
+            }
+            selected[bucket + 1] = best;
+            a = best;
+        }
+        selected[threshold - 1] = n - 1;
+        return selected;
+    }
+
+    /**
+     * Минимум и максимум каждой из buckets корзин в порядке их появления, плюс первая и последняя точки.
+     * Не теряет ни одного экстремума, поэтому подходит для просадок: самая глубокая точка всегда на графике.
+     */
+    public static int[] minMax(double[] y, int buckets) {
+        int n = y.length;
+        if (buckets <= 0 || 2 * buckets + 2 >= n) return identity(n);
+
+        int[] selected = new int[2 * buckets + 2];
+        int count = 0;
+        selected[count++] = 0;
+        double bucketSize = (double) (n - 2) / buckets;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int from = (int) (bucket * bucketSize) + 1;
+            int to = (int) ((bucket + 1) * bucketSize) + 1;
+            if (from >= to) continue;
+            int min = from;
+            int max = from;
+            for (int i = from + 1; i < to; i++) {
+                if (y[i] < y[min]) min = i;
+                if (y[i] > y[max]) max = i;
+            }
+            if (min == max) {
+                selected[count++] = min;
+            } else {
+                selected[count++] = Math.min(min, max);
+                selected[count++] = Math.max(min, max);
+            }
+        }
+        selected[count++] = n - 1;
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private static int[] identity(int n) {
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) all[i] = i;
+        return all;
+    }
+}
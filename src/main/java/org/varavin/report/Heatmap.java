@@ -0,0 +1,40 @@
+package org.varavin.report;
+
+import org.varavin.TradingBot;
+import org.varavin.entity.BotParameters;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Срез сетки перебора по двум параметрам: value[i][j] - значение в точке (x[i], y[j]), NaN - прогон
+ * отсечён, набрал меньше minTrades сделок или такой точки в сетке нет.
+ */
+public record Heatmap(double[] x, double[] y, double[][] value) {
+
+    /** ATR стоп × R/R при заданных пороге и риске; значение - конечный баланс. */
+    public static Heatmap atrStopByRiskReward(List<BotParameters> grid, TradingBot.SimulationResult[] results,
+                                              double threshold, double riskPercent, int minTrades) {
+        TreeSet<Double> xs = new TreeSet<>();
+        TreeSet<Double> ys = new TreeSet<>();
+        for (BotParameters p : grid) {
+            if (p.signalThreshold() == threshold && p.riskPercent() == riskPercent) {
+                xs.add(p.atrStopMultiplier());
+                ys.add(p.fixedRiskRewardRatio());
+            }
+        }
+        double[] x = xs.stream().mapToDouble(Double::doubleValue).toArray();
+        double[] y = ys.stream().mapToDouble(Double::doubleValue).toArray();
+        double[][] value = new double[x.length][y.length];
+        for (double[] column : value) Arrays.fill(column, Double.NaN);
+        for (int k = 0; k < grid.size(); k++) {
+            BotParameters p = grid.get(k);
+            TradingBot.SimulationResult r = results[k];
+            if (r == null || r.totalTrades() < minTrades
+                    || p.signalThreshold() != threshold || p.riskPercent() != riskPercent) continue;
+            value[Arrays.binarySearch(x, p.atrStopMultiplier())][Arrays.binarySearch(y, p.fixedRiskRewardRatio())] = r.finalBalance();
+        }
+        return new Heatmap(x, y, value);
+    }
+}
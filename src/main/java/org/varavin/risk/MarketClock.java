@@ -0,0 +1,23 @@
+package org.varavin.risk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Часы по времени рынка для {@link RiskManager} на бэктесте: ленту двигает источник свечей, поэтому дневной
+ * лимит и ограничение частоты заявок считаются по времени баров и не зависят от скорости воспроизведения.
+ */
+public final class MarketClock implements LongSupplier {
+
+    private final AtomicLong epochNanos = new AtomicLong();
+
+    /** Сдвигает часы на время закрытия бара; назад не идут. */
+    public void advance(long epochSecond) {
+        epochNanos.accumulateAndGet(epochSecond * 1_000_000_000L, Math::max);
+    }
+
+    @Override
+    public long getAsLong() {
+        return epochNanos.get();
+    }
+}
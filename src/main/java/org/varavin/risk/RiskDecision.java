@@ -0,0 +1,18 @@
+package org.varavin.risk;
+
+/** Итог предторговой проверки. Константы перечисления - проверка возвращает их без выделения памяти. */
+public enum RiskDecision {
+    ACCEPTED,
+    KILL_SWITCH,
+    NO_PRICE,
+    DAILY_LOSS,
+    MAX_POSITION,
+    MAX_NOTIONAL,
+    GROSS_NOTIONAL,
+    CORRELATED_EXPOSURE,
+    ORDER_RATE;
+
+    public boolean accepted() {
+        return this == ACCEPTED;
+    }
+}
@@ -0,0 +1,23 @@
+package org.varavin.risk;
+
+import org.varavin.Config;
+
+/**
+ * Лимиты предторговых проверок. Денежные лимиты - доли текущего капитала (дневной убыток - доли капитала на начало
+ * дня), поэтому одни и те же значения работают и на бэктесте с INITIAL_BALANCE, и на реальном счёте.
+ *
+ * @param maxPosition           наибольшая позиция по инструменту, штук (с учётом заявок в полёте)
+ * @param maxInstrumentNotional наибольшая стоимость позиции по инструменту
+ * @param maxGrossNotional      наибольшая сумма |позиция| * цена по портфелю
+ * @param maxCorrelatedExposure наибольшая |чистая позиция| группы коррелированных инструментов
+ * @param maxDailyLoss          убыток за день, после которого новые позиции не открываются до следующего дня
+ * @param maxOrdersPerSecond    заявок в секунду на портфель; столько же можно отправить разом
+ */
+public record RiskLimits(long maxPosition, double maxInstrumentNotional, double maxGrossNotional,
+                         double maxCorrelatedExposure, double maxDailyLoss, int maxOrdersPerSecond) {
+
+    public static RiskLimits fromConfig() {
+        return new RiskLimits(Config.RISK_MAX_POSITION, Config.RISK_MAX_INSTRUMENT_NOTIONAL, Config.RISK_MAX_GROSS_NOTIONAL,
+                Config.RISK_MAX_CORRELATED_EXPOSURE, Config.RISK_MAX_DAILY_LOSS, Config.RISK_MAX_ORDERS_PER_SECOND);
+    }
+}
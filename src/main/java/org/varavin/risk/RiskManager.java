@@ -0,0 +1,347 @@
+package org.varavin.risk;
+
+import org.varavin.Config;
+import org.varavin.execution.ExecutionListener;
+import org.varavin.execution.Fill;
+import org.varavin.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Предторговые проверки, через которые проходит каждая заявка: kill switch, дневной убыток, позиция и стоимость
+ * позиции по инструменту, валовая стоимость портфеля, чистая позиция группы коррелированных инструментов
+ * и частота заявок. Заявка, уменьшающая исполненную позицию (стоп, тейк, закрытие), проходит всегда - лимиты
+ * не должны мешать выходу из риска.
+ *
+ * Состояние - примитивные атомарные массивы по индексу инструмента: позиция, заявки в полёте, последняя цена
+ * и вклад инструмента в суммы портфеля (биты double), плюс сами суммы: стоимость позиций, валовая стоимость
+ * и чистая стоимость каждой группы. Цена, исполнение и резерв пересчитывают вклад своего инструмента и добавляют
+ * разницу к суммам, поэтому проверка стоит O(1) при любом числе инструментов, не берёт блокировок и не выделяет
+ * память. Резерв по инструменту точен при конкурентных проверках (CAS); портфельные лимиты сверяются с текущими
+ * суммами, поэтому две одновременные заявки по разным инструментам могут превысить их не больше чем на одну заявку.
+ *
+ * Время берётся из clock в наносекундах эпохи: на счёте - {@link #systemClock()}, на бэктесте - {@link MarketClock},
+ * который двигают свечи. Код проверок один и тот же.
+ */
+public final class RiskManager implements ExecutionListener {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long NANOS_PER_DAY = 86_400L * NANOS_PER_SECOND;
+    private static final RiskDecision[] DECISIONS = RiskDecision.values();
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private final RiskLimits limits;
+    private final double initialEquity;
+    private final LongSupplier clock;
+    private final int[] group;
+
+    private final AtomicLongArray positions;
+    private final AtomicLongArray pending;
+    private final AtomicLongArray marks;
+    // Вклад инструмента: позиция * цена, |позиция + резерв| * цена, (позиция + резерв) * цена
+    private final AtomicLongArray values;
+    private final AtomicLongArray grossValues;
+    private final AtomicLongArray netValues;
+    private final AtomicLong totalValue = new AtomicLong(Double.doubleToRawLongBits(0.0));
+    private final AtomicLong totalGross = new AtomicLong(Double.doubleToRawLongBits(0.0));
+    private final AtomicLongArray groupNet;
+    // Деньги счёта сверх начального капитала и капитал на начало текущего дня - биты double
+    private final AtomicLong cash = new AtomicLong(Double.doubleToRawLongBits(0.0));
+    private final AtomicLong dayStartEquity;
+    private final AtomicLong currentDay = new AtomicLong(Long.MIN_VALUE);
+    // GCRA: теоретическое время следующей заявки; заявка проходит, если оно не дальше секунды впереди
+    private final AtomicLong nextOrderNanos = new AtomicLong(Long.MIN_VALUE / 2);
+    private final long orderIntervalNanos;
+    private volatile boolean killed;
+
+    private final LongAdder[] decisions = new LongAdder[DECISIONS.length];
+
+    /**
+     * @param correlationGroups группа каждого инструмента (например, из {@link #correlationGroups}); null - у каждого своя
+     */
+    public RiskManager(List<String> instrumentIds, int[] correlationGroups, RiskLimits limits, double initialEquity,
+                       LongSupplier clock) {
+        int n = instrumentIds.size();
+        for (int i = 0; i < n; i++) {
+            index.put(instrumentIds.get(i), i);
+        }
+        this.limits = limits;
+        this.initialEquity = initialEquity;
+        this.clock = clock;
+        this.group = new int[n];
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            group[i] = correlationGroups != null ? correlationGroups[i] : i;
+            groups = Math.max(groups, group[i] + 1);
+        }
+
+        this.positions = new AtomicLongArray(n);
+        this.pending = new AtomicLongArray(n);
+        this.marks = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) marks.set(i, Double.doubleToRawLongBits(Double.NaN));
+        // Нулевые биты - это 0.0, поэтому вклады и суммы групп начинаются с нуля
+        this.values = new AtomicLongArray(n);
+        this.grossValues = new AtomicLongArray(n);
+        this.netValues = new AtomicLongArray(n);
+        this.groupNet = new AtomicLongArray(groups);
+        this.dayStartEquity = new AtomicLong(Double.doubleToRawLongBits(initialEquity));
+        this.orderIntervalNanos = NANOS_PER_SECOND / Math.max(1, limits.maxOrdersPerSecond());
+        for (RiskDecision decision : DECISIONS) {
+            decisions[decision.ordinal()] = Metrics.counter("risk." + decision.name().toLowerCase());
+        }
+    }
+
+    public static RiskManager fromConfig(List<String> instrumentIds, LongSupplier clock) {
+        return new RiskManager(instrumentIds, null, RiskLimits.fromConfig(), Config.INITIAL_BALANCE, clock);
+    }
+
+    /** Наносекунды эпохи по системным часам с разрешением System.nanoTime(). */
+    public static LongSupplier systemClock() {
+        long offset = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+        return () -> offset + System.nanoTime();
+    }
+
+    /**
+     * Группы по корреляции доходностей: первый ещё не распределённый инструмент открывает группу, в неё входят все
+     * оставшиеся, чья корреляция с ним не ниже threshold. returns[i] - доходности инструмента i на общих барах.
+     */
+    public static int[] correlationGroups(double[][] returns, double threshold) {
+        int n = returns.length;
+        int[] groups = new int[n];
+        Arrays.fill(groups, -1);
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            if (groups[i] >= 0) continue;
+            groups[i] = next;
+            for (int j = i + 1; j < n; j++) {
+                if (groups[j] < 0 && correlation(returns[i], returns[j]) >= threshold) groups[j] = next;
+            }
+            next++;
+        }
+        return groups;
+    }
+
+    /** Индекс инструмента или -1. */
+    public int index(String instrumentId) {
+        Integer i = index.get(instrumentId);
+        return i != null ? i : -1;
+    }
+
+    /** Заявка по инструменту, известному по идентификатору; неизвестные инструменты не торгуются. */
+    public RiskDecision check(String instrumentId, long signedQuantity, double price) {
+        int i = index(instrumentId);
+        return i >= 0 ? check(i, signedQuantity, price) : count(RiskDecision.NO_PRICE);
+    }
+
+    /**
+     * Проверка заявки на signedQuantity штук (плюс - покупка) по цене price (NaN или 0 - по последней цене).
+     * Принятая заявка, увеличивающая позицию, резервируется до исполнения ({@link #fill}) или отказа ({@link #release}).
+     */
+    public RiskDecision check(int instrument, long signedQuantity, double price) {
+        if (signedQuantity == 0) return count(RiskDecision.ACCEPTED);
+        long now = clock.getAsLong();
+        while (true) {
+            long position = positions.get(instrument);
+            long inFlight = pending.get(instrument);
+            // Уменьшение - только относительно исполненной позиции: заявки в полёте ещё могут не исполниться
+            if (position != 0 && Long.signum(position) != Long.signum(signedQuantity)
+                    && Math.abs(signedQuantity) <= Math.abs(position)) {
+                return count(RiskDecision.ACCEPTED);
+            }
+            long exposure = position + inFlight;
+            if (killed) return count(RiskDecision.KILL_SWITCH);
+            double mark = Double.longBitsToDouble(marks.get(instrument));
+            double px = price > 0 ? price : mark;
+            if (!(px > 0)) return count(RiskDecision.NO_PRICE);
+
+            // Суммы портфеля без вклада этого инструмента - его вклад пересчитывается по новой позиции
+            double equity = equity();
+            double gross = bits(totalGross) - Double.longBitsToDouble(grossValues.get(instrument));
+            double net = Double.longBitsToDouble(groupNet.get(group[instrument]))
+                    - Double.longBitsToDouble(netValues.get(instrument));
+            double dayStart = rollDay(now, equity);
+
+            if (equity - dayStart <= -limits.maxDailyLoss() * dayStart) return count(RiskDecision.DAILY_LOSS);
+            long target = exposure + signedQuantity;
+            if (Math.abs(target) > limits.maxPosition()) return count(RiskDecision.MAX_POSITION);
+            double notional = Math.abs(target) * px;
+            if (notional > limits.maxInstrumentNotional() * equity) return count(RiskDecision.MAX_NOTIONAL);
+            if (gross + notional > limits.maxGrossNotional() * equity) return count(RiskDecision.GROSS_NOTIONAL);
+            if (Math.abs(net + target * px) > limits.maxCorrelatedExposure() * equity) {
+                return count(RiskDecision.CORRELATED_EXPOSURE);
+            }
+
+            if (!pending.compareAndSet(instrument, inFlight, inFlight + signedQuantity)) continue;
+            if (!acquireOrderSlot(now)) {
+                release(instrument, signedQuantity);
+                return count(RiskDecision.ORDER_RATE);
+            }
+            refresh(instrument);
+            return count(RiskDecision.ACCEPTED);
+        }
+    }
+
+    /** Последняя цена инструмента - по ней считаются капитал, стоимость позиций и рыночные заявки. */
+    public void mark(int instrument, double price) {
+        if (price > 0) {
+            marks.set(instrument, Double.doubleToRawLongBits(price));
+            refresh(instrument);
+        }
+    }
+
+    /** Исполнение signedQuantity штук по price: позиция, деньги с комиссией, снятие резерва. */
+    public void fill(int instrument, long signedQuantity, double price) {
+        // Деньги - раньше позиции: иначе капитал на мгновение учтёт бумаги, но не списание за них
+        add(cash, -(signedQuantity * price + Math.abs(signedQuantity) * price * Config.COMMISSION_RATE));
+        positions.getAndAdd(instrument, signedQuantity);
+        if (!(Double.longBitsToDouble(marks.get(instrument)) > 0)) marks.set(instrument, Double.doubleToRawLongBits(price));
+        release(instrument, signedQuantity);
+        refresh(instrument);
+    }
+
+    /** Снимает резерв заявки (отказ брокера, отмена, исполнение); резерв не переходит через ноль. */
+    public void release(int instrument, long signedQuantity) {
+        while (true) {
+            long inFlight = pending.get(instrument);
+            if (inFlight == 0 || Long.signum(inFlight) != Long.signum(signedQuantity)) return;
+            long rest = Long.signum(inFlight) * Math.max(0, Math.abs(inFlight) - Math.abs(signedQuantity));
+            if (pending.compareAndSet(instrument, inFlight, rest)) {
+                refresh(instrument);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onFill(Fill fill) {
+        int i = index(fill.instrumentId());
+        if (i >= 0) fill(i, fill.side().sign() * fill.quantity(), fill.price());
+    }
+
+    /** Останавливает все новые позиции до {@link #resume()}; выходы из позиций по-прежнему проходят. */
+    public void kill() {
+        killed = true;
+    }
+
+    public void resume() {
+        killed = false;
+    }
+
+    public boolean killed() {
+        return killed;
+    }
+
+    public long position(int instrument) {
+        return positions.get(instrument);
+    }
+
+    /** Капитал по последним ценам. */
+    public double equity() {
+        return initialEquity + bits(cash) + bits(totalValue);
+    }
+
+    public long decisions(RiskDecision decision) {
+        return decisions[decision.ordinal()].sum();
+    }
+
+    // Первая проверка нового дня фиксирует капитал на его начало
+    private double rollDay(long now, double equity) {
+        long day = Math.floorDiv(now, NANOS_PER_DAY);
+        long known = currentDay.get();
+        if (day > known && currentDay.compareAndSet(known, day)) {
+            dayStartEquity.set(Double.doubleToRawLongBits(equity));
+            return equity;
+        }
+        return Double.longBitsToDouble(dayStartEquity.get());
+    }
+
+    /**
+     * Пересчитывает вклад инструмента по текущим позиции, резерву и цене и добавляет разницу к суммам.
+     * getAndSet вклада делает разности телескопическими: сумма всегда равна сумме записанных вкладов. Если за время
+     * пересчёта состояние инструмента изменилось, вклад пересчитывается ещё раз, чтобы не остался устаревшим.
+     */
+    private void refresh(int instrument) {
+        int g = group[instrument];
+        while (true) {
+            long position = positions.get(instrument);
+            long inFlight = pending.get(instrument);
+            long markBits = marks.get(instrument);
+            double mark = Double.longBitsToDouble(markBits);
+            double m = mark > 0 ? mark : 0.0;
+            long exposure = position + inFlight;
+            add(totalValue, swap(values, instrument, position * m));
+            add(totalGross, swap(grossValues, instrument, Math.abs(exposure) * m));
+            add(groupNet, g, swap(netValues, instrument, exposure * m));
+            if (positions.get(instrument) == position && pending.get(instrument) == inFlight
+                    && marks.get(instrument) == markBits) {
+                return;
+            }
+        }
+    }
+
+    // Записывает новый вклад и возвращает его разницу с прежним
+    private static double swap(AtomicLongArray contributions, int index, double value) {
+        return value - Double.longBitsToDouble(contributions.getAndSet(index, Double.doubleToRawLongBits(value)));
+    }
+
+    private static void add(AtomicLong target, double delta) {
+        if (delta == 0.0) return;
+        long bits;
+        do {
+            bits = target.get();
+        } while (!target.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + delta)));
+    }
+
+    private static void add(AtomicLongArray target, int index, double delta) {
+        if (delta == 0.0) return;
+        long bits;
+        do {
+            bits = target.get(index);
+        } while (!target.compareAndSet(index, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + delta)));
+    }
+
+    private static double bits(AtomicLong value) {
+        return Double.longBitsToDouble(value.get());
+    }
+
+    private boolean acquireOrderSlot(long now) {
+        while (true) {
+            long next = nextOrderNanos.get();
+            long updated = Math.max(next, now) + orderIntervalNanos;
+            if (updated - now > NANOS_PER_SECOND) return false;
+            if (nextOrderNanos.compareAndSet(next, updated)) return true;
+        }
+    }
+
+    private RiskDecision count(RiskDecision decision) {
+        decisions[decision.ordinal()].increment();
+        return decision;
+    }
+
+    private static double correlation(double[] a, double[] b) {
+        int n = Math.min(a.length, b.length);
+        double meanA = 0, meanB = 0;
+        for (int k = 0; k < n; k++) {
+            meanA += a[k];
+            meanB += b[k];
+        }
+        meanA /= n;
+        meanB /= n;
+        double cov = 0, varA = 0, varB = 0;
+        for (int k = 0; k < n; k++) {
+            double da = a[k] - meanA;
+            double db = b[k] - meanB;
+            cov += da * db;
+            varA += da * da;
+            varB += db * db;
+        }
+        return varA > 0 && varB > 0 ? cov / Math.sqrt(varA * varB) : 0.0;
+    }
+}
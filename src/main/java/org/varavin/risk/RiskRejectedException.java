@@ -0,0 +1,17 @@
+package org.varavin.risk;
+
+/** Заявка не прошла предторговую проверку. Без стека: это штатный отказ, а не ошибка. */
+public final class RiskRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final RiskDecision decision;
+
+    public RiskRejectedException(String instrumentId, RiskDecision decision) {
+        super("Риск-лимит " + decision + " по " + instrumentId, null, false, false);
+        this.decision = decision;
+    }
+
+    public RiskDecision decision() {
+        return decision;
+    }
+}
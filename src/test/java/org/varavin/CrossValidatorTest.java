@@ -0,0 +1,68 @@
+package org.varavin;
+
+import org.junit.jupiter.api.Test;
+import org.varavin.entity.WindowedDataSet;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class CrossValidatorTest {
+
+    private static final int TIME_STEPS = 5;
+
+    @Test
+    void purgeAndEmbargoRemoveSamplesAroundTestFold() {
+        // Пример s заканчивается на баре s + 4; тест - примеры [40, 60), то есть бары 44..63
+        WindowedDataSet all = samples(IntStream.range(0, 96).map(s -> s + TIME_STEPS - 1).toArray());
+        int[] counts = new int[2];
+        int[] train = CrossValidator.trainSamples(all, 40, 60, 3, 2, counts);
+        // Очистка: бар + 3 >= 44, то есть примеры 37..39; эмбарго: бар - 2 <= 63, то есть примеры 60..61
+        assertArrayEquals(concat(range(0, 37), range(62, 96)), train);
+        assertArrayEquals(new int[]{3, 2}, counts);
+    }
+
+    @Test
+    void zeroPurgeAndEmbargoKeepEverythingOutsideTestFold() {
+        WindowedDataSet all = samples(IntStream.range(0, 96).map(s -> s + TIME_STEPS - 1).toArray());
+        int[] counts = new int[2];
+        assertArrayEquals(concat(range(0, 40), range(60, 96)), CrossValidator.trainSamples(all, 40, 60, 0, 0, counts));
+        assertArrayEquals(new int[]{0, 0}, counts);
+    }
+
+    @Test
+    void boundariesAreMeasuredInBarsNotSamples() {
+        // Бары с невалидными метками выброшены: пример s заканчивается на баре 2s + 4, тест - бары 44..62
+        WindowedDataSet all = samples(IntStream.range(0, 50).map(s -> 2 * s + TIME_STEPS - 1).toArray());
+        int[] counts = new int[2];
+        int[] train = CrossValidator.trainSamples(all, 20, 30, 5, 5, counts);
+        // Очистка: бар >= 39 - примеры 18, 19; эмбарго: бар <= 67 - примеры 30..31
+        assertArrayEquals(concat(range(0, 18), range(32, 50)), train);
+        assertArrayEquals(new int[]{2, 2}, counts);
+    }
+
+    @Test
+    void edgeFoldsHaveOnlyOneSideRemoved() {
+        WindowedDataSet all = samples(IntStream.range(0, 96).map(s -> s + TIME_STEPS - 1).toArray());
+        int[] counts = new int[2];
+        assertArrayEquals(range(24, 96), CrossValidator.trainSamples(all, 0, 20, 10, 4, counts));
+        assertArrayEquals(new int[]{0, 4}, counts);
+        assertArrayEquals(range(0, 66), CrossValidator.trainSamples(all, 76, 96, 10, 4, counts));
+        assertArrayEquals(new int[]{10, 0}, counts);
+    }
+
+    // Для границ фолдов важны только концы окон примеров, признаки и метки нулевые
+    private static WindowedDataSet samples(int[] sampleEndBars) {
+        int numBars = sampleEndBars[sampleEndBars.length - 1] + 1;
+        return new WindowedDataSet(new float[numBars], 1, numBars, TIME_STEPS, sampleEndBars,
+                new float[sampleEndBars.length], 1);
+    }
+
+    private static int[] range(int from, int to) {
+        return IntStream.range(from, to).toArray();
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        return IntStream.concat(IntStream.of(a), IntStream.of(b)).toArray();
+    }
+}
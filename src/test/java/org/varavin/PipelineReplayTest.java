@@ -0,0 +1,32 @@
+package org.varavin;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/** Сквозной прогон торгового конвейера на CSV из корня проекта против офлайн-расчёта на тех же данных. */
+class PipelineReplayTest {
+
+    @BeforeAll
+    static void configureMemory() {
+        MemoryPlanner.configure();
+    }
+
+    @Test
+    void lockstepReplayMatchesOfflineComputation() throws Exception {
+        assumeTrue(new File(Config.CSV_FILE_NAME).isFile(), "нет " + Config.CSV_FILE_NAME);
+        assumeTrue(new File(Config.MODEL_DIR, "bestModel.bin").isFile(), "нет модели в " + Config.MODEL_DIR);
+
+        PipelineReplay.Report report = PipelineReplay.run(true);
+
+        assertTrue(report.checkedSteps() > 0, "тестовый участок не сверен");
+        assertEquals(0, report.predictionMismatches(), "расхождения предсказаний");
+        assertEquals(0, report.indicatorMismatches(), "расхождения EMA/ADX");
+        assertEquals(0, report.signalMismatches(), "расхождения сигналов");
+    }
+}
@@ -0,0 +1,140 @@
+package org.varavin.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.varavin.entity.BarColumns;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class CandleArchiveTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void chunkRoundTripIsBitExact() {
+        BarColumns bars = randomBars(new Random(1), 1000);
+        for (int[] range : new int[][]{{0, 1}, {0, 1000}, {17, 256}, {999, 1}}) {
+            int from = range[0];
+            int count = range[1];
+            ByteBuffer chunk = ChunkCodec.encode(bars, from, count);
+            BarColumns out = empty(count + 3);
+            assertEquals(count, ChunkCodec.decode(chunk, out, 3));
+            assertFalse(chunk.hasRemaining());
+            assertSlice(bars, from, out, 3, count);
+        }
+    }
+
+    @Test
+    void chunkRoundTripKeepsSpecialValuesAndTimeJumps() {
+        int n = 12;
+        BarColumns bars = empty(n);
+        // Все ветки дельты дельт: 0, 7, 9, 12, 32 и 64 бита
+        long[] deltas = {300, 300, 301, 500, 1500, 3000, 100_000, 300, Long.MAX_VALUE / 4, 300, 300};
+        bars.endEpochSeconds()[0] = -5_000;
+        for (int i = 1; i < n; i++) {
+            bars.endEpochSeconds()[i] = bars.endEpochSeconds()[i - 1] + deltas[i - 1];
+        }
+        double[] special = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE,
+                1.0, 1.0, -1.0, 1e-300, 123.456, 123.456};
+        for (double[] column : new double[][]{bars.open(), bars.high(), bars.low(), bars.close(), bars.volume()}) {
+            System.arraycopy(special, 0, column, 0, n);
+        }
+        BarColumns out = empty(n);
+        ChunkCodec.decode(ChunkCodec.encode(bars, 0, n), out, 0);
+        assertSlice(bars, 0, out, 0, n);
+    }
+
+    @Test
+    void archiveReadsTimeRangesAcrossChunks() throws IOException {
+        File file = new File(dir, "candles.bin");
+        BarColumns sber = randomBars(new Random(2), 700);
+        BarColumns gazp = randomBars(new Random(3), 90);
+        try (CandleArchive.Writer writer = CandleArchive.writer(file, 64)) {
+            writer.add("SBER", sber);
+            writer.add("GAZP", gazp);
+            writer.commit();
+        }
+        try (CandleArchive archive = CandleArchive.open(file)) {
+            assertEquals(700, archive.barCount("SBER"));
+            assertEquals(90, archive.barCount("GAZP"));
+            long[] time = sber.endEpochSeconds();
+            // Полуинтервалы [from, to) по номерам баров: внутри чанка, на стыке чанков, до конца серии
+            int[][] ranges = {{0, 700}, {63, 65}, {100, 450}, {640, 700}, {5, 5}};
+            for (int[] range : ranges) {
+                long to = range[1] < 700 ? time[range[1]] : time[699] + 1;
+                BarColumns read = archive.read("SBER", time[range[0]], to);
+                assertEquals(range[1] - range[0], read.size());
+                assertSlice(sber, range[0], read, 0, range[1] - range[0]);
+            }
+            assertEquals(700, archive.read("SBER", Long.MIN_VALUE, Long.MAX_VALUE).size());
+            assertEquals(0, archive.read("SBER", time[699] + 1, Long.MAX_VALUE).size());
+            BarColumns all = archive.read("GAZP", Long.MIN_VALUE, Long.MAX_VALUE);
+            assertSlice(gazp, 0, all, 0, 90);
+        }
+    }
+
+    @Test
+    void writerWithoutCommitKeepsPreviousArchive() throws IOException {
+        File file = new File(dir, "candles.bin");
+        BarColumns bars = randomBars(new Random(4), 10);
+        try (CandleArchive.Writer writer = CandleArchive.writer(file, 4)) {
+            writer.add("SBER", bars);
+            writer.commit();
+        }
+        try (CandleArchive.Writer writer = CandleArchive.writer(file, 4)) {
+            writer.add("SBER", randomBars(new Random(5), 20));
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        try (CandleArchive archive = CandleArchive.open(file)) {
+            assertEquals(10, archive.barCount("SBER"));
+        }
+    }
+
+    // Пятиминутки с пропусками, цены - случайное блуждание с шагом цены, повторы и нулевой объём
+    private static BarColumns randomBars(Random random, int n) {
+        BarColumns bars = empty(n);
+        long time = 1_600_000_000L;
+        double price = 150.0;
+        for (int i = 0; i < n; i++) {
+            time += random.nextInt(10) == 0 ? 300L * (2 + random.nextInt(200)) : 300;
+            double open = price;
+            price = Math.max(0.01, price + 0.01 * (random.nextInt(41) - 20));
+            bars.endEpochSeconds()[i] = time;
+            bars.open()[i] = open;
+            bars.close()[i] = price;
+            bars.high()[i] = Math.max(open, price) + 0.01 * random.nextInt(5);
+            bars.low()[i] = Math.min(open, price) - 0.01 * random.nextInt(5);
+            bars.volume()[i] = random.nextInt(8) == 0 ? 0 : random.nextInt(100_000);
+        }
+        return bars;
+    }
+
+    private static BarColumns empty(int n) {
+        return new BarColumns(new long[n], new double[n], new double[n], new double[n], new double[n], new double[n]);
+    }
+
+    private static void assertSlice(BarColumns expected, int from, BarColumns actual, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.endEpochSeconds()[from + i], actual.endEpochSeconds()[offset + i], "время бара " + i);
+        }
+        double[][] expectedColumns = {expected.open(), expected.high(), expected.low(), expected.close(), expected.volume()};
+        double[][] actualColumns = {actual.open(), actual.high(), actual.low(), actual.close(), actual.volume()};
+        for (int c = 0; c < expectedColumns.length; c++) {
+            long[] expectedBits = new long[count];
+            long[] actualBits = new long[count];
+            for (int i = 0; i < count; i++) {
+                expectedBits[i] = Double.doubleToRawLongBits(expectedColumns[c][from + i]);
+                actualBits[i] = Double.doubleToRawLongBits(actualColumns[c][offset + i]);
+            }
+            assertArrayEquals(expectedBits, actualBits, "колонка " + c);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.varavin.bus;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    private static final class Event {
+        long value;
+        long doubled;
+    }
+
+    @Test
+    void producerWaitsForSlowestConsumerBeforeWrapping() throws Exception {
+        RingBuffer<Event> ring = new RingBuffer<>(Event::new, 4);
+        Sequence consumer = new Sequence();
+        ring.setGatingSequences(consumer);
+        for (long expected = 0; expected < 4; expected++) {
+            assertEquals(expected, ring.next());
+        }
+
+        // Пятый слот - это слот 0, который потребитель ещё не прочитал
+        CompletableFuture<Long> fifth = CompletableFuture.supplyAsync(ring::next);
+        assertThrows(TimeoutException.class, () -> fifth.get(100, TimeUnit.MILLISECONDS));
+        consumer.set(0);
+        assertEquals(4L, fifth.get(5, TimeUnit.SECONDS));
+        assertSame(ring.get(0), ring.get(4));
+    }
+
+    @Test
+    void stagesSeeEveryEventInOrderAcrossManyWraps() {
+        int events = 200_000;
+        AtomicLong errors = new AtomicLong();
+        AtomicLong last = new AtomicLong(-1);
+        try (EventBus<Event> bus = new EventBus<>(Event::new, 8, WaitStrategy.yielding())) {
+            BatchEventProcessor<Event> first = bus.addStage("double", (event, sequence, endOfBatch) -> {
+                if (event.value != sequence) errors.incrementAndGet();
+                event.doubled = 2 * event.value;
+            });
+            bus.addStage("check", (event, sequence, endOfBatch) -> {
+                // Вторая стадия видит запись первой и не отстаёт от производителя на круг
+                if (event.value != sequence || event.doubled != 2 * sequence || sequence != last.get() + 1) {
+                    errors.incrementAndGet();
+                }
+                last.set(sequence);
+            }, first);
+            bus.start();
+            for (long i = 0; i < events; i++) {
+                bus.publish((event, value) -> event.value = value, i);
+            }
+            assertTrue(bus.awaitProcessed(events - 1, 30, TimeUnit.SECONDS));
+        }
+        assertEquals(0, errors.get());
+        assertEquals(events - 1, last.get());
+    }
+}
@@ -0,0 +1,83 @@
+package org.varavin.features;
+
+import org.junit.jupiter.api.Test;
+import org.varavin.entity.BarColumns;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LabelEngineTest {
+
+    @Test
+    void rollingExtremesMatchBruteForce() {
+        Random random = new Random(7);
+        double[] values = new double[300];
+        for (int i = 0; i < values.length; i++) {
+            // Мелкая сетка цен даёт много равных значений - проверка вытеснения из деки при равенстве
+            values[i] = random.nextInt(20);
+        }
+        for (int horizon : new int[]{0, 1, 2, 5, 48, 299, 300, 301}) {
+            assertArrayEquals(bruteForce(values, horizon, true), LabelEngine.forwardRollingMax(values, horizon), "max h=" + horizon);
+            assertArrayEquals(bruteForce(values, horizon, false), LabelEngine.forwardRollingMin(values, horizon), "min h=" + horizon);
+        }
+    }
+
+    @Test
+    void labelsAreFutureMovesInAtr() {
+        Random random = new Random(11);
+        int n = 200;
+        double[] close = new double[n];
+        double[] high = new double[n];
+        double[] low = new double[n];
+        double[] atr = new double[n];
+        double price = 100;
+        for (int i = 0; i < n; i++) {
+            price += random.nextGaussian();
+            close[i] = price;
+            high[i] = price + random.nextDouble();
+            low[i] = price - random.nextDouble();
+            atr[i] = i == 50 ? 0.0 : 0.5 + random.nextDouble();
+        }
+        BarColumns bars = new BarColumns(new long[n], close.clone(), high, low, close, new double[n]);
+        int[] horizons = {3, 12};
+        LabelEngine.LabelMatrix labels = LabelEngine.volatilityNormalizedLabels(bars, atr, horizons);
+
+        for (int i = 0; i < n; i++) {
+            boolean valid = i + horizons[1] < n && atr[i] >= 1e-6;
+            assertEquals(valid, labels.isValid(i), "бар " + i);
+            for (int h = 0; h < horizons.length; h++) {
+                if (i + horizons[h] >= n || atr[i] < 1e-6) continue;
+                double maxHigh = close[i];
+                double minLow = close[i];
+                for (int j = i + 1; j <= i + horizons[h]; j++) {
+                    maxHigh = Math.max(maxHigh, high[j]);
+                    minLow = Math.min(minLow, low[j]);
+                }
+                assertEquals((maxHigh - close[i]) / atr[i], labels.get(i, h, 0), 1e-12);
+                assertEquals((close[i] - minLow) / atr[i], labels.get(i, h, 1), 1e-12);
+            }
+        }
+        assertFalse(labels.isValid(50));
+        assertTrue(labels.isValid(0));
+    }
+
+    private static double[] bruteForce(double[] values, int horizon, boolean max) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (horizon <= 0 || i + horizon >= values.length) {
+                result[i] = Double.NaN;
+                continue;
+            }
+            double extreme = values[i + 1];
+            for (int j = i + 2; j <= i + horizon; j++) {
+                extreme = max ? Math.max(extreme, values[j]) : Math.min(extreme, values[j]);
+            }
+            result[i] = extreme;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package org.varavin.risk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RiskManagerTest {
+
+    private static final int SBER = 0;
+    private static final int GAZP = 1;
+
+    private static RiskManager manager(long maxPosition) {
+        RiskLimits limits = new RiskLimits(maxPosition, 1.0, 2.0, 2.0, 0.05, Integer.MAX_VALUE);
+        RiskManager risk = new RiskManager(List.of("SBER", "GAZP"), null, limits, 1_000_000, () -> 0L);
+        risk.mark(SBER, 10.0);
+        risk.mark(GAZP, 10.0);
+        return risk;
+    }
+
+    @Test
+    void concurrentChecksNeverReserveMoreThanMaxPosition() throws InterruptedException {
+        RiskManager risk = manager(100);
+        int threads = 16;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1_000; i++) {
+                    if (risk.check(SBER, 1, 10.0).accepted()) accepted.incrementAndGet();
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(100, accepted.get());
+        assertEquals(RiskDecision.MAX_POSITION, risk.check(SBER, 1, 10.0));
+        // Резерв одного инструмента не занимает лимит позиции другого
+        assertEquals(RiskDecision.ACCEPTED, risk.check(GAZP, 100, 10.0));
+    }
+
+    @Test
+    void concurrentReserveAndReleaseLeaveNothingInFlight() throws InterruptedException {
+        RiskManager risk = manager(8);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            workers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    if (risk.check(SBER, 1, 10.0).accepted()) risk.release(SBER, 1);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(RiskDecision.ACCEPTED, risk.check(SBER, 8, 10.0));
+        assertEquals(RiskDecision.MAX_POSITION, risk.check(SBER, 1, 10.0));
+    }
+
+    @Test
+    void releaseDoesNotCrossZero() {
+        RiskManager risk = manager(100);
+        assertEquals(RiskDecision.ACCEPTED, risk.check(SBER, 60, 10.0));
+        risk.release(SBER, 150);
+        // Снятие с другим знаком не трогает резерв
+        risk.release(SBER, -10);
+        assertEquals(RiskDecision.ACCEPTED, risk.check(SBER, 100, 10.0));
+        assertEquals(RiskDecision.MAX_POSITION, risk.check(SBER, 1, 10.0));
+    }
+
+    @Test
+    void reductionOfFilledPositionBypassesLimits() {
+        RiskManager risk = manager(100);
+        assertEquals(RiskDecision.ACCEPTED, risk.check(SBER, 100, 10.0));
+        risk.fill(SBER, 100, 10.0);
+        assertEquals(100, risk.position(SBER));
+        risk.kill();
+        assertEquals(RiskDecision.ACCEPTED, risk.check(SBER, -100, 10.0));
+        assertEquals(RiskDecision.KILL_SWITCH, risk.check(SBER, -101, 10.0));
+        assertEquals(RiskDecision.KILL_SWITCH, risk.check(SBER, 1, 10.0));
+        risk.resume();
+        assertEquals(RiskDecision.MAX_POSITION, risk.check(SBER, 1, 10.0));
+    }
+}